@@ -132,6 +132,7 @@ public class AndroidBinaryGraphEnhancer {
   private final Optional<BuildTarget> nativeLibraryProguardConfigGenerator;
   private final ListeningExecutorService dxExecutorService;
   private final DxConfig dxConfig;
+  private final Optional<DexCache> dexCache;
   private final String dexTool;
   private final AndroidBinaryResourcesGraphEnhancer androidBinaryResourcesGraphEnhancer;
   private final NonPredexedDexBuildableArgs nonPreDexedDexBuildableArgs;
@@ -268,6 +269,10 @@ public class AndroidBinaryGraphEnhancer {
             apkModuleGraph);
     this.apkModuleGraph = apkModuleGraph;
     this.dxConfig = dxConfig;
+    this.dexCache =
+        dxConfig
+            .getDexCacheDir()
+            .map(cacheDir -> new DexCache(cacheDir, dxConfig.getDexCacheMaxSizeBytes()));
     this.nonPreDexedDexBuildableArgs = nonPreDexedDexBuildableArgs;
     this.rulesToExcludeFromDex = rulesToExcludeFromDex;
     this.dexTool = dexTool;
@@ -468,7 +473,8 @@ public class AndroidBinaryGraphEnhancer {
             androidPlatformTarget,
             paramsForDexUberRDotJava,
             compileUberRDotJava,
-            dexTool);
+            dexTool,
+            dexCache);
     graphBuilder.addToIndex(dexUberRDotJava);
 
     ImmutableSet<SourcePath> classpathEntriesToDex =
@@ -636,7 +642,8 @@ public class AndroidBinaryGraphEnhancer {
             dxExecutorService,
             xzCompressionLevel,
             dxConfig.getDxMaxHeapSize(),
-            dexTool);
+            dexTool,
+            dexCache);
     graphBuilder.addToIndex(preDexMerge);
 
     return preDexMerge;
@@ -681,7 +688,8 @@ public class AndroidBinaryGraphEnhancer {
                     androidPlatformTarget,
                     paramsForPreDex,
                     javaLibrary,
-                    dexTool);
+                    dexTool,
+                    dexCache);
               });
       preDexDeps.put(
           apkModuleGraph.findModuleForTarget(buildTarget), (DexProducedFromJavaLibrary) preDexRule);
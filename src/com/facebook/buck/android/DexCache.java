@@ -0,0 +1,397 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.android.toolchain.AndroidPlatformTarget;
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.step.ExecutionContext;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Content-addressed store of dexer outputs, keyed by the hash of the dexed inputs and the options
+ * the dexer ran with.
+ *
+ * <p>The per-output hash files used by {@link SmartDexingStep} and the rule keys of {@link
+ * DexProducedFromJavaLibrary} only remember the last thing that was dexed at a given path, so
+ * switching branches or building a second app with the same libraries dexes identical inputs
+ * again. This cache lives outside of any one rule's output directory and can be shared by all
+ * builds pointing at the same {@code [dx] cache_dir}.
+ *
+ * <p>Every entry is a directory holding the artifacts of one dexer invocation, along with a list
+ * of the artifacts that were stored. Entries are published with an atomic rename, so concurrent
+ * builds never see partial entries. The modification time of an entry's directory is bumped on
+ * every hit, and the least recently used entries are evicted once the cache grows beyond its size
+ * limit. Eviction renames an entry out of the way before deleting it, and a fetch that loses an
+ * artifact listed by the entry to a concurrent eviction is reported as a miss.
+ */
+@ThreadSafe
+public class DexCache {
+
+  private static final Logger LOG = Logger.get(DexCache.class);
+
+  private static final String COUNTER_CATEGORY = "buck_dex_cache";
+
+  /** Bump this whenever the layout of the cache or the contents of its entries change. */
+  private static final int FORMAT_VERSION = 2;
+
+  private static final String TMP_PREFIX = ".tmp-";
+
+  /**
+   * Name of the file listing the artifacts stored in an entry, one per line. Artifact names never
+   * start with a dot, so this can't clash with them.
+   */
+  private static final String ARTIFACT_LIST = ".artifacts";
+
+  /** Once the cache is over its limit, it is trimmed down to this fraction of the limit. */
+  private static final double TRIM_TARGET_RATIO = 0.8;
+
+  private final Path cacheDir;
+  private final long maxSizeBytes;
+
+  private final IntegerCounter hits;
+  private final IntegerCounter misses;
+  private final IntegerCounter stores;
+  private final IntegerCounter evictions;
+  private final AtomicReference<String> countersRegisteredForBuild = new AtomicReference<>();
+
+  /** Estimated size of all entries, or -1 if the cache directory has not been scanned yet. */
+  @GuardedBy("this")
+  private long sizeBytes = -1;
+
+  public DexCache(Path cacheDir, long maxSizeBytes) {
+    Preconditions.checkArgument(cacheDir.isAbsolute(), "%s must be absolute", cacheDir);
+    Preconditions.checkArgument(maxSizeBytes > 0, "Dex cache size must be positive");
+    this.cacheDir = cacheDir;
+    this.maxSizeBytes = maxSizeBytes;
+
+    ImmutableMap<String, String> tags = ImmutableMap.of();
+    hits = new IntegerCounter(COUNTER_CATEGORY, "hits", tags);
+    misses = new IntegerCounter(COUNTER_CATEGORY, "misses", tags);
+    stores = new IntegerCounter(COUNTER_CATEGORY, "stores", tags);
+    evictions = new IntegerCounter(COUNTER_CATEGORY, "evictions", tags);
+  }
+
+  /**
+   * @param inputsHash hash of the contents of everything passed to the dexer, in order.
+   * @param outputPath the path the dexer writes to. Only the file extension is part of the key,
+   *     since it determines how the output is packaged.
+   * @return the key of the cache entry holding the outputs of a dexer invocation.
+   */
+  public static String computeKey(
+      String inputsHash,
+      AndroidPlatformTarget androidPlatformTarget,
+      String dexTool,
+      Set<DxStep.Option> dxOptions,
+      Path outputPath) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putInt(FORMAT_VERSION);
+    putString(hasher, System.getProperty("buck.version_uid", ""));
+    putString(hasher, Strings.nullToEmpty(System.getProperty("buck.dx")));
+    putString(hasher, androidPlatformTarget.getDxExecutable().toString());
+    putString(hasher, dexTool);
+    for (DxStep.Option option : DxStep.Option.values()) {
+      hasher.putBoolean(dxOptions.contains(option));
+    }
+    String fileName = outputPath.getFileName().toString();
+    int extensionStart = fileName.indexOf('.');
+    putString(hasher, extensionStart < 0 ? "" : fileName.substring(extensionStart));
+    putString(hasher, inputsHash);
+    return hasher.hash().toString();
+  }
+
+  private static void putString(Hasher hasher, String value) {
+    hasher.putUnencodedChars(value);
+    hasher.putByte((byte) 0);
+  }
+
+  /**
+   * Copies the artifacts of the given entry into the project, if the entry exists. Artifacts that
+   * were absent when the entry was stored are deleted from the project.
+   *
+   * @param artifacts the project relative destination of each artifact, keyed by a name that is
+   *     stable for the kind of dexer invocation. The first artifact is the dexer output itself,
+   *     which every entry has.
+   * @return whether the entry was found and all of its artifacts were restored.
+   */
+  public boolean fetch(
+      ExecutionContext context,
+      ProjectFilesystem filesystem,
+      String key,
+      ImmutableMap<String, Path> artifacts) {
+    registerCounters(context);
+    Path entryDir = getEntryDir(key);
+    try {
+      Set<String> storedArtifacts = readArtifactList(entryDir);
+      if (storedArtifacts == null
+          || !storedArtifacts.contains(artifacts.keySet().iterator().next())) {
+        misses.inc();
+        return false;
+      }
+      for (Map.Entry<String, Path> artifact : artifacts.entrySet()) {
+        Path destination = filesystem.resolve(artifact.getValue());
+        if (storedArtifacts.contains(artifact.getKey())) {
+          // Throws if the entry is evicted by another build while we are copying it.
+          Files.createDirectories(destination.getParent());
+          Files.copy(
+              entryDir.resolve(artifact.getKey()),
+              destination,
+              StandardCopyOption.REPLACE_EXISTING);
+        } else {
+          Files.deleteIfExists(destination);
+        }
+      }
+      Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // Most likely the entry was evicted by another build while we were copying it.
+      LOG.debug(e, "Failed to fetch dex cache entry %s.", key);
+      misses.inc();
+      return false;
+    }
+    hits.inc();
+    return true;
+  }
+
+  /**
+   * Adds the artifacts of a dexer invocation to the cache. Failures are logged and otherwise
+   * ignored, since the build itself has already succeeded.
+   *
+   * @param artifacts the project relative paths of the artifacts to store, keyed by the names that
+   *     will be passed to {@link #fetch}. Artifacts that don't exist are left out of the entry.
+   */
+  public void store(
+      ExecutionContext context,
+      ProjectFilesystem filesystem,
+      String key,
+      ImmutableMap<String, Path> artifacts) {
+    registerCounters(context);
+    Path entryDir = getEntryDir(key);
+    if (Files.isDirectory(entryDir)) {
+      return;
+    }
+
+    Path tmpDir = cacheDir.resolve(TMP_PREFIX + UUID.randomUUID());
+    long entrySize = 0;
+    try {
+      Files.createDirectories(tmpDir);
+      List<String> storedArtifacts = new ArrayList<>();
+      for (Map.Entry<String, Path> artifact : artifacts.entrySet()) {
+        Path source = filesystem.resolve(artifact.getValue());
+        if (Files.exists(source)) {
+          Path destination = tmpDir.resolve(artifact.getKey());
+          Files.copy(source, destination);
+          entrySize += Files.size(destination);
+          storedArtifacts.add(artifact.getKey());
+        }
+      }
+      Path artifactList = tmpDir.resolve(ARTIFACT_LIST);
+      Files.write(artifactList, storedArtifacts, StandardCharsets.UTF_8);
+      entrySize += Files.size(artifactList);
+      Files.createDirectories(entryDir.getParent());
+      Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+      // Another build stored the same entry first.
+      entrySize = 0;
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to store dex cache entry %s.", key);
+      entrySize = 0;
+    } finally {
+      try {
+        MostFiles.deleteRecursivelyIfExists(tmpDir);
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to delete %s.", tmpDir);
+      }
+    }
+
+    if (entrySize > 0) {
+      stores.inc();
+      addToSize(entrySize);
+    }
+  }
+
+  /**
+   * Registers the counters of this cache with the build the given context belongs to. The cache
+   * can outlive builds, so this has to be done once per build.
+   */
+  private void registerCounters(ExecutionContext context) {
+    String buildId = context.getBuildId().toString();
+    if (!buildId.equals(countersRegisteredForBuild.getAndSet(buildId))) {
+      context.postEvent(
+          new CounterRegistry.AsyncCounterRegistrationEvent(
+              ImmutableList.<Counter>of(hits, misses, stores, evictions)));
+    }
+  }
+
+  private Path getEntryDir(String key) {
+    return cacheDir.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  /** @return the names of the artifacts stored in the given entry, or null if there is no entry. */
+  @Nullable
+  private static Set<String> readArtifactList(Path entryDir) throws IOException {
+    try {
+      return ImmutableSet.copyOf(
+          Files.readAllLines(entryDir.resolve(ARTIFACT_LIST), StandardCharsets.UTF_8));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Atomically moves an entry out of the way, so that concurrent fetches either see all of it or
+   * none of it, and then deletes it.
+   */
+  private void evict(Path entryDir) throws IOException {
+    Path tmpDir = cacheDir.resolve(TMP_PREFIX + UUID.randomUUID());
+    try {
+      Files.move(entryDir, tmpDir, StandardCopyOption.ATOMIC_MOVE);
+    } catch (NoSuchFileException e) {
+      // Already evicted by another build.
+      return;
+    }
+    MostFiles.deleteRecursivelyIfExists(tmpDir);
+  }
+
+  private synchronized void addToSize(long bytes) {
+    if (sizeBytes < 0) {
+      // The scan already includes the entry that was just stored.
+      trim();
+      return;
+    }
+    sizeBytes += bytes;
+    if (sizeBytes > maxSizeBytes) {
+      trim();
+    }
+  }
+
+  /**
+   * Rescans the cache directory and deletes the least recently used entries until the cache is
+   * below its limit again. Other builds may add or remove entries concurrently, so the scan is the
+   * only reliable source for the size of the cache.
+   */
+  @GuardedBy("this")
+  private void trim() {
+    List<CacheEntry> entries;
+    try {
+      entries = scanEntries();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to scan dex cache at %s.", cacheDir);
+      return;
+    }
+
+    long totalSize = entries.stream().mapToLong(entry -> entry.size).sum();
+    if (totalSize > maxSizeBytes) {
+      long targetSize = (long) (maxSizeBytes * TRIM_TARGET_RATIO);
+      entries.sort(Comparator.comparing(entry -> entry.lastUsed));
+      for (CacheEntry entry : entries) {
+        if (totalSize <= targetSize) {
+          break;
+        }
+        try {
+          evict(entry.dir);
+          totalSize -= entry.size;
+          evictions.inc();
+        } catch (IOException e) {
+          LOG.debug(e, "Failed to evict dex cache entry %s.", entry.dir);
+        }
+      }
+    }
+    sizeBytes = totalSize;
+  }
+
+  @VisibleForTesting
+  List<CacheEntry> scanEntries() throws IOException {
+    List<CacheEntry> entries = new ArrayList<>();
+    if (!Files.isDirectory(cacheDir)) {
+      return entries;
+    }
+    try (DirectoryStream<Path> buckets = Files.newDirectoryStream(cacheDir)) {
+      for (Path bucket : buckets) {
+        if (bucket.getFileName().toString().startsWith(TMP_PREFIX)
+            || !Files.isDirectory(bucket)) {
+          continue;
+        }
+        try (DirectoryStream<Path> entryDirs = Files.newDirectoryStream(bucket)) {
+          for (Path entryDir : entryDirs) {
+            try {
+              entries.add(readEntry(entryDir));
+            } catch (NoSuchFileException e) {
+              // Evicted by another build while we were looking at it.
+            }
+          }
+        }
+      }
+    }
+    return entries;
+  }
+
+  private static CacheEntry readEntry(Path entryDir) throws IOException {
+    FileTime lastUsed = Files.getLastModifiedTime(entryDir);
+    long size = 0;
+    try (DirectoryStream<Path> artifacts = Files.newDirectoryStream(entryDir)) {
+      for (Path artifact : artifacts) {
+        size += Files.readAttributes(artifact, BasicFileAttributes.class).size();
+      }
+    }
+    return new CacheEntry(entryDir, lastUsed, size);
+  }
+
+  @VisibleForTesting
+  static class CacheEntry {
+    final Path dir;
+    final FileTime lastUsed;
+    final long size;
+
+    CacheEntry(Path dir, FileTime lastUsed, long size) {
+      this.dir = dir;
+      this.lastUsed = lastUsed;
+      this.size = size;
+    }
+  }
+}
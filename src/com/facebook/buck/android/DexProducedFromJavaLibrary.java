@@ -36,10 +36,13 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.core.JavaLibrary;
 import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.step.StepFailedException;
+import com.facebook.buck.step.StepRunner;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.step.fs.RmStep;
 import com.facebook.buck.util.json.ObjectMappers;
@@ -49,6 +52,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
@@ -89,6 +93,7 @@ public class DexProducedFromJavaLibrary extends AbstractBuildRuleWithDeclaredAnd
   private final AndroidPlatformTarget androidPlatformTarget;
   private final JavaLibrary javaLibrary;
   private final BuildOutputInitializer<BuildOutput> buildOutputInitializer;
+  private final Optional<DexCache> dexCache;
 
   DexProducedFromJavaLibrary(
       BuildTarget buildTarget,
@@ -106,12 +111,31 @@ public class DexProducedFromJavaLibrary extends AbstractBuildRuleWithDeclaredAnd
       BuildRuleParams params,
       JavaLibrary javaLibrary,
       String dexTool) {
+    this(
+        buildTarget,
+        projectFilesystem,
+        androidPlatformTarget,
+        params,
+        javaLibrary,
+        dexTool,
+        Optional.empty());
+  }
+
+  DexProducedFromJavaLibrary(
+      BuildTarget buildTarget,
+      ProjectFilesystem projectFilesystem,
+      AndroidPlatformTarget androidPlatformTarget,
+      BuildRuleParams params,
+      JavaLibrary javaLibrary,
+      String dexTool,
+      Optional<DexCache> dexCache) {
     super(buildTarget, projectFilesystem, params);
     this.androidPlatformTarget = androidPlatformTarget;
     this.javaLibrary = javaLibrary;
     this.dexTool = dexTool;
     this.javaLibrarySourcePath = javaLibrary.getSourcePathToOutput();
     this.buildOutputInitializer = new BuildOutputInitializer<>(buildTarget, this);
+    this.dexCache = dexCache;
   }
 
   @Override
@@ -136,8 +160,7 @@ public class DexProducedFromJavaLibrary extends AbstractBuildRuleWithDeclaredAnd
     ImmutableSortedMap<String, HashCode> classNamesToHashes = javaLibrary.getClassNamesToHashes();
     boolean hasClassesToDx = !classNamesToHashes.isEmpty();
     Supplier<Integer> weightEstimate;
-
-    @Nullable DxStep dx;
+    Supplier<Collection<String>> referencedResourcesSupplier;
 
     if (hasClassesToDx) {
       Path pathToOutputFile =
@@ -149,30 +172,48 @@ public class DexProducedFromJavaLibrary extends AbstractBuildRuleWithDeclaredAnd
 
       // To be conservative, use --force-jumbo for these intermediate .dex files so that they can be
       // merged into a final classes.dex that uses jumbo instructions.
-      dx =
+      EnumSet<DxStep.Option> dxOptions =
+          EnumSet.of(
+              DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE,
+              DxStep.Option.RUN_IN_PROCESS,
+              DxStep.Option.NO_OPTIMIZE,
+              DxStep.Option.FORCE_JUMBO);
+      DxStep dx =
           new DxStep(
               getBuildTarget(),
               getProjectFilesystem(),
               androidPlatformTarget,
               getPathToDex(),
               Collections.singleton(pathToOutputFile),
-              EnumSet.of(
-                  DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE,
-                  DxStep.Option.RUN_IN_PROCESS,
-                  DxStep.Option.NO_OPTIMIZE,
-                  DxStep.Option.FORCE_JUMBO),
+              dxOptions,
               Optional.empty(),
               dexTool,
               dexTool.equals(DxStep.D8));
-      steps.add(dx);
 
       // The `DxStep` delegates to android tools to build a ZIP with timestamps in it, making
       // the output non-deterministic.  So use an additional scrubbing step to zero these out.
-      steps.add(ZipScrubberStep.of(getProjectFilesystem().resolve(getPathToDex())));
+      ImmutableList<Step> dexSteps =
+          ImmutableList.of(dx, ZipScrubberStep.of(getProjectFilesystem().resolve(getPathToDex())));
+
+      if (dexCache.isPresent()) {
+        String cacheKey =
+            DexCache.computeKey(
+                computeAbiKey(classNamesToHashes).toString(),
+                androidPlatformTarget,
+                dexTool,
+                dxOptions,
+                getPathToDex());
+        CachedDexStep cachedDexStep = new CachedDexStep(dexCache.get(), cacheKey, dx, dexSteps);
+        steps.add(cachedDexStep);
+        referencedResourcesSupplier = cachedDexStep::getReferencedResources;
+      } else {
+        steps.addAll(dexSteps);
+        referencedResourcesSupplier = dx::getResourcesReferencedInCode;
+      }
 
     } else {
-      dx = null;
       weightEstimate = Suppliers.ofInstance(0);
+      referencedResourcesSupplier = () -> null;
     }
 
     // Run a step to record artifacts and metadata. The values recorded depend upon whether dx was
@@ -185,7 +226,7 @@ public class DexProducedFromJavaLibrary extends AbstractBuildRuleWithDeclaredAnd
             if (hasClassesToDx) {
               buildableContext.recordArtifact(getPathToDex());
 
-              @Nullable Collection<String> referencedResources = dx.getResourcesReferencedInCode();
+              @Nullable Collection<String> referencedResources = referencedResourcesSupplier.get();
               if (referencedResources != null) {
                 writeMetadataValues(
                     buildableContext,
@@ -212,6 +253,74 @@ public class DexProducedFromJavaLibrary extends AbstractBuildRuleWithDeclaredAnd
     return steps.build();
   }
 
+  /**
+   * Restores the output of dx from the {@link DexCache} if the same classes were dexed before, and
+   * runs dx and adds its output to the cache otherwise.
+   */
+  private class CachedDexStep extends AbstractExecutionStep {
+    private final DexCache cache;
+    private final String cacheKey;
+    private final DxStep dx;
+    private final ImmutableList<Step> dexSteps;
+    @Nullable private Collection<String> referencedResources;
+
+    CachedDexStep(DexCache cache, String cacheKey, DxStep dx, ImmutableList<Step> dexSteps) {
+      super("cached_dx");
+      this.cache = cache;
+      this.cacheKey = cacheKey;
+      this.dx = dx;
+      this.dexSteps = dexSteps;
+    }
+
+    @Override
+    public StepExecutionResult execute(ExecutionContext context)
+        throws IOException, InterruptedException {
+      ProjectFilesystem filesystem = getProjectFilesystem();
+      Path referencedResourcesPath =
+          BuildTargets.getScratchPath(
+              filesystem, getBuildTarget(), "%s/" + REFERENCED_RESOURCES + ".json");
+      ImmutableMap<String, Path> artifacts =
+          ImmutableMap.of("dex", getPathToDex(), REFERENCED_RESOURCES, referencedResourcesPath);
+
+      if (cache.fetch(context, filesystem, cacheKey, artifacts)) {
+        Optional<String> json = filesystem.readFileIfItExists(referencedResourcesPath);
+        if (json.isPresent()) {
+          referencedResources =
+              ObjectMappers.readValue(json.get(), new TypeReference<ImmutableList<String>>() {});
+        }
+        return StepExecutionResults.SUCCESS;
+      }
+
+      StepRunner stepRunner = new DefaultStepRunner();
+      try {
+        for (Step step : dexSteps) {
+          stepRunner.runStepForBuildTarget(context, step, Optional.of(getBuildTarget()));
+        }
+      } catch (StepFailedException e) {
+        context.logError(e, "Failed to dex %s.", javaLibrarySourcePath);
+        return StepExecutionResults.ERROR;
+      }
+
+      referencedResources = dx.getResourcesReferencedInCode();
+      if (referencedResources != null) {
+        filesystem.mkdirs(referencedResourcesPath.getParent());
+        filesystem.writeContentsToPath(
+            ObjectMappers.WRITER.writeValueAsString(
+                Ordering.natural().immutableSortedCopy(referencedResources)),
+            referencedResourcesPath);
+      } else {
+        filesystem.deleteFileAtPathIfExists(referencedResourcesPath);
+      }
+      cache.store(context, filesystem, cacheKey, artifacts);
+      return StepExecutionResults.SUCCESS;
+    }
+
+    @Nullable
+    Collection<String> getReferencedResources() {
+      return referencedResources;
+    }
+  }
+
   @Override
   public BuildOutput initializeFromDisk() throws IOException {
     int weightEstimate =
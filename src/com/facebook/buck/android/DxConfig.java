@@ -17,11 +17,15 @@
 package com.facebook.buck.android;
 
 import com.facebook.buck.config.BuckConfig;
+import com.facebook.buck.util.unit.SizeUnit;
+import java.nio.file.Path;
 import java.util.Optional;
 import java.util.OptionalInt;
 
 public class DxConfig {
 
+  private static final long DEFAULT_DEX_CACHE_MAX_SIZE_BYTES = 2L * 1024 * 1024 * 1024;
+
   private final BuckConfig delegate;
 
   public DxConfig(BuckConfig delegate) {
@@ -46,4 +50,22 @@ public class DxConfig {
   public OptionalInt getDxMaxThreadCount() {
     return delegate.getInteger("dx", "max_threads");
   }
+
+  /**
+   * @return The directory of the content-addressed dex cache shared by all builds, if enabled.
+   *     Relative paths are resolved against the project root.
+   */
+  public Optional<Path> getDexCacheDir() {
+    return delegate
+        .getPath("dx", "cache_dir", /* isCellRootRelative */ false)
+        .map(delegate::resolveNonNullPathOutsideTheProjectFilesystem);
+  }
+
+  /** @return The size beyond which least recently used entries are evicted from the dex cache. */
+  public long getDexCacheMaxSizeBytes() {
+    return delegate
+        .getValue("dx", "cache_max_size")
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_DEX_CACHE_MAX_SIZE_BYTES);
+  }
 }
@@ -883,7 +883,8 @@ class NonPreDexedDexBuildable extends AbstractBuildRule {
             dxExecutorService,
             xzCompressionLevel,
             dxMaxHeapSize,
-            dexTool);
+            dexTool,
+            /* dexCache */ Optional.empty());
     steps.add(smartDexingCommand);
 
     if (reorderClassesIntraDex) {
@@ -106,6 +106,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
   private final ListeningExecutorService dxExecutorService;
   private final OptionalInt xzCompressionLevel;
   private final Optional<String> dxMaxHeapSize;
+  private final Optional<DexCache> dexCache;
 
   public PreDexMerge(
       BuildTarget buildTarget,
@@ -119,7 +120,8 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
       ListeningExecutorService dxExecutorService,
       OptionalInt xzCompressionLevel,
       Optional<String> dxMaxHeapSize,
-      String dexTool) {
+      String dexTool,
+      Optional<DexCache> dexCache) {
     super(buildTarget, projectFilesystem, params);
     this.androidPlatformTarget = androidPlatformTarget;
     this.dexSplitMode = dexSplitMode;
@@ -130,6 +132,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
     this.xzCompressionLevel = xzCompressionLevel;
     this.dxMaxHeapSize = dxMaxHeapSize;
     this.dexTool = dexTool;
+    this.dexCache = dexCache;
   }
 
   @Override
@@ -340,7 +343,8 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps {
             dxExecutorService,
             xzCompressionLevel,
             dxMaxHeapSize,
-            dexTool));
+            dexTool,
+            dexCache));
 
     for (PreDexedFilesSorter.Result result : sortResults.values()) {
       if (!result.apkModule.equals(apkModuleGraph.getRootAPKModule())) {
@@ -97,6 +97,7 @@ public class SmartDexingStep implements Step {
   private final Optional<String> dxMaxHeapSize;
   private final BuildTarget target;
   private final String dexTool;
+  private final Optional<DexCache> dexCache;
 
   /**
    * @param primaryOutputPath Path for the primary dex artifact.
@@ -109,6 +110,7 @@ public class SmartDexingStep implements Step {
    *     invocation will be started with the corresponding jar files (value) as the input.
    * @param successDir Directory where success artifacts are written.
    * @param executorService The thread pool to execute the dx command on.
+   * @param dexCache Shared cache to restore dx outputs from instead of running dx, if enabled.
    */
   public SmartDexingStep(
       BuildTarget target,
@@ -125,7 +127,8 @@ public class SmartDexingStep implements Step {
       ListeningExecutorService executorService,
       OptionalInt xzCompressionLevel,
       Optional<String> dxMaxHeapSize,
-      String dexTool) {
+      String dexTool,
+      Optional<DexCache> dexCache) {
     this.target = target;
     this.androidPlatformTarget = androidPlatformTarget;
     this.buildContext = buildContext;
@@ -148,6 +151,7 @@ public class SmartDexingStep implements Step {
     this.xzCompressionLevel = xzCompressionLevel;
     this.dxMaxHeapSize = dxMaxHeapSize;
     this.dexTool = dexTool;
+    this.dexCache = dexCache;
   }
 
   /**
@@ -228,17 +232,15 @@ public class SmartDexingStep implements Step {
     DefaultStepRunner stepRunner = new DefaultStepRunner();
     // Invoke dx commands in parallel for maximum thread utilization.  In testing, dx revealed
     // itself to be CPU (and not I/O) bound making it a good candidate for parallelization.
-    Stream<ImmutableList<Step>> dxSteps = generateDxCommands(filesystem, outputToInputs);
+    Stream<DxPseudoRule> dxPseudoRules = generateDxCommands(filesystem, outputToInputs);
 
     ImmutableList<Callable<Void>> callables =
-        dxSteps
+        dxPseudoRules
             .map(
-                steps ->
+                dxPseudoRule ->
                     (Callable<Void>)
                         () -> {
-                          for (Step step : steps) {
-                            stepRunner.runStepForBuildTarget(context, step, Optional.empty());
-                          }
+                          dxPseudoRule.run(context, stepRunner);
                           return null;
                         })
             .collect(ImmutableList.toImmutableList());
@@ -300,7 +302,7 @@ public class SmartDexingStep implements Step {
    * Once the {@code .class} files have been split into separate zip files, each must be converted
    * to a {@code .dex} file.
    */
-  private Stream<ImmutableList<Step>> generateDxCommands(
+  private Stream<DxPseudoRule> generateDxCommands(
       ProjectFilesystem filesystem, Multimap<Path, Path> outputToInputs) {
 
     ImmutableMap<Path, Sha1HashCode> dexInputHashes = dexInputHashesProvider.getDexInputHashes();
@@ -323,14 +325,9 @@ public class SmartDexingStep implements Step {
                     dxOptions,
                     xzCompressionLevel,
                     dxMaxHeapSize,
-                    dexTool))
-        .filter(dxPseudoRule -> !dxPseudoRule.checkIsCached())
-        .map(
-            dxPseudoRule -> {
-              ImmutableList.Builder<Step> steps = ImmutableList.builder();
-              dxPseudoRule.buildInternal(steps);
-              return steps.build();
-            });
+                    dexTool,
+                    dexCache))
+        .filter(dxPseudoRule -> !dxPseudoRule.checkIsCached());
   }
 
   /**
@@ -341,6 +338,9 @@ public class SmartDexingStep implements Step {
    * inputs. This is because the input zip files are guaranteed to have changed on the filesystem
    * (ZipSplitter will always write them out even if the same), but the contents contained in the
    * zip may not have changed.
+   *
+   * <p>When the output isn't up to date, it is restored from the {@link DexCache} if another build
+   * already dexed the same inputs with the same options.
    */
   @VisibleForTesting
   static class DxPseudoRule {
@@ -357,6 +357,7 @@ public class SmartDexingStep implements Step {
     private final OptionalInt xzCompressionLevel;
     private final Optional<String> dxMaxHeapSize;
     private final String dexTool;
+    private final Optional<DexCache> dexCache;
 
     public DxPseudoRule(
         BuildTarget target,
@@ -370,7 +371,8 @@ public class SmartDexingStep implements Step {
         EnumSet<Option> dxOptions,
         OptionalInt xzCompressionLevel,
         Optional<String> dxMaxHeapSize,
-        String dexTool) {
+        String dexTool,
+        Optional<DexCache> dexCache) {
       this.target = target;
       this.androidPlatformTarget = androidPlatformTarget;
       this.buildContext = buildContext;
@@ -383,6 +385,7 @@ public class SmartDexingStep implements Step {
       this.xzCompressionLevel = xzCompressionLevel;
       this.dxMaxHeapSize = dxMaxHeapSize;
       this.dexTool = dexTool;
+      this.dexCache = dexCache;
     }
 
     /**
@@ -420,6 +423,38 @@ public class SmartDexingStep implements Step {
       return newInputsHash.equals(currentInputsHash);
     }
 
+    private void run(ExecutionContext context, StepRunner stepRunner)
+        throws StepFailedException, InterruptedException {
+      Preconditions.checkState(newInputsHash != null, "Must call checkIsCached first!");
+
+      if (!dexCache.isPresent()) {
+        runSteps(context, stepRunner);
+        return;
+      }
+
+      String cacheKey =
+          DexCache.computeKey(newInputsHash, androidPlatformTarget, dexTool, dxOptions, outputPath);
+      ImmutableMap<String, Path> artifacts = getDexCacheArtifacts(outputPath);
+      if (dexCache.get().fetch(context, filesystem, cacheKey, artifacts)) {
+        stepRunner.runStepForBuildTarget(
+            context,
+            new WriteFileStep(filesystem, newInputsHash, outputHashPath, /* executable */ false),
+            Optional.empty());
+        return;
+      }
+      runSteps(context, stepRunner);
+      dexCache.get().store(context, filesystem, cacheKey, artifacts);
+    }
+
+    private void runSteps(ExecutionContext context, StepRunner stepRunner)
+        throws StepFailedException, InterruptedException {
+      ImmutableList.Builder<Step> steps = ImmutableList.builder();
+      buildInternal(steps);
+      for (Step step : steps.build()) {
+        stepRunner.runStepForBuildTarget(context, step, Optional.empty());
+      }
+    }
+
     private void buildInternal(ImmutableList.Builder<Step> steps) {
       Preconditions.checkState(newInputsHash != null, "Must call checkIsCached first!");
 
@@ -440,6 +475,24 @@ public class SmartDexingStep implements Step {
     }
   }
 
+  /**
+   * @return The files left behind by the steps of {@link #createDxStepForDxPseudoRule} for the given
+   *     output path, keyed by their names in a {@link DexCache} entry. The dex output comes first.
+   */
+  @VisibleForTesting
+  static ImmutableMap<String, Path> getDexCacheArtifacts(Path outputPath) {
+    Path metaPath;
+    if (DexStore.XZ.matchesPath(outputPath)) {
+      Path repackedJar = Paths.get(outputPath.toString().replaceAll("\\.xz$", ""));
+      metaPath = repackedJar.resolveSibling(repackedJar.getFileName() + ".meta");
+    } else if (DexStore.XZS.matchesPath(outputPath) || DexStore.JAR.matchesPath(outputPath)) {
+      metaPath = outputPath.resolveSibling(outputPath.getFileName() + ".meta");
+    } else {
+      return ImmutableMap.of("dex", outputPath);
+    }
+    return ImmutableMap.of("dex", outputPath, "meta", metaPath);
+  }
+
   /**
    * The step to produce the .dex file will be determined by the file extension of outputPath, much
    * as {@code dx} itself chooses whether to embed the dex inside a jar/zip based on the destination
@@ -17,6 +17,7 @@
 package com.facebook.buck.android.resources;
 
 import com.facebook.buck.util.zip.DeterministicZipBuilder;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
@@ -46,6 +47,12 @@ public class ResourcesZipBuilder implements Closeable {
     hasManifest = false;
   }
 
+  public ResourcesZipBuilder(Path path, ListeningExecutorService executorService)
+      throws IOException {
+    builder = new DeterministicZipBuilder(path, executorService);
+    hasManifest = false;
+  }
+
   public void addEntry(
       InputStream stream,
       long size,
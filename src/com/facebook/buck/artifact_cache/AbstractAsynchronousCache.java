@@ -38,6 +38,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
@@ -399,6 +400,8 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
                     info.getRuleKeys(), e.getClass().getName(), e.getMessage());
             requestEvents.failed(e, msg);
             throw new RuntimeException(e);
+          } finally {
+            releasePathForArtifact(output, tmp);
           }
         });
   }
@@ -414,6 +417,8 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         ImmutableList.builderWithExpectedSize(artifacts.size());
     ImmutableList.Builder<Long> artifactSizesInBytesBuilder =
         ImmutableList.builderWithExpectedSize(artifacts.size());
+    ImmutableList.Builder<BorrowablePath> matchedOutputsBuilder =
+        ImmutableList.builderWithExpectedSize(artifacts.size());
 
     for (int i = 0; i < artifacts.size(); i++) {
       BorrowablePath output = artifacts.get(i).getSecond();
@@ -436,9 +441,11 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
 
       matchedArtifactsBuilder.add(new Pair<>(info, tmp));
       artifactSizesInBytesBuilder.add(artifactSizeBytes);
+      matchedOutputsBuilder.add(output);
     }
 
     ImmutableList<Pair<ArtifactInfo, Path>> matchedArtifacts = matchedArtifactsBuilder.build();
+    ImmutableList<BorrowablePath> matchedOutputs = matchedOutputsBuilder.build();
 
     if (matchedArtifacts.isEmpty()) {
       return Futures.immediateFuture(null);
@@ -474,6 +481,8 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
                       e.getMessage());
               requestEvents.failed(e, msg);
               throw new RuntimeException(e);
+            } finally {
+              releasePathForArtifact(matchedOutputs.get(i), matchedArtifacts.get(i).getSecond());
             }
           }
 
@@ -507,11 +516,32 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
       tmp = output.getPath();
     } else {
       tmp = projectFilesystem.createTempFile("artifact", ".tmp");
-      projectFilesystem.copyFile(output.getPath(), tmp);
+      // Artifacts can be hundreds of megabytes, and the store only reads them, so a hard link is
+      // enough to keep the contents around if the original is deleted before the store runs.
+      try {
+        Files.delete(projectFilesystem.resolve(tmp));
+        Files.createLink(
+            projectFilesystem.resolve(tmp), projectFilesystem.resolve(output.getPath()));
+      } catch (IOException | UnsupportedOperationException e) {
+        LOG.verbose(e, "Failed to hard link %s, copying it instead.", output.getPath());
+        projectFilesystem.copyFile(output.getPath(), tmp);
+      }
     }
     return tmp;
   }
 
+  /** Removes the copy {@link #getPathForArtifact} made of an output that couldn't be borrowed. */
+  private void releasePathForArtifact(BorrowablePath output, Path tmp) {
+    if (output.canBorrow()) {
+      return;
+    }
+    try {
+      projectFilesystem.deleteFileAtPathIfExists(tmp);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to delete temporary artifact %s", tmp);
+    }
+  }
+
   private boolean artifactExceedsMaximumSize(long artifactSizeBytes) {
     if (!maxStoreSize.isPresent()) {
       return false;
@@ -19,7 +19,6 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.util.hash.HasherInputStream;
-import com.facebook.buck.util.hash.HasherOutputStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
@@ -38,6 +37,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
 /** Implements the binary protocol used by Buck to talk to the cache server. */
@@ -46,6 +48,12 @@ public class HttpArtifactCacheBinaryProtocol {
   private static final HashFunction HASH_FUNCTION = Hashing.crc32();
   // 64MB should be enough for everyone.
   private static final long MAX_METADATA_HEADER_SIZE = 64 * 1024 * 1024;
+  // Payloads are often hundreds of megabytes, so copy them in large chunks to keep the number of
+  // reads, writes and checksum updates down. Chunks larger than okio's segment pool make writes to
+  // an okhttp request allocate new segments, though.
+  private static final int PAYLOAD_BUFFER_SIZE = 64 * 1024;
+  private static final ThreadLocal<byte[]> PAYLOAD_BUFFER =
+      ThreadLocal.withInitial(() -> new byte[PAYLOAD_BUFFER_SIZE]);
 
   private HttpArtifactCacheBinaryProtocol() {
     // Utility class, don't instantiate.
@@ -124,14 +132,21 @@ public class HttpArtifactCacheBinaryProtocol {
     }
 
     // The remaining data is the payload, which we write to the created file, and also include
-    // in our verification checksum.
+    // in our verification checksum. Both checksums are updated from the same buffer the payload is
+    // copied through, rather than by layering hashing streams on top of each other.
     Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
-    try (InputStream payload =
-        new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
-      result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
+    byte[] buffer = PAYLOAD_BUFFER.get();
+    long payloadSize = 0;
+    try (InputStream payload = input) {
+      for (int read = payload.read(buffer); read != -1; read = payload.read(buffer)) {
+        hasher.putBytes(buffer, 0, read);
+        artifactOnlyHasher.putBytes(buffer, 0, read);
+        payloadSink.write(buffer, 0, read);
+        payloadSize += read;
+      }
     }
-
+    result.setResponseSizeBytes(payloadSize);
+    result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
     result.setActualHashCode(hasher.hash());
 
     return result.build();
@@ -155,8 +170,8 @@ public class HttpArtifactCacheBinaryProtocol {
       throws IOException {
 
     ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
-    Hasher hasher = HASH_FUNCTION.newHasher();
-    try (DataOutputStream out = new DataOutputStream(new HasherOutputStream(hasher, rawOut))) {
+    CRC32 checksum = new CRC32();
+    try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(rawOut, checksum))) {
 
       // Write the rule keys to the raw metadata, including them in the end-to-end checksum.
       out.writeInt(ruleKeys.size());
@@ -178,10 +193,15 @@ public class HttpArtifactCacheBinaryProtocol {
     }
 
     // Add the file data contents to the end-to-end checksum.
-    data.copyTo(new HasherOutputStream(hasher, ByteStreams.nullOutputStream()));
+    byte[] buffer = PAYLOAD_BUFFER.get();
+    try (InputStream payload = data.openStream()) {
+      for (int read = payload.read(buffer); read != -1; read = payload.read(buffer)) {
+        checksum.update(buffer, 0, read);
+      }
+    }
 
     // Finish the checksum, adding it to the raw metadata
-    rawOut.write(hasher.hash().asBytes());
+    rawOut.write(toHashCode(checksum).asBytes());
 
     // Finally, base64 encode the raw bytes to make usable in a HTTP header.
     byte[] bytes = rawOut.toByteArray();
@@ -191,6 +211,36 @@ public class HttpArtifactCacheBinaryProtocol {
     return bytes;
   }
 
+  /** @return the same hash code as {@link #HASH_FUNCTION} does for the checksummed data. */
+  private static HashCode toHashCode(CRC32 checksum) {
+    return HashCode.fromInt((int) checksum.getValue());
+  }
+
+  /** Copies the payload in large chunks, without allocating a buffer for every copy. */
+  private static long copyPayload(ByteSource data, OutputStream sink) throws IOException {
+    return copyPayload(data, sink, null);
+  }
+
+  /**
+   * Copies the payload like {@link #copyPayload(ByteSource, OutputStream)}, updating {@code
+   * checksum} with the bytes that were actually written, if given.
+   */
+  private static long copyPayload(ByteSource data, OutputStream sink, @Nullable CRC32 checksum)
+      throws IOException {
+    byte[] buffer = PAYLOAD_BUFFER.get();
+    long copied = 0;
+    try (InputStream payload = data.openStream()) {
+      for (int read = payload.read(buffer); read != -1; read = payload.read(buffer)) {
+        if (checksum != null) {
+          checksum.update(buffer, 0, read);
+        }
+        sink.write(buffer, 0, read);
+        copied += read;
+      }
+    }
+    return copied;
+  }
+
   public static class StoreRequest {
     private final ByteSource payloadSource;
     private final byte[] rawKeys;
@@ -216,11 +266,10 @@ public class HttpArtifactCacheBinaryProtocol {
         dataOutputStream.write(rawKeys);
         dataOutputStream.writeInt(rawMetadata.length);
         dataOutputStream.write(rawMetadata);
-        Hasher hasher = HASH_FUNCTION.newHasher();
-        try (InputStream is = new HasherInputStream(hasher, payloadSource.openBufferedStream())) {
-          result.setArtifactSizeBytes(ByteStreams.copy(is, dataOutputStream));
-          result.setArtifactContentHashCode(hasher.hash());
-        }
+        CRC32 artifactContentChecksum = new CRC32();
+        result.setArtifactSizeBytes(
+            copyPayload(payloadSource, dataOutputStream, artifactContentChecksum));
+        result.setArtifactContentHashCode(toHashCode(artifactContentChecksum));
       }
       return result.build();
     }
@@ -249,7 +298,7 @@ public class HttpArtifactCacheBinaryProtocol {
       try (DataOutputStream dataOutputStream = new DataOutputStream(responseSink)) {
         dataOutputStream.writeInt(rawMetadata.length);
         dataOutputStream.write(rawMetadata);
-        payloadSource.copyTo(responseSink);
+        copyPayload(payloadSource, responseSink);
       }
     }
   }
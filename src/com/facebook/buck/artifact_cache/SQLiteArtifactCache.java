@@ -35,9 +35,12 @@ import com.facebook.buck.util.types.Pair;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
 import com.google.common.hash.HashCode;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
@@ -58,12 +61,23 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 import org.sqlite.BusyHandler;
 import org.sqlite.SQLiteConfig;
@@ -74,6 +88,11 @@ import org.sqlite.SQLiteConfig;
  * <p>Cache entries are either metadata or content. All metadata contains a mapping to a content
  * entry. Content entries with sufficiently small content will have their artifacts inlined into the
  * database for improved performance.
+ *
+ * <p>Entries may be spread over several independent databases ("shards") keyed by a prefix of the
+ * rule key, so that concurrent fetches and stores of unrelated keys do not contend on a single
+ * connection. Access-time updates and metadata stores are buffered per shard and written out in
+ * batched transactions.
  */
 public class SQLiteArtifactCache implements ArtifactCache {
 
@@ -85,6 +104,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private static final String TMP_EXTENSION = ".tmp";
   private static final long DEFAULT_MAX_INLINED_BYTES = 40;
   private static final Duration DEFAULT_EVICTION_TIME = Duration.ofDays(7);
+  private static final int DEFAULT_SHARD_COUNT = 1;
+  private static final int READ_CONNECTIONS_PER_SHARD = 4;
+  // Buffered writes are flushed once a shard has this many of them, or once the oldest is this old.
+  private static final int MAX_PENDING_WRITES = 256;
+  private static final Duration MAX_PENDING_WRITE_AGE = Duration.ofSeconds(1);
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -95,7 +119,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private final long maxInlinedBytes;
   private final CacheReadMode cacheMode;
 
-  private final ConnectionInfo db;
+  private final ConnectionInfo[] shards;
 
   static {
     SQLiteUtils.initialize();
@@ -110,6 +134,28 @@ public class SQLiteArtifactCache implements ArtifactCache {
       Optional<Long> maxInlinedSizeBytes,
       CacheReadMode cacheMode)
       throws IOException, SQLException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        eventBus,
+        maxCacheSizeBytes,
+        maxInlinedSizeBytes,
+        cacheMode,
+        DEFAULT_SHARD_COUNT);
+  }
+
+  SQLiteArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      BuckEventBus eventBus,
+      Optional<Long> maxCacheSizeBytes,
+      Optional<Long> maxInlinedSizeBytes,
+      CacheReadMode cacheMode,
+      int shardCount)
+      throws IOException, SQLException {
+    Preconditions.checkArgument(shardCount > 0, "shard count must be positive: %s", shardCount);
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
@@ -134,7 +180,35 @@ public class SQLiteArtifactCache implements ArtifactCache {
           String.format("Cache path [%s] already exists and is not a directory.", cacheDir));
     }
 
-    this.db = new ConnectionInfo(cacheDir);
+    this.shards = new ConnectionInfo[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] =
+          new ConnectionInfo(getShardPath(cacheDir, i, shardCount), READ_CONNECTIONS_PER_SHARD);
+    }
+  }
+
+  /**
+   * A single shard keeps the historical database name so that existing caches remain readable.
+   * Sharded databases encode the shard count, as keys map to different shards once it changes.
+   */
+  private static Path getShardPath(Path cacheDir, int shard, int shardCount) {
+    if (shardCount == 1) {
+      return cacheDir.resolve("dircache.db");
+    }
+    return cacheDir.resolve(String.format("dircache-%d-of-%d.db", shard + 1, shardCount));
+  }
+
+  private ConnectionInfo shardFor(RuleKey ruleKey) {
+    if (shards.length == 1) {
+      return shards[0];
+    }
+    return shards[(int) Long.remainderUnsigned(ruleKey.getHashCode().padToLong(), shards.length)];
+  }
+
+  private void flushAll() throws SQLException {
+    for (ConnectionInfo shard : shards) {
+      shard.flush();
+    }
   }
 
   @Override
@@ -169,6 +243,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
             name,
             CACHE_MODE,
             String.format("Artifact fetch(%s, %s) stopped unexpectedly", contentHash, output));
+    ConnectionInfo db = shardFor(contentHash);
     try {
       Optional<Content> content = db.selectContent(contentHash);
       if (content.isPresent()) {
@@ -212,6 +287,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
             name,
             CACHE_MODE,
             String.format("Metadata fetch(%s, %s) stopped unexpectedly", ruleKey, output));
+    ConnectionInfo db = shardFor(ruleKey);
     try {
       Optional<byte[]> metadata = db.selectMetadata(ruleKey);
       if (metadata.isPresent()) {
@@ -277,8 +353,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     try {
-      db.storeMetadata(info.getRuleKeys(), marshalMetadata(metadata));
-    } catch (IOException | SQLException e) {
+      byte[] marshalled = marshalMetadata(metadata);
+      for (RuleKey ruleKey : info.getRuleKeys()) {
+        shardFor(ruleKey).storeMetadata(ruleKey, marshalled);
+      }
+    } catch (IOException e) {
       LOG.warn(e, "Metadata store(%s) error", info.getRuleKeys());
     }
 
@@ -293,10 +372,16 @@ public class SQLiteArtifactCache implements ArtifactCache {
         return Futures.immediateFuture(null);
       }
 
+      ImmutableListMultimap<ConnectionInfo, RuleKey> toStoreByShard =
+          Multimaps.index(toStore, this::shardFor);
       long size = filesystem.getFileSize(content.getPath());
       if (size <= maxInlinedBytes) {
         // artifact is small enough to inline in the database
-        db.storeArtifact(toStore, Files.readAllBytes(content.getPath()), size);
+        byte[] artifact = Files.readAllBytes(content.getPath());
+        for (Map.Entry<ConnectionInfo, Collection<RuleKey>> entry :
+            toStoreByShard.asMap().entrySet()) {
+          entry.getKey().storeArtifact(entry.getValue(), artifact, size);
+        }
       } else if (!toStore.isEmpty()) {
         // artifact is too large to inline, store on disk and put path in database
         Path artifactPath = getArtifactPath(toStore.iterator().next());
@@ -308,7 +393,10 @@ public class SQLiteArtifactCache implements ArtifactCache {
           storeArtifactOutput(content.getPath(), artifactPath);
         }
 
-        db.storeFilepath(toStore, artifactPath.toString(), size);
+        for (Map.Entry<ConnectionInfo, Collection<RuleKey>> entry :
+            toStoreByShard.asMap().entrySet()) {
+          entry.getKey().storeFilepath(entry.getValue(), artifactPath.toString(), size);
+        }
       }
     } catch (IOException | SQLException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", contentHashes, content);
@@ -322,6 +410,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
     ImmutableSet.Builder<RuleKey> builder = ImmutableSet.builder();
     for (RuleKey contentHash : contentHashes) {
       // if the content already exists in the cache, skip it
+      ConnectionInfo db = shardFor(contentHash);
       Optional<Content> existingArtifact = db.selectContent(contentHash);
       if (existingArtifact.isPresent()) {
         byte[] inlined = existingArtifact.get().artifact;
@@ -400,7 +489,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
   ListenableFuture<Void> removeOldMetadata() {
     Timestamp evictionTime = Timestamp.from(Instant.now().minus(DEFAULT_EVICTION_TIME));
     try {
-      int deleted = db.deleteMetadata(evictionTime);
+      flushAll();
+      int deleted = 0;
+      for (ConnectionInfo shard : shards) {
+        deleted += shard.deleteMetadata(evictionTime);
+      }
       LOG.verbose("Removed %d metadata rows not accessed since %s", deleted, evictionTime);
     } catch (SQLException e) {
       LOG.error(e, "Failed to clean database");
@@ -416,9 +509,12 @@ public class SQLiteArtifactCache implements ArtifactCache {
       return Futures.immediateFuture(null);
     }
 
-    long totalSizeBytes;
+    long totalSizeBytes = 0;
     try {
-      totalSizeBytes = db.totalSize();
+      flushAll();
+      for (ConnectionInfo shard : shards) {
+        totalSizeBytes += shard.totalSize();
+      }
       if (totalSizeBytes <= maxCacheSizeBytes.get()) {
         return Futures.immediateFuture(null);
       }
@@ -429,14 +525,17 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
     try {
       Pair<Iterable<String>, Timestamp> contentToEvict =
-          db.getContentToEvict(totalSizeBytes - maxBytesAfterDeletion.get());
+          getContentToEvict(totalSizeBytes - maxBytesAfterDeletion.get());
 
       for (String filepath : contentToEvict.getFirst()) {
         MostFiles.deleteRecursivelyIfExists(filesystem.resolve(filepath));
       }
 
       Timestamp evictionCutoff = contentToEvict.getSecond();
-      int deleted = db.deleteContent(evictionCutoff);
+      int deleted = 0;
+      for (ConnectionInfo shard : shards) {
+        deleted += shard.deleteContent(evictionCutoff);
+      }
       LOG.verbose("Deleted %d cached artifacts last accessed before %s", deleted, evictionCutoff);
     } catch (IOException | SQLException e) {
       LOG.error(e, "Failed to clean path [%s].", filesystem.resolve(cacheDir));
@@ -445,6 +544,62 @@ public class SQLiteArtifactCache implements ArtifactCache {
     return Futures.immediateFuture(null);
   }
 
+  /**
+   * Walks the content of all shards in least recently used order, merging the per-shard orderings,
+   * until at least {@code minToDelete} bytes have been selected.
+   *
+   * @return the files to delete, and the access time before which all rows should be deleted.
+   */
+  private Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
+      throws SQLException {
+    ImmutableList.Builder<String> filepaths = ImmutableList.builder();
+    List<EvictionCursor> cursors = new ArrayList<>(shards.length);
+    PriorityQueue<EvictionCursor> queue =
+        new PriorityQueue<>(shards.length, EvictionCursor.ORDER);
+    try {
+      for (ConnectionInfo shard : shards) {
+        EvictionCursor cursor = new EvictionCursor(shard, shard.borrowReader());
+        cursors.add(cursor);
+        if (cursor.advance()) {
+          queue.add(cursor);
+        }
+      }
+
+      long deleted = 0;
+      while (deleted < minToDelete && !queue.isEmpty()) {
+        EvictionCursor cursor = queue.poll();
+        String filepath = cursor.filepath;
+        long sizeBytes = cursor.size;
+
+        // from database constraint, exactly one of filepath/artifact is null
+        if (Objects.nonNull(filepath)) {
+          LOG.verbose("Deleting path [%s] of total size [%d] bytes.", filepath, sizeBytes);
+          filepaths.add(filepath);
+        } else {
+          LOG.verbose("Deleting inlined artifact of size [%d] bytes.", sizeBytes);
+        }
+
+        deleted += sizeBytes;
+        if (cursor.advance()) {
+          queue.add(cursor);
+        }
+      }
+
+      Timestamp evictionCutoff;
+      if (!queue.isEmpty()) {
+        evictionCutoff = queue.peek().accessed;
+      } else {
+        evictionCutoff = Timestamp.from(Instant.now());
+      }
+
+      return new Pair<>(filepaths.build(), evictionCutoff);
+    } finally {
+      for (EvictionCursor cursor : cursors) {
+        cursor.close();
+      }
+    }
+  }
+
   @Override
   public CacheReadMode getCacheReadMode() {
     return cacheMode;
@@ -458,7 +613,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
       LOG.error("Failed to clean SQLite cache");
     }
 
-    db.close();
+    for (ConnectionInfo shard : shards) {
+      shard.close();
+    }
   }
 
   // testing utilities
@@ -467,8 +624,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
   void insertMetadata(RuleKey ruleKey, ImmutableMap<String, String> metadata, Timestamp time)
       throws IOException, SQLException {
     PreparedStatement stmt =
-        db.connection.prepareStatement(
-            "INSERT INTO metadata (rulekey, data, accessed) VALUES (?, ?, ?)");
+        shardFor(ruleKey)
+            .connection
+            .prepareStatement("INSERT INTO metadata (rulekey, data, accessed) VALUES (?, ?, ?)");
     stmt.setBytes(1, ConnectionInfo.getBytes(ruleKey));
     stmt.setBytes(2, marshalMetadata(metadata));
     stmt.setTimestamp(3, time);
@@ -480,9 +638,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
       throws IOException, SQLException {
     long size = filesystem.getFileSize(file.getPath());
     PreparedStatement stmt =
-        db.connection.prepareStatement(
-            "INSERT INTO content (sha1, artifact, filepath, size, accessed, created) "
-                + "VALUES (?, ?, ?, ?, ?, ?)");
+        shardFor(contentHash)
+            .connection
+            .prepareStatement(
+                "INSERT INTO content (sha1, artifact, filepath, size, accessed, created) "
+                    + "VALUES (?, ?, ?, ?, ?, ?)");
 
     stmt.setBytes(1, ConnectionInfo.getBytes(contentHash));
     if (size <= maxInlinedBytes) {
@@ -498,49 +658,43 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
   @VisibleForTesting
   ImmutableList<RuleKey> directoryFileContentHashes() throws SQLException {
-    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection
-            .createStatement()
-            .executeQuery("SELECT sha1 FROM content WHERE filepath NOTNULL")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
-      }
-    }
-    return keys.build();
+    return selectKeys("SELECT sha1 FROM content WHERE filepath NOTNULL");
   }
 
   @VisibleForTesting
   ImmutableList<RuleKey> inlinedArtifactContentHashes() throws SQLException {
-    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection
-            .createStatement()
-            .executeQuery("SELECT sha1 FROM content WHERE artifact NOTNULL")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
-      }
-    }
-    return keys.build();
+    return selectKeys("SELECT sha1 FROM content WHERE artifact NOTNULL");
   }
 
   @VisibleForTesting
   ImmutableList<RuleKey> metadataRuleKeys() throws SQLException {
+    return selectKeys("SELECT rulekey FROM metadata");
+  }
+
+  private ImmutableList<RuleKey> selectKeys(String query) throws SQLException {
+    flushAll();
     ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
-    try (ResultSet rs =
-        db.connection.createStatement().executeQuery("SELECT rulekey FROM metadata")) {
-      while (rs.next()) {
-        keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
+    for (ConnectionInfo shard : shards) {
+      try (ResultSet rs = shard.connection.createStatement().executeQuery(query)) {
+        while (rs.next()) {
+          keys.add(new RuleKey(HashCode.fromBytes(rs.getBytes(1))));
+        }
       }
     }
     return keys.build();
   }
 
+  /**
+   * One shard of the cache: a SQLite database with a single writer connection and a small pool of
+   * reader connections. WAL mode allows the readers to run concurrently with the writer, so reads
+   * never wait on the shard's monitor.
+   *
+   * <p>Metadata inserts and access-time updates are buffered in memory and written out in a single
+   * transaction once enough of them accumulate or the oldest is about to go stale.
+   */
   private static class ConnectionInfo {
     private final Connection connection;
-
-    private final PreparedStatement fetchMetadata;
-    private final PreparedStatement fetchContent;
+    private final BlockingQueue<ReadConnection> readers;
 
     private final PreparedStatement updateMetadataTime;
     private final PreparedStatement updateContentTime;
@@ -549,21 +703,20 @@ public class SQLiteArtifactCache implements ArtifactCache {
     private final PreparedStatement storeArtifact;
     private final PreparedStatement storeFilepath;
 
-    private final PreparedStatement selectContentByTime;
-
     private final PreparedStatement deleteMetadataBeforeCutoff;
     private final PreparedStatement deleteContentBeforeCutoff;
     private final PreparedStatement deleteContentForHash;
 
     private final PreparedStatement contentSize;
 
-    private ConnectionInfo(Path cacheDir) throws SQLException {
-      // date format must be set to match CURRENT_TIMESTAMP
-      Properties properties = new SQLiteConfig().toProperties();
-      properties.setProperty(
-          SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
-      connection =
-          DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
+    private final ConcurrentMap<RuleKey, byte[]> pendingMetadata = new ConcurrentHashMap<>();
+    private final Set<RuleKey> pendingMetadataAccesses = ConcurrentHashMap.newKeySet();
+    private final Set<RuleKey> pendingContentAccesses = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private volatile long lastFlushNanos = System.nanoTime();
+
+    private ConnectionInfo(Path dbPath, int readConnections) throws SQLException {
+      connection = open(dbPath);
       connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
       connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
 
@@ -599,11 +752,6 @@ public class SQLiteArtifactCache implements ArtifactCache {
                   + "OR artifact ISNULL AND filepath NOT NULL)) "
                   + "WITHOUT ROWID");
 
-      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
-      fetchContent =
-          connection.prepareStatement(
-              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
-
       updateMetadataTime =
           connection.prepareStatement(
               "UPDATE metadata SET accessed = CURRENT_TIMESTAMP WHERE rulekey = ?");
@@ -620,10 +768,6 @@ public class SQLiteArtifactCache implements ArtifactCache {
           connection.prepareStatement(
               "INSERT INTO content (sha1, filepath, size) VALUES (?, ?, ?)");
 
-      selectContentByTime =
-          connection.prepareStatement(
-              "SELECT filepath, size, accessed FROM content ORDER BY accessed ASC, created ASC");
-
       deleteMetadataBeforeCutoff =
           connection.prepareStatement("DELETE FROM metadata WHERE accessed < ?");
       deleteContentBeforeCutoff =
@@ -632,41 +776,158 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
       contentSize = connection.prepareStatement("SELECT sum(size) FROM content");
 
+      // readers are opened after the schema exists so that their statements can be prepared
+      readers = new ArrayBlockingQueue<>(readConnections);
+      for (int i = 0; i < readConnections; i++) {
+        readers.add(new ReadConnection(open(dbPath)));
+      }
+    }
+
+    private static Connection open(Path dbPath) throws SQLException {
+      // date format must be set to match CURRENT_TIMESTAMP
+      Properties properties = new SQLiteConfig().toProperties();
+      properties.setProperty(
+          SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
+      Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath, properties);
       BusyHandler.setHandler(connection, new RetryBusyHandler());
+      return connection;
     }
 
-    private synchronized Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
-      fetchMetadata.setBytes(1, getBytes(ruleKey));
-      ResultSet rs = fetchMetadata.executeQuery();
-      return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
+    private ReadConnection borrowReader() throws SQLException {
+      try {
+        return readers.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for a SQLite connection", e);
+      }
     }
 
-    private synchronized Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
-      fetchContent.setBytes(1, getBytes(contentHash));
-      ResultSet rs = fetchContent.executeQuery();
-      return rs.next()
-          ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
-          : Optional.empty();
+    private Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
+      byte[] pending = pendingMetadata.get(ruleKey);
+      if (pending != null) {
+        return Optional.of(pending);
+      }
+
+      ReadConnection reader = borrowReader();
+      try {
+        reader.fetchMetadata.setBytes(1, getBytes(ruleKey));
+        try (ResultSet rs = reader.fetchMetadata.executeQuery()) {
+          return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
+        }
+      } finally {
+        readers.add(reader);
+      }
     }
 
-    private synchronized void accessMetadata(RuleKey ruleKey) throws SQLException {
-      updateMetadataTime.setBytes(1, getBytes(ruleKey));
-      updateMetadataTime.executeUpdate();
+    private Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
+      ReadConnection reader = borrowReader();
+      try {
+        reader.fetchContent.setBytes(1, getBytes(contentHash));
+        try (ResultSet rs = reader.fetchContent.executeQuery()) {
+          return rs.next()
+              ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
+              : Optional.empty();
+        }
+      } finally {
+        readers.add(reader);
+      }
     }
 
-    private synchronized void accessContent(RuleKey contentHash) throws SQLException {
-      updateContentTime.setBytes(1, getBytes(contentHash));
-      updateContentTime.executeUpdate();
+    private void accessMetadata(RuleKey ruleKey) {
+      pendingMetadataAccesses.add(ruleKey);
+      maybeFlush();
     }
 
-    private synchronized void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
-        throws SQLException {
-      for (RuleKey ruleKey : ruleKeys) {
-        storeMetadata.setBytes(1, getBytes(ruleKey));
-        storeMetadata.setBytes(2, metadata);
-        storeMetadata.addBatch();
+    private void accessContent(RuleKey contentHash) {
+      pendingContentAccesses.add(contentHash);
+      maybeFlush();
+    }
+
+    private void storeMetadata(RuleKey ruleKey, byte[] metadata) {
+      pendingMetadata.put(ruleKey, metadata);
+      maybeFlush();
+    }
+
+    private int pendingWrites() {
+      return pendingMetadata.size()
+          + pendingMetadataAccesses.size()
+          + pendingContentAccesses.size();
+    }
+
+    /**
+     * Writes out buffered changes if the batch is full or old enough. Only one thread flushes at a
+     * time; everyone else keeps buffering rather than queueing up behind it.
+     */
+    private void maybeFlush() {
+      if (pendingWrites() < MAX_PENDING_WRITES
+          && System.nanoTime() - lastFlushNanos < MAX_PENDING_WRITE_AGE.toNanos()) {
+        return;
+      }
+      if (!flushing.compareAndSet(false, true)) {
+        return;
       }
-      storeMetadata.executeBatch();
+      try {
+        flush();
+      } catch (SQLException e) {
+        LOG.warn(e, "Failed to write %d buffered cache updates", pendingWrites());
+      } finally {
+        flushing.set(false);
+      }
+    }
+
+    /** Writes all buffered metadata and access times in a single transaction. */
+    private synchronized void flush() throws SQLException {
+      lastFlushNanos = System.nanoTime();
+      if (pendingWrites() == 0) {
+        return;
+      }
+
+      ImmutableMap<RuleKey, byte[]> metadata = ImmutableMap.copyOf(pendingMetadata);
+      ImmutableList<RuleKey> metadataAccesses = drain(pendingMetadataAccesses);
+      ImmutableList<RuleKey> contentAccesses = drain(pendingContentAccesses);
+
+      connection.setAutoCommit(false);
+      try {
+        // inserts go first so that accesses of freshly stored keys are not lost
+        for (Map.Entry<RuleKey, byte[]> entry : metadata.entrySet()) {
+          storeMetadata.setBytes(1, getBytes(entry.getKey()));
+          storeMetadata.setBytes(2, entry.getValue());
+          storeMetadata.addBatch();
+        }
+        storeMetadata.executeBatch();
+
+        for (RuleKey ruleKey : metadataAccesses) {
+          updateMetadataTime.setBytes(1, getBytes(ruleKey));
+          updateMetadataTime.addBatch();
+        }
+        updateMetadataTime.executeBatch();
+
+        for (RuleKey contentHash : contentAccesses) {
+          updateContentTime.setBytes(1, getBytes(contentHash));
+          updateContentTime.addBatch();
+        }
+        updateContentTime.executeBatch();
+
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+
+      // only drop entries that were not overwritten while the transaction was running
+      metadata.forEach(pendingMetadata::remove);
+    }
+
+    private static ImmutableList<RuleKey> drain(Set<RuleKey> pending) {
+      ImmutableList.Builder<RuleKey> drained = ImmutableList.builder();
+      Iterator<RuleKey> iterator = pending.iterator();
+      while (iterator.hasNext()) {
+        drained.add(iterator.next());
+        iterator.remove();
+      }
+      return drained.build();
     }
 
     private synchronized void storeArtifact(Iterable<RuleKey> hashes, byte[] artifact, long size)
@@ -715,46 +976,80 @@ public class SQLiteArtifactCache implements ArtifactCache {
       return rs.getLong(1);
     }
 
-    private synchronized Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
-        throws SQLException {
-      ImmutableList.Builder<String> filepaths = ImmutableList.builder();
-      long deleted = 0;
-
-      ResultSet artifacts = selectContentByTime.executeQuery();
-      while (deleted < minToDelete && artifacts.next()) {
-        String filepath = artifacts.getString(1);
-        long sizeBytes = artifacts.getLong(2);
+    private static byte[] getBytes(RuleKey ruleKey) {
+      return ruleKey.getHashCode().asBytes();
+    }
 
-        // from database constraint, exactly one of filepath/artifact is null
-        if (Objects.nonNull(filepath)) {
-          LOG.verbose("Deleting path [%s] of total size [%d] bytes.", filepath, sizeBytes);
-          filepaths.add(filepath);
-        } else {
-          LOG.verbose("Deleting inlined artifact of size [%d] bytes.", sizeBytes);
+    private void close() {
+      try {
+        for (ReadConnection reader : readers) {
+          reader.connection.close();
         }
-
-        deleted += sizeBytes;
+        connection.close();
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
       }
+    }
+  }
 
-      Timestamp evictionCutoff;
-      if (artifacts.next()) {
-        evictionCutoff = artifacts.getTimestamp(3);
-      } else {
-        evictionCutoff = Timestamp.from(Instant.now());
-      }
+  /** A read-only view of a shard, borrowed from the shard's pool for the duration of a query. */
+  private static class ReadConnection {
+    private final Connection connection;
+    private final PreparedStatement fetchMetadata;
+    private final PreparedStatement fetchContent;
+    private final PreparedStatement selectContentByTime;
 
-      return new Pair<>(filepaths.build(), evictionCutoff);
+    private ReadConnection(Connection connection) throws SQLException {
+      this.connection = connection;
+      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
+      fetchContent =
+          connection.prepareStatement(
+              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
+      selectContentByTime =
+          connection.prepareStatement(
+              "SELECT filepath, size, accessed, created FROM content "
+                  + "ORDER BY accessed ASC, created ASC");
     }
+  }
 
-    private static byte[] getBytes(RuleKey ruleKey) {
-      return ruleKey.getHashCode().asBytes();
+  /** Iterates over a shard's content rows in eviction order. */
+  private static class EvictionCursor {
+    private static final Comparator<EvictionCursor> ORDER =
+        Comparator.<EvictionCursor, Timestamp>comparing(cursor -> cursor.accessed)
+            .thenComparing(cursor -> cursor.created);
+
+    private final ConnectionInfo shard;
+    private final ReadConnection reader;
+    private final ResultSet rows;
+
+    @Nullable private String filepath;
+    private long size;
+    @Nullable private Timestamp accessed;
+    @Nullable private Timestamp created;
+
+    private EvictionCursor(ConnectionInfo shard, ReadConnection reader) throws SQLException {
+      this.shard = shard;
+      this.reader = reader;
+      this.rows = reader.selectContentByTime.executeQuery();
     }
 
-    private void close() {
+    /** Moves to the next row, returning false once the shard is exhausted. */
+    private boolean advance() throws SQLException {
+      if (!rows.next()) {
+        return false;
+      }
+      filepath = rows.getString(1);
+      size = rows.getLong(2);
+      accessed = rows.getTimestamp(3);
+      created = rows.getTimestamp(4);
+      return true;
+    }
+
+    private void close() throws SQLException {
       try {
-        connection.close();
-      } catch (SQLException e) {
-        throw new RuntimeException(e);
+        rows.close();
+      } finally {
+        shard.readers.add(reader);
       }
     }
   }
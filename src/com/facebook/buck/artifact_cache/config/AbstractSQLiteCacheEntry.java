@@ -33,4 +33,7 @@ abstract class AbstractSQLiteCacheEntry {
   public abstract Optional<Long> getMaxInlinedSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  /** Number of independent databases that entries are spread over. */
+  public abstract int getShardCount();
 }
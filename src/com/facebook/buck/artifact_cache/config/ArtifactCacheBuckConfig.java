@@ -105,6 +105,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String SQLITE_MAX_SIZE_FIELD = "sqlite_max_size";
   private static final String SQLITE_MAX_INLINED_SIZE_FIELD = "sqlite_inlined_size";
   private static final String SQLITE_CACHE_NAMES_FIELD_NAME = "sqlite_cache_names";
+  private static final String SQLITE_SHARDS_FIELD = "sqlite_shards";
+  private static final int DEFAULT_SQLITE_SHARDS = 1;
 
   private static final String SERVED_CACHE_ENABLED_FIELD_NAME = "serve_local_cache";
   private static final String DEFAULT_SERVED_CACHE_MODE = CacheReadMode.READONLY.name();
@@ -499,12 +501,20 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     Optional<Long> maxInlinedSizeBytes =
         buckConfig.getValue(section, SQLITE_MAX_INLINED_SIZE_FIELD).map(SizeUnit::parseBytes);
 
+    int shardCount =
+        buckConfig.getInteger(section, SQLITE_SHARDS_FIELD).orElse(DEFAULT_SQLITE_SHARDS);
+    if (shardCount <= 0) {
+      throw new HumanReadableException(
+          "%s.%s must be a positive integer, got %d", section, SQLITE_SHARDS_FIELD, shardCount);
+    }
+
     return SQLiteCacheEntry.builder()
         .setName(cacheName)
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
         .setMaxInlinedSizeBytes(maxInlinedSizeBytes)
+        .setShardCount(shardCount)
         .build();
   }
 
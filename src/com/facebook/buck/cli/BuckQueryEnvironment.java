@@ -20,6 +20,7 @@ import static com.facebook.buck.util.concurrent.MoreFutures.propagateCauseIfInst
 
 import com.facebook.buck.cli.OwnersReport.Builder;
 import com.facebook.buck.core.cell.Cell;
+import com.facebook.buck.core.description.arg.CommonDescriptionArg;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.model.targetgraph.impl.TargetNodes;
@@ -34,11 +35,13 @@ import com.facebook.buck.graph.GraphTraversable;
 import com.facebook.buck.graph.MutableDirectedGraph;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildFileTree;
 import com.facebook.buck.model.FilesystemBackedBuildFileTree;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserMessages;
 import com.facebook.buck.parser.PerBuildState;
+import com.facebook.buck.parser.TargetNodeQueryIndex;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
 import com.facebook.buck.query.NoopQueryEvaluator;
@@ -78,6 +81,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 /**
  * The environment of a Buck query that can evaluate queries to produce a result.
@@ -86,6 +90,8 @@ import java.util.function.Predicate;
  */
 public class BuckQueryEnvironment implements QueryEnvironment {
 
+  private static final Logger LOG = Logger.get(BuckQueryEnvironment.class);
+
   private final Parser parser;
   private final PerBuildState parserState;
   private final Cell rootCell;
@@ -104,6 +110,12 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   private MutableDirectedGraph<TargetNode<?, ?>> graph = MutableDirectedGraph.createConcurrent();
   private Map<BuildTarget, TargetNode<?, ?>> targetsToNodes = new ConcurrentHashMap<>();
 
+  // The targets whose transitive closure has been added by buildTransitiveClosure. When the query
+  // index is used, the graph is only built from these if it is asked for.
+  private final Set<BuildTarget> exploredTargets = ConcurrentHashMap.newKeySet();
+  private final Set<BuildTarget> targetsInGraph = new HashSet<>();
+  private Optional<TargetNodeQueryIndex> queryIndex;
+
   @VisibleForTesting
   protected BuckQueryEnvironment(
       Cell rootCell,
@@ -133,6 +145,7 @@ public class BuckQueryEnvironment implements QueryEnvironment {
     this.targetPatternEvaluator = targetPatternEvaluator;
     this.queryTargetEvaluator = new TargetEvaluator(targetPatternEvaluator, executor);
     this.typeCoercerFactory = typeCoercerFactory;
+    this.queryIndex = parser.getPermState().getQueryIndex();
   }
 
   public static BuckQueryEnvironment from(
@@ -177,7 +190,32 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   }
 
   public DirectedAcyclicGraph<TargetNode<?, ?>> getTargetGraph() {
-    return new DirectedAcyclicGraph<>(graph);
+    return new DirectedAcyclicGraph<>(getGraph());
+  }
+
+  private MutableDirectedGraph<TargetNode<?, ?>> getGraph() {
+    if (targetsInGraph.size() != exploredTargets.size()) {
+      for (BuildTarget buildTarget : exploredTargets) {
+        addToGraph(buildTarget);
+      }
+    }
+    return graph;
+  }
+
+  private void addToGraph(BuildTarget buildTarget) {
+    if (!targetsInGraph.add(buildTarget)) {
+      return;
+    }
+    TargetNode<?, ?> node =
+        Preconditions.checkNotNull(
+            targetsToNodes.get(buildTarget), "Couldn't find TargetNode for %s", buildTarget);
+    graph.addNode(node);
+    for (BuildTarget dep : node.getParseDeps()) {
+      graph.addEdge(
+          node,
+          Preconditions.checkNotNull(
+              targetsToNodes.get(dep), "Couldn't find TargetNode for %s", dep));
+    }
   }
 
   public PerBuildState getParserState() {
@@ -215,15 +253,26 @@ public class BuckQueryEnvironment implements QueryEnvironment {
     return evaluateQuery(QueryExpression.parse(query, this));
   }
 
-  TargetNode<?, ?> getNode(QueryTarget target) throws QueryException {
+  private static BuildTarget getBuildTarget(QueryTarget target) {
     if (!(target instanceof QueryBuildTarget)) {
       throw new IllegalArgumentException(
           String.format(
               "Expected %s to be a build target but it was an instance of %s",
               target, target.getClass().getName()));
     }
+    return ((QueryBuildTarget) target).getBuildTarget();
+  }
+
+  TargetNode<?, ?> getNode(QueryTarget target) throws QueryException {
+    BuildTarget buildTarget = getBuildTarget(target);
+    if (queryIndex.isPresent()) {
+      Optional<TargetNode<?, ?>> node = queryIndex.get().getNode(buildTarget);
+      if (node.isPresent()) {
+        return node.get();
+      }
+    }
     try {
-      return parser.getTargetNode(parserState, ((QueryBuildTarget) target).getBuildTarget());
+      return parser.getTargetNode(parserState, buildTarget);
     } catch (BuildFileParseException e) {
       throw new QueryException(e, "Error getting target node for %s\n%s", target, e.getMessage());
     }
@@ -269,7 +318,11 @@ public class BuckQueryEnvironment implements QueryEnvironment {
     ImmutableSet.Builder<QueryTarget> result = new ImmutableSet.Builder<>();
     for (QueryTarget target : targets) {
       TargetNode<?, ?> node = getNode(target);
-      result.addAll(getTargetsFromTargetNodes(graph.getOutgoingNodesFor(node)));
+      if (!queryIndex.isPresent()) {
+        result.addAll(getTargetsFromTargetNodes(graph.getOutgoingNodesFor(node)));
+      } else if (exploredTargets.contains(node.getBuildTarget())) {
+        result.addAll(getTargetsFromBuildTargets(node.getParseDeps()));
+      }
     }
     return result.build();
   }
@@ -278,8 +331,17 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   public Set<QueryTarget> getReverseDeps(Iterable<QueryTarget> targets) throws QueryException {
     Set<QueryTarget> result = new LinkedHashSet<>();
     for (QueryTarget target : targets) {
-      TargetNode<?, ?> node = getNode(target);
-      result.addAll(getTargetsFromTargetNodes(graph.getIncomingNodesFor(node)));
+      if (queryIndex.isPresent()) {
+        // Only the explored targets would be in the graph.
+        result.addAll(
+            getTargetsFromBuildTargets(
+                Iterables.filter(
+                    queryIndex.get().getReverseDeps(getBuildTarget(target)),
+                    exploredTargets::contains)));
+      } else {
+        TargetNode<?, ?> node = getNode(target);
+        result.addAll(getTargetsFromTargetNodes(graph.getIncomingNodesFor(node)));
+      }
     }
     return result;
   }
@@ -366,7 +428,7 @@ public class BuckQueryEnvironment implements QueryEnvironment {
           //  - we can't have a cycle involving the "old" nodes,
           //  - there are no new edges or nodes to be discovered by descending into the "old" nodes,
           // making this node safe to skip.
-          if (graph.getNodes().contains(node)) {
+          if (exploredTargets.contains(target)) {
             return ImmutableSet.<BuildTarget>of().iterator();
           }
           return node.getParseDeps().iterator();
@@ -376,15 +438,16 @@ public class BuckQueryEnvironment implements QueryEnvironment {
         new AcyclicDepthFirstPostOrderTraversal<>(traversable);
     try {
       for (BuildTarget buildTarget : targetNodeTraversal.traverse(newBuildTargets)) {
-        TargetNode<?, ?> node =
-            Preconditions.checkNotNull(
-                targetsToNodes.get(buildTarget), "Couldn't find TargetNode for %s", buildTarget);
-        graph.addNode(node);
-        for (BuildTarget dep : node.getParseDeps()) {
-          graph.addEdge(
-              node,
-              Preconditions.checkNotNull(
-                  targetsToNodes.get(dep), "Couldn't find TargetNode for %s", dep));
+        exploredTargets.add(buildTarget);
+        if (queryIndex.isPresent() && !queryIndex.get().getNode(buildTarget).isPresent()) {
+          // The index only knows about nodes the daemon has cached, and would miss the reverse
+          // deps of this one.
+          LOG.debug("%s is not in the query index, building the graph instead.", buildTarget);
+          queryIndex = Optional.empty();
+          getGraph();
+        }
+        if (!queryIndex.isPresent()) {
+          addToGraph(buildTarget);
         }
       }
     } catch (AcyclicDepthFirstPostOrderTraversal.CycleException e) {
@@ -502,6 +565,61 @@ public class BuckQueryEnvironment implements QueryEnvironment {
     return getNode(target).getBuildRuleType().getName();
   }
 
+  @Override
+  public ImmutableSet<QueryTarget> filterTargetsByKind(
+      Set<QueryTarget> targets, Pattern kindPattern) throws QueryException {
+    if (!queryIndex.isPresent()) {
+      return QueryEnvironment.super.filterTargetsByKind(targets, kindPattern);
+    }
+    TargetNodeQueryIndex index = queryIndex.get();
+    // There are far fewer kinds than targets, so only match the pattern once per kind.
+    Set<BuildTarget> matchingTargets = new HashSet<>();
+    for (String kind : index.getKinds()) {
+      if (kindPattern.matcher(kind).find()) {
+        matchingTargets.addAll(index.getTargetsOfKind(kind));
+      }
+    }
+    ImmutableSet.Builder<QueryTarget> result = ImmutableSet.builder();
+    for (QueryTarget target : targets) {
+      BuildTarget buildTarget = getBuildTarget(target);
+      if (matchingTargets.contains(buildTarget)
+          || (!index.getNode(buildTarget).isPresent()
+              && kindPattern.matcher(getTargetKind(target)).find())) {
+        result.add(target);
+      }
+    }
+    return result.build();
+  }
+
+  @Override
+  public ImmutableSet<QueryTarget> filterTargetsByAttributeValue(
+      Set<QueryTarget> targets, String attribute, String value) throws QueryException {
+    // Labels are the only attribute that is indexed. A value that looks like a whole set could
+    // match the string form of the labels, which the index doesn't know about.
+    if (!queryIndex.isPresent() || !attribute.equals("labels") || value.startsWith("[")) {
+      return QueryEnvironment.super.filterTargetsByAttributeValue(targets, attribute, value);
+    }
+    TargetNodeQueryIndex index = queryIndex.get();
+    ImmutableSet<BuildTarget> labelledTargets = index.getTargetsWithLabel(value);
+    ImmutableSet.Builder<QueryTarget> result = ImmutableSet.builder();
+    for (QueryTarget target : targets) {
+      BuildTarget buildTarget = getBuildTarget(target);
+      Optional<TargetNode<?, ?>> node = index.getNode(buildTarget);
+      boolean matches;
+      if (node.isPresent() && node.get().getConstructorArg() instanceof CommonDescriptionArg) {
+        matches = labelledTargets.contains(buildTarget);
+      } else {
+        matches =
+            !filterAttributeContents(target, attribute, input -> value.equals(input.toString()))
+                .isEmpty();
+      }
+      if (matches) {
+        result.add(target);
+      }
+    }
+    return result.build();
+  }
+
   @Override
   public ImmutableSet<QueryTarget> getTargetsInAttribute(QueryTarget target, String attribute)
       throws QueryException {
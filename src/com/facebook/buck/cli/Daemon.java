@@ -31,7 +31,10 @@ import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.WatchmanCursor;
 import com.facebook.buck.io.WatchmanWatcher;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.CommandThreadFactory;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.parser.DaemonicParserState;
+import com.facebook.buck.parser.DaemonicParserStateSnapshot;
 import com.facebook.buck.parser.DefaultParser;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
@@ -39,8 +42,12 @@ import com.facebook.buck.parser.TargetSpecResolver;
 import com.facebook.buck.rules.coercer.ConstructorArgMarshaller;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.rules.keys.CompactRuleKeyCache;
 import com.facebook.buck.rules.keys.DefaultRuleKeyCache;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
+import com.facebook.buck.rules.keys.TrackableRuleKeyCache;
+import com.facebook.buck.rules.keys.config.RuleKeyCacheConfig;
+import com.facebook.buck.rules.keys.config.impl.BuckVersion;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
@@ -49,14 +56,25 @@ import com.facebook.buck.versions.VersionedTargetGraphCache;
 import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.eventbus.EventBus;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Daemon used to monitor the file system and cache build rules between Main() method invocations is
@@ -65,6 +83,8 @@ import java.util.concurrent.ConcurrentMap;
  */
 final class Daemon implements Closeable {
   private static final Logger LOG = Logger.get(Daemon.class);
+  private static final String PARSER_STATE_SNAPSHOT_FILE_NAME = "parser_state.snapshot";
+  private static final long PARSER_STATE_SNAPSHOT_SHUTDOWN_TIMEOUT_SECONDS = 60;
 
   private final Cell rootCell;
   private final TypeCoercerFactory typeCoercerFactory;
@@ -77,6 +97,23 @@ final class Daemon implements Closeable {
   private final ActionGraphCache actionGraphCache;
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
   private final ImmutableMap<Path, WatchmanCursor> cursor;
+  private final Optional<Path> parserStateSnapshotPath;
+  private final String parserStateFingerprint;
+  private final AtomicBoolean parserStateRestored = new AtomicBoolean(false);
+  private final Optional<ScheduledExecutorService> parserStateSnapshotExecutor;
+  /**
+   * Persists the file hash caches after commands. Holds at most one pending request, as a single
+   * save picks up everything that changed before it starts.
+   */
+  private final ExecutorService fileHashCachePersistExecutor =
+      new ThreadPoolExecutor(
+          1,
+          1,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(1),
+          new CommandThreadFactory("FileHashCachePersist", Thread.MIN_PRIORITY),
+          new ThreadPoolExecutor.DiscardPolicy());
   private final KnownBuildRuleTypesProvider knownBuildRuleTypesProvider;
 
   Daemon(
@@ -124,7 +161,7 @@ final class Daemon implements Closeable {
     this.defaultRuleKeyFactoryCacheRecycler =
         RuleKeyCacheRecycler.createAndRegister(
             fileEventBus,
-            new DefaultRuleKeyCache<>(),
+            createRuleKeyCache(rootCell.getBuckConfig().getView(RuleKeyCacheConfig.class)),
             RichStream.from(allCells).map(Cell::getFilesystem).toImmutableSet());
 
     if (webServerToReuse.isPresent()) {
@@ -135,18 +172,167 @@ final class Daemon implements Closeable {
     if (!initWebServer()) {
       LOG.warn("Can't start web server");
     }
-    if (rootCell.getBuckConfig().getView(ParserConfig.class).getWatchmanCursor()
-            == WatchmanWatcher.CursorType.CLOCK_ID
-        && !rootCell.getWatchman().getClockIds().isEmpty()) {
+    ParserConfig parserConfig = rootCell.getBuckConfig().getView(ParserConfig.class);
+    boolean useClockCursors =
+        parserConfig.getWatchmanCursor() == WatchmanWatcher.CursorType.CLOCK_ID
+            && !rootCell.getWatchman().getClockIds().isEmpty();
+    ImmutableMap<Path, WatchmanCursor> cursor;
+    if (useClockCursors) {
       cursor = rootCell.getWatchman().buildClockWatchmanCursorMap();
     } else {
       LOG.debug("Falling back to named cursors: %s", rootCell.getWatchman().getProjectWatches());
       cursor = rootCell.getWatchman().buildNamedWatchmanCursorMap();
     }
+
+    // Restoring the parser state relies on asking Watchman what changed since the state was saved,
+    // which is only possible with clock cursors.
+    if (parserConfig.isDaemonStateSnapshotEnabled() && useClockCursors) {
+      this.parserStateSnapshotPath =
+          Optional.of(
+              rootCell
+                  .getFilesystem()
+                  .resolve(
+                      rootCell
+                          .getFilesystem()
+                          .getBuckPaths()
+                          .getCacheDir()
+                          .resolve(PARSER_STATE_SNAPSHOT_FILE_NAME)));
+      this.parserStateFingerprint = computeParserStateFingerprint(allCells);
+      cursor = restoreParserState(cursor);
+    } else {
+      this.parserStateSnapshotPath = Optional.empty();
+      this.parserStateFingerprint = "";
+    }
+    this.cursor = cursor;
     LOG.debug("Using Watchman Cursor: %s", cursor);
+
+    long snapshotIntervalSeconds = parserConfig.getDaemonStateSnapshotIntervalSeconds();
+    if (parserStateSnapshotPath.isPresent() && snapshotIntervalSeconds > 0) {
+      ScheduledExecutorService executor =
+          Executors.newSingleThreadScheduledExecutor(
+              new CommandThreadFactory("ParserStateSnapshot", Thread.MIN_PRIORITY));
+      executor.scheduleWithFixedDelay(
+          this::snapshotParserState,
+          snapshotIntervalSeconds,
+          snapshotIntervalSeconds,
+          TimeUnit.SECONDS);
+      this.parserStateSnapshotExecutor = Optional.of(executor);
+    } else {
+      this.parserStateSnapshotExecutor = Optional.empty();
+    }
     persistentWorkerPools = new ConcurrentHashMap<>();
   }
 
+  /**
+   * Identifies the Buck version and configuration of all cells, since a parser state produced with
+   * a different one can't be reused.
+   */
+  private static String computeParserStateFingerprint(ImmutableList<Cell> cells) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putUnencodedChars(BuckVersion.getVersion());
+    cells
+        .stream()
+        .sorted(Comparator.comparing(Cell::getRoot))
+        .forEach(
+            cell -> {
+              hasher.putUnencodedChars(cell.getRoot().toString());
+              ImmutableSortedMap.copyOf(cell.getBuckConfig().getConfig().getSectionToEntries())
+                  .forEach(
+                      (section, entries) -> {
+                        hasher.putUnencodedChars(section);
+                        ImmutableSortedMap.copyOf(entries)
+                            .forEach(
+                                (key, value) ->
+                                    hasher.putUnencodedChars(key).putUnencodedChars(value));
+                      });
+            });
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Restores the parser state saved by a previous daemon, if it is still valid.
+   *
+   * @return the cursors to use for the first Watchman query. When the state is restored, these are
+   *     the clocks at which it was saved so that the files changed since then invalidate it.
+   */
+  private ImmutableMap<Path, WatchmanCursor> restoreParserState(
+      ImmutableMap<Path, WatchmanCursor> cursor) {
+    Path snapshotPath = parserStateSnapshotPath.get();
+    Optional<DaemonicParserStateSnapshot> snapshot;
+    try {
+      snapshot = DaemonicParserStateSnapshot.read(snapshotPath);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Failed to read parser state snapshot from %s", snapshotPath);
+      return cursor;
+    }
+    if (!snapshot.isPresent()) {
+      return cursor;
+    }
+    if (!snapshot.get().getFingerprint().equals(parserStateFingerprint)) {
+      LOG.info("Not restoring parser state saved with a different Buck version or configuration");
+      return cursor;
+    }
+
+    ImmutableMap.Builder<Path, WatchmanCursor> restoredCursor = ImmutableMap.builder();
+    ImmutableMap<String, String> savedClocks = snapshot.get().getWatchmanClocks();
+    for (Path cellPath : cursor.keySet()) {
+      String clock = savedClocks.get(rootCell.getRoot().relativize(cellPath).toString());
+      if (clock == null) {
+        LOG.info("Not restoring parser state saved without a Watchman clock for %s", cellPath);
+        return cursor;
+      }
+      restoredCursor.put(cellPath, new WatchmanCursor(clock));
+    }
+
+    try {
+      parser.getPermState().restoreSnapshot(snapshot.get(), rootCell);
+    } catch (RuntimeException e) {
+      LOG.warn(e, "Failed to restore parser state from %s", snapshotPath);
+      parser.getPermState().invalidateAllCaches();
+      return cursor;
+    }
+    parserStateRestored.set(true);
+    LOG.info("Restored parser state from %s", snapshotPath);
+    return restoredCursor.build();
+  }
+
+  /** Saves the parser state along with the Watchman clocks it is up to date with. */
+  private void snapshotParserState() {
+    if (!parserStateSnapshotPath.isPresent()) {
+      return;
+    }
+    DaemonicParserStateSnapshot snapshot;
+    try {
+      // Taken under the parser lock, like Watchman events, so that the clocks match the state.
+      synchronized (parser) {
+        ImmutableMap.Builder<String, String> clocks = ImmutableMap.builder();
+        cursor.forEach(
+            (cellPath, cellCursor) ->
+                clocks.put(rootCell.getRoot().relativize(cellPath).toString(), cellCursor.get()));
+        DaemonicParserState state = parser.getPermState();
+        snapshot =
+            new DaemonicParserStateSnapshot(
+                parserStateFingerprint,
+                clocks.build(),
+                state.getAverageBuildFileParseNanos(),
+                state.serializeDaemonicParserState(rootCell));
+      }
+      snapshot.write(parserStateSnapshotPath.get());
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Failed to save parser state snapshot to %s", parserStateSnapshotPath.get());
+    }
+  }
+
+  private static TrackableRuleKeyCache<RuleKey> createRuleKeyCache(RuleKeyCacheConfig config) {
+    switch (config.getCacheMode()) {
+      case DEFAULT:
+        return new DefaultRuleKeyCache<>();
+      case COMPACT:
+        return new CompactRuleKeyCache<>(config.getCacheMemoryBudgetBytes());
+    }
+    throw new IllegalStateException("Unknown rule key cache mode: " + config.getCacheMode());
+  }
+
   Cell getRootCell() {
     return rootCell;
   }
@@ -251,7 +437,13 @@ final class Daemon implements Closeable {
       FileHashCacheEvent.InvalidationStarted started = FileHashCacheEvent.invalidationStarted();
       eventBus.post(started);
       try {
-        watchmanWatcher.postEvents(eventBus, watchmanFreshInstanceAction);
+        // The first query after restoring the parser state returns a fresh instance if Watchman
+        // restarted since the state was saved, in which case the restored state must be dropped.
+        watchmanWatcher.postEvents(
+            eventBus,
+            parserStateRestored.getAndSet(false)
+                ? WatchmanWatcher.FreshInstanceAction.POST_OVERFLOW_EVENT
+                : watchmanFreshInstanceAction);
       } finally {
         eventBus.post(FileHashCacheEvent.invalidationFinished(started));
         hashCaches.forEach(
@@ -291,10 +483,71 @@ final class Daemon implements Closeable {
 
   @Override
   public void close() {
+    if (stopScheduledParserStateSnapshots()) {
+      snapshotParserState();
+    }
+    fileHashCachePersistExecutor.shutdown();
+    persistFileHashCaches();
     shutdownPersistentWorkerPools();
     shutdownWebServer();
   }
 
+  /**
+   * Stops the periodic parser state snapshots, letting one that is being written finish.
+   *
+   * @return whether no scheduled snapshot is being written anymore.
+   */
+  private boolean stopScheduledParserStateSnapshots() {
+    if (!parserStateSnapshotExecutor.isPresent()) {
+      return true;
+    }
+    // Unlike shutdownNow(), this doesn't interrupt a snapshot halfway through writing the file.
+    parserStateSnapshotExecutor.get().shutdown();
+    try {
+      if (parserStateSnapshotExecutor
+          .get()
+          .awaitTermination(PARSER_STATE_SNAPSHOT_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        return true;
+      }
+      LOG.warn("Timed out waiting for the scheduled parser state snapshot to be written.");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  /**
+   * Writes the file hash caches that changed since they were last written to their on-disk index
+   * in the background, so that the hashes computed by a command survive the daemon being killed
+   * rather than shut down.
+   */
+  void persistChangedFileHashCachesInBackground() {
+    fileHashCachePersistExecutor.execute(
+        () -> {
+          for (ProjectFileHashCache hashCache : hashCaches) {
+            if (hashCache instanceof WatchedFileHashCache) {
+              try {
+                ((WatchedFileHashCache) hashCache).persistIfChanged();
+              } catch (IOException e) {
+                LOG.error(e);
+              }
+            }
+          }
+        });
+  }
+
+  private void persistFileHashCaches() {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (hashCache instanceof WatchedFileHashCache) {
+        try {
+          ((WatchedFileHashCache) hashCache).persist();
+        } catch (IOException e) {
+          LOG.error(e);
+        }
+      }
+    }
+  }
+
   private void shutdownPersistentWorkerPools() {
     for (WorkerProcessPool pool : persistentWorkerPools.values()) {
       try {
@@ -54,6 +54,7 @@ import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.DaemonEvent;
 import com.facebook.buck.event.DefaultBuckEventBus;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
+import com.facebook.buck.event.config.EventBusConfig;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
 import com.facebook.buck.event.listener.BuildTargetDurationListener;
 import com.facebook.buck.event.listener.CacheRateStatsListener;
@@ -825,7 +826,11 @@ public final class Main {
       try (GlobalStateManager.LoggerIsMappedToThreadScope loggerThreadMappingScope =
               GlobalStateManager.singleton()
                   .setupLoggers(invocationInfo, console.getStdErr(), stdErr, verbosity);
-          DefaultBuckEventBus buildEventBus = new DefaultBuckEventBus(clock, buildId);
+          DefaultBuckEventBus buildEventBus =
+              new DefaultBuckEventBus(
+                  clock,
+                  buildId,
+                  buckConfig.getView(EventBusConfig.class).getListenerDispatchOptions());
           // We use a new executor service beyond client connection lifetime since it can take a
           // long time to stat and cleanup large disk artifact cache directories
           // See https://github.com/facebook/buck/issues/1842
@@ -1215,6 +1220,10 @@ public final class Main {
             context.get().exit(exitCode.getCode());
           }
 
+          // Save the file hashes computed by this command, so that they survive the daemon being
+          // killed rather than shut down.
+          daemon.ifPresent(Daemon::persistChangedFileHashCachesInBackground);
+
           // TODO(buck_team): refactor eventListeners for RAII
           flushAndCloseEventListeners(console, buildId, eventListeners);
         }
@@ -17,11 +17,13 @@ package com.facebook.buck.cli;
 
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.model.BuildFileTree;
 import com.facebook.buck.parser.Parser;
+import com.facebook.buck.parser.TargetNodeQueryIndex;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.util.Optionals;
 import com.facebook.buck.util.RichStream;
@@ -161,11 +163,13 @@ final class OwnersReport {
     private final Cell rootCell;
     private final Parser parser;
     private final BuckEventBus eventBus;
+    private final Optional<TargetNodeQueryIndex> queryIndex;
 
     private Builder(Cell rootCell, Parser parser, BuckEventBus eventBus) {
       this.rootCell = rootCell;
       this.parser = parser;
       this.eventBus = eventBus;
+      this.queryIndex = parser.getPermState().getQueryIndex();
     }
 
     private OwnersReport getReportForBasePath(
@@ -186,12 +190,45 @@ final class OwnersReport {
                   throw new HumanReadableException(e);
                 }
               });
+      if (queryIndex.isPresent() && !targetNodes.isEmpty()) {
+        return getReportFromIndex(queryIndex.get(), cell, targetNodes, cellRelativePath);
+      }
       return targetNodes
           .stream()
           .map(targetNode -> generateOwnersReport(cell, targetNode, cellRelativePath.toString()))
           .reduce(OwnersReport.emptyReport(), OwnersReport::updatedWith);
     }
 
+    /**
+     * Same as checking every node with {@link #generateOwnersReport}, but only looks up the owners
+     * of the path once. Parsing the build file above made sure its nodes are in the index.
+     */
+    @VisibleForTesting
+    static OwnersReport getReportFromIndex(
+        TargetNodeQueryIndex index,
+        Cell cell,
+        ImmutableSet<TargetNode<?, ?>> targetNodes,
+        Path cellRelativePath) {
+      String filePath = cellRelativePath.toString();
+      if (!Files.isRegularFile(cell.getFilesystem().getPathForRelativePath(filePath))) {
+        return generateOwnersReport(cell, targetNodes.iterator().next(), filePath);
+      }
+      Path commandInput = cell.getFilesystem().getPath(filePath);
+      ImmutableSet<BuildTarget> owningTargets =
+          index.getOwners(cell.getFilesystem().resolve(commandInput));
+      SetMultimap<TargetNode<?, ?>, Path> owners = TreeMultimap.create();
+      for (TargetNode<?, ?> targetNode : targetNodes) {
+        if (owningTargets.contains(targetNode.getBuildTarget())) {
+          owners.put(targetNode, commandInput);
+        }
+      }
+      return new OwnersReport(
+          owners,
+          owners.isEmpty() ? ImmutableSet.of(commandInput) : ImmutableSet.of(),
+          ImmutableSet.of(),
+          ImmutableSet.of());
+    }
+
     private ImmutableSet<Path> getAllBasePathsForPath(
         BuildFileTree buildFileTree, Path cellRelativePath) {
       Collection<Path> pathTree =
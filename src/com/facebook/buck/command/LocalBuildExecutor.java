@@ -24,8 +24,11 @@ import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.config.CachingBuildEngineBuckConfig;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
 import com.facebook.buck.core.build.engine.impl.CachingBuildEngine;
+import com.facebook.buck.core.build.engine.impl.CriticalPathScheduler;
 import com.facebook.buck.core.build.engine.impl.MetadataChecker;
 import com.facebook.buck.core.build.engine.type.BuildType;
+import com.facebook.buck.core.build.engine.type.RuleSchedulingMode;
+import com.facebook.buck.core.build.stats.BuildRuleDurationHistory;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
@@ -35,6 +38,7 @@ import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.sourcepath.resolver.impl.DefaultSourcePathResolver;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.ProjectFilesystemFactory;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
@@ -68,6 +72,9 @@ import org.immutables.value.Value;
 
 /** Used to build a given set of targets on the local machine. */
 public class LocalBuildExecutor implements BuildExecutor {
+  private static final String RULE_DURATIONS_FILE = "rule_durations.json";
+  private static final String CRITICAL_PATH_REPORT_FILE = "critical_path_report.json";
+
   private final ActionGraphAndBuilder actionGraphAndBuilder;
   private final WeightedListeningExecutorService executorService;
   private final CachingBuildEngineDelegate cachingBuildEngineDelegate;
@@ -232,7 +239,21 @@ public class LocalBuildExecutor implements BuildExecutor {
             args.getBuckConfig().getBuildInputRuleKeyFileSizeLimit(),
             ruleKeyCacheScope.getCache(),
             ruleKeyLogger),
-        remoteBuildRuleCompletionWaiter);
+        remoteBuildRuleCompletionWaiter,
+        createCriticalPathScheduler(engineConfig));
+  }
+
+  private Optional<CriticalPathScheduler> createCriticalPathScheduler(
+      CachingBuildEngineBuckConfig engineConfig) {
+    if (engineConfig.getRuleSchedulingMode() != RuleSchedulingMode.CRITICAL_PATH) {
+      return Optional.empty();
+    }
+    ProjectFilesystem filesystem = args.getRootCell().getFilesystem();
+    Path logDir = filesystem.resolve(filesystem.getBuckPaths().getLogDir());
+    return Optional.of(
+        new CriticalPathScheduler(
+            BuildRuleDurationHistory.load(logDir.resolve(RULE_DURATIONS_FILE)),
+            logDir.resolve(CRITICAL_PATH_REPORT_FILE)));
   }
 
   public Build getBuild() {
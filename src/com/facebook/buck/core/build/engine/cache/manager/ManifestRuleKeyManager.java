@@ -24,6 +24,7 @@ import com.facebook.buck.core.build.engine.manifest.Manifest;
 import com.facebook.buck.core.build.engine.manifest.ManifestFetchResult;
 import com.facebook.buck.core.build.engine.manifest.ManifestLoadResult;
 import com.facebook.buck.core.build.engine.manifest.ManifestStoreResult;
+import com.facebook.buck.core.build.engine.manifest.MappedManifest;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.BuildRule;
@@ -45,12 +46,14 @@ import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
 import java.util.function.Supplier;
 import java.util.zip.GZIPInputStream;
@@ -151,10 +154,25 @@ public class ManifestRuleKeyManager {
     // to store.
     resultBuilder.setManifestStats(manifest.getStats());
 
-    // Serialize the manifest to disk.
-    try (OutputStream outputStream =
-        rule.getProjectFilesystem().newFileOutputStream(manifestPath)) {
-      manifest.serialize(outputStream);
+    // Serialize the manifest to disk. Lookups map the manifest into memory, and truncating a file
+    // that is still mapped can crash the reader, so write a new file and move it into place.
+    Path tempManifestPath =
+        rule.getProjectFilesystem()
+            .createTempFile(
+                manifestPath.getParent(), manifestPath.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream outputStream =
+          rule.getProjectFilesystem().newFileOutputStream(tempManifestPath)) {
+        manifest.serialize(outputStream);
+      }
+      rule.getProjectFilesystem()
+          .move(
+              tempManifestPath,
+              manifestPath,
+              StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      rule.getProjectFilesystem().deleteFileAtPathIfExists(tempManifestPath);
     }
 
     Path tempFile = Files.createTempFile("buck.", ".manifest");
@@ -218,10 +236,21 @@ public class ManifestRuleKeyManager {
             return Futures.immediateFuture(cacheResult);
           }
 
-          // Download is successful, so move the manifest into place.
+          // Download is successful, so decompress the manifest into place.  It is stored
+          // uncompressed on disk so that it can be mapped into memory and queried in place.
           rule.getProjectFilesystem().createParentDirs(path);
           rule.getProjectFilesystem().deleteFileAtPathIfExists(path);
-          rule.getProjectFilesystem().move(tempPath.get(), path);
+          Path uncompressedPath = Files.createTempFile("buck.", ".manifest");
+          try (InputStream inputStream =
+                  new GZIPInputStream(
+                      new BufferedInputStream(Files.newInputStream(tempPath.get())));
+              OutputStream outputStream =
+                  new BufferedOutputStream(Files.newOutputStream(uncompressedPath))) {
+            ByteStreams.copy(inputStream, outputStream);
+          } finally {
+            Files.deleteIfExists(tempPath.get());
+          }
+          rule.getProjectFilesystem().move(uncompressedPath, path);
 
           LOG.verbose("%s: cache hit on manifest %s", rule.getBuildTarget(), key);
 
@@ -236,10 +265,7 @@ public class ManifestRuleKeyManager {
 
     // Deserialize the manifest.
     Manifest manifest;
-    // Keep the file input stream in a separate variable so that it gets closed if the
-    // GZIPInputStream constructor throws.
-    try (InputStream manifestFile = rule.getProjectFilesystem().newFileInputStream(path);
-        InputStream input = new GZIPInputStream(manifestFile)) {
+    try (InputStream input = rule.getProjectFilesystem().newFileInputStream(path)) {
       manifest = new Manifest(input);
     } catch (Exception e) {
       LOG.warn(
@@ -279,13 +305,20 @@ public class ManifestRuleKeyManager {
           RuleKeyAndInputs keyAndInputs =
               manifestBasedKeySupplier.get().orElseThrow(IllegalStateException::new);
 
-          // Load the manifest from disk.
-          ManifestLoadResult loadResult = loadManifest(keyAndInputs.getRuleKey());
-          if (!loadResult.getManifest().isPresent()) {
-            manifestFetchResult.setManifestLoadError(loadResult.getError().get());
+          // Map the manifest from disk, so that it is queried without being deserialized.
+          MappedManifest manifest;
+          try {
+            manifest =
+                MappedManifest.open(rule.getProjectFilesystem().resolve(getManifestPath(rule)));
+          } catch (Exception e) {
+            LOG.warn(
+                e,
+                "Failed to read fetched-from-cache manifest for rule %s with key %s",
+                rule,
+                keyAndInputs.getRuleKey());
+            manifestFetchResult.setManifestLoadError("corrupted manifest path");
             return Futures.immediateFuture(manifestFetchResult.build());
           }
-          Manifest manifest = loadResult.getManifest().get();
           Preconditions.checkState(
               manifest.getKey().equals(keyAndInputs.getRuleKey()),
               "%s: found incorrectly keyed manifest: %s != %s",
@@ -21,6 +21,7 @@ import com.facebook.buck.config.resources.ResourcesConfig;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.build.engine.type.MetadataStorage;
+import com.facebook.buck.core.build.engine.type.RuleSchedulingMode;
 import com.facebook.buck.core.util.immutables.BuckStyleTuple;
 import java.util.Optional;
 import org.immutables.value.Value;
@@ -66,6 +67,13 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
     return getDelegate().getLong("build", "artifact_cache_size_limit");
   }
 
+  /** @return how the build engine orders the rules that are ready to build. */
+  public RuleSchedulingMode getRuleSchedulingMode() {
+    return getDelegate()
+        .getEnum("build", "rule_scheduling", RuleSchedulingMode.class)
+        .orElse(RuleSchedulingMode.DEFAULT);
+  }
+
   public ResourceAwareSchedulingInfo getResourceAwareSchedulingInfo() {
     ResourcesConfig resourcesConfig = getDelegate().getView(ResourcesConfig.class);
     return ResourceAwareSchedulingInfo.of(
@@ -74,6 +74,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
@@ -144,6 +145,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private final Optional<BuildRuleStrategy> customBuildRuleStrategy;
 
+  private final Optional<CriticalPathScheduler> criticalPathScheduler;
+
   public CachingBuildEngine(
       CachingBuildEngineDelegate cachingBuildEngineDelegate,
       Optional<BuildRuleStrategy> customBuildRuleStrategy,
@@ -162,6 +165,50 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       boolean consoleLogBuildFailuresInline,
       RuleKeyFactories ruleKeyFactories,
       RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter) {
+    this(
+        cachingBuildEngineDelegate,
+        customBuildRuleStrategy,
+        service,
+        stepRunner,
+        buildMode,
+        metadataStorage,
+        depFiles,
+        maxDepFileCacheEntries,
+        artifactCacheSizeLimit,
+        resolver,
+        ruleFinder,
+        pathResolver,
+        buildInfoStoreManager,
+        resourceAwareSchedulingInfo,
+        consoleLogBuildFailuresInline,
+        ruleKeyFactories,
+        remoteBuildRuleCompletionWaiter,
+        Optional.empty());
+  }
+
+  /**
+   * @param criticalPathScheduler if present, rules are prioritized by their predicted position on
+   *     the critical path of the build rather than visited in random order.
+   */
+  public CachingBuildEngine(
+      CachingBuildEngineDelegate cachingBuildEngineDelegate,
+      Optional<BuildRuleStrategy> customBuildRuleStrategy,
+      WeightedListeningExecutorService service,
+      StepRunner stepRunner,
+      BuildType buildMode,
+      MetadataStorage metadataStorage,
+      DepFiles depFiles,
+      long maxDepFileCacheEntries,
+      Optional<Long> artifactCacheSizeLimit,
+      BuildRuleResolver resolver,
+      SourcePathRuleFinder ruleFinder,
+      SourcePathResolver pathResolver,
+      BuildInfoStoreManager buildInfoStoreManager,
+      ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
+      boolean consoleLogBuildFailuresInline,
+      RuleKeyFactories ruleKeyFactories,
+      RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter,
+      Optional<CriticalPathScheduler> criticalPathScheduler) {
     this(
         cachingBuildEngineDelegate,
         customBuildRuleStrategy,
@@ -188,7 +235,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                 ruleKeyFactories
                     .getDefaultRuleKeyFactory()
                     .buildForDiagnostics(appendable, new StringRuleKeyHasher())),
-        consoleLogBuildFailuresInline);
+        consoleLogBuildFailuresInline,
+        criticalPathScheduler);
   }
 
   /** This constructor MUST ONLY BE USED FOR TESTS. */
@@ -211,7 +259,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter,
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
       RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics,
-      boolean consoleLogBuildFailuresInline) {
+      boolean consoleLogBuildFailuresInline,
+      Optional<CriticalPathScheduler> criticalPathScheduler) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
     this.customBuildRuleStrategy = customBuildRuleStrategy;
 
@@ -236,6 +285,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
     this.defaultRuleKeyDiagnostics = defaultRuleKeyDiagnostics;
     this.consoleLogBuildFailuresInline = consoleLogBuildFailuresInline;
+    this.criticalPathScheduler = criticalPathScheduler;
     this.asyncCallbacks = new ConcurrentLinkedQueue<>();
     this.ruleKeyCalculator =
         new ParallelRuleKeyCalculator<>(
@@ -257,6 +307,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
         customBuildRuleStrategy.get().close();
       }
       Futures.allAsList(asyncCallbacks).get();
+      criticalPathScheduler.ifPresent(
+          scheduler ->
+              scheduler.finishBuild(ruleDeps, this::getSuccessType, buildRuleDurationTracker));
     } catch (InterruptedException e) {
       e.printStackTrace();
     } catch (IOException | ExecutionException e) {
@@ -312,12 +365,28 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       BuildRule rule, BuildEngineBuildContext buildContext, ExecutionContext executionContext) {
     List<ListenableFuture<BuildResult>> depResults =
         new ArrayList<>(SortedSets.sizeEstimate(rule.getBuildDeps()));
-    for (BuildRule dep : shuffled(rule.getBuildDeps())) {
+    Iterable<BuildRule> deps =
+        criticalPathScheduler.isPresent()
+            ? criticalPathScheduler.get().sortByPriority(rule.getBuildDeps())
+            : shuffled(rule.getBuildDeps());
+    for (BuildRule dep : deps) {
       depResults.add(getBuildRuleResultWithRuntimeDeps(dep, buildContext, executionContext));
     }
     return Futures.allAsList(depResults);
   }
 
+  private Optional<BuildRuleSuccessType> getSuccessType(BuildRule rule) {
+    ListenableFuture<BuildResult> result = results.get(rule.getBuildTarget());
+    if (result == null || !result.isDone()) {
+      return Optional.empty();
+    }
+    try {
+      return Futures.getDone(result).getSuccessOptional();
+    } catch (ExecutionException | CancellationException e) {
+      return Optional.empty();
+    }
+  }
+
   private static List<BuildRule> shuffled(Iterable<BuildRule> rules) {
     ArrayList<BuildRule> rulesList = Lists.newArrayList(rules);
     Collections.shuffle(rulesList);
@@ -414,6 +483,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   @Override
   public int getNumRulesToBuild(Iterable<BuildRule> rules) {
+    // This is the first time the build sees all of the rules it is asked to build at once.
+    criticalPathScheduler.ifPresent(scheduler -> scheduler.addTopLevelRules(rules, ruleDeps));
     Set<BuildRule> seen = Sets.newConcurrentHashSet();
     ImmutableList.Builder<ListenableFuture<?>> results = ImmutableList.builder();
     for (BuildRule rule : rules) {
@@ -436,6 +507,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     registerTopLevelRule(rule, buildContext.getEventBus());
+    criticalPathScheduler.ifPresent(
+        scheduler -> scheduler.addTopLevelRules(ImmutableList.of(rule), ruleDeps));
     ListenableFuture<BuildResult> resultFuture =
         getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
     return BuildEngineResult.builder().setResult(resultFuture).build();
@@ -499,7 +572,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             pathResolver,
             resourceAwareSchedulingInfo,
             ruleKeyFactories,
-            service,
+            criticalPathScheduler.isPresent()
+                ? service.withPriority(criticalPathScheduler.get().getPriority(rule))
+                : service,
             stepRunner,
             this.ruleDeps,
             rule,
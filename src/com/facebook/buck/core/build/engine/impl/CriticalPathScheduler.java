@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.core.build.engine.BuildRuleSuccessType;
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.build.stats.BuildRuleDurationHistory;
+import com.facebook.buck.core.build.stats.BuildRuleDurationTracker;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.timing.ClockDuration;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Prioritizes the rules of a build by the predicted length of the longest chain of work that can
+ * only start once they are built, i.e. their position on the critical path of the build.
+ *
+ * <p>Predictions come from the durations observed in previous builds. Once the build is over, the
+ * durations observed in this one are added to the history and the predicted critical path is
+ * compared with the actual one in a report.
+ */
+public class CriticalPathScheduler {
+
+  private static final Logger LOG = Logger.get(CriticalPathScheduler.class);
+
+  private final BuildRuleDurationHistory history;
+  private final Path reportPath;
+
+  @GuardedBy("this")
+  private final Set<BuildRule> topLevelRules = new LinkedHashSet<>();
+
+  private volatile CriticalPaths predicted = CriticalPaths.EMPTY;
+
+  /**
+   * @param history durations observed in previous builds, which this build's are added to.
+   * @param reportPath where to write the report comparing the predicted and actual critical paths.
+   */
+  public CriticalPathScheduler(BuildRuleDurationHistory history, Path reportPath) {
+    this.history = history;
+    this.reportPath = reportPath;
+  }
+
+  /**
+   * Adds rules requested by the build. Priorities are recomputed over all requested rules, so
+   * callers that know all of them upfront should add them at once.
+   */
+  synchronized void addTopLevelRules(Iterable<BuildRule> rules, RuleDepsCache ruleDeps) {
+    boolean changed = false;
+    for (BuildRule rule : rules) {
+      changed |= topLevelRules.add(rule);
+    }
+    if (changed) {
+      predicted =
+          CriticalPaths.compute(
+              topLevelRules,
+              ruleDeps,
+              rule -> history.getPredictedMillis(rule.getBuildTarget()));
+    }
+  }
+
+  /**
+   * @return the predicted time, in milliseconds, from the moment the rule starts building until
+   *     all the requested rules that depend on it are built. Higher values should start first.
+   */
+  long getPriority(BuildRule rule) {
+    return predicted.getRemainingMillis(rule);
+  }
+
+  /** @return the given rules ordered from the highest to the lowest priority. */
+  List<BuildRule> sortByPriority(Iterable<BuildRule> rules) {
+    CriticalPaths paths = predicted;
+    List<BuildRule> sorted = Lists.newArrayList(rules);
+    sorted.sort(Comparator.comparingLong(paths::getRemainingMillis).reversed());
+    return sorted;
+  }
+
+  /**
+   * Records the durations of the rules built locally in this build into the history, and writes a
+   * report comparing the predicted critical path with the actual one.
+   */
+  void finishBuild(
+      RuleDepsCache ruleDeps,
+      Function<BuildRule, Optional<BuildRuleSuccessType>> successTypes,
+      BuildRuleDurationTracker durationTracker) {
+    ImmutableList<BuildRule> rules;
+    synchronized (this) {
+      if (topLevelRules.isEmpty()) {
+        return;
+      }
+      rules = ImmutableList.copyOf(topLevelRules);
+    }
+    CriticalPaths predictedPaths = predicted;
+    ToLongFunction<BuildRule> actualMillis =
+        rule ->
+            durationTracker
+                .getDuration(rule.getBuildTarget())
+                .map(ClockDuration::getWallMillisDuration)
+                .orElse(0L);
+    CriticalPaths actualPaths = CriticalPaths.compute(rules, ruleDeps, actualMillis);
+
+    ImmutableMap<String, Object> report =
+        ImmutableMap.of(
+            "predicted",
+            describeCriticalPath(predictedPaths, actualMillis),
+            "actual",
+            describeCriticalPath(actualPaths, actualMillis));
+    LOG.info(
+        "Predicted critical path: %d rules, %dms. Actual critical path: %d rules, %dms.",
+        predictedPaths.criticalPath.size(),
+        predictedPaths.getCriticalPathMillis(),
+        actualPaths.criticalPath.size(),
+        actualPaths.getCriticalPathMillis());
+
+    for (BuildRule rule : actualPaths.remainingMillis.keySet()) {
+      // Rules that were fetched from a cache or didn't need to be built say little about how long
+      // building them takes.
+      if (successTypes.apply(rule).equals(Optional.of(BuildRuleSuccessType.BUILT_LOCALLY))) {
+        history.record(rule.getBuildTarget(), actualMillis.applyAsLong(rule));
+      }
+    }
+    try {
+      history.save();
+      Files.createDirectories(reportPath.getParent());
+      try (OutputStream outputStream = Files.newOutputStream(reportPath)) {
+        ObjectMappers.WRITER.writeValue(outputStream, report);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to save build rule durations or the critical path report.");
+    }
+  }
+
+  private ImmutableMap<String, Object> describeCriticalPath(
+      CriticalPaths paths, ToLongFunction<BuildRule> actualMillis) {
+    ImmutableList.Builder<ImmutableMap<String, Object>> rules = ImmutableList.builder();
+    long predictedTotal = 0;
+    long actualTotal = 0;
+    for (BuildRule rule : paths.criticalPath) {
+      long predictedMillis = history.getPredictedMillis(rule.getBuildTarget());
+      long actual = actualMillis.applyAsLong(rule);
+      predictedTotal += predictedMillis;
+      actualTotal += actual;
+      rules.add(
+          ImmutableMap.of(
+              "target",
+              rule.getFullyQualifiedName(),
+              "predictedMillis",
+              predictedMillis,
+              "actualMillis",
+              actual));
+    }
+    return ImmutableMap.of(
+        "predictedMillis", predictedTotal, "actualMillis", actualTotal, "rules", rules.build());
+  }
+
+  /** Longest chains of work in a build, given the duration of each rule. */
+  @VisibleForTesting
+  static class CriticalPaths {
+    static final CriticalPaths EMPTY = new CriticalPaths(ImmutableMap.of(), ImmutableList.of());
+
+    /**
+     * For each rule, the duration of the longest chain starting at the rule and ending at a
+     * requested rule, following reverse dependencies.
+     */
+    private final ImmutableMap<BuildRule, Long> remainingMillis;
+    /** The longest such chain overall, starting with the first rule to build. */
+    private final ImmutableList<BuildRule> criticalPath;
+
+    private CriticalPaths(
+        ImmutableMap<BuildRule, Long> remainingMillis, ImmutableList<BuildRule> criticalPath) {
+      this.remainingMillis = remainingMillis;
+      this.criticalPath = criticalPath;
+    }
+
+    static CriticalPaths compute(
+        Iterable<BuildRule> topLevelRules,
+        RuleDepsCache ruleDeps,
+        ToLongFunction<BuildRule> durationMillis) {
+      Iterable<BuildRule> postOrder;
+      try {
+        postOrder =
+            new AcyclicDepthFirstPostOrderTraversal<BuildRule>(
+                    rule -> ruleDeps.get(rule).iterator())
+                .traverse(topLevelRules);
+      } catch (AcyclicDepthFirstPostOrderTraversal.CycleException e) {
+        throw new IllegalStateException(e);
+      }
+
+      // Visit dependents before their dependencies, so that a rule's longest chain of dependents is
+      // known by the time it is visited.
+      Map<BuildRule, Long> longestDependentMillis = new HashMap<>();
+      Map<BuildRule, BuildRule> longestDependent = new HashMap<>();
+      ImmutableMap.Builder<BuildRule, Long> remainingMillis = ImmutableMap.builder();
+      BuildRule start = null;
+      long startMillis = -1;
+      for (BuildRule rule : Lists.reverse(ImmutableList.copyOf(postOrder))) {
+        long millis =
+            durationMillis.applyAsLong(rule) + longestDependentMillis.getOrDefault(rule, 0L);
+        remainingMillis.put(rule, millis);
+        if (millis > startMillis) {
+          start = rule;
+          startMillis = millis;
+        }
+        for (BuildRule dep : ruleDeps.get(rule)) {
+          if (millis > longestDependentMillis.getOrDefault(dep, -1L)) {
+            longestDependentMillis.put(dep, millis);
+            longestDependent.put(dep, rule);
+          }
+        }
+      }
+
+      ImmutableList.Builder<BuildRule> criticalPath = ImmutableList.builder();
+      for (BuildRule rule = start; rule != null; rule = longestDependent.get(rule)) {
+        criticalPath.add(rule);
+      }
+      return new CriticalPaths(remainingMillis.build(), criticalPath.build());
+    }
+
+    long getRemainingMillis(BuildRule rule) {
+      return remainingMillis.getOrDefault(rule, 0L);
+    }
+
+    long getCriticalPathMillis() {
+      return criticalPath.isEmpty() ? 0 : remainingMillis.get(criticalPath.get(0));
+    }
+
+    ImmutableList<BuildRule> getCriticalPath() {
+      return criticalPath;
+    }
+  }
+}
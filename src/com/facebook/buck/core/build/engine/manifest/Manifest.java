@@ -32,11 +32,16 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -45,12 +50,14 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
 
 public class Manifest {
 
   private static final Logger LOG = Logger.get(Manifest.class);
 
-  private static final int VERSION = 0;
+  private static final int VERSION = MappedManifest.VERSION;
+  private static final int LEGACY_VERSION = 0;
 
   private final RuleKey key;
 
@@ -72,30 +79,83 @@ public class Manifest {
     entries = new ArrayList<>();
   }
 
-  /** Deserialize an existing manifest from the given {@link InputStream}. */
+  /**
+   * Deserialize an existing manifest from the given {@link InputStream}. Both the current format
+   * and the legacy one are accepted, optionally gzip compressed.
+   */
   public Manifest(InputStream rawInput) throws IOException {
-    DataInputStream input = new DataInputStream(rawInput);
+    byte[] bytes = ByteStreams.toByteArray(rawInput);
+    if (isGzipped(bytes)) {
+      try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+        bytes = ByteStreams.toByteArray(input);
+      }
+    }
 
     // Verify the manifest version.
-    int version = input.readInt();
+    int version = bytes.length >= Integer.BYTES ? Ints.fromByteArray(bytes) : -1;
+    if (version == LEGACY_VERSION) {
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+      input.readInt();
+      key = new RuleKey(input.readUTF());
+      inputs = new ArrayList<>();
+      inputIndices = new HashMap<>();
+      hashes = new ArrayList<>();
+      hashIndices = new HashMap<>();
+      entries = new ArrayList<>();
+      readLegacy(input);
+      return;
+    }
     Preconditions.checkState(version == VERSION, "invalid version: %s != %s", version, VERSION);
 
-    key = new RuleKey(input.readUTF());
+    MappedManifest mapped = MappedManifest.wrap(ByteBuffer.wrap(bytes));
+    key = mapped.getKey();
 
-    int numberOfHeaders = input.readInt();
+    int numberOfHeaders = mapped.getInputCount();
     LOG.verbose("%s: loading %d input entries", this.key, numberOfHeaders);
     inputs = new ArrayList<>(numberOfHeaders);
     inputIndices = new HashMap<>(numberOfHeaders);
     for (int index = 0; index < numberOfHeaders; index++) {
-      String inputName = input.readUTF();
+      String inputName = mapped.getInput(index);
       inputs.add(inputName);
       inputIndices.put(inputName, index);
     }
 
-    int numberOfHashes = input.readInt();
+    int numberOfHashes = mapped.getHashCount();
     LOG.verbose("%s: loading %d hash entries", this.key, numberOfHashes);
     hashes = new ArrayList<>(numberOfHashes);
     hashIndices = new HashMap<>(numberOfHashes);
+    for (int index = 0; index < numberOfHashes; index++) {
+      Pair<Integer, HashCode> hash = mapped.getHash(index);
+      hashes.add(hash);
+      hashIndices.put(hash.getSecond(), index);
+    }
+
+    int numberOfEntries = mapped.size();
+    LOG.verbose("%s: loading %d dep file rule key entries", this.key, numberOfEntries);
+    entries = new ArrayList<>(numberOfEntries);
+    for (int entryIndex = 0; entryIndex < numberOfEntries; entryIndex++) {
+      entries.add(
+          new Pair<>(mapped.getEntryKey(entryIndex), mapped.getEntryHashIndices(entryIndex)));
+    }
+  }
+
+  private static boolean isGzipped(byte[] bytes) {
+    return bytes.length >= 2
+        && ((bytes[0] & 0xff) | (bytes[1] & 0xff) << 8) == GZIPInputStream.GZIP_MAGIC;
+  }
+
+  /** Reads the body of a manifest in the legacy format, which lists everything in order. */
+  private void readLegacy(DataInputStream input) throws IOException {
+    int numberOfHeaders = input.readInt();
+    LOG.verbose("%s: loading %d input entries", this.key, numberOfHeaders);
+    for (int index = 0; index < numberOfHeaders; index++) {
+      String inputName = input.readUTF();
+      inputs.add(inputName);
+      inputIndices.put(inputName, index);
+    }
+
+    int numberOfHashes = input.readInt();
+    LOG.verbose("%s: loading %d hash entries", this.key, numberOfHashes);
     for (int index = 0; index < numberOfHashes; index++) {
       int inputIndex = input.readInt();
       HashCode inputHash = HashCode.fromString(input.readUTF());
@@ -105,7 +165,6 @@ public class Manifest {
 
     int numberOfEntries = input.readInt();
     LOG.verbose("%s: loading %d dep file rule key entries", this.key, numberOfEntries);
-    entries = new ArrayList<>(numberOfEntries);
     for (int entryIndex = 0; entryIndex < numberOfEntries; entryIndex++) {
       int numberOfEntryHashes = input.readInt();
       int[] entryHashes = new int[numberOfEntryHashes];
@@ -228,7 +287,7 @@ public class Manifest {
     return input -> sourcePathToManifestHeader(input, resolver);
   }
 
-  private static String sourcePathToManifestHeader(SourcePath input, SourcePathResolver resolver) {
+  static String sourcePathToManifestHeader(SourcePath input, SourcePathResolver resolver) {
     if (input instanceof ArchiveMemberSourcePath) {
       return resolver.getRelativeArchiveMemberPath(input).toString();
     } else {
@@ -265,11 +324,27 @@ public class Manifest {
     entries.add(new Pair<>(key, hashIndices));
   }
 
-  /** Serializes the manifest to the given {@link OutputStream}. */
+  /**
+   * Serializes the manifest to the given {@link OutputStream}, in the format read by {@link
+   * MappedManifest}.
+   */
   public void serialize(OutputStream rawOutput) throws IOException {
+    MappedManifest.write(key, inputs, hashes, entries, rawOutput);
+  }
+
+  /** Serializes the manifest into a buffer which can be queried in place. */
+  public MappedManifest toMappedManifest() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    serialize(output);
+    return MappedManifest.wrap(ByteBuffer.wrap(output.toByteArray()));
+  }
+
+  /** Serializes the manifest in the legacy format, which older versions of buck expect. */
+  @VisibleForTesting
+  void serializeLegacy(OutputStream rawOutput) throws IOException {
     DataOutputStream output = new DataOutputStream(rawOutput);
 
-    output.writeInt(VERSION);
+    output.writeInt(LEGACY_VERSION);
 
     output.writeUTF(key.toString());
 
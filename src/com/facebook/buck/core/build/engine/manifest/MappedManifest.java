@@ -0,0 +1,547 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.manifest;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A read-only view of a serialized {@link Manifest} which answers lookups directly from the
+ * serialized bytes, typically a memory-mapped file, without deserializing the manifest first.
+ *
+ * <p>The layout is a header followed by three sections, all integers being big-endian:
+ *
+ * <pre>
+ *   header:  version, key length, key (UTF-8), input count, hash count, entry count
+ *   inputs:  (input count + 1) offsets, then the UTF-8 bytes of all input paths, sorted
+ *   hashes:  input index of each hash, (hash count + 1) offsets, then the bytes of all hashes,
+ *            sorted by input index and hash
+ *   entries: (entry count + 1) offsets, then the hash indices of all entries, then
+ *            (entry count + 1) offsets, then the rule keys of all entries (UTF-8)
+ * </pre>
+ *
+ * Every list of offsets starts at 0 and ends with the total size of the data following it, so the
+ * position of each section is found without scanning the previous ones.
+ */
+public class MappedManifest {
+
+  static final int VERSION = 1;
+
+  /** Below this many hashes to check, matching entries in parallel costs more than it saves. */
+  private static final int PARALLEL_LOOKUP_THRESHOLD = 1024;
+
+  private static final int LOOKUP_PARALLELISM =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Matches the entries of large manifests in parallel. Lookups run on the build's threads, so this
+   * is a small pool of its own rather than one shared with the build, and a lookup runs any part of
+   * its work this pool didn't get to yet itself.
+   */
+  private static final ExecutorService LOOKUP_EXECUTOR = createLookupExecutor();
+
+  private static final Comparator<byte[]> BYTES_COMPARATOR =
+      UnsignedBytes.lexicographicalComparator();
+
+  private final ByteBuffer buffer;
+  private final RuleKey key;
+  private final int inputCount;
+  private final int hashCount;
+  private final int entryCount;
+
+  private final int inputOffsetsPosition;
+  private final int inputDataPosition;
+  private final int hashInputIndicesPosition;
+  private final int hashOffsetsPosition;
+  private final int hashDataPosition;
+  private final int entryOffsetsPosition;
+  private final int entryHashIndicesPosition;
+  private final int entryKeyOffsetsPosition;
+  private final int entryKeyDataPosition;
+
+  private MappedManifest(ByteBuffer buffer) {
+    this.buffer = buffer;
+
+    int position = 0;
+    int version = buffer.getInt(position);
+    Preconditions.checkState(version == VERSION, "invalid version: %s != %s", version, VERSION);
+    position += Integer.BYTES;
+    int keyLength = buffer.getInt(position);
+    position += Integer.BYTES;
+    key = new RuleKey(readString(position, keyLength));
+    position += keyLength;
+    inputCount = buffer.getInt(position);
+    hashCount = buffer.getInt(position + Integer.BYTES);
+    entryCount = buffer.getInt(position + 2 * Integer.BYTES);
+    position += 3 * Integer.BYTES;
+
+    inputOffsetsPosition = position;
+    inputDataPosition = inputOffsetsPosition + (inputCount + 1) * Integer.BYTES;
+    hashInputIndicesPosition = inputDataPosition + buffer.getInt(inputDataPosition - Integer.BYTES);
+    hashOffsetsPosition = hashInputIndicesPosition + hashCount * Integer.BYTES;
+    hashDataPosition = hashOffsetsPosition + (hashCount + 1) * Integer.BYTES;
+    entryOffsetsPosition = hashDataPosition + buffer.getInt(hashDataPosition - Integer.BYTES);
+    entryHashIndicesPosition = entryOffsetsPosition + (entryCount + 1) * Integer.BYTES;
+    entryKeyOffsetsPosition =
+        entryHashIndicesPosition
+            + buffer.getInt(entryHashIndicesPosition - Integer.BYTES) * Integer.BYTES;
+    entryKeyDataPosition = entryKeyOffsetsPosition + (entryCount + 1) * Integer.BYTES;
+    Preconditions.checkState(
+        entryKeyDataPosition + buffer.getInt(entryKeyDataPosition - Integer.BYTES)
+            <= buffer.limit(),
+        "truncated manifest");
+  }
+
+  /** Wraps a buffer holding a manifest in the current format. */
+  public static MappedManifest wrap(ByteBuffer buffer) {
+    return new MappedManifest(buffer.slice());
+  }
+
+  /**
+   * Maps the manifest stored at the given path into memory. Manifests stored in an older format,
+   * compressed or not, are deserialized and converted instead.
+   */
+  public static MappedManifest open(Path path) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.limit() >= Integer.BYTES && buffer.getInt(0) == VERSION) {
+      return new MappedManifest(buffer);
+    }
+    try (InputStream input = Files.newInputStream(path)) {
+      return new Manifest(input).toMappedManifest();
+    }
+  }
+
+  public RuleKey getKey() {
+    return key;
+  }
+
+  public int size() {
+    return entryCount;
+  }
+
+  public ManifestStats getStats() {
+    return ManifestStats.builder()
+        .setNumDepFiles(entryCount)
+        .setNumInputs(inputCount)
+        .setNumHashes(hashCount)
+        .build();
+  }
+
+  /**
+   * @return the {@link RuleKey} of the first entry that matches the on disk hashes provided by
+   *     {@code fileHashCache}.
+   */
+  public Optional<RuleKey> lookup(
+      FileHashCache fileHashCache, SourcePathResolver resolver, ImmutableSet<SourcePath> universe)
+      throws IOException {
+    // Group the source paths we care about by the index of the input they map to.
+    ImmutableListMultimap.Builder<Integer, SourcePath> candidatesBuilder =
+        ImmutableListMultimap.builder();
+    for (SourcePath sourcePath : universe) {
+      OptionalInt inputIndex = findInput(Manifest.sourcePathToManifestHeader(sourcePath, resolver));
+      if (inputIndex.isPresent()) {
+        candidatesBuilder.put(inputIndex.getAsInt(), sourcePath);
+      }
+    }
+    ImmutableListMultimap<Integer, SourcePath> candidates = candidatesBuilder.build();
+
+    // The on-disk hash of each input is computed at most once, however many entries refer to it.
+    AtomicInteger firstMatch = new AtomicInteger(entryCount);
+    if (LOOKUP_PARALLELISM < 2 || getEntryHashIndexCount() < PARALLEL_LOOKUP_THRESHOLD) {
+      matchEntries(0, 1, fileHashCache, resolver, candidates, new HashMap<>(), firstMatch);
+    } else {
+      matchEntriesInParallel(fileHashCache, resolver, candidates, firstMatch);
+    }
+    return firstMatch.get() < entryCount
+        ? Optional.of(getEntryKey(firstMatch.get()))
+        : Optional.empty();
+  }
+
+  /**
+   * Splits the entries into interleaved stripes, so that the earliest entries are checked first,
+   * and matches them on {@link #LOOKUP_EXECUTOR} and the calling thread.
+   */
+  private void matchEntriesInParallel(
+      FileHashCache fileHashCache,
+      SourcePathResolver resolver,
+      ImmutableListMultimap<Integer, SourcePath> candidates,
+      AtomicInteger firstMatch)
+      throws IOException {
+    // Two stripes may both hash an input that neither has cached yet, which is harmless.
+    Map<Integer, Optional<HashCode>> onDiskHashes = new ConcurrentHashMap<>();
+    List<FutureTask<Void>> stripes = new ArrayList<>(LOOKUP_PARALLELISM);
+    for (int stripe = 0; stripe < LOOKUP_PARALLELISM; stripe++) {
+      int firstEntry = stripe;
+      FutureTask<Void> task =
+          new FutureTask<>(
+              () -> {
+                matchEntries(
+                    firstEntry,
+                    LOOKUP_PARALLELISM,
+                    fileHashCache,
+                    resolver,
+                    candidates,
+                    onDiskHashes,
+                    firstMatch);
+                return null;
+              });
+      stripes.add(task);
+      if (stripe > 0) {
+        LOOKUP_EXECUTOR.execute(task);
+      }
+    }
+
+    // Running a stripe that was already started or finished does nothing.
+    for (FutureTask<Void> stripe : stripes) {
+      stripe.run();
+    }
+    for (FutureTask<Void> stripe : stripes) {
+      try {
+        Uninterruptibles.getUninterruptibly(stripe);
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Checks every {@code step}th entry starting at {@code firstEntry}, stopping at the first one
+   * that matches or at an entry later than a match that was already found.
+   */
+  private void matchEntries(
+      int firstEntry,
+      int step,
+      FileHashCache fileHashCache,
+      SourcePathResolver resolver,
+      ImmutableListMultimap<Integer, SourcePath> candidates,
+      Map<Integer, Optional<HashCode>> onDiskHashes,
+      AtomicInteger firstMatch)
+      throws IOException {
+    for (int entry = firstEntry; entry < firstMatch.get(); entry += step) {
+      if (entryMatches(entry, fileHashCache, resolver, candidates, onDiskHashes)) {
+        firstMatch.accumulateAndGet(entry, Math::min);
+        return;
+      }
+    }
+  }
+
+  private static ExecutorService createLookupExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            LOOKUP_PARALLELISM,
+            LOOKUP_PARALLELISM,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("ManifestLookup-%d").setDaemon(true).build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /** @return the total number of hash references made by all entries. */
+  private int getEntryHashIndexCount() {
+    return buffer.getInt(entryHashIndicesPosition - Integer.BYTES);
+  }
+
+  private boolean entryMatches(
+      int entry,
+      FileHashCache fileHashCache,
+      SourcePathResolver resolver,
+      ImmutableListMultimap<Integer, SourcePath> candidates,
+      Map<Integer, Optional<HashCode>> onDiskHashes)
+      throws IOException {
+    int end = buffer.getInt(entryOffsetsPosition + (entry + 1) * Integer.BYTES);
+    for (int i = buffer.getInt(entryOffsetsPosition + entry * Integer.BYTES); i < end; i++) {
+      int hashIndex = buffer.getInt(entryHashIndicesPosition + i * Integer.BYTES);
+      int inputIndex = buffer.getInt(hashInputIndicesPosition + hashIndex * Integer.BYTES);
+      Optional<HashCode> onDiskHash = onDiskHashes.get(inputIndex);
+      if (onDiskHash == null) {
+        onDiskHash = hashOnDisk(fileHashCache, resolver, candidates.get(inputIndex));
+        onDiskHashes.put(inputIndex, onDiskHash);
+      }
+      if (!onDiskHash.isPresent() || !hashEquals(hashIndex, onDiskHash.get())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Optional<HashCode> hashOnDisk(
+      FileHashCache fileHashCache, SourcePathResolver resolver, ImmutableList<SourcePath> paths)
+      throws IOException {
+    if (paths.isEmpty()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(Manifest.hashSourcePathGroup(fileHashCache, resolver, paths));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  private boolean hashEquals(int hashIndex, HashCode hash) {
+    int start = buffer.getInt(hashOffsetsPosition + hashIndex * Integer.BYTES);
+    int end = buffer.getInt(hashOffsetsPosition + (hashIndex + 1) * Integer.BYTES);
+    byte[] bytes = hash.asBytes();
+    if (bytes.length != end - start) {
+      return false;
+    }
+    for (int i = 0; i < bytes.length; i++) {
+      if (buffer.get(hashDataPosition + start + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Binary searches the sorted input table. */
+  private OptionalInt findInput(String input) {
+    byte[] target = input.getBytes(StandardCharsets.UTF_8);
+    int low = 0;
+    int high = inputCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int comparison = compareInput(mid, target);
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        return OptionalInt.of(mid);
+      }
+    }
+    return OptionalInt.empty();
+  }
+
+  private int compareInput(int inputIndex, byte[] target) {
+    int start = buffer.getInt(inputOffsetsPosition + inputIndex * Integer.BYTES);
+    int length = buffer.getInt(inputOffsetsPosition + (inputIndex + 1) * Integer.BYTES) - start;
+    int commonLength = Math.min(length, target.length);
+    for (int i = 0; i < commonLength; i++) {
+      int comparison = UnsignedBytes.compare(buffer.get(inputDataPosition + start + i), target[i]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return length - target.length;
+  }
+
+  String getInput(int inputIndex) {
+    int start = buffer.getInt(inputOffsetsPosition + inputIndex * Integer.BYTES);
+    int end = buffer.getInt(inputOffsetsPosition + (inputIndex + 1) * Integer.BYTES);
+    return readString(inputDataPosition + start, end - start);
+  }
+
+  Pair<Integer, HashCode> getHash(int hashIndex) {
+    int start = buffer.getInt(hashOffsetsPosition + hashIndex * Integer.BYTES);
+    int end = buffer.getInt(hashOffsetsPosition + (hashIndex + 1) * Integer.BYTES);
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(hashDataPosition + start + i);
+    }
+    return new Pair<>(
+        buffer.getInt(hashInputIndicesPosition + hashIndex * Integer.BYTES),
+        HashCode.fromBytes(bytes));
+  }
+
+  int[] getEntryHashIndices(int entry) {
+    int start = buffer.getInt(entryOffsetsPosition + entry * Integer.BYTES);
+    int end = buffer.getInt(entryOffsetsPosition + (entry + 1) * Integer.BYTES);
+    int[] hashIndices = new int[end - start];
+    for (int i = 0; i < hashIndices.length; i++) {
+      hashIndices[i] = buffer.getInt(entryHashIndicesPosition + (start + i) * Integer.BYTES);
+    }
+    return hashIndices;
+  }
+
+  RuleKey getEntryKey(int entry) {
+    int start = buffer.getInt(entryKeyOffsetsPosition + entry * Integer.BYTES);
+    int end = buffer.getInt(entryKeyOffsetsPosition + (entry + 1) * Integer.BYTES);
+    return new RuleKey(readString(entryKeyDataPosition + start, end - start));
+  }
+
+  int getInputCount() {
+    return inputCount;
+  }
+
+  int getHashCount() {
+    return hashCount;
+  }
+
+  private String readString(int position, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(position + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes a manifest in the layout described above. Inputs and hashes are renumbered into sorted
+   * order; entries keep their order, since lookups return the first one that matches.
+   */
+  static void write(
+      RuleKey key,
+      List<String> inputs,
+      List<Pair<Integer, HashCode>> hashes,
+      List<Pair<RuleKey, int[]>> entries,
+      OutputStream rawOutput)
+      throws IOException {
+    DataOutputStream output = new DataOutputStream(rawOutput);
+
+    byte[][] encodedInputs = new byte[inputs.size()][];
+    for (int i = 0; i < encodedInputs.length; i++) {
+      encodedInputs[i] = inputs.get(i).getBytes(StandardCharsets.UTF_8);
+    }
+    Integer[] inputOrder =
+        sortedOrder(
+            inputs.size(), (a, b) -> BYTES_COMPARATOR.compare(encodedInputs[a], encodedInputs[b]));
+    int[] newInputIndices = inverse(inputOrder);
+
+    Integer[] hashOrder =
+        sortedOrder(
+            hashes.size(),
+            Comparator.<Integer>comparingInt(i -> newInputIndices[hashes.get(i).getFirst()])
+                .thenComparing(i -> hashes.get(i).getSecond().asBytes(), BYTES_COMPARATOR));
+    int[] newHashIndices = inverse(hashOrder);
+
+    output.writeInt(VERSION);
+    writeBytes(output, key.toString().getBytes(StandardCharsets.UTF_8));
+    output.writeInt(inputs.size());
+    output.writeInt(hashes.size());
+    output.writeInt(entries.size());
+
+    int offset = 0;
+    output.writeInt(offset);
+    for (int index : inputOrder) {
+      offset += encodedInputs[index].length;
+      output.writeInt(offset);
+    }
+    for (int index : inputOrder) {
+      output.write(encodedInputs[index]);
+    }
+
+    for (int index : hashOrder) {
+      output.writeInt(newInputIndices[hashes.get(index).getFirst()]);
+    }
+    offset = 0;
+    output.writeInt(offset);
+    for (int index : hashOrder) {
+      offset += hashes.get(index).getSecond().bits() / Byte.SIZE;
+      output.writeInt(offset);
+    }
+    for (int index : hashOrder) {
+      output.write(hashes.get(index).getSecond().asBytes());
+    }
+
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<RuleKey, int[]> entry : entries) {
+      offset += entry.getSecond().length;
+      output.writeInt(offset);
+    }
+    for (Pair<RuleKey, int[]> entry : entries) {
+      int[] entryHashIndices = new int[entry.getSecond().length];
+      for (int i = 0; i < entryHashIndices.length; i++) {
+        entryHashIndices[i] = newHashIndices[entry.getSecond()[i]];
+      }
+      Arrays.sort(entryHashIndices);
+      for (int hashIndex : entryHashIndices) {
+        output.writeInt(hashIndex);
+      }
+    }
+
+    byte[][] encodedKeys = new byte[entries.size()][];
+    offset = 0;
+    output.writeInt(offset);
+    for (int i = 0; i < encodedKeys.length; i++) {
+      encodedKeys[i] = entries.get(i).getFirst().toString().getBytes(StandardCharsets.UTF_8);
+      offset += encodedKeys[i].length;
+      output.writeInt(offset);
+    }
+    for (byte[] encodedKey : encodedKeys) {
+      output.write(encodedKey);
+    }
+    output.flush();
+  }
+
+  private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static Integer[] sortedOrder(int size, Comparator<Integer> comparator) {
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, comparator);
+    return order;
+  }
+
+  private static int[] inverse(Integer[] order) {
+    int[] inverse = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      inverse[order[i]] = i;
+    }
+    return inverse;
+  }
+}
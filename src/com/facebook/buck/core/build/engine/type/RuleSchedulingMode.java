@@ -0,0 +1,28 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.type;
+
+/** How the build engine decides which of the rules that are ready to build goes first. */
+public enum RuleSchedulingMode {
+  /** Dependencies are visited in random order and rules start in the order they become ready. */
+  DEFAULT,
+  /**
+   * Rules with the longest predicted chain of dependents still to build, based on the durations
+   * observed in previous builds, go first.
+   */
+  CRITICAL_PATH,
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.stats;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableSortedMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Durations of build rules observed in previous builds, used to predict how long building them
+ * will take.
+ *
+ * <p>The prediction for a rule is a moving average of its observed durations, so that a single
+ * unusually slow or fast build doesn't dominate it. Rules that were never observed are predicted to
+ * take as long as the average rule that was.
+ */
+@ThreadSafe
+public class BuildRuleDurationHistory {
+
+  private static final Logger LOG = Logger.get(BuildRuleDurationHistory.class);
+
+  /** Weight of the latest observation in the moving average. */
+  private static final double SMOOTHING_FACTOR = 0.5;
+
+  private static final long MIN_DEFAULT_PREDICTION_MILLIS = 1;
+
+  private final Path path;
+  private final ConcurrentMap<String, Long> durationsMillis;
+  private final long defaultPredictionMillis;
+
+  private BuildRuleDurationHistory(Path path, Map<String, Long> durationsMillis) {
+    this.path = path;
+    this.durationsMillis = new ConcurrentHashMap<>(durationsMillis);
+    this.defaultPredictionMillis =
+        Math.max(
+            MIN_DEFAULT_PREDICTION_MILLIS,
+            (long)
+                durationsMillis.values().stream().mapToLong(Long::longValue).average().orElse(0));
+  }
+
+  /** Creates a history that starts out empty and is saved to the given path. */
+  public static BuildRuleDurationHistory empty(Path path) {
+    return new BuildRuleDurationHistory(path, ImmutableSortedMap.of());
+  }
+
+  /**
+   * Loads the history saved at the given path. A missing or unreadable history is treated as an
+   * empty one, since it only affects the order in which rules are built.
+   */
+  public static BuildRuleDurationHistory load(Path path) {
+    try {
+      Map<String, Long> durationsMillis =
+          ObjectMappers.readValue(path, new TypeReference<Map<String, Long>>() {});
+      return new BuildRuleDurationHistory(path, durationsMillis);
+    } catch (NoSuchFileException e) {
+      return empty(path);
+    } catch (IOException e) {
+      LOG.warn(e, "Ignoring unreadable build rule duration history at %s", path);
+      return empty(path);
+    }
+  }
+
+  /** @return how long building the rule is predicted to take, in milliseconds. */
+  public long getPredictedMillis(BuildTarget target) {
+    return durationsMillis.getOrDefault(target.getFullyQualifiedName(), defaultPredictionMillis);
+  }
+
+  /** Records how long building the rule took in the current build. */
+  public void record(BuildTarget target, long durationMillis) {
+    durationsMillis.merge(
+        target.getFullyQualifiedName(),
+        durationMillis,
+        (previous, observed) ->
+            Math.round(SMOOTHING_FACTOR * observed + (1 - SMOOTHING_FACTOR) * previous));
+  }
+
+  /** Saves the history, replacing the previously saved one. */
+  public void save() throws IOException {
+    Files.createDirectories(path.getParent());
+    Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (OutputStream outputStream = Files.newOutputStream(tempPath)) {
+      ObjectMappers.WRITER.writeValue(outputStream, ImmutableSortedMap.copyOf(durationsMillis));
+    }
+    Files.move(
+        tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -20,6 +20,7 @@ import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.util.timing.ClockDuration;
 import com.google.common.annotations.VisibleForTesting;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import javax.annotation.concurrent.GuardedBy;
@@ -44,6 +45,14 @@ public class BuildRuleDurationTracker {
     durations.put(rule.getBuildTarget(), new DurationHolder(duration));
   }
 
+  /**
+   * @return the duration of the work spent on the rule so far, not counting an interval that is
+   *     still in progress, or {@link Optional#empty()} if no work was tracked for it.
+   */
+  public Optional<ClockDuration> getDuration(BuildTarget target) {
+    return Optional.ofNullable(durations.get(target)).map(DurationHolder::getCompletedDuration);
+  }
+
   public ClockDuration doBeginning(BuildRule rule, long wallMillisTime, long nanoTime) {
     return durations
         .computeIfAbsent(rule.getBuildTarget(), (key) -> new DurationHolder())
@@ -90,6 +99,10 @@ public class BuildRuleDurationTracker {
       threadUserNanoDuration = initialDuration.getThreadUserNanoDuration();
     }
 
+    public synchronized ClockDuration getCompletedDuration() {
+      return new ClockDuration(wallMillisDuration, nanoDuration, threadUserNanoDuration);
+    }
+
     public synchronized ClockDuration getDurationAt(long wallMillisTime, long nanoTime) {
       return new ClockDuration(
           wallMillisDuration + wallMillisTime - wallMillisStarted,
@@ -20,7 +20,6 @@ import com.facebook.buck.config.ActionGraphParallelizationMode;
 import com.facebook.buck.config.BuckConfig;
 import com.facebook.buck.config.IncrementalActionGraphMode;
 import com.facebook.buck.core.cell.CellProvider;
-import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.actiongraph.ActionGraph;
 import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
@@ -45,6 +44,7 @@ import com.facebook.buck.event.ExperimentEvent;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.graph.ParallelTopologicalTraversal;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyFactory;
@@ -64,12 +64,14 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.StreamSupport;
 
 /**
@@ -400,50 +402,41 @@ public class ActionGraphCache {
       ForkJoinPool pool) {
     ActionGraphBuilder graphBuilder =
         new MultiThreadedActionGraphBuilder(pool, targetGraph, transformer, cellProvider);
-    HashMap<BuildTarget, CompletableFuture<BuildRule>> futures = new HashMap<>();
-
-    if (incrementalActionGraphMode == IncrementalActionGraphMode.ENABLED) {
-      // Any previously cached action graphs are no longer valid, as we may use build rules from
-      // those graphs to construct a new graph incrementally, and update those build rules to use a
-      // new BuildRuleResolver.
-      invalidateCache();
-
-      // Populate the new build rule graphBuilder with all of the usable rules from the last build
-      // rule
-      // graphBuilder for incremental action graph generation.
-      incrementalActionGraphGenerator.populateActionGraphBuilderWithCachedRules(
-          eventBus, targetGraph, graphBuilder);
-    }
 
-    LOG.debug("start target graph walk");
-    new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
-      @Override
-      public void visit(TargetNode<?, ?> node) {
-        // If we're loading this node from cache, we don't need to wait on our children, as the
-        // entire subgraph will be loaded from cache.
-        CompletableFuture<BuildRule>[] depFutures =
-            targetGraph
-                .getOutgoingNodesFor(node)
-                .stream()
-                .map(dep -> Preconditions.checkNotNull(futures.get(dep.getBuildTarget())))
-                .<CompletableFuture<BuildRule>>toArray(CompletableFuture[]::new);
-        futures.put(
-            node.getBuildTarget(),
-            CompletableFuture.allOf(depFutures)
-                .thenApplyAsync(ignored -> graphBuilder.requireRule(node.getBuildTarget()), pool));
-      }
-    }.traverse();
+    Optional<IncrementalActionGraphGenerator.Delta> delta =
+        populateWithCachedRules(eventBus, targetGraph, graphBuilder, incrementalActionGraphMode);
+    long buildStart = System.nanoTime();
 
-    // Wait for completion. The results are ignored as we only care about the rules populated in
-    // the graphBuilder, which is a superset of the rules generated directly from target nodes.
+    LOG.debug("start target graph walk");
+    // Nodes are only handed to the pool once their deps are done, so that at most a few tasks per
+    // worker are queued at any time instead of one task per node in the target graph.
+    ParallelTopologicalTraversal<TargetNode<?, ?>> traversal =
+        new ParallelTopologicalTraversal<>(
+            targetGraph.getCompactGraph(),
+            ParallelTopologicalTraversal.Direction.BOTTOM_UP,
+            pool,
+            4 * pool.getParallelism());
+    ListenableFuture<Void> walk =
+        traversal.traverse(
+            node -> {
+              // If we're loading this node from cache, the entire subgraph will be loaded from
+              // cache as well, so there is nothing to do.
+              if (!delta.isPresent() || !delta.get().isReused(node.getBuildTarget())) {
+                graphBuilder.requireRule(node.getBuildTarget());
+              }
+            });
+
+    // Wait for completion. We only care about the rules populated in the graphBuilder, which is a
+    // superset of the rules generated directly from target nodes.
     try {
-      CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[futures.size()]))
-          .join();
-    } catch (CompletionException e) {
+      Uninterruptibles.getUninterruptibly(walk);
+    } catch (ExecutionException e) {
       Throwables.throwIfUnchecked(e.getCause());
       throw new IllegalStateException("unexpected checked exception", e);
     }
     LOG.debug("end target graph walk");
+    delta.ifPresent(
+        d -> postIncrementalUpdate(eventBus, d, graphBuilder, System.nanoTime() - buildStart));
 
     return ActionGraphAndBuilder.builder()
         .setActionGraph(new ActionGraph(graphBuilder.getBuildRules()))
@@ -462,22 +455,18 @@ public class ActionGraphCache {
     ActionGraphBuilder graphBuilder =
         new SingleThreadedActionGraphBuilder(targetGraph, transformer, cellProvider);
 
-    if (incrementalActionGraphMode == IncrementalActionGraphMode.ENABLED) {
-      // Any previously cached action graphs are no longer valid, as we may use build rules from
-      // those graphs to construct a new graph incrementally, and update those build rules to use a
-      // new BuildRuleResolver.
-      invalidateCache();
-
-      // Populate the new build rule graphBuilder with all of the usable rules from the last build
-      // rule graphBuilder for incremental action graph generation.
-      incrementalActionGraphGenerator.populateActionGraphBuilderWithCachedRules(
-          eventBus, targetGraph, graphBuilder);
-    }
+    Optional<IncrementalActionGraphGenerator.Delta> delta =
+        populateWithCachedRules(eventBus, targetGraph, graphBuilder, incrementalActionGraphMode);
+    long buildStart = System.nanoTime();
 
     LOG.debug("start target graph walk");
     new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
       @Override
       public void visit(TargetNode<?, ?> node) {
+        if (delta.isPresent() && delta.get().isReused(node.getBuildTarget())) {
+          // The rule, and everything it depends on, was loaded from the previous action graph.
+          return;
+        }
         if (shouldInstrumentGraphBuilding) {
           Clock clock = new DefaultClock();
           try (Scope ignored =
@@ -502,6 +491,8 @@ public class ActionGraphCache {
       }
     }.traverse();
     LOG.debug("end target graph walk");
+    delta.ifPresent(
+        d -> postIncrementalUpdate(eventBus, d, graphBuilder, System.nanoTime() - buildStart));
 
     return ActionGraphAndBuilder.builder()
         .setActionGraph(new ActionGraph(graphBuilder.getBuildRules()))
@@ -509,6 +500,51 @@ public class ActionGraphCache {
         .build();
   }
 
+  private Optional<IncrementalActionGraphGenerator.Delta> populateWithCachedRules(
+      BuckEventBus eventBus,
+      TargetGraph targetGraph,
+      ActionGraphBuilder graphBuilder,
+      IncrementalActionGraphMode incrementalActionGraphMode) {
+    if (incrementalActionGraphMode != IncrementalActionGraphMode.ENABLED) {
+      return Optional.empty();
+    }
+
+    // Any previously cached action graphs are no longer valid, as we may use build rules from
+    // those graphs to construct a new graph incrementally, and update those build rules to use a
+    // new BuildRuleResolver.
+    invalidateCache();
+
+    // Populate the new build rule graphBuilder with all of the usable rules from the last build
+    // rule graphBuilder for incremental action graph generation.
+    return Optional.of(
+        incrementalActionGraphGenerator.populateActionGraphBuilderWithCachedRules(
+            eventBus, targetGraph, graphBuilder));
+  }
+
+  private static void postIncrementalUpdate(
+      BuckEventBus eventBus,
+      IncrementalActionGraphGenerator.Delta delta,
+      ActionGraphBuilder graphBuilder,
+      long buildNanos) {
+    int totalRules = Iterables.size(graphBuilder.getBuildRules());
+    LOG.debug(
+        "incremental action graph: %d target nodes changed, %d invalidated, %d of %d rules reused",
+        delta.getChangedNodeCount(),
+        delta.getInvalidatedNodeCount(),
+        delta.getReusedRuleCount(),
+        totalRules);
+    eventBus.post(
+        new ActionGraphPerfStatEvent.IncrementalUpdate(
+            delta.getChangedNodeCount(),
+            delta.getInvalidatedNodeCount(),
+            delta.getReusedRuleCount(),
+            totalRules - delta.getReusedRuleCount(),
+            TimeUnit.NANOSECONDS.toMillis(delta.getDiffNanos()),
+            TimeUnit.NANOSECONDS.toMillis(delta.getInvalidationNanos()),
+            TimeUnit.NANOSECONDS.toMillis(delta.getReuseNanos()),
+            TimeUnit.NANOSECONDS.toMillis(buildNanos)));
+  }
+
   private static Map<BuildRule, RuleKey> getRuleKeysFromBuildRules(
       Iterable<BuildRule> buildRules,
       BuildRuleResolver buildRuleResolver,
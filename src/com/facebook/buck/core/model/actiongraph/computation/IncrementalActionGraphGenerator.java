@@ -29,9 +29,11 @@ import com.facebook.buck.event.ActionGraphEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.log.Logger;
 import com.google.common.base.Preconditions;
-import java.util.HashMap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -39,8 +41,10 @@ import javax.annotation.Nullable;
 /**
  * Provides a way to incrementally construct a new {@link ActionGraphBuilder} from a previous one.
  *
- * <p>This works by grabbing all the build rules from the previous {@link ActionGraphBuilder} with
- * unflavored targets that were not invalidated when doing a target graph walk to check for changes.
+ * <p>This works by diffing the new target graph against the previous one to find the target nodes
+ * that changed, and invalidating only their reverse-dependency cone. All build rules from the
+ * previous {@link ActionGraphBuilder} with unflavored targets outside of that cone are reused, so
+ * only the rules for the invalidated nodes need to be created again.
  */
 public class IncrementalActionGraphGenerator {
   private static final Logger LOG = Logger.get(IncrementalActionGraphGenerator.class);
@@ -50,33 +54,96 @@ public class IncrementalActionGraphGenerator {
 
   /**
    * Populates the given {@link ActionGraphBuilder} with the rules from the previously used {@link
-   * ActionGraphBuilder} that are deemed usable after checking for invalidations with a target graph
-   * walk.
+   * ActionGraphBuilder} that are deemed usable after diffing the target graphs.
+   *
+   * @return the targets whose rules were loaded from the previous {@link ActionGraphBuilder}, and
+   *     therefore don't need to be required again, along with per-phase statistics.
    */
-  public void populateActionGraphBuilderWithCachedRules(
+  public Delta populateActionGraphBuilderWithCachedRules(
       BuckEventBus eventBus, TargetGraph targetGraph, ActionGraphBuilder graphBuilder) {
-    int reusedRuleCount = 0;
+    Delta delta = new Delta();
     if (lastActionGraphBuilder != null) {
-      // We figure out which build rules we can reuse from the last action graph by performing an
-      // invalidation walk over the new target graph.
-      Map<BuildTarget, Boolean> explored = new HashMap<>();
-      Set<UnflavoredBuildTarget> validTargets = new HashSet<>();
-      for (TargetNode<?, ?> root : targetGraph.getNodesWithNoIncomingEdges()) {
-        invalidateChangedTargets(root, targetGraph, explored, validTargets);
-      }
+      // Find the nodes that changed since the last target graph.
+      long start = System.nanoTime();
+      Set<TargetNode<?, ?>> changedNodes = findChangedNodes(targetGraph);
+      long diffed = System.nanoTime();
+
+      // Everything that transitively depends on a changed node may generate its subgraph
+      // differently, so it needs to be regenerated.
+      Set<TargetNode<?, ?>> invalidatedNodes =
+          invalidateReverseDependencies(targetGraph, changedNodes);
+      long invalidated = System.nanoTime();
 
       // Now we can load in all build rules whose unflavored targets weren't invalidated for
       // incremental action graph generation.
-      reusedRuleCount = addValidRulesToActionGraphBuilder(graphBuilder, validTargets);
+      Set<UnflavoredBuildTarget> validTargets = new HashSet<>();
+      for (TargetNode<?, ?> node : targetGraph.getNodes()) {
+        if (!invalidatedNodes.contains(node)) {
+          delta.reusedTargets.add(node.getBuildTarget());
+          validTargets.add(node.getBuildTarget().getUnflavoredBuildTarget());
+        }
+      }
+      delta.reusedRuleCount = addValidRulesToActionGraphBuilder(graphBuilder, validTargets);
+      long reused = System.nanoTime();
 
       // Invalidate the previous {@see ActionGraphBuilder}, which we no longer need, to make sure
       // nobody unexpectedly accesses it after this point.
       lastActionGraphBuilder.invalidate();
+
+      delta.changedNodeCount = changedNodes.size();
+      delta.invalidatedNodeCount = invalidatedNodes.size();
+      delta.diffNanos = diffed - start;
+      delta.invalidationNanos = invalidated - diffed;
+      delta.reuseNanos = reused - invalidated;
     }
 
     lastTargetGraph = targetGraph;
     lastActionGraphBuilder = graphBuilder;
-    eventBus.post(new ActionGraphEvent.IncrementalLoad(reusedRuleCount));
+    eventBus.post(new ActionGraphEvent.IncrementalLoad(delta.reusedRuleCount));
+    return delta;
+  }
+
+  private Set<TargetNode<?, ?>> findChangedNodes(TargetGraph targetGraph) {
+    Set<TargetNode<?, ?>> changedNodes = new HashSet<>();
+    for (TargetNode<?, ?> node : targetGraph.getNodes()) {
+      if (shouldInvalidateParentChain(node)) {
+        changedNodes.add(node);
+      }
+    }
+    return changedNodes;
+  }
+
+  /**
+   * Computes the reverse-dependency closure of the changed nodes. Since build rules are reused by
+   * unflavored target, invalidating a node also invalidates all other flavors of it, and in turn
+   * their dependents.
+   */
+  private static Set<TargetNode<?, ?>> invalidateReverseDependencies(
+      TargetGraph targetGraph, Set<TargetNode<?, ?>> changedNodes) {
+    Multimap<UnflavoredBuildTarget, TargetNode<?, ?>> flavorsOfTarget = HashMultimap.create();
+    for (TargetNode<?, ?> node : targetGraph.getNodes()) {
+      flavorsOfTarget.put(node.getBuildTarget().getUnflavoredBuildTarget(), node);
+    }
+
+    Set<UnflavoredBuildTarget> invalidTargets = new HashSet<>();
+    Set<TargetNode<?, ?>> invalidatedNodes = new HashSet<>();
+    Deque<TargetNode<?, ?>> toVisit = new ArrayDeque<>(changedNodes);
+    while (!toVisit.isEmpty()) {
+      TargetNode<?, ?> node = toVisit.pop();
+      if (!invalidatedNodes.add(node)) {
+        continue;
+      }
+      if (LOG.isVerboseEnabled()) {
+        LOG.verbose("invalidating target %s", node.getBuildTarget().toString());
+      }
+
+      UnflavoredBuildTarget unflavoredTarget = node.getBuildTarget().getUnflavoredBuildTarget();
+      if (invalidTargets.add(unflavoredTarget)) {
+        toVisit.addAll(flavorsOfTarget.get(unflavoredTarget));
+      }
+      toVisit.addAll(targetGraph.getIncomingNodesFor(node));
+    }
+    return invalidatedNodes;
   }
 
   private int addValidRulesToActionGraphBuilder(
@@ -103,38 +170,6 @@ public class IncrementalActionGraphGenerator {
     return reusedRuleCount;
   }
 
-  private boolean invalidateChangedTargets(
-      TargetNode<?, ?> node,
-      TargetGraph targetGraph,
-      Map<BuildTarget, Boolean> explored,
-      Set<UnflavoredBuildTarget> validTargets) {
-    if (explored.containsKey(node.getBuildTarget())) {
-      return explored.get(node.getBuildTarget());
-    }
-
-    // Recursively check if any node in a child subgraph causes invalidation of its parent chain.
-    boolean ancestorInvalidated = false;
-    for (TargetNode<?, ?> child : targetGraph.getOutgoingNodesFor(node)) {
-      // Note: We can't short circuit here since we need to also make sure things inside child
-      // subgraphs get properly invalidated in turn.
-      ancestorInvalidated |= invalidateChangedTargets(child, targetGraph, explored, validTargets);
-    }
-
-    boolean invalidateParent = false;
-    if (ancestorInvalidated || shouldInvalidateParentChain(node)) {
-      if (LOG.isVerboseEnabled()) {
-        LOG.verbose("invalidating target %s", node.getBuildTarget().toString());
-      }
-      invalidateParent = true;
-    } else {
-      // This node is valid. We can load all the flavors of its targets from cache.
-      validTargets.add(node.getBuildTarget().getUnflavoredBuildTarget());
-    }
-
-    explored.put(node.getBuildTarget(), invalidateParent);
-    return invalidateParent;
-  }
-
   private boolean shouldInvalidateParentChain(TargetNode<?, ?> targetNode) {
     if (lastTargetGraph != null) {
       Optional<TargetNode<?, ?>> previousTargetNode =
@@ -152,6 +187,14 @@ public class IncrementalActionGraphGenerator {
           }
           return true;
         }
+      } else {
+        // There is no rule to reuse for a new node, and its dependents need to pick it up.
+        if (LOG.isVerboseEnabled()) {
+          LOG.verbose(
+              "target %s caused invalidation due to being new",
+              targetNode.getBuildTarget().toString());
+        }
+        return true;
       }
     }
     // Incremental caching is only supported for {@link Description}s known to
@@ -168,4 +211,44 @@ public class IncrementalActionGraphGenerator {
     }
     return false;
   }
+
+  /** The outcome of populating an {@link ActionGraphBuilder} with rules from the previous one. */
+  public static class Delta {
+    private final Set<BuildTarget> reusedTargets = new HashSet<>();
+    private int reusedRuleCount;
+    private int changedNodeCount;
+    private int invalidatedNodeCount;
+    private long diffNanos;
+    private long invalidationNanos;
+    private long reuseNanos;
+
+    /** @return whether the rule for the given target node was loaded from the previous graph. */
+    public boolean isReused(BuildTarget target) {
+      return reusedTargets.contains(target);
+    }
+
+    public int getReusedRuleCount() {
+      return reusedRuleCount;
+    }
+
+    public int getChangedNodeCount() {
+      return changedNodeCount;
+    }
+
+    public int getInvalidatedNodeCount() {
+      return invalidatedNodeCount;
+    }
+
+    public long getDiffNanos() {
+      return diffNanos;
+    }
+
+    public long getInvalidationNanos() {
+      return invalidationNanos;
+    }
+
+    public long getReuseNanos() {
+      return reuseNanos;
+    }
+  }
 }
@@ -19,6 +19,7 @@ package com.facebook.buck.core.model.targetgraph;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.graph.AbstractBreadthFirstTraversal;
 import com.facebook.buck.graph.DirectedAcyclicGraph;
+import com.facebook.buck.graph.IndexedTraversableGraph;
 import com.facebook.buck.graph.MutableDirectedGraph;
 import com.facebook.buck.model.ImmutableBuildTarget;
 import com.facebook.buck.util.MoreMaps;
@@ -46,13 +47,31 @@ public class TargetGraph extends DirectedAcyclicGraph<TargetNode<?, ?>> {
   public TargetGraph(
       MutableDirectedGraph<TargetNode<?, ?>> graph,
       ImmutableMap<BuildTarget, TargetNode<?, ?>> index) {
-    super(graph);
+    this(graph, index, Representation.MULTIMAP);
+  }
+
+  public TargetGraph(
+      MutableDirectedGraph<TargetNode<?, ?>> graph,
+      ImmutableMap<BuildTarget, TargetNode<?, ?>> index,
+      Representation representation) {
+    super(graph, representation);
     this.targetsToNodes = index;
 
     verifyVisibilityIntegrity();
   }
 
   private void verifyVisibilityIntegrity() {
+    Optional<IndexedTraversableGraph<TargetNode<?, ?>>> indexedGraph = getIndexedGraph();
+    if (indexedGraph.isPresent()) {
+      IndexedTraversableGraph<TargetNode<?, ?>> graph = indexedGraph.get();
+      for (int id = 0; id < graph.getNodeCount(); id++) {
+        TargetNode<?, ?> node = graph.getNode(id);
+        for (int i = 0; i < graph.getOutgoingDegree(id); i++) {
+          graph.getNode(graph.getOutgoingNodeId(id, i)).isVisibleToOrThrow(node);
+        }
+      }
+      return;
+    }
     for (TargetNode<?, ?> node : getNodes()) {
       for (TargetNode<?, ?> dep : getOutgoingNodesFor(node)) {
         dep.isVisibleToOrThrow(node);
@@ -142,7 +161,7 @@ public class TargetGraph extends DirectedAcyclicGraph<TargetNode<?, ?>> {
     MutableDirectedGraph<TargetNode<?, ?>> subgraph = new MutableDirectedGraph<>();
     Map<BuildTarget, TargetNode<?, ?>> index = new HashMap<>();
 
-    new AbstractBreadthFirstTraversal<TargetNode<?, ?>>(roots) {
+    new AbstractBreadthFirstTraversal<TargetNode<?, ?>>(roots, getIndexedGraph().orElse(null)) {
       @Override
       public Iterable<TargetNode<?, ?>> visit(TargetNode<?, ?> node) {
         subgraph.addNode(node);
@@ -162,7 +181,7 @@ public class TargetGraph extends DirectedAcyclicGraph<TargetNode<?, ?>> {
       }
     }.start();
 
-    return new TargetGraph(subgraph, ImmutableMap.copyOf(index));
+    return new TargetGraph(subgraph, ImmutableMap.copyOf(index), getRepresentation());
   }
 
   public int getSize() {
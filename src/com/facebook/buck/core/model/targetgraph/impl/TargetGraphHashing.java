@@ -23,29 +23,24 @@ import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.graph.ParallelTopologicalTraversal;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
-import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.hashing.StringHashing;
-import com.facebook.buck.util.types.Pair;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
 
 /**
  * Utility class to calculate hash codes for build targets in a {@link TargetGraph}.
@@ -58,6 +53,9 @@ public class TargetGraphHashing {
 
   private static final Logger LOG = Logger.get(TargetGraphHashing.class);
 
+  /** How many nodes may be queued on the executor at once. */
+  private static final int MAX_IN_FLIGHT = 4 * Runtime.getRuntime().availableProcessors();
+
   private final BuckEventBus eventBus;
   private final TargetGraph targetGraph;
   private final FileHashLoader fileHashLoader;
@@ -93,15 +91,15 @@ public class TargetGraphHashing {
 
   private class Runner {
 
-    private final Map<BuildTarget, ListenableFuture<HashCode>> futures =
+    private final Map<BuildTarget, HashCode> hashes =
         new ConcurrentHashMap<>(targetGraph.getSize());
 
     /**
-     * The initial hashing phase of a node, which hashes everything except its dependencies.
+     * Hashes a node, whose dependencies must have been hashed already.
      *
-     * @return the partial {@link Hasher}.
+     * @return the nodes {@link HashCode}.
      */
-    private Hasher startNode(TargetNode<?, ?> node) {
+    private HashCode hashNode(TargetNode<?, ?> node) {
       Hasher hasher = Hashing.sha1().newHasher();
 
       // Hash the node's build target and rules.
@@ -122,86 +120,37 @@ public class TargetGraphHashing {
         }
       }
 
-      return hasher;
-    }
-
-    /**
-     * Finish up hashing a node by including its dependencies.
-     *
-     * @return the nodes {@link HashCode}.
-     */
-    private HashCode finishNode(
-        BuildTarget node, Hasher hasher, List<Pair<BuildTarget, HashCode>> depPairs) {
-      for (Pair<BuildTarget, HashCode> depPair : depPairs) {
-        LOG.verbose(
-            "Node %s: adding dependency %s (%s)", node, depPair.getFirst(), depPair.getSecond());
-        StringHashing.hashStringAndLength(hasher, depPair.getFirst().toString());
-        hasher.putBytes(depPair.getSecond().asBytes());
+      // Hash the dependencies, in the order of the parse deps.
+      for (BuildTarget dep : node.getParseDeps()) {
+        HashCode depHash =
+            Preconditions.checkNotNull(hashes.get(targetGraph.get(dep).getBuildTarget()));
+        LOG.verbose("Node %s: adding dependency %s (%s)", node, dep, depHash);
+        StringHashing.hashStringAndLength(hasher, dep.toString());
+        hasher.putBytes(depHash.asBytes());
       }
       return hasher.hash();
     }
 
-    /**
-     * @return the {@link HashCode} of all the node's dependencies as as a {@link ListenableFuture}
-     *     of a list of {@link BuildTarget} and {@link HashCode} pairs.
-     */
-    private ListenableFuture<List<Pair<BuildTarget, HashCode>>> getDepPairsFuture(
-        TargetNode<?, ?> node) {
-      return Futures.allAsList(
-          node.getParseDeps()
-              .stream()
-              .map(
-                  dep ->
-                      Futures.transform(
-                          getHash(targetGraph.get(dep)),
-                          depHash -> new Pair<>(dep, depHash),
-                          MoreExecutors.directExecutor()))
-              .collect(Collectors.toList()));
-    }
-
-    private ListenableFuture<HashCode> getHash(TargetNode<?, ?> node) {
-      // NOTE: Our current implementation starts *all* the target node hashes in parallel, and
-      // and only starts synchronizing near the end, when nodes need to incorporate the hashes of
-      // their dependencies.  As such, we're basically trading off the extra memory required to
-      // keep around the hashers for all in flight node hashing operations for the ability to mine
-      // extra parallelism.  The hashers should be relatively small, but it's possible that in
-      // some situations, this tradeoff isn't ideal, in which case we could switch to only
-      // *starting* to hash a node after it's dependencies have completed.
-      ListenableFuture<HashCode> future = futures.get(node.getBuildTarget());
-      if (future == null) {
-        future =
-            Futures.transformAsync(
-                // Start hashing a node.
-                executor.submit(() -> this.startNode(node)),
-                // Wait for all dependencies to finish hashing.
-                hasher ->
-                    Futures.transform(
-                        getDepPairsFuture(node),
-                        depPairs -> finishNode(node.getBuildTarget(), hasher, depPairs),
-                        MoreExecutors.directExecutor()),
-                executor);
-        futures.put(node.getBuildTarget(), future);
-      }
-      return future;
-    }
-
     /**
      * @return a map of all {@link BuildTarget}s to {@link HashCode}s for the graph defined by the
      *     given roots.
      */
     private ImmutableMap<BuildTarget, HashCode> run()
         throws InterruptedException, ExecutionException {
-
-      // Kick off future chain and wait for roots to complete.  Due to the recursive nature of
-      // target hashes, once these have completed, all transitive deps should be finished as well.
-      Futures.allAsList(RichStream.from(roots).map(this::getHash).toImmutableList()).get();
-
-      // Wait for all scheduled tasks to complete
-      ImmutableMap.Builder<BuildTarget, HashCode> results = ImmutableMap.builder();
-      for (Map.Entry<BuildTarget, ListenableFuture<HashCode>> ent : futures.entrySet()) {
-        results.put(ent.getKey(), ent.getValue().get());
-      }
-      return results.build();
+      // A node is only hashed once all of its dependencies are, so only the hashers of the nodes
+      // that are in flight are kept around, rather than one for every node in the graph.
+      ParallelTopologicalTraversal<TargetNode<?, ?>> traversal =
+          new ParallelTopologicalTraversal<>(
+              targetGraph.getCompactGraph(),
+              ParallelTopologicalTraversal.Direction.BOTTOM_UP,
+              executor,
+              MAX_IN_FLIGHT,
+              (node, elapsedNanos) ->
+                  LOG.verbose("Hashed %s in %d us", node, elapsedNanos / 1000));
+      traversal
+          .traverse(roots, node -> hashes.put(node.getBuildTarget(), hashNode(node)))
+          .get();
+      return ImmutableMap.copyOf(hashes);
     }
   }
 }
@@ -20,6 +20,8 @@ import com.facebook.buck.cxx.toolchain.Compiler;
 import com.facebook.buck.cxx.toolchain.DebugPathSanitizer;
 import com.facebook.buck.cxx.toolchain.DependencyTrackingMode;
 import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.step.ExecutionContext;
@@ -282,7 +284,14 @@ class CxxPreprocessAndCompileStep implements Step {
       throws IOException, InterruptedException {
     LOG.debug("%s %s -> %s", operation.toString().toLowerCase(), input, output);
 
-    ProcessExecutor.Result result = executeCompilation(context);
+    ProcessExecutor.Result result;
+    try (SimplePerfEvent.Scope ignored =
+        SimplePerfEvent.scope(
+            context.getBuckEventBus(),
+            PerfEventId.of("cxx-compile"),
+            ImmutableMap.of("input", input, "output", output))) {
+      result = executeCompilation(context);
+    }
     int exitCode = result.getExitCode();
 
     // If the compilation completed successfully and we didn't effect debug-info normalization
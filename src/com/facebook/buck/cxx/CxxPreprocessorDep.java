@@ -48,4 +48,15 @@ public interface CxxPreprocessorDep {
    */
   ImmutableMap<BuildTarget, CxxPreprocessorInput> getTransitiveCxxPreprocessorInput(
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder);
+
+  /**
+   * Returns the same inputs as {@link #getTransitiveCxxPreprocessorInput}, without flattening them.
+   * Rules using {@link TransitiveCxxPreprocessorInputCache} should return its entry, so it can be
+   * shared with the rules depending on them.
+   */
+  default TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+      CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+    return TransitiveCxxPreprocessorInputs.of(
+        getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
+  }
 }
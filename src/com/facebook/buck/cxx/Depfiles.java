@@ -35,10 +35,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.CharBuffer;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 /** Specialized parser for .d Makefiles emitted by {@code gcc -MD}. */
@@ -62,13 +63,29 @@ class Depfiles {
   private static final String ESCAPED_TARGET_CHARS = ": #";
   private static final String ESCAPED_PREREQ_CHARS = " #";
 
+  /** Receives the prereqs of a depfile one at a time, as they're parsed. */
+  interface PrereqConsumer<E extends Exception> {
+    void accept(String prereq) throws IOException, E;
+  }
+
   /**
    * Parses the input as a .d Makefile as emitted by {@code gcc -MD} and returns the (target, [dep,
    * dep2, ...]) inside.
    */
   public static Depfile parseDepfile(Readable readable) throws IOException {
-    String target = null;
     ImmutableList.Builder<String> prereqsBuilder = ImmutableList.builder();
+    String target = parseDepfile(readable, prereqsBuilder::add);
+    return new Depfile(target, prereqsBuilder.build());
+  }
+
+  /**
+   * Parses the input as a .d Makefile like {@link #parseDepfile(Readable)}, but passes each prereq
+   * to {@code consumer} as soon as it's read instead of collecting them, and returns the target.
+   */
+  static <E extends Exception> String parseDepfile(
+      Readable readable, PrereqConsumer<E> consumer) throws IOException, E {
+    String target = null;
+    int numPrereqs = 0;
     State state = State.LOOKING_FOR_TARGET;
     StringBuilder identifierBuilder = new StringBuilder();
 
@@ -155,7 +172,8 @@ class Depfiles {
             identifierBuilder.setLength(0);
             break;
           case ADD_PREREQ:
-            prereqsBuilder.add(identifierBuilder.toString());
+            consumer.accept(identifierBuilder.toString());
+            numPrereqs++;
             identifierBuilder.setLength(0);
             break;
         }
@@ -164,25 +182,23 @@ class Depfiles {
       buffer.clear();
     }
 
-    ImmutableList<String> prereqs = prereqsBuilder.build();
-    if (target == null || prereqs.isEmpty()) {
+    if (target == null || numPrereqs == 0) {
       throw new IOException("Could not find target or prereqs parsing depfile");
-    } else {
-      return new Depfile(target, prereqs);
     }
+    return target;
   }
 
-  private static List<String> getRawUsedHeadersFromDepfile(
+  private static void processRawUsedHeadersFromDepfile(
       ProjectFilesystem filesystem,
       Path sourceDepFile,
       Path inputPath,
-      DependencyTrackingMode dependencyTrackingMode)
-      throws IOException {
+      DependencyTrackingMode dependencyTrackingMode,
+      UsedHeaders usedHeaders)
+      throws IOException, HeaderVerificationException {
     switch (dependencyTrackingMode) {
       case MAKEFILE:
         try (InputStream input = filesystem.newFileInputStream(sourceDepFile);
             BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
-          ImmutableList<String> prereqs = Depfiles.parseDepfile(reader).getPrereqs();
           // Additional files passed in via command-line flags (e.g. `-fsanitize-blacklist=<file>`)
           // appear first in the dep file, followed by the input source file.  So, just skip over
           // everything until just after the input source which should position us at the headers.
@@ -191,24 +207,38 @@ class Depfiles {
           // the rule key. The correct way to handle this is likely to support macros in
           // preprocessor/compiler flags at which point we can use the entries for these files in
           // the depfile to verify that the user properly references these files via the macros.
-          int inputIndex = prereqs.indexOf(inputPath.toString());
+          String inputPathString = inputPath.toString();
+          List<String> skippedPrereqs = new ArrayList<>();
+          AtomicBoolean foundInput = new AtomicBoolean();
+          Depfiles.<HeaderVerificationException>parseDepfile(
+              reader,
+              prereq -> {
+                if (foundInput.get()) {
+                  usedHeaders.add(prereq);
+                } else if (prereq.equals(inputPathString)) {
+                  foundInput.set(true);
+                } else {
+                  skippedPrereqs.add(prereq);
+                }
+              });
           Preconditions.checkState(
-              inputIndex != -1,
+              foundInput.get(),
               "Could not find input source (%s) in dep file prereqs (%s)",
               inputPath,
-              prereqs);
-          ImmutableList<String> includes = prereqs.subList(inputIndex + 1, prereqs.size());
-          return includes;
+              skippedPrereqs);
         }
+        return;
       case SHOW_INCLUDES:
         // An intermediate depfile in `show_include` mode contains a source file + used headers
         // (see CxxPreprocessAndCompileStep for details).
         // So, we "strip" the the source file first.
         List<String> srcAndIncludes = filesystem.readLines(sourceDepFile);
-        List<String> includes = srcAndIncludes.subList(1, srcAndIncludes.size());
-        return includes;
+        for (String include : srcAndIncludes.subList(1, srcAndIncludes.size())) {
+          usedHeaders.add(include);
+        }
+        return;
       case NONE:
-        return Collections.emptyList();
+        return;
       default:
         // never happens
         throw new IllegalStateException();
@@ -258,32 +288,50 @@ class Depfiles {
             PerfEventId.of("depfile-parse"),
             ImmutableMap.of("input", inputPath, "output", outputPath))) {
 
-      List<String> headers =
-          getRawUsedHeadersFromDepfile(
-              filesystem, sourceDepFile, inputPath, dependencyTrackingMode);
+      UsedHeaders usedHeaders =
+          new UsedHeaders(
+              eventBus, filesystem, headerPathNormalizer, headerVerification, inputPath);
+      processRawUsedHeadersFromDepfile(
+          filesystem, sourceDepFile, inputPath, dependencyTrackingMode, usedHeaders);
 
-      return normalizeAndVerifyHeaders(
-          eventBus, filesystem, headerPathNormalizer, headerVerification, inputPath, headers);
+      ImmutableList<Path> result = usedHeaders.resultBuilder.build();
+      perfEvent.appendFinishedInfo("headers", result.size());
+      return result;
     }
   }
 
-  private static ImmutableList<Path> normalizeAndVerifyHeaders(
-      BuckEventBus eventBus,
-      ProjectFilesystem filesystem,
-      HeaderPathNormalizer headerPathNormalizer,
-      HeaderVerification headerVerification,
-      Path inputPath,
-      List<String> headers)
-      throws IOException, HeaderVerificationException {
-    ImmutableList.Builder<Path> resultBuilder = ImmutableList.builder();
-    for (String rawHeader : headers) {
+  /** Normalizes and verifies the headers read from a depfile, one at a time. */
+  private static class UsedHeaders {
+    private final BuckEventBus eventBus;
+    private final ProjectFilesystem filesystem;
+    private final HeaderPathNormalizer headerPathNormalizer;
+    private final HeaderVerification headerVerification;
+    private final Path inputPath;
+    private final ImmutableList.Builder<Path> resultBuilder = ImmutableList.builder();
+
+    private UsedHeaders(
+        BuckEventBus eventBus,
+        ProjectFilesystem filesystem,
+        HeaderPathNormalizer headerPathNormalizer,
+        HeaderVerification headerVerification,
+        Path inputPath) {
+      this.eventBus = eventBus;
+      this.filesystem = filesystem;
+      this.headerPathNormalizer = headerPathNormalizer;
+      this.headerVerification = headerVerification;
+      this.inputPath = inputPath;
+    }
+
+    private void add(String rawHeader) throws IOException, HeaderVerificationException {
       Path header = filesystem.resolve(rawHeader).normalize();
       Optional<Path> absolutePath = headerPathNormalizer.getAbsolutePathForUnnormalizedPath(header);
-      Optional<Path> repoRelativePath = filesystem.getPathRelativeToProjectRoot(header);
       if (absolutePath.isPresent()) {
         Preconditions.checkState(absolutePath.get().isAbsolute());
         resultBuilder.add(absolutePath.get());
-      } else if ((headerVerification.getMode() != HeaderVerification.Mode.IGNORE)
+        return;
+      }
+      Optional<Path> repoRelativePath = filesystem.getPathRelativeToProjectRoot(header);
+      if ((headerVerification.getMode() != HeaderVerification.Mode.IGNORE)
           && (!(headerVerification.isWhitelisted(header.toString())
               || repoRelativePath
                   .map(path -> headerVerification.isWhitelisted(path.toString()))
@@ -309,7 +357,6 @@ class Depfiles {
         }
       }
     }
-    return resultBuilder.build();
   }
 
   public static class Depfile {
@@ -28,6 +28,8 @@ import java.util.AbstractMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 class HeaderPathNormalizer {
@@ -49,6 +51,15 @@ class HeaderPathNormalizer {
   /** Minimal mappings to translate paths used during compilation to their real locations. */
   private final ImmutableMap<Path, Path> prefixMap;
 
+  /**
+   * Lookups already done against this normalizer. Normalizers are shared by all the compilations
+   * of a rule and live as long as its action graph, so each header used by them only needs to be
+   * resolved once.
+   */
+  private final ConcurrentMap<Path, Optional<Path>> absolutePathCache = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<Path, SourcePath> sourcePathCache = new ConcurrentHashMap<>();
+
   protected HeaderPathNormalizer(
       SourcePathResolver pathResolver,
       ImmutableMap<Path, SourcePath> headers,
@@ -78,6 +89,11 @@ class HeaderPathNormalizer {
 
   public Optional<Path> getAbsolutePathForUnnormalizedPath(Path unnormalizedPath) {
     Preconditions.checkArgument(unnormalizedPath.isAbsolute());
+    return absolutePathCache.computeIfAbsent(
+        unnormalizedPath, this::computeAbsolutePathForUnnormalizedPath);
+  }
+
+  private Optional<Path> computeAbsolutePathForUnnormalizedPath(Path unnormalizedPath) {
     Optional<Map.Entry<Path, SourcePath>> result = pathLookup(unnormalizedPath, normalized);
     if (!result.isPresent()) {
       return Optional.empty();
@@ -91,9 +107,13 @@ class HeaderPathNormalizer {
   /** @return the {@link SourcePath} which corresponds to the given absolute path. */
   public SourcePath getSourcePathForAbsolutePath(Path absolutePath) {
     Preconditions.checkArgument(absolutePath.isAbsolute());
-    Optional<Map.Entry<Path, SourcePath>> path = pathLookup(absolutePath, headers);
-    Preconditions.checkState(path.isPresent(), "no headers mapped to %s", absolutePath);
-    return path.get().getValue();
+    return sourcePathCache.computeIfAbsent(
+        absolutePath,
+        path -> {
+          Optional<Map.Entry<Path, SourcePath>> entry = pathLookup(path, headers);
+          Preconditions.checkState(entry.isPresent(), "no headers mapped to %s", path);
+          return entry.get().getValue();
+        });
   }
 
   /**
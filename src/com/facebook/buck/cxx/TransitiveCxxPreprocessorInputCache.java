@@ -23,18 +23,19 @@ import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.concurrent.Parallelizer;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.util.concurrent.UncheckedExecutionException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 
-/** Transitive C++ preprocessor input cache */
+/**
+ * Transitive C++ preprocessor input cache. Inputs are stored as {@link
+ * TransitiveCxxPreprocessorInputs}, which share the entries of dependencies that use this cache.
+ */
 public class TransitiveCxxPreprocessorInputCache {
-  private final Cache<CxxPlatform, ImmutableSortedMap<BuildTarget, CxxPreprocessorInput>> cache =
+  private final Cache<CxxPlatform, TransitiveCxxPreprocessorInputs> cache =
       CacheBuilder.newBuilder().build();
   private final CxxPreprocessorDep preprocessorDep;
   private final Parallelizer parallelizer;
@@ -49,14 +50,23 @@ public class TransitiveCxxPreprocessorInputCache {
     this.parallelizer = parallelizer;
   }
 
-  /** Get a value from the cache */
+  /**
+   * Get a value from the cache, flattened into a map of all transitive inputs. The map is computed
+   * once per platform and shared by all callers.
+   */
   public ImmutableMap<BuildTarget, CxxPreprocessorInput> getUnchecked(
       CxxPlatform key, ActionGraphBuilder graphBuilder) {
+    return getInputsUnchecked(key, graphBuilder).toMap();
+  }
+
+  /** Get a value from the cache, without flattening it. */
+  public TransitiveCxxPreprocessorInputs getInputsUnchecked(
+      CxxPlatform key, ActionGraphBuilder graphBuilder) {
     try {
       return cache.get(
           key,
           () ->
-              computeTransitiveCxxToPreprocessorInputMap(
+              computeTransitiveCxxPreprocessorInputs(
                   key, preprocessorDep, true, graphBuilder, parallelizer));
     } catch (ExecutionException e) {
       throw new UncheckedExecutionException(e.getCause());
@@ -69,23 +79,23 @@ public class TransitiveCxxPreprocessorInputCache {
           CxxPreprocessorDep preprocessorDep,
           boolean includeDep,
           ActionGraphBuilder graphBuilder) {
-    return computeTransitiveCxxToPreprocessorInputMap(
-        key, preprocessorDep, includeDep, graphBuilder, Parallelizer.SERIAL);
+    return computeTransitiveCxxPreprocessorInputs(
+            key, preprocessorDep, includeDep, graphBuilder, Parallelizer.SERIAL)
+        .toMap();
   }
 
-  private static ImmutableSortedMap<BuildTarget, CxxPreprocessorInput>
-      computeTransitiveCxxToPreprocessorInputMap(
-          @Nonnull CxxPlatform key,
-          CxxPreprocessorDep preprocessorDep,
-          boolean includeDep,
-          ActionGraphBuilder graphBuilder,
-          Parallelizer parallelizer) {
-    Map<BuildTarget, CxxPreprocessorInput> builder = new HashMap<>();
-    if (includeDep) {
-      builder.put(
-          preprocessorDep.getBuildTarget(),
-          preprocessorDep.getCxxPreprocessorInput(key, graphBuilder));
-    }
+  private static TransitiveCxxPreprocessorInputs computeTransitiveCxxPreprocessorInputs(
+      @Nonnull CxxPlatform key,
+      CxxPreprocessorDep preprocessorDep,
+      boolean includeDep,
+      ActionGraphBuilder graphBuilder,
+      Parallelizer parallelizer) {
+    ImmutableMap<BuildTarget, CxxPreprocessorInput> directInputs =
+        includeDep
+            ? ImmutableMap.of(
+                preprocessorDep.getBuildTarget(),
+                preprocessorDep.getCxxPreprocessorInput(key, graphBuilder))
+            : ImmutableMap.of();
 
     Stream<CxxPreprocessorDep> transitiveDepInputs =
         parallelizer.maybeParallelize(
@@ -97,20 +107,11 @@ public class TransitiveCxxPreprocessorInputCache {
     // The creation of new BuildRules will be through forked tasks, and because we wait on the
     // Futures of the tasks directly, FJP will have current thread steal the work for those tasks
     // and no deadlock will occur {@link BuildRuleResolverTest.deadLockOnDependencyTest() }.
-    transitiveDepInputs
-        .map(dep -> dep.getTransitiveCxxPreprocessorInput(key, graphBuilder))
-        .forEachOrdered(builder::putAll);
+    ImmutableList<TransitiveCxxPreprocessorInputs> depInputs =
+        transitiveDepInputs
+            .map(dep -> dep.getTransitiveCxxPreprocessorInputs(key, graphBuilder))
+            .collect(ImmutableList.toImmutableList());
 
-    // Using an ImmutableSortedMap here:
-    //
-    // 1. Memory efficiency. ImmutableSortedMap is implemented with 2 lists (an ImmutableSortedSet
-    // of keys, and a ImmutableList of values). This is much more efficient than an ImmutableMap,
-    // which creates an Entry instance for each entry.
-    //
-    // 2. Historically we seem to care that the result has some definite order.
-    //
-    // 3. We mostly iterate over these maps rather than do lookups, so ImmutableSortedMap
-    // binary-search based lookup is not an issue.
-    return ImmutableSortedMap.copyOf(builder);
+    return TransitiveCxxPreprocessorInputs.of(directInputs, depInputs);
   }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.util.Memoizer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Sets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The transitive {@link CxxPreprocessorInput}s of a {@link CxxPreprocessorDep}, stored as the
+ * dep's own inputs plus references to the (shared) sets of its dependencies, similar to a nested
+ * set.
+ *
+ * <p>Building a set only costs as much as the number of direct dependencies, rather than the size
+ * of the transitive closure, so deep graphs no longer copy every dependency's map at each level.
+ * The flattened map is computed the first time it is asked for and then held on to, so every rule
+ * that asks for a dep's inputs through {@link
+ * CxxPreprocessorDep#getTransitiveCxxPreprocessorInput} shares the same map instead of flattening
+ * its own copy.
+ */
+public final class TransitiveCxxPreprocessorInputs {
+  private static final TransitiveCxxPreprocessorInputs EMPTY =
+      new TransitiveCxxPreprocessorInputs(ImmutableSortedMap.of(), ImmutableList.of());
+
+  private final ImmutableSortedMap<BuildTarget, CxxPreprocessorInput> directInputs;
+  private final ImmutableList<TransitiveCxxPreprocessorInputs> children;
+  private final Memoizer<ImmutableSortedMap<BuildTarget, CxxPreprocessorInput>> flattened =
+      new Memoizer<>();
+
+  private TransitiveCxxPreprocessorInputs(
+      ImmutableSortedMap<BuildTarget, CxxPreprocessorInput> directInputs,
+      ImmutableList<TransitiveCxxPreprocessorInputs> children) {
+    this.directInputs = directInputs;
+    this.children = children;
+  }
+
+  /** Wraps an already flattened map of inputs. */
+  public static TransitiveCxxPreprocessorInputs of(
+      ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs) {
+    return of(inputs, ImmutableList.of());
+  }
+
+  /** Creates a set made up of the given inputs and everything in {@code children}. */
+  public static TransitiveCxxPreprocessorInputs of(
+      Map<BuildTarget, CxxPreprocessorInput> directInputs,
+      Iterable<TransitiveCxxPreprocessorInputs> children) {
+    ImmutableList<TransitiveCxxPreprocessorInputs> nonEmptyChildren =
+        ImmutableList.copyOf(children)
+            .stream()
+            .filter(child -> child != EMPTY)
+            .distinct()
+            .collect(ImmutableList.toImmutableList());
+    if (directInputs.isEmpty()) {
+      if (nonEmptyChildren.isEmpty()) {
+        return EMPTY;
+      }
+      if (nonEmptyChildren.size() == 1) {
+        return nonEmptyChildren.get(0);
+      }
+    }
+    return new TransitiveCxxPreprocessorInputs(
+        ImmutableSortedMap.copyOf(directInputs), nonEmptyChildren);
+  }
+
+  /** @return all the inputs in this set, sorted by build target. Flattened at most once. */
+  public ImmutableSortedMap<BuildTarget, CxxPreprocessorInput> toMap() {
+    if (children.isEmpty()) {
+      return directInputs;
+    }
+    return flattened.get(this::flatten);
+  }
+
+  private ImmutableSortedMap<BuildTarget, CxxPreprocessorInput> flatten() {
+    Map<BuildTarget, CxxPreprocessorInput> inputs = new HashMap<>();
+    // Sets are shared between many parents, so make sure each one is only visited once.
+    Set<TransitiveCxxPreprocessorInputs> visited = Sets.newIdentityHashSet();
+    Deque<TransitiveCxxPreprocessorInputs> toVisit = new ArrayDeque<>();
+    toVisit.push(this);
+    while (!toVisit.isEmpty()) {
+      TransitiveCxxPreprocessorInputs current = toVisit.pop();
+      if (!visited.add(current)) {
+        continue;
+      }
+      current.directInputs.forEach(inputs::putIfAbsent);
+      current.children.forEach(toVisit::push);
+    }
+
+    // Using an ImmutableSortedMap here:
+    //
+    // 1. Memory efficiency. ImmutableSortedMap is implemented with 2 lists (an ImmutableSortedSet
+    // of keys, and a ImmutableList of values). This is much more efficient than an ImmutableMap,
+    // which creates an Entry instance for each entry.
+    //
+    // 2. Historically we seem to care that the result has some definite order.
+    //
+    // 3. We mostly iterate over these maps rather than do lookups, so ImmutableSortedMap
+    // binary-search based lookup is not an issue.
+    return ImmutableSortedMap.copyOf(inputs);
+  }
+}
@@ -19,6 +19,7 @@ package com.facebook.buck.distributed.build_slave;
 import com.facebook.buck.distributed.thrift.CoordinatorBuildProgress;
 import com.facebook.buck.distributed.thrift.WorkUnit;
 import java.util.List;
+import java.util.function.ToIntFunction;
 
 /** Defines a build targets queue to be used in distributed builds. */
 public interface BuildTargetsQueue {
@@ -26,6 +27,15 @@ public interface BuildTargetsQueue {
 
   List<WorkUnit> dequeueZeroDependencyNodes(List<String> finishedNodes, int maxUnitsOfWork);
 
+  /**
+   * Like {@link #dequeueZeroDependencyNodes(List, int)}, but starts work units at the ready nodes
+   * with the highest preference first. Queues that don't support ordering ignore the preference.
+   */
+  default List<WorkUnit> dequeueZeroDependencyNodes(
+      List<String> finishedNodes, int maxUnitsOfWork, ToIntFunction<String> nodePreference) {
+    return dequeueZeroDependencyNodes(finishedNodes, maxUnitsOfWork);
+  }
+
   boolean haveMostBuildRulesFinished();
 
   CoordinatorBuildProgress getBuildProgress();
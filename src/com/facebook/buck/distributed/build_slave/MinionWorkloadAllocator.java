@@ -16,37 +16,64 @@
 
 package com.facebook.buck.distributed.build_slave;
 
+import com.facebook.buck.distributed.build_slave.DistributableBuildGraph.DistributableNode;
 import com.facebook.buck.distributed.thrift.CoordinatorBuildProgress;
 import com.facebook.buck.distributed.thrift.MinionType;
 import com.facebook.buck.distributed.thrift.WorkUnit;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.timing.Clock;
+import com.facebook.buck.util.timing.DefaultClock;
 import com.google.common.base.Preconditions;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalDouble;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * Allocates and keeps track of what BuildTargets are allocated to which Minions. This class is
  * thread safe.
+ *
+ * <p>New work is handed to a minion preferring units whose dependencies that minion built itself.
+ * Once nothing else is left to hand out, an idle minion may be given a copy of a work unit that
+ * has made no progress on another minion for a while. Whichever minion finishes a target first
+ * wins, and the target is dropped from the other copy.
  */
 public class MinionWorkloadAllocator {
   private static final Logger LOG = Logger.get(MinionWorkloadAllocator.class);
 
+  /** A work unit must have been stuck at least this long before it is speculatively copied. */
+  public static final long DEFAULT_SPECULATION_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
   private final BuildTargetsQueue queue;
   private final Set<String> nodesAssignedToMinions = new HashSet<>();
+  private final Set<String> finishedNodes = new HashSet<>();
 
   private final Map<String, Set<WorkUnit>> workUnitsAssignedToMinions = new HashMap<>();
 
-  // Maps each target to the work unit that contains it.
-  private final Map<String, WorkUnit> workUnitsByTarget = new HashMap<>();
+  // Maps each target to the work units that contain it, by minion. A target is only assigned to
+  // more than one minion while a speculative copy of its work unit is running.
+  private final Map<String, Map<String, WorkUnit>> workUnitsByTarget = new HashMap<>();
+
+  // Work units change their hashCode as targets finish, so these are tracked by identity.
+  private final Map<WorkUnit, Long> lastProgressMillisByWorkUnit = new IdentityHashMap<>();
+  private final Set<WorkUnit> speculatedWorkUnits =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+  private final Set<WorkUnit> speculativeWorkUnits =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+
+  private final Map<String, Set<String>> nodesBuiltByMinion = new HashMap<>();
+  private final Map<String, MinionThroughput> throughputByMinion = new HashMap<>();
 
   // These should be immediately re-assigned when capacity becomes available on other minions
   private Queue<WorkUnit> workUnitsFromFailedMinions = new LinkedList<>();
@@ -60,6 +87,8 @@ public class MinionWorkloadAllocator {
   private final Optional<String> coordinatorMinionId;
 
   private final DistBuildTraceTracker chromeTraceTracker;
+  private final Clock clock;
+  private final long speculationDelayMillis;
 
   /**
    * Result of updating allocation - indicates if minion should be now released (capacity no longer
@@ -79,13 +108,55 @@ public class MinionWorkloadAllocator {
     }
   }
 
+  /** Tracks how quickly a minion gets through targets while it has work assigned. */
+  private static class MinionThroughput {
+    private long busyMillis = 0;
+    private long finishedNodes = 0;
+    private long lastUpdateMillis;
+
+    private MinionThroughput(long nowMillis) {
+      this.lastUpdateMillis = nowMillis;
+    }
+
+    private void update(long nowMillis, boolean wasBusy, int newlyFinishedNodes) {
+      if (wasBusy) {
+        busyMillis += nowMillis - lastUpdateMillis;
+      }
+      finishedNodes += newlyFinishedNodes;
+      lastUpdateMillis = nowMillis;
+    }
+
+    private OptionalDouble getNodesPerSecond() {
+      if (busyMillis == 0 || finishedNodes == 0) {
+        return OptionalDouble.empty();
+      }
+      return OptionalDouble.of(finishedNodes * 1000.0 / busyMillis);
+    }
+  }
+
   public MinionWorkloadAllocator(
       BuildTargetsQueue queue,
       DistBuildTraceTracker chromeTraceTracker,
       Optional<String> coordinatorMinionId) {
+    this(
+        queue,
+        chromeTraceTracker,
+        coordinatorMinionId,
+        new DefaultClock(),
+        DEFAULT_SPECULATION_DELAY_MILLIS);
+  }
+
+  public MinionWorkloadAllocator(
+      BuildTargetsQueue queue,
+      DistBuildTraceTracker chromeTraceTracker,
+      Optional<String> coordinatorMinionId,
+      Clock clock,
+      long speculationDelayMillis) {
     this.queue = queue;
     this.chromeTraceTracker = chromeTraceTracker;
     this.coordinatorMinionId = coordinatorMinionId;
+    this.clock = clock;
+    this.speculationDelayMillis = speculationDelayMillis;
   }
 
   public synchronized boolean isBuildFinished() {
@@ -107,6 +178,8 @@ public class MinionWorkloadAllocator {
 
     minionsAvailableForAllocation.add(minionId);
     minionFreeCapacities.put(minionId, maxWorkUnitsToFetch);
+    nodesBuiltByMinion.put(minionId, new HashSet<>());
+    throughputByMinion.put(minionId, new MinionThroughput(clock.currentTimeMillis()));
 
     seenMinions.add(minionId);
   }
@@ -135,28 +208,49 @@ public class MinionWorkloadAllocator {
 
   /**
    * Processes nodes finished by minion and, if minion's capacity is still needed, allocates it new
-   * work units (out of units from failed minions and newly available units).
+   * work units (out of units from failed minions, newly available units and, failing those,
+   * speculative copies of units stuck on other minions).
    */
   public synchronized WorkloadAllocationResult updateMinionWorkloadAllocation(
       String minionId, MinionType minionType, List<String> finishedNodes, int maxWorkUnitsToFetch) {
     Preconditions.checkArgument(!failedMinions.contains(minionId));
     trySetupMinion(minionId, minionType, maxWorkUnitsToFetch);
+    long now = clock.currentTimeMillis();
 
     Set<WorkUnit> workUnitsAllocatedToMinion =
         Preconditions.checkNotNull(workUnitsAssignedToMinions.get(minionId));
-    deallocateFinishedNodes(workUnitsAllocatedToMinion, finishedNodes);
+    boolean wasBusy = !workUnitsAllocatedToMinion.isEmpty();
+    List<String> newlyFinishedNodes = deallocateFinishedNodes(minionId, finishedNodes, now);
+    Preconditions.checkNotNull(throughputByMinion.get(minionId))
+        .update(now, wasBusy, finishedNodes.size());
 
     // First try and re-allocate work units from any minions that have failed recently
     List<WorkUnit> newWorkUnitsForMinion =
         reallocateWorkUnitsFromFailedMinions(minionId, maxWorkUnitsToFetch);
 
-    // For any remaining capacity on this minion, fetch new work units, if they exist.
+    // For any remaining capacity on this minion, fetch new work units, if they exist. Prefer the
+    // ones whose dependencies were built by this minion, as their outputs are already there.
     maxWorkUnitsToFetch -= newWorkUnitsForMinion.size();
-    newWorkUnitsForMinion.addAll(
-        queue.dequeueZeroDependencyNodes(finishedNodes, maxWorkUnitsToFetch));
+    Set<String> nodesBuiltByThisMinion =
+        Preconditions.checkNotNull(nodesBuiltByMinion.get(minionId));
+    List<WorkUnit> readyWorkUnits =
+        queue.dequeueZeroDependencyNodes(
+            newlyFinishedNodes,
+            maxWorkUnitsToFetch,
+            node -> countDependenciesBuiltBy(node, nodesBuiltByThisMinion));
+    newWorkUnitsForMinion.addAll(readyWorkUnits);
+
+    // Only when there is nothing else to do, help out with work that is stuck elsewhere.
+    if (readyWorkUnits.size() < maxWorkUnitsToFetch
+        && workUnitsFromFailedMinions.isEmpty()
+        && !queue.hasReadyZeroDependencyNodes()) {
+      findStragglingWorkUnit(minionId, now)
+          .ifPresent(
+              straggler -> newWorkUnitsForMinion.add(speculativeCopyOf(straggler, minionId)));
+    }
 
     List<String> newNodesForMinion =
-        allocateNewNodes(workUnitsAllocatedToMinion, newWorkUnitsForMinion);
+        allocateNewNodes(minionId, workUnitsAllocatedToMinion, newWorkUnitsForMinion, now);
 
     LOG.info(
         String.format(
@@ -182,10 +276,16 @@ public class MinionWorkloadAllocator {
     }
 
     minionFreeCapacities.put(minionId, maxWorkUnitsToFetch - result.newWorkUnitsForMinion.size());
-    chromeTraceTracker.updateWork(minionId, finishedNodes, result.newWorkUnitsForMinion);
+    chromeTraceTracker.updateWork(minionId, newlyFinishedNodes, result.newWorkUnitsForMinion);
     return result;
   }
 
+  /** @return Targets finished per second while the minion had work, if known. */
+  public synchronized OptionalDouble getMinionThroughput(String minionId) {
+    MinionThroughput throughput = throughputByMinion.get(minionId);
+    return throughput == null ? OptionalDouble.empty() : throughput.getNodesPerSecond();
+  }
+
   /** @return True if minion has been marked as failed previously */
   public synchronized boolean hasMinionFailed(String minionId) {
     return failedMinions.contains(minionId);
@@ -224,8 +324,28 @@ public class MinionWorkloadAllocator {
             minionId, workUnitsAllocatedToMinion.size(), allocatedTargets.size()));
 
     workUnitsAssignedToMinions.remove(minionId);
-    workUnitsFromFailedMinions.addAll(workUnitsAllocatedToMinion);
-    nodesAssignedToMinions.removeAll(allocatedTargets);
+    for (String target : allocatedTargets) {
+      Map<String, WorkUnit> unitsByMinion = workUnitsByTarget.get(target);
+      if (unitsByMinion == null) {
+        continue;
+      }
+      unitsByMinion.remove(minionId);
+      if (unitsByMinion.isEmpty()) {
+        workUnitsByTarget.remove(target);
+        nodesAssignedToMinions.remove(target);
+      }
+    }
+
+    // Targets that are still being built speculatively elsewhere don't need to be re-queued.
+    for (WorkUnit workUnit : workUnitsAllocatedToMinion) {
+      lastProgressMillisByWorkUnit.remove(workUnit);
+      speculatedWorkUnits.remove(workUnit);
+      speculativeWorkUnits.remove(workUnit);
+      workUnit.getBuildTargets().removeIf(nodesAssignedToMinions::contains);
+      if (!workUnit.getBuildTargets().isEmpty()) {
+        workUnitsFromFailedMinions.add(workUnit);
+      }
+    }
   }
 
   public synchronized boolean haveMostBuildRulesCompleted() {
@@ -248,7 +368,11 @@ public class MinionWorkloadAllocator {
 
     while (workUnitsFromFailedMinions.size() > 0 && reallocatedWorkUnits.size() < maxWorkUnits) {
       WorkUnit workUnitToReAssign = workUnitsFromFailedMinions.remove();
-      Preconditions.checkArgument(workUnitToReAssign.getBuildTargets().size() > 0);
+      // Targets may have been finished by a speculative copy while this unit was waiting.
+      workUnitToReAssign.getBuildTargets().removeIf(finishedNodes::contains);
+      if (workUnitToReAssign.getBuildTargets().isEmpty()) {
+        continue;
+      }
       reallocatedWorkUnits.add(workUnitToReAssign);
     }
 
@@ -261,15 +385,90 @@ public class MinionWorkloadAllocator {
     return reallocatedWorkUnits;
   }
 
+  private static int countDependenciesBuiltBy(
+      DistributableNode node, Set<String> nodesBuiltByMinion) {
+    int count = 0;
+    for (String dependency : node.allDependencies) {
+      if (nodesBuiltByMinion.contains(dependency)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int countDependenciesBuiltBy(String node, Set<String> nodesBuiltByMinion) {
+    if (nodesBuiltByMinion.isEmpty()) {
+      return 0;
+    }
+    return countDependenciesBuiltBy(
+        queue.getDistributableBuildGraph().getNode(node), nodesBuiltByMinion);
+  }
+
+  /**
+   * Finds the work unit that has gone the longest without progress on another minion, provided it
+   * has been stuck for at least the speculation delay and isn't already being speculated on. Units
+   * are never copied to low spec minions or to minions that are known to be slower than the
+   * current owner.
+   */
+  private Optional<WorkUnit> findStragglingWorkUnit(String minionId, long now) {
+    if (minionTypesByMinionId.get(minionId) == MinionType.LOW_SPEC) {
+      return Optional.empty();
+    }
+    OptionalDouble throughput = getMinionThroughput(minionId);
+
+    WorkUnit straggler = null;
+    long stragglerProgressMillis = now - speculationDelayMillis;
+    for (Map.Entry<String, Set<WorkUnit>> entry : workUnitsAssignedToMinions.entrySet()) {
+      String ownerId = entry.getKey();
+      if (ownerId.equals(minionId)) {
+        continue;
+      }
+      OptionalDouble ownerThroughput = getMinionThroughput(ownerId);
+      if (throughput.isPresent()
+          && ownerThroughput.isPresent()
+          && throughput.getAsDouble() < ownerThroughput.getAsDouble()) {
+        continue;
+      }
+      for (WorkUnit workUnit : entry.getValue()) {
+        if (speculatedWorkUnits.contains(workUnit) || speculativeWorkUnits.contains(workUnit)) {
+          continue;
+        }
+        long lastProgressMillis =
+            Preconditions.checkNotNull(lastProgressMillisByWorkUnit.get(workUnit));
+        if (lastProgressMillis <= stragglerProgressMillis) {
+          straggler = workUnit;
+          stragglerProgressMillis = lastProgressMillis;
+        }
+      }
+    }
+    return Optional.ofNullable(straggler);
+  }
+
+  private WorkUnit speculativeCopyOf(WorkUnit straggler, String minionId) {
+    WorkUnit copy = new WorkUnit();
+    copy.setBuildTargets(new ArrayList<>(straggler.getBuildTargets()));
+    speculatedWorkUnits.add(straggler);
+    speculativeWorkUnits.add(copy);
+    LOG.info(
+        String.format(
+            "Speculatively allocating work unit with [%d] targets starting at [%s] to minion [%s].",
+            copy.getBuildTargets().size(), copy.getBuildTargets().get(0), minionId));
+    return copy;
+  }
+
   private List<String> allocateNewNodes(
-      Set<WorkUnit> workUnitsForMinion, List<WorkUnit> newWorkUnitsForMinion) {
+      String minionId,
+      Set<WorkUnit> workUnitsForMinion,
+      List<WorkUnit> newWorkUnitsForMinion,
+      long now) {
     List<String> nodesForMinion = new ArrayList<>();
     for (WorkUnit workUnit : newWorkUnitsForMinion) {
       nodesForMinion.addAll(workUnit.getBuildTargets());
 
       for (String node : workUnit.getBuildTargets()) {
-        workUnitsByTarget.put(node, workUnit);
+        workUnitsByTarget.computeIfAbsent(node, ignored -> new HashMap<>()).put(minionId, workUnit);
       }
+      lastProgressMillisByWorkUnit.put(workUnit, now);
     }
 
     workUnitsForMinion.addAll(newWorkUnitsForMinion);
@@ -277,26 +476,59 @@ public class MinionWorkloadAllocator {
     return nodesForMinion;
   }
 
-  private void deallocateFinishedNodes(
-      Set<WorkUnit> workUnitsForMinion, List<String> finishedNodes) {
-    nodesAssignedToMinions.removeAll(finishedNodes);
+  /**
+   * Removes the finished nodes from every work unit they were allocated in.
+   *
+   * @return The nodes that no other minion had finished before.
+   */
+  private List<String> deallocateFinishedNodes(
+      String minionId, List<String> finishedNodes, long now) {
+    List<String> newlyFinishedNodes = new ArrayList<>();
+    Set<String> nodesBuiltByThisMinion =
+        Preconditions.checkNotNull(nodesBuiltByMinion.get(minionId));
 
     for (String finishedNode : finishedNodes) {
-      if (!workUnitsByTarget.containsKey(finishedNode)) {
+      nodesBuiltByThisMinion.add(finishedNode);
+      if (!this.finishedNodes.add(finishedNode)) {
+        LOG.info(
+            String.format(
+                "Target [%s] finished by minion [%s] was already finished elsewhere.",
+                finishedNode, minionId));
+        continue;
+      }
+      newlyFinishedNodes.add(finishedNode);
+      nodesAssignedToMinions.remove(finishedNode);
+
+      Map<String, WorkUnit> unitsByMinion = workUnitsByTarget.remove(finishedNode);
+      if (unitsByMinion == null) {
         LOG.error(String.format("No work unit could be found for target [%s]", finishedNode));
         continue;
       }
-      WorkUnit workUnitForNode = workUnitsByTarget.get(finishedNode);
+      for (Map.Entry<String, WorkUnit> entry : unitsByMinion.entrySet()) {
+        removeFinishedNode(entry.getKey(), entry.getValue(), finishedNode, now);
+      }
+    }
+    return newlyFinishedNodes;
+  }
 
-      // Important: workUnitForNode must be removed from workUnitsForMinion Set before we modify
-      // workUnitForNode, as after modification its hashCode/equals properties will have changed.
-      Preconditions.checkArgument(workUnitsForMinion.remove(workUnitForNode));
-      Preconditions.checkArgument(workUnitForNode.getBuildTargets().remove(finishedNode));
+  private void removeFinishedNode(
+      String minionId, WorkUnit workUnitForNode, String finishedNode, long now) {
+    Set<WorkUnit> workUnitsForMinion =
+        Preconditions.checkNotNull(workUnitsAssignedToMinions.get(minionId));
 
-      if (workUnitForNode.getBuildTargets().size() > 0) {
-        // Work unit still has items remaining, so re-add it to Set (using new hashCode)
-        workUnitsForMinion.add(workUnitForNode);
-      }
+    // Important: workUnitForNode must be removed from workUnitsForMinion Set before we modify
+    // workUnitForNode, as after modification its hashCode/equals properties will have changed.
+    Preconditions.checkArgument(workUnitsForMinion.remove(workUnitForNode));
+    Preconditions.checkArgument(workUnitForNode.getBuildTargets().remove(finishedNode));
+
+    if (workUnitForNode.getBuildTargets().size() > 0) {
+      // Work unit still has items remaining, so re-add it to Set (using new hashCode)
+      workUnitsForMinion.add(workUnitForNode);
+      lastProgressMillisByWorkUnit.put(workUnitForNode, now);
+    } else {
+      lastProgressMillisByWorkUnit.remove(workUnitForNode);
+      speculatedWorkUnits.remove(workUnitForNode);
+      speculativeWorkUnits.remove(workUnitForNode);
     }
   }
 }
@@ -25,11 +25,14 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 /** NOTE: Not thread safe. Caller needs to synchronize access if using multiple threads. */
@@ -111,6 +114,16 @@ public class ReverseDepBuildTargetsQueue implements BuildTargetsQueue {
   /** Returns nodes that have all their dependencies satisfied. */
   @Override
   public List<WorkUnit> dequeueZeroDependencyNodes(List<String> finishedNodes, int maxUnitsOfWork) {
+    return dequeueZeroDependencyNodes(finishedNodes, maxUnitsOfWork, node -> 0);
+  }
+
+  /**
+   * Returns nodes that have all their dependencies satisfied, starting with the ones with the
+   * highest preference.
+   */
+  @Override
+  public List<WorkUnit> dequeueZeroDependencyNodes(
+      List<String> finishedNodes, int maxUnitsOfWork, ToIntFunction<String> nodePreference) {
     Preconditions.checkArgument(maxUnitsOfWork >= 0);
 
     LOG.info(
@@ -124,9 +137,11 @@ public class ReverseDepBuildTargetsQueue implements BuildTargetsQueue {
       return Lists.newArrayList();
     }
 
+    List<String> readyNodes = new ArrayList<>(new LinkedHashSet<>(zeroDependencyTargets));
+    readyNodes.sort(Comparator.comparingInt(nodePreference).reversed());
+
     List<WorkUnit> newUnitsOfWork = new ArrayList<>();
-    createWorkUnitsStartingAtNodes(
-        new HashSet<>(zeroDependencyTargets), newUnitsOfWork, maxUnitsOfWork);
+    createWorkUnitsStartingAtNodes(readyNodes, newUnitsOfWork, maxUnitsOfWork);
 
     if (newUnitsOfWork.size() > 0) {
       LOG.info(String.format("Returning [%s] work units", newUnitsOfWork.size()));
@@ -220,7 +235,7 @@ public class ReverseDepBuildTargetsQueue implements BuildTargetsQueue {
   }
 
   private void createWorkUnitsStartingAtNodes(
-      Set<String> nodes, List<WorkUnit> newUnitsOfWork, int maxUnitsOfWork) {
+      List<String> nodes, List<WorkUnit> newUnitsOfWork, int maxUnitsOfWork) {
     for (String node : nodes) {
       if (newUnitsOfWork.size() >= maxUnitsOfWork) {
         return;
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import com.google.common.base.Preconditions;
+import org.immutables.value.Value;
+
+/**
+ * Settings for dispatching events to each {@link BuckEventListener} from its own bounded queue and
+ * thread, so that a slow listener does not hold up the others.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractListenerDispatchOptions {
+
+  /** Maximum number of events waiting to be delivered to a single listener. */
+  @Value.Default
+  public int getQueueCapacity() {
+    return 8192;
+  }
+
+  /** Maximum number of events a listener thread takes off its queue at once. */
+  @Value.Default
+  public int getMaxBatchSize() {
+    return 256;
+  }
+
+  @Value.Default
+  public EventQueueOverflowPolicy getOverflowPolicy() {
+    return EventQueueOverflowPolicy.BLOCK;
+  }
+
+  @Value.Check
+  protected void check() {
+    Preconditions.checkState(getQueueCapacity() > 0, "Queue capacity must be positive.");
+    Preconditions.checkState(getMaxBatchSize() > 0, "Batch size must be positive.");
+  }
+}
@@ -125,4 +125,85 @@ public class ActionGraphPerfStatEvent extends AbstractBuckEvent {
           buildTargetName);
     }
   }
+
+  /**
+   * Summary of an incremental action graph update: how long each phase took, and how many rules
+   * were reused from the previous action graph versus created again.
+   */
+  public static class IncrementalUpdate extends AbstractBuckEvent {
+    private final int changedTargetNodes;
+    private final int invalidatedTargetNodes;
+    private final int reusedRules;
+    private final int rebuiltRules;
+    private final long diffTimeMillis;
+    private final long invalidationTimeMillis;
+    private final long reuseTimeMillis;
+    private final long buildTimeMillis;
+
+    public IncrementalUpdate(
+        int changedTargetNodes,
+        int invalidatedTargetNodes,
+        int reusedRules,
+        int rebuiltRules,
+        long diffTimeMillis,
+        long invalidationTimeMillis,
+        long reuseTimeMillis,
+        long buildTimeMillis) {
+      super(EventKey.unique());
+      this.changedTargetNodes = changedTargetNodes;
+      this.invalidatedTargetNodes = invalidatedTargetNodes;
+      this.reusedRules = reusedRules;
+      this.rebuiltRules = rebuiltRules;
+      this.diffTimeMillis = diffTimeMillis;
+      this.invalidationTimeMillis = invalidationTimeMillis;
+      this.reuseTimeMillis = reuseTimeMillis;
+      this.buildTimeMillis = buildTimeMillis;
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format(
+          "changed=%d invalidated=%d reused=%d rebuilt=%d",
+          changedTargetNodes, invalidatedTargetNodes, reusedRules, rebuiltRules);
+    }
+
+    @Override
+    public String getEventName() {
+      return "ActionGraphIncrementalPerfStats";
+    }
+
+    /** Number of target nodes that differ from the previous target graph. */
+    public int getChangedTargetNodes() {
+      return changedTargetNodes;
+    }
+
+    /** Number of target nodes in the reverse-dependency cone of the changed nodes. */
+    public int getInvalidatedTargetNodes() {
+      return invalidatedTargetNodes;
+    }
+
+    public int getReusedRules() {
+      return reusedRules;
+    }
+
+    public int getRebuiltRules() {
+      return rebuiltRules;
+    }
+
+    public long getDiffTimeMillis() {
+      return diffTimeMillis;
+    }
+
+    public long getInvalidationTimeMillis() {
+      return invalidationTimeMillis;
+    }
+
+    public long getReuseTimeMillis() {
+      return reuseTimeMillis;
+    }
+
+    public long getBuildTimeMillis() {
+      return buildTimeMillis;
+    }
+  }
 }
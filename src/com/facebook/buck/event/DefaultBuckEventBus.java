@@ -16,6 +16,7 @@
 package com.facebook.buck.event;
 
 import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.log.CommandThreadFactory;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.Threads;
@@ -25,9 +26,11 @@ import com.facebook.buck.util.types.Pair;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -35,7 +38,14 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
-/** Thin wrapper around guava event bus. */
+/**
+ * Thin wrapper around guava event bus.
+ *
+ * <p>By default every event is delivered to every subscriber from a single thread. When {@link
+ * ListenerDispatchOptions} are given, each {@link BuckEventListener} instead gets its own bounded
+ * queue and delivery thread, so a slow listener only delays itself. Other subscribers keep using
+ * the shared thread.
+ */
 public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus {
 
   private static final Logger LOG = Logger.get(BuckEventBus.class);
@@ -52,6 +62,10 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
+  private final Optional<ListenerDispatchOptions> listenerDispatchOptions;
+  // Replaced as a whole under listenerQueuesLock so dispatching can read it without locking.
+  private volatile ImmutableList<ListenerEventQueue> listenerQueues = ImmutableList.of();
+  private final Object listenerQueuesLock = new Object();
 
   // TODO(bobyf) remove when printing issue diagnosed
   private final ScheduledExecutorService deadLockDetectorThread;
@@ -62,12 +76,27 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   private final Object lock = new Object();
 
   public DefaultBuckEventBus(Clock clock, BuildId buildId) {
-    this(clock, true, buildId, DEFAULT_SHUTDOWN_TIMEOUT_MS);
+    this(clock, buildId, Optional.empty());
+  }
+
+  public DefaultBuckEventBus(
+      Clock clock, BuildId buildId, Optional<ListenerDispatchOptions> listenerDispatchOptions) {
+    this(clock, true, buildId, DEFAULT_SHUTDOWN_TIMEOUT_MS, listenerDispatchOptions);
   }
 
   @VisibleForTesting
   public DefaultBuckEventBus(
       Clock clock, boolean async, BuildId buildId, int shutdownTimeoutMillis) {
+    this(clock, async, buildId, shutdownTimeoutMillis, Optional.empty());
+  }
+
+  @VisibleForTesting
+  DefaultBuckEventBus(
+      Clock clock,
+      boolean async,
+      BuildId buildId,
+      int shutdownTimeoutMillis,
+      Optional<ListenerDispatchOptions> listenerDispatchOptions) {
     this.clock = clock;
     this.executorService =
         async
@@ -92,12 +121,26 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    this.listenerDispatchOptions = listenerDispatchOptions;
   }
 
   private void dispatch(BuckEvent event) {
+    ImmutableList<ListenerEventQueue> queues = listenerQueues;
+
     // keep track the number of active tasks so we can do proper shutdown
     synchronized (lock) {
-      activeTasks++;
+      activeTasks += 1 + queues.size();
+    }
+
+    int rejected = 0;
+    for (ListenerEventQueue queue : queues) {
+      // Depending on the overflow policy, this may block until the listener catches up.
+      if (!queue.offer(event)) {
+        rejected++;
+      }
+    }
+    if (rejected > 0) {
+      finishTasks(rejected);
     }
 
     executorService.submit(
@@ -108,15 +151,19 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
           } finally {
             currentEvent.set(null);
             // event bus should not throw but just in case wrap with try-finally
-            synchronized (lock) {
-              activeTasks--;
-              // notify about task completion; shutdown may wait for it
-              lock.notifyAll();
-            }
+            finishTasks(1);
           }
         });
   }
 
+  private void finishTasks(int count) {
+    synchronized (lock) {
+      activeTasks -= count;
+      // notify about task completion; shutdown may wait for it
+      lock.notifyAll();
+    }
+  }
+
   @Override
   public void post(BuckEvent event) {
     timestamp(event);
@@ -137,12 +184,38 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   @Override
   public void register(Object object) {
-    eventBus.register(object);
+    if (!listenerDispatchOptions.isPresent() || !(object instanceof BuckEventListener)) {
+      eventBus.register(object);
+      return;
+    }
+    ListenerEventQueue queue =
+        new ListenerEventQueue(object, listenerDispatchOptions.get(), this::finishTasks);
+    synchronized (listenerQueuesLock) {
+      listenerQueues =
+          ImmutableList.<ListenerEventQueue>builder().addAll(listenerQueues).add(queue).build();
+    }
+    post(new CounterRegistry.AsyncCounterRegistrationEvent(queue.getCounters()));
   }
 
   @Override
   public void unregister(Object object) {
-    eventBus.unregister(object);
+    ListenerEventQueue removed = null;
+    synchronized (listenerQueuesLock) {
+      ImmutableList.Builder<ListenerEventQueue> remaining = ImmutableList.builder();
+      for (ListenerEventQueue queue : listenerQueues) {
+        if (removed == null && queue.getListener() == object) {
+          removed = queue;
+        } else {
+          remaining.add(queue);
+        }
+      }
+      listenerQueues = remaining.build();
+    }
+    if (removed != null) {
+      removed.close();
+    } else {
+      eventBus.unregister(object);
+    }
   }
 
   @Override
@@ -185,6 +258,7 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     // which immediately stops accepting new tasks, that's why we have some wrapper on top of it
     waitEvents(shutdownTimeoutMillis);
 
+    listenerQueues.forEach(ListenerEventQueue::close);
     executorService.shutdown();
     try {
       long waitTime = timeoutTime - System.currentTimeMillis();
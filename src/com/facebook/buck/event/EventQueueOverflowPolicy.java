@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+/**
+ * What a per-listener event queue does when an event is posted while it is full. Listeners posting
+ * events are never blocked; where a policy would block, the queue grows instead.
+ */
+public enum EventQueueOverflowPolicy {
+  /** Block the posting thread until the listener catches up. No events are lost. */
+  BLOCK,
+
+  /**
+   * Make room by dropping {@link LowPriorityEvent}s, either the posted one or the oldest one still
+   * queued. Blocks only when the queue is full of events that cannot be dropped.
+   */
+  DROP_LOW_PRIORITY,
+
+  /**
+   * Replace the most recently queued {@link LowPriorityEvent} of the same type with the posted one,
+   * so the listener only sees the latest value. Blocks when there is nothing to coalesce with.
+   */
+  COALESCE,
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
+import com.facebook.buck.log.CommandThreadFactory;
+import com.facebook.buck.util.Threads;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * Delivers events to a single listener from a bounded ring buffer drained by a dedicated thread.
+ *
+ * <p>Events are taken off the buffer in batches so the consumer only contends with posting threads
+ * once per batch. What happens when the buffer is full is decided by the {@link
+ * EventQueueOverflowPolicy}. Events posted by any listener while the buffer is full grow the buffer
+ * instead of blocking, since listeners waiting on each other's full buffers would deadlock.
+ */
+final class ListenerEventQueue {
+
+  static final String COUNTER_CATEGORY = "buck_event_bus";
+
+  /** Set on the consumer threads of all queues, which must never wait for a queue to drain. */
+  private static final ThreadLocal<Boolean> IS_CONSUMER_THREAD =
+      ThreadLocal.withInitial(() -> false);
+
+  private final Object listener;
+  private final EventBus eventBus;
+  private final EventQueueOverflowPolicy overflowPolicy;
+  private final int maxBatchSize;
+  private final IntConsumer onEventsFinished;
+  private final Thread consumer;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+
+  // Ring buffer, guarded by lock.
+  private BuckEvent[] events;
+  private long[] enqueuedNanos;
+  private int head = 0;
+  private int size = 0;
+  private boolean closed = false;
+
+  private final SamplingCounter queueDepth;
+  private final SamplingCounter dispatchLatencyMicros;
+  private final IntegerCounter droppedEvents;
+  private final IntegerCounter coalescedEvents;
+
+  /**
+   * @param onEventsFinished called with the number of previously accepted events that are done,
+   *     either because they were delivered or because they were dropped while queued.
+   */
+  ListenerEventQueue(
+      Object listener, ListenerDispatchOptions options, IntConsumer onEventsFinished) {
+    this.listener = listener;
+    this.eventBus = new EventBus(listener.getClass().getName());
+    this.eventBus.register(listener);
+    this.overflowPolicy = options.getOverflowPolicy();
+    this.maxBatchSize = options.getMaxBatchSize();
+    this.onEventsFinished = onEventsFinished;
+    this.events = new BuckEvent[options.getQueueCapacity()];
+    this.enqueuedNanos = new long[options.getQueueCapacity()];
+
+    ImmutableMap<String, String> tags =
+        ImmutableMap.of("listener", listener.getClass().getSimpleName());
+    this.queueDepth = new SamplingCounter(COUNTER_CATEGORY, "queue_depth", tags);
+    this.dispatchLatencyMicros =
+        new SamplingCounter(COUNTER_CATEGORY, "dispatch_latency_micros", tags);
+    this.droppedEvents = new IntegerCounter(COUNTER_CATEGORY, "dropped_events", tags);
+    this.coalescedEvents = new IntegerCounter(COUNTER_CATEGORY, "coalesced_events", tags);
+
+    this.consumer =
+        new CommandThreadFactory(
+                BuckEventBus.class.getSimpleName() + "-" + listener.getClass().getSimpleName())
+            .newThread(this::deliverEvents);
+    this.consumer.setDaemon(true);
+    this.consumer.start();
+  }
+
+  Object getListener() {
+    return listener;
+  }
+
+  ImmutableList<Counter> getCounters() {
+    return ImmutableList.of(queueDepth, dispatchLatencyMicros, droppedEvents, coalescedEvents);
+  }
+
+  /**
+   * Queues an event for delivery, applying the overflow policy if the queue is full.
+   *
+   * @return whether the event was accepted. Every accepted event is eventually reported to the
+   *     {@code onEventsFinished} callback; rejected events are not.
+   */
+  boolean offer(BuckEvent event) {
+    int removed = 0;
+    lock.lock();
+    try {
+      if (closed) {
+        return false;
+      }
+      if (size == events.length) {
+        if (event instanceof LowPriorityEvent
+            && overflowPolicy == EventQueueOverflowPolicy.DROP_LOW_PRIORITY) {
+          droppedEvents.inc();
+          return false;
+        } else if (event instanceof LowPriorityEvent
+            && overflowPolicy == EventQueueOverflowPolicy.COALESCE
+            && coalesce(event)) {
+          coalescedEvents.inc();
+          return false;
+        } else if (overflowPolicy == EventQueueOverflowPolicy.DROP_LOW_PRIORITY
+            && removeOldestLowPriorityEvent()) {
+          droppedEvents.inc();
+          removed = 1;
+        } else if (IS_CONSUMER_THREAD.get()) {
+          grow();
+        } else {
+          while (size == events.length && !closed) {
+            notFull.await();
+          }
+          if (closed) {
+            return false;
+          }
+        }
+      }
+      int tail = index(size);
+      events[tail] = event;
+      enqueuedNanos[tail] = System.nanoTime();
+      size++;
+      notEmpty.signal();
+      return true;
+    } catch (InterruptedException e) {
+      Threads.interruptCurrentThread();
+      droppedEvents.inc();
+      return false;
+    } finally {
+      lock.unlock();
+      if (removed > 0) {
+        onEventsFinished.accept(removed);
+      }
+    }
+  }
+
+  /**
+   * Stops delivering events. Events still queued are discarded and the consumer thread exits once
+   * it finishes the batch it is delivering, if any.
+   */
+  void close() {
+    int discarded;
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      discarded = size;
+      for (int i = 0; i < size; i++) {
+        events[index(i)] = null;
+      }
+      size = 0;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    if (discarded > 0) {
+      onEventsFinished.accept(discarded);
+    }
+  }
+
+  private void deliverEvents() {
+    IS_CONSUMER_THREAD.set(true);
+    BuckEvent[] batch = new BuckEvent[maxBatchSize];
+    long[] batchEnqueuedNanos = new long[maxBatchSize];
+    while (true) {
+      int count = takeBatch(batch, batchEnqueuedNanos);
+      if (count == 0) {
+        return;
+      }
+      try {
+        for (int i = 0; i < count; i++) {
+          dispatchLatencyMicros.addSample(
+              TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - batchEnqueuedNanos[i]));
+          // Guava's EventBus catches and logs exceptions thrown by subscribers.
+          eventBus.post(batch[i]);
+          batch[i] = null;
+        }
+      } finally {
+        onEventsFinished.accept(count);
+      }
+    }
+  }
+
+  /** Waits for events and moves up to a batch of them into the given arrays. */
+  private int takeBatch(BuckEvent[] batch, long[] batchEnqueuedNanos) {
+    lock.lock();
+    try {
+      while (size == 0 && !closed) {
+        notEmpty.awaitUninterruptibly();
+      }
+      if (closed) {
+        return 0;
+      }
+      queueDepth.addSample(size);
+      int count = Math.min(size, batch.length);
+      for (int i = 0; i < count; i++) {
+        int index = index(i);
+        batch[i] = events[index];
+        batchEnqueuedNanos[i] = enqueuedNanos[index];
+        events[index] = null;
+      }
+      head = index(count);
+      size -= count;
+      notFull.signalAll();
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Replaces the most recently queued event of the same type, keeping its place in the queue. */
+  private boolean coalesce(BuckEvent event) {
+    for (int i = size - 1; i >= 0; i--) {
+      int index = index(i);
+      if (events[index].getClass() == event.getClass()) {
+        events[index] = event;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean removeOldestLowPriorityEvent() {
+    for (int i = 0; i < size; i++) {
+      if (events[index(i)] instanceof LowPriorityEvent) {
+        for (int j = i; j < size - 1; j++) {
+          events[index(j)] = events[index(j + 1)];
+          enqueuedNanos[index(j)] = enqueuedNanos[index(j + 1)];
+        }
+        events[index(size - 1)] = null;
+        size--;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void grow() {
+    BuckEvent[] newEvents = new BuckEvent[events.length * 2];
+    long[] newEnqueuedNanos = new long[events.length * 2];
+    for (int i = 0; i < size; i++) {
+      newEvents[i] = events[index(i)];
+      newEnqueuedNanos[i] = enqueuedNanos[index(i)];
+    }
+    events = newEvents;
+    enqueuedNanos = newEnqueuedNanos;
+    head = 0;
+  }
+
+  private int index(int offset) {
+    return (head + offset) % events.length;
+  }
+
+  @Override
+  public String toString() {
+    return consumer.getName();
+  }
+}
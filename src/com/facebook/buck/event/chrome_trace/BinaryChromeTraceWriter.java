@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import static com.facebook.buck.util.trace.BinaryChromeTraceFormat.writeString;
+import static com.facebook.buck.util.trace.BinaryChromeTraceFormat.writeVarint;
+
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.trace.BinaryChromeTraceFormat;
+import com.facebook.buck.util.trace.BinaryChromeTraceConverter;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Writes Chrome trace events in the {@link BinaryChromeTraceFormat}, which is a lot smaller and
+ * cheaper to produce than JSON. Use {@link BinaryChromeTraceConverter} to turn the result into a
+ * JSON trace.
+ */
+public class BinaryChromeTraceWriter implements ChromeTraceEventWriter {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final DataOutputStream out;
+  private final Map<String, Integer> stringIds = new HashMap<>();
+  private long lastMicroTime = 0;
+  private long lastMicroThreadUserTime = 0;
+
+  public BinaryChromeTraceWriter(OutputStream traceStream) {
+    this.out = new DataOutputStream(new BufferedOutputStream(traceStream, BUFFER_SIZE));
+  }
+
+  @Override
+  public void writeStart() throws IOException {
+    out.write(BinaryChromeTraceFormat.MAGIC);
+    out.write(BinaryChromeTraceFormat.VERSION);
+  }
+
+  @Override
+  public void writeEvent(ChromeTraceEvent chromeTraceEvent) throws IOException {
+    // Strings have to be defined before the event that refers to them.
+    int categoryId = intern(chromeTraceEvent.getCategory());
+    int nameId = intern(chromeTraceEvent.getName());
+    Map<String, ? extends Object> args = chromeTraceEvent.getArgs();
+    if (args != null) {
+      for (String key : args.keySet()) {
+        intern(key);
+      }
+    }
+
+    out.write(BinaryChromeTraceFormat.RECORD_EVENT);
+    writeVarint(out, categoryId);
+    writeVarint(out, nameId);
+    out.write(chromeTraceEvent.getPhase().getPhase().charAt(0));
+    writeVarint(out, chromeTraceEvent.getProcessId());
+    writeVarint(out, chromeTraceEvent.getThreadId());
+    writeVarint(out, chromeTraceEvent.getMicroTime() - lastMicroTime);
+    writeVarint(out, chromeTraceEvent.getMicroThreadUserTime() - lastMicroThreadUserTime);
+    lastMicroTime = chromeTraceEvent.getMicroTime();
+    lastMicroThreadUserTime = chromeTraceEvent.getMicroThreadUserTime();
+    if (args == null) {
+      writeVarint(out, BinaryChromeTraceFormat.NO_ARGS);
+      return;
+    }
+    writeVarint(out, args.size());
+    for (Map.Entry<String, ? extends Object> arg : args.entrySet()) {
+      writeVarint(out, stringIds.get(arg.getKey()));
+      writeValue(arg.getValue());
+    }
+  }
+
+  @Override
+  public void writeEnd() throws IOException {
+    out.write(BinaryChromeTraceFormat.RECORD_END);
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  private int intern(String value) throws IOException {
+    Integer id = stringIds.get(value);
+    if (id == null) {
+      id = stringIds.size();
+      stringIds.put(value, id);
+      out.write(BinaryChromeTraceFormat.RECORD_STRING);
+      writeString(out, value);
+    }
+    return id;
+  }
+
+  private void writeValue(@Nullable Object value) throws IOException {
+    if (value == null) {
+      out.write(BinaryChromeTraceFormat.VALUE_NULL);
+    } else if (value instanceof String) {
+      out.write(BinaryChromeTraceFormat.VALUE_STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof Long
+        || value instanceof Integer
+        || value instanceof Short
+        || value instanceof Byte) {
+      out.write(BinaryChromeTraceFormat.VALUE_LONG);
+      writeVarint(out, ((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      out.write(BinaryChromeTraceFormat.VALUE_DOUBLE);
+      out.writeDouble(((Number) value).doubleValue());
+    } else if (value instanceof Boolean) {
+      out.write(
+          (Boolean) value
+              ? BinaryChromeTraceFormat.VALUE_TRUE
+              : BinaryChromeTraceFormat.VALUE_FALSE);
+    } else {
+      out.write(BinaryChromeTraceFormat.VALUE_JSON);
+      writeString(out, ObjectMappers.WRITER.writeValueAsString(value));
+    }
+  }
+}
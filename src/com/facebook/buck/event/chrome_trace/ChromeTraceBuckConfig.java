@@ -27,7 +27,17 @@ import java.net.URI;
 import java.util.Optional;
 
 public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
+
+  /** The format that Chrome traces are written in. */
+  public enum TraceFormat {
+    /** The JSON Array Format that chrome://tracing reads. */
+    JSON,
+    /** The compact format of {@link BinaryChromeTraceWriter}, which has to be converted to JSON. */
+    BINARY,
+  }
+
   private static final String DEFAULT_MAX_TRACES = "25";
+  private static final int DEFAULT_MAX_BUFFERED_TRACE_EVENTS = 100_000;
 
   private static final String LOG_SECTION = "log";
 
@@ -55,6 +65,22 @@ public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
     return delegate.getBooleanValue(LOG_SECTION, "compress_traces", false);
   }
 
+  public TraceFormat getTraceFormat() {
+    return delegate
+        .getEnum(LOG_SECTION, "trace_format", TraceFormat.class)
+        .orElse(TraceFormat.JSON);
+  }
+
+  /**
+   * Returns how many events may wait to be written to the trace. Once that many are waiting, the
+   * threads posting events block until the trace writer catches up.
+   */
+  public int getMaxBufferedTraceEvents() {
+    return delegate
+        .getInteger(LOG_SECTION, "max_buffered_trace_events")
+        .orElse(DEFAULT_MAX_BUFFERED_TRACE_EVENTS);
+  }
+
   /** Get URL to upload trace if the config is enabled. */
   public Optional<URI> getTraceUploadUriIfEnabled() {
     if (!getShouldUploadBuildTraces()) {
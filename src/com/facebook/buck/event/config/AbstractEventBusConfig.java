@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.config;
+
+import com.facebook.buck.config.BuckConfig;
+import com.facebook.buck.config.ConfigView;
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import com.facebook.buck.event.EventQueueOverflowPolicy;
+import com.facebook.buck.event.ListenerDispatchOptions;
+import java.util.Optional;
+import java.util.OptionalInt;
+import org.immutables.value.Value;
+
+/** Strong-type configuration for [event_bus] section */
+@Value.Immutable(builder = false, copy = false)
+@BuckStyleImmutable
+abstract class AbstractEventBusConfig implements ConfigView<BuckConfig> {
+
+  private static final String SECTION = "event_bus";
+
+  /**
+   * @return settings for giving each event listener its own queue and delivery thread, or empty if
+   *     all listeners should share a single delivery thread (default).
+   */
+  @Value.Lazy
+  public Optional<ListenerDispatchOptions> getListenerDispatchOptions() {
+    if (!getDelegate().getBooleanValue(SECTION, "per_listener_queues", false)) {
+      return Optional.empty();
+    }
+    ListenerDispatchOptions.Builder builder = ListenerDispatchOptions.builder();
+    getPositiveInteger("listener_queue_capacity").ifPresent(builder::setQueueCapacity);
+    getPositiveInteger("listener_batch_size").ifPresent(builder::setMaxBatchSize);
+    getDelegate()
+        .getEnum(SECTION, "listener_overflow_policy", EventQueueOverflowPolicy.class)
+        .ifPresent(builder::setOverflowPolicy);
+    return Optional.of(builder.build());
+  }
+
+  private OptionalInt getPositiveInteger(String field) {
+    OptionalInt value = getDelegate().getInteger(SECTION, field);
+    if (value.isPresent() && value.getAsInt() <= 0) {
+      throw new HumanReadableException(
+          "%s.%s must be a positive number, got %d", SECTION, field, value.getAsInt());
+    }
+    return value;
+  }
+}
@@ -36,9 +36,11 @@ import com.facebook.buck.event.RuleKeyCalculationEvent;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.event.StartActivityEvent;
 import com.facebook.buck.event.UninstallEvent;
+import com.facebook.buck.event.chrome_trace.BinaryChromeTraceWriter;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.event.chrome_trace.ChromeTraceEventWriter;
 import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
 import com.facebook.buck.io.WatchmanOverflowEvent;
 import com.facebook.buck.io.file.PathListing;
@@ -94,7 +96,13 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-/** Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing). */
+/**
+ * Logs events to a file formatted to be viewed in Chrome Trace View (chrome://tracing).
+ *
+ * <p>Events are serialized and written on a background thread. The trace is JSON unless {@code
+ * log.trace_format} asks for the binary format, which {@link
+ * com.facebook.buck.util.trace.BinaryChromeTraceConverter} turns back into JSON.
+ */
 public class ChromeTraceBuildListener implements BuckEventListener {
 
   private static final LoadingCache<String, String> CONVERTED_EVENT_ID_CACHE =
@@ -119,7 +127,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   private final ThreadLocal<SimpleDateFormat> dateFormat;
   private final Path tracePath;
   private final OutputStream traceStream;
-  private final ChromeTraceWriter chromeTraceWriter;
+  private final ChromeTraceEventWriter chromeTraceWriter;
   private final Path logDirectoryPath;
   private final ChromeTraceBuckConfig config;
   private final Set<Long> threadNamesRecorded = new HashSet<>();
@@ -168,11 +176,15 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     this.threadMXBean = threadMXBean;
     this.config = config;
     this.outputExecutor =
-        MostExecutors.newSingleThreadExecutor(new CommandThreadFactory(getClass().getName()));
+        MostExecutors.newSingleThreadExecutor(
+            new CommandThreadFactory(getClass().getName()), config.getMaxBufferedTraceEvents());
     TracePathAndStream tracePathAndStream = createPathAndStream(invocationInfo.getBuildId());
     this.tracePath = tracePathAndStream.getPath();
     this.traceStream = tracePathAndStream.getStream();
-    this.chromeTraceWriter = new ChromeTraceWriter(this.traceStream);
+    this.chromeTraceWriter =
+        config.getTraceFormat() == ChromeTraceBuckConfig.TraceFormat.BINARY
+            ? new BinaryChromeTraceWriter(this.traceStream)
+            : new ChromeTraceWriter(this.traceStream);
     this.chromeTraceWriter.writeStart();
     addProcessMetadataEvent(invocationInfo);
     addProjectFilesystemDelegateMetadataEvent(projectFilesystem);
@@ -943,6 +955,8 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     Path fullPath = projectFilesystem.resolve(tracePath);
     Path logFile = projectFilesystem.resolve(logDirectoryPath.resolve("upload-build-trace.log"));
 
+    // The uploader converts binary traces to JSON in the background, so that the build doesn't
+    // wait for it.
     UploaderLauncher.uploadInBackground(
         buildId, fullPath, "default", traceUploadUri.get(), logFile, CompressionType.GZIP);
   }
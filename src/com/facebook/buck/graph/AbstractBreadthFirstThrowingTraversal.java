@@ -18,39 +18,55 @@ package com.facebook.buck.graph;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /** Performs a breadth-first traversal of dependencies of a graph node. */
 public abstract class AbstractBreadthFirstThrowingTraversal<Node, E extends Throwable> {
 
   private final Queue<Node> toExplore;
   private final Set<Node> explored;
+  @Nullable private final IndexedTraversableGraph<Node> indexedGraph;
+  private final BitSet exploredIds;
 
   public AbstractBreadthFirstThrowingTraversal(Node initialNode) {
     this(ImmutableSet.of(initialNode));
   }
 
   public AbstractBreadthFirstThrowingTraversal(Iterable<? extends Node> initialNodes) {
+    this(initialNodes, null);
+  }
+
+  /**
+   * Tracks the explored nodes that are part of {@code indexedGraph} in a bitset indexed by node id,
+   * rather than hashing them into a set. Nodes returned by {@link #visit} that are not part of the
+   * graph are still supported.
+   */
+  public AbstractBreadthFirstThrowingTraversal(
+      Iterable<? extends Node> initialNodes, @Nullable IndexedTraversableGraph<Node> indexedGraph) {
     toExplore = new LinkedList<>();
     Iterables.addAll(toExplore, initialNodes);
     explored = new HashSet<>();
+    this.indexedGraph = indexedGraph;
+    this.exploredIds = new BitSet(indexedGraph == null ? 0 : indexedGraph.getNodeCount());
   }
 
   public final void start() throws E {
     while (!toExplore.isEmpty()) {
       Node currentNode = toExplore.remove();
-      if (explored.contains(currentNode)) {
+      if (isExplored(currentNode)) {
         continue;
       }
 
       Iterable<? extends Node> depsToVisit = this.visit(currentNode);
-      explored.add(currentNode);
+      markExplored(currentNode);
 
       for (Node dep : depsToVisit) {
-        if (!explored.contains(dep)) {
+        if (!isExplored(dep)) {
           toExplore.add(dep);
         }
       }
@@ -59,6 +75,27 @@ public abstract class AbstractBreadthFirstThrowingTraversal<Node, E extends Thro
     this.onComplete();
   }
 
+  private boolean isExplored(Node node) {
+    if (indexedGraph != null) {
+      int id = indexedGraph.getNodeId(node);
+      if (id != -1) {
+        return exploredIds.get(id);
+      }
+    }
+    return explored.contains(node);
+  }
+
+  private void markExplored(Node node) {
+    if (indexedGraph != null) {
+      int id = indexedGraph.getNodeId(node);
+      if (id != -1) {
+        exploredIds.set(id);
+        return;
+      }
+    }
+    explored.add(node);
+  }
+
   /** Override this method with any logic that should be run when {@link #start()} completes. */
   protected void onComplete() throws E {}
 
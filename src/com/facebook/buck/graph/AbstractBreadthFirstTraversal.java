@@ -16,6 +16,8 @@
 
 package com.facebook.buck.graph;
 
+import javax.annotation.Nullable;
+
 /** Performs a breadth-first traversal of dependencies of a graph node. */
 public abstract class AbstractBreadthFirstTraversal<Node>
     extends AbstractBreadthFirstThrowingTraversal<Node, RuntimeException> {
@@ -28,6 +30,11 @@ public abstract class AbstractBreadthFirstTraversal<Node>
     super(initialNodes);
   }
 
+  public AbstractBreadthFirstTraversal(
+      Iterable<? extends Node> initialNodes, @Nullable IndexedTraversableGraph<Node> indexedGraph) {
+    super(initialNodes, indexedGraph);
+  }
+
   /**
    * Traverse a graph without explicitly creating a {@code new
    * AbstractBreadthFirstThrowingTraversal} and overriding {@link #visit(Object)}
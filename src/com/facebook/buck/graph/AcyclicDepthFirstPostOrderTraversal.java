@@ -20,6 +20,8 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,6 +29,7 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Set;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /**
  * Performs a depth-first, post-order traversal over a DAG.
@@ -38,9 +41,20 @@ import java.util.function.Predicate;
 public class AcyclicDepthFirstPostOrderTraversal<T> {
 
   private final GraphTraversable<T> traversable;
+  @Nullable private final IndexedTraversableGraph<T> indexedGraph;
 
   public AcyclicDepthFirstPostOrderTraversal(GraphTraversable<T> traversable) {
     this.traversable = traversable;
+    this.indexedGraph = null;
+  }
+
+  /**
+   * Traverses the outgoing edges of {@code graph}, tracking the nodes in progress and explored in
+   * bitsets indexed by node id.
+   */
+  public AcyclicDepthFirstPostOrderTraversal(IndexedTraversableGraph<T> graph) {
+    this.traversable = node -> graph.getOutgoingNodesFor(node).iterator();
+    this.indexedGraph = graph;
   }
 
   public Iterable<T> traverse(Iterable<? extends T> initialNodes) throws CycleException {
@@ -60,6 +74,10 @@ public class AcyclicDepthFirstPostOrderTraversal<T> {
   public Iterable<T> traverse(
       Iterable<? extends T> initialNodes, Predicate<T> shouldExploreChildren)
       throws CycleException {
+    if (indexedGraph != null) {
+      return traverseIndexed(indexedGraph, initialNodes, shouldExploreChildren);
+    }
+
     // This corresponds to the current chain of nodes being explored. Enforcing this invariant makes
     // this data structure useful for debugging.
     Deque<Explorable> toExplore = new LinkedList<>();
@@ -88,7 +106,8 @@ public class AcyclicDepthFirstPostOrderTraversal<T> {
         for (Iterator<T> iter = explorable.children; iter.hasNext(); ) {
           T child = iter.next();
           if (inProgress.contains(child)) {
-            throw createCycleException(child, toExplore);
+            throw createCycleException(
+                child, Iterables.transform(toExplore, pending -> pending.node));
           } else if (!explored.contains(child)) {
             toExplore.addFirst(new Explorable(child));
 
@@ -115,6 +134,81 @@ public class AcyclicDepthFirstPostOrderTraversal<T> {
     return Iterables.unmodifiableIterable(explored);
   }
 
+  /** Same as the traversal above, but works on the node ids of an indexed graph. */
+  private Iterable<T> traverseIndexed(
+      IndexedTraversableGraph<T> graph,
+      Iterable<? extends T> initialNodes,
+      Predicate<T> shouldExploreChildren)
+      throws CycleException {
+    // The stack of ids being explored, with the top at the end, and the index of the next child to
+    // look at for each of them.
+    int[] stack = new int[16];
+    int[] nextChild = new int[16];
+    int stackSize = 0;
+    for (T node : ImmutableList.copyOf(initialNodes).reverse()) {
+      int id = graph.getNodeId(node);
+      Preconditions.checkArgument(id != -1, "%s is not in the graph.", node);
+      if (stackSize == stack.length) {
+        stack = Arrays.copyOf(stack, stackSize * 2);
+        nextChild = Arrays.copyOf(nextChild, stackSize * 2);
+      }
+      stack[stackSize++] = id;
+    }
+
+    BitSet inProgress = new BitSet(graph.getNodeCount());
+    BitSet explored = new BitSet(graph.getNodeCount());
+    ImmutableList.Builder<T> result = ImmutableList.builder();
+
+    while (stackSize > 0) {
+      int id = stack[stackSize - 1];
+
+      // This could happen if one of the initial nodes is a dependency of the other, for example.
+      if (explored.get(id)) {
+        stackSize--;
+        continue;
+      }
+
+      inProgress.set(id);
+
+      boolean addedChild = false;
+      T node = graph.getNode(id);
+      if (shouldExploreChildren.test(node)) {
+        int degree = graph.getOutgoingDegree(id);
+        while (nextChild[stackSize - 1] < degree) {
+          int child = graph.getOutgoingNodeId(id, nextChild[stackSize - 1]++);
+          if (inProgress.get(child)) {
+            ImmutableList.Builder<T> chain = ImmutableList.builder();
+            for (int i = stackSize - 1; i >= 0; i--) {
+              chain.add(graph.getNode(stack[i]));
+            }
+            throw createCycleException(graph.getNode(child), chain.build());
+          } else if (!explored.get(child)) {
+            if (stackSize == stack.length) {
+              stack = Arrays.copyOf(stack, stackSize * 2);
+              nextChild = Arrays.copyOf(nextChild, stackSize * 2);
+            }
+            stack[stackSize] = child;
+            nextChild[stackSize] = 0;
+            stackSize++;
+            addedChild = true;
+            break;
+          }
+        }
+      }
+
+      if (!addedChild) {
+        stackSize--;
+        inProgress.clear(id);
+        explored.set(id);
+        result.add(node);
+      }
+    }
+
+    Preconditions.checkState(inProgress.isEmpty(), "No more nodes should be in progress.");
+
+    return result.build();
+  }
+
   /**
    * A node that needs to be explored, paired with a (possibly paused) iteration of its children.
    */
@@ -128,14 +222,12 @@ public class AcyclicDepthFirstPostOrderTraversal<T> {
     }
   }
 
-  private CycleException createCycleException(
-      T collisionNode, Iterable<Explorable> currentExploration) {
+  private CycleException createCycleException(T collisionNode, Iterable<T> currentExploration) {
     Deque<T> chain = new LinkedList<>();
     chain.add(collisionNode);
 
     boolean foundStartOfCycle = false;
-    for (Explorable explorable : currentExploration) {
-      T node = explorable.node;
+    for (T node : currentExploration) {
       chain.addFirst(node);
       if (collisionNode.equals(node)) {
         // The start of the cycle has been reached!
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable DAG that numbers its nodes and stores its edges in compressed sparse row form.
+ *
+ * <p>The edges of the node with id {@code i} are {@code outgoingIds[outgoingOffsets[i]]} up to,
+ * but not including, {@code outgoingIds[outgoingOffsets[i + 1]]}, and likewise for incoming edges.
+ * Together with an open addressing table from nodes to ids this costs a few ints per node and two
+ * ints per edge, instead of an {@link ImmutableSet} per node for each direction plus the map
+ * entries that hold them.
+ */
+public final class CompactDirectedAcyclicGraph<T> implements IndexedTraversableGraph<T> {
+
+  private final ImmutableSet<T> nodes;
+  private final ImmutableList<T> nodesById;
+
+  /** Maps a slot derived from the hash of a node to its id plus one, zero marks an empty slot. */
+  private final int[] idTable;
+
+  private final int[] outgoingOffsets;
+  private final int[] outgoingIds;
+  private final int[] incomingOffsets;
+  private final int[] incomingIds;
+
+  private CompactDirectedAcyclicGraph(ImmutableSet<T> nodes, TraversableGraph<T> graph) {
+    this.nodes = nodes;
+    // The list view of a regular ImmutableSet shares its backing array.
+    this.nodesById = nodes.asList();
+    int nodeCount = nodesById.size();
+
+    this.idTable = new int[Integer.highestOneBit(Math.max(1, 2 * nodeCount - 1)) << 1];
+    for (int id = 0; id < nodeCount; id++) {
+      int slot = smear(nodesById.get(id).hashCode()) & (idTable.length - 1);
+      while (idTable[slot] != 0) {
+        slot = (slot + 1) & (idTable.length - 1);
+      }
+      idTable[slot] = id + 1;
+    }
+
+    this.outgoingOffsets = new int[nodeCount + 1];
+    int edgeCount = 0;
+    for (int id = 0; id < nodeCount; id++) {
+      outgoingOffsets[id] = edgeCount;
+      for (T ignored : graph.getOutgoingNodesFor(nodesById.get(id))) {
+        edgeCount++;
+      }
+    }
+    outgoingOffsets[nodeCount] = edgeCount;
+
+    this.outgoingIds = new int[edgeCount];
+    int[] incomingCounts = new int[nodeCount + 1];
+    for (int id = 0; id < nodeCount; id++) {
+      int edge = outgoingOffsets[id];
+      for (T sink : graph.getOutgoingNodesFor(nodesById.get(id))) {
+        int sinkId = getNodeId(sink);
+        outgoingIds[edge++] = sinkId;
+        incomingCounts[sinkId + 1]++;
+      }
+    }
+
+    // Transpose the outgoing edges, so the sources of each sink end up ordered by id.
+    this.incomingOffsets = incomingCounts;
+    for (int id = 0; id < nodeCount; id++) {
+      incomingOffsets[id + 1] += incomingOffsets[id];
+    }
+    this.incomingIds = new int[edgeCount];
+    int[] nextIncoming = new int[nodeCount];
+    System.arraycopy(incomingOffsets, 0, nextIncoming, 0, nodeCount);
+    for (int id = 0; id < nodeCount; id++) {
+      for (int edge = outgoingOffsets[id]; edge < outgoingOffsets[id + 1]; edge++) {
+        incomingIds[nextIncoming[outgoingIds[edge]]++] = id;
+      }
+    }
+  }
+
+  /** Copies the given graph, which must be acyclic, into a new compact graph. */
+  public static <T> CompactDirectedAcyclicGraph<T> copyOf(MutableDirectedGraph<T> graph) {
+    Preconditions.checkState(graph.isAcyclic(), "Graph must by acyclic");
+    return new CompactDirectedAcyclicGraph<>(graph.createImmutableCopyOfNodes(), graph);
+  }
+
+  /**
+   * Returns the compact form of the given graph, which is only copied if it does not use the
+   * {@link DirectedAcyclicGraph.Representation#COMPACT} representation already.
+   */
+  public static <T> CompactDirectedAcyclicGraph<T> copyOf(DirectedAcyclicGraph<T> graph) {
+    Optional<IndexedTraversableGraph<T>> indexedGraph = graph.getIndexedGraph();
+    if (indexedGraph.isPresent()) {
+      return (CompactDirectedAcyclicGraph<T>) indexedGraph.get();
+    }
+    return new CompactDirectedAcyclicGraph<>(graph.getNodes(), graph);
+  }
+
+  @Override
+  public int getNodeCount() {
+    return nodesById.size();
+  }
+
+  public int getEdgeCount() {
+    return outgoingIds.length;
+  }
+
+  @Override
+  public int getNodeId(@Nullable T node) {
+    if (node == null) {
+      return -1;
+    }
+    int slot = smear(node.hashCode()) & (idTable.length - 1);
+    while (idTable[slot] != 0) {
+      int id = idTable[slot] - 1;
+      if (node.equals(nodesById.get(id))) {
+        return id;
+      }
+      slot = (slot + 1) & (idTable.length - 1);
+    }
+    return -1;
+  }
+
+  @Override
+  public T getNode(int id) {
+    return nodesById.get(id);
+  }
+
+  @Override
+  public int getOutgoingDegree(int id) {
+    return outgoingOffsets[id + 1] - outgoingOffsets[id];
+  }
+
+  @Override
+  public int getOutgoingNodeId(int id, int index) {
+    return outgoingIds[outgoingOffsets[id] + index];
+  }
+
+  @Override
+  public int getIncomingDegree(int id) {
+    return incomingOffsets[id + 1] - incomingOffsets[id];
+  }
+
+  @Override
+  public int getIncomingNodeId(int id, int index) {
+    return incomingIds[incomingOffsets[id] + index];
+  }
+
+  /** @return an unmodifiable view of the nodes {@code source} has an edge to. */
+  @Override
+  public List<T> getOutgoingNodesFor(T source) {
+    int id = getNodeId(source);
+    if (id == -1) {
+      return ImmutableList.of();
+    }
+    return new NodeListView(outgoingIds, outgoingOffsets[id], outgoingOffsets[id + 1]);
+  }
+
+  /** @return an unmodifiable view of the nodes that have an edge to {@code sink}. */
+  @Override
+  public List<T> getIncomingNodesFor(T sink) {
+    int id = getNodeId(sink);
+    if (id == -1) {
+      return ImmutableList.of();
+    }
+    return new NodeListView(incomingIds, incomingOffsets[id], incomingOffsets[id + 1]);
+  }
+
+  @Override
+  public ImmutableList<T> getNodesWithNoOutgoingEdges() {
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int id = 0; id < nodesById.size(); id++) {
+      if (getOutgoingDegree(id) == 0) {
+        builder.add(nodesById.get(id));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public ImmutableList<T> getNodesWithNoIncomingEdges() {
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int id = 0; id < nodesById.size(); id++) {
+      if (getIncomingDegree(id) == 0) {
+        builder.add(nodesById.get(id));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public ImmutableSet<T> getNodes() {
+    return nodes;
+  }
+
+  /** Same bit mixing as Guava's hash based collections, to spread out poor hash codes. */
+  private static int smear(int hashCode) {
+    return 0x1b873593 * Integer.rotateLeft(hashCode * 0xcc9e2d51, 15);
+  }
+
+  /** Maps a range of {@code ids} to the nodes they refer to. */
+  private class NodeListView extends AbstractList<T> {
+    private final int[] ids;
+    private final int start;
+    private final int end;
+
+    NodeListView(int[] ids, int start, int end) {
+      this.ids = ids;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public T get(int index) {
+      Preconditions.checkElementIndex(index, end - start);
+      return nodesById.get(ids[start + index]);
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+  }
+}
@@ -21,38 +21,115 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Sets;
 import java.util.Objects;
+import java.util.Optional;
+import javax.annotation.Nullable;
 
 public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
 
+  /** How a {@link DirectedAcyclicGraph} stores its edges. */
+  public enum Representation {
+    /** An {@link ImmutableSetMultimap} for each direction. */
+    MULTIMAP,
+    /**
+     * A {@link CompactDirectedAcyclicGraph}, which takes a fraction of the heap on large graphs and
+     * lets traversals work on int ids. {@link #getOutgoingNodesFor} and {@link
+     * #getIncomingNodesFor} have to copy the edges into a new set on every call though, so
+     * traversals should use {@link #getIndexedGraph()} instead.
+     */
+    COMPACT,
+  }
+
   private final ImmutableSet<T> nodes;
-  private final ImmutableSetMultimap<T, T> outgoingEdges;
-  private final ImmutableSetMultimap<T, T> incomingEdges;
+  @Nullable private final ImmutableSetMultimap<T, T> outgoingEdges;
+  @Nullable private final ImmutableSetMultimap<T, T> incomingEdges;
+  @Nullable private final CompactDirectedAcyclicGraph<T> compactGraph;
+  @Nullable private volatile CompactDirectedAcyclicGraph<T> compactCopy;
 
   public DirectedAcyclicGraph(MutableDirectedGraph<T> graph) {
+    this(graph, Representation.MULTIMAP);
+  }
+
+  public DirectedAcyclicGraph(MutableDirectedGraph<T> graph, Representation representation) {
     Preconditions.checkState(graph.isAcyclic(), "Graph must by acyclic");
-    this.nodes = graph.createImmutableCopyOfNodes();
-    this.outgoingEdges = graph.createImmutableCopyOfOutgoingEdges();
-    this.incomingEdges = graph.createImmutableCopyOfIncomingEdges();
+    if (representation == Representation.COMPACT) {
+      this.compactGraph = CompactDirectedAcyclicGraph.copyOf(graph);
+      this.nodes = compactGraph.getNodes();
+      this.outgoingEdges = null;
+      this.incomingEdges = null;
+    } else {
+      this.compactGraph = null;
+      this.nodes = graph.createImmutableCopyOfNodes();
+      this.outgoingEdges = graph.createImmutableCopyOfOutgoingEdges();
+      this.incomingEdges = graph.createImmutableCopyOfIncomingEdges();
+    }
+  }
+
+  public Representation getRepresentation() {
+    return compactGraph == null ? Representation.MULTIMAP : Representation.COMPACT;
+  }
+
+  /**
+   * @return a view of this graph that numbers its nodes, if it uses the {@link
+   *     Representation#COMPACT} representation.
+   */
+  public Optional<IndexedTraversableGraph<T>> getIndexedGraph() {
+    return Optional.ofNullable(compactGraph);
+  }
+
+  /**
+   * @return this graph in its compact form. With the {@link Representation#MULTIMAP}
+   *     representation, it is copied the first time it is needed and kept along with this graph,
+   *     so that repeated traversals of the same graph don't copy it every time.
+   */
+  public CompactDirectedAcyclicGraph<T> getCompactGraph() {
+    if (compactGraph != null) {
+      return compactGraph;
+    }
+    CompactDirectedAcyclicGraph<T> copy = compactCopy;
+    if (copy == null) {
+      synchronized (this) {
+        copy = compactCopy;
+        if (copy == null) {
+          copy = CompactDirectedAcyclicGraph.copyOf(this);
+          compactCopy = copy;
+        }
+      }
+    }
+    return copy;
   }
 
   @Override
   public ImmutableSet<T> getOutgoingNodesFor(T source) {
-    return outgoingEdges.get(source);
+    if (compactGraph != null) {
+      return ImmutableSet.copyOf(compactGraph.getOutgoingNodesFor(source));
+    }
+    return Preconditions.checkNotNull(outgoingEdges).get(source);
   }
 
   @Override
   public ImmutableSet<T> getIncomingNodesFor(T sink) {
-    return incomingEdges.get(sink);
+    if (compactGraph != null) {
+      return ImmutableSet.copyOf(compactGraph.getIncomingNodesFor(sink));
+    }
+    return Preconditions.checkNotNull(incomingEdges).get(sink);
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoOutgoingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, outgoingEdges.keySet()));
+    if (compactGraph != null) {
+      return ImmutableSet.copyOf(compactGraph.getNodesWithNoOutgoingEdges());
+    }
+    return ImmutableSet.copyOf(
+        Sets.difference(nodes, Preconditions.checkNotNull(outgoingEdges).keySet()));
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoIncomingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, incomingEdges.keySet()));
+    if (compactGraph != null) {
+      return ImmutableSet.copyOf(compactGraph.getNodesWithNoIncomingEdges());
+    }
+    return ImmutableSet.copyOf(
+        Sets.difference(nodes, Preconditions.checkNotNull(incomingEdges).keySet()));
   }
 
   @Override
@@ -67,13 +144,54 @@ public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
     }
 
     DirectedAcyclicGraph<?> that = (DirectedAcyclicGraph<?>) other;
-    return Objects.equals(this.nodes, that.nodes)
-        && Objects.equals(this.outgoingEdges, that.outgoingEdges)
-        && Objects.equals(this.incomingEdges, that.incomingEdges);
+    if (this.compactGraph == null && that.compactGraph == null) {
+      return Objects.equals(this.nodes, that.nodes)
+          && Objects.equals(this.outgoingEdges, that.outgoingEdges)
+          && Objects.equals(this.incomingEdges, that.incomingEdges);
+    }
+
+    // The incoming edges are implied by the outgoing ones.
+    if (!Objects.equals(this.nodes, that.nodes)) {
+      return false;
+    }
+    @SuppressWarnings("unchecked")
+    DirectedAcyclicGraph<T> typedThat = (DirectedAcyclicGraph<T>) that;
+    for (T node : nodes) {
+      if (!this.getOutgoingNodesFor(node).equals(typedThat.getOutgoingNodesFor(node))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(nodes, outgoingEdges, incomingEdges);
+    if (compactGraph == null) {
+      return Objects.hash(nodes, outgoingEdges, incomingEdges);
+    }
+    // Matches the hash code of the multimaps, so that equal graphs hash the same regardless of
+    // their representation.
+    int outgoingHashCode = 0;
+    int incomingHashCode = 0;
+    for (int id = 0; id < compactGraph.getNodeCount(); id++) {
+      int nodeHashCode = compactGraph.getNode(id).hashCode();
+      int outgoingDegree = compactGraph.getOutgoingDegree(id);
+      if (outgoingDegree > 0) {
+        int setHashCode = 0;
+        for (int i = 0; i < outgoingDegree; i++) {
+          setHashCode += compactGraph.getNode(compactGraph.getOutgoingNodeId(id, i)).hashCode();
+        }
+        outgoingHashCode += nodeHashCode ^ setHashCode;
+      }
+      int incomingDegree = compactGraph.getIncomingDegree(id);
+      if (incomingDegree > 0) {
+        int setHashCode = 0;
+        for (int i = 0; i < incomingDegree; i++) {
+          setHashCode += compactGraph.getNode(compactGraph.getIncomingNodeId(id, i)).hashCode();
+        }
+        incomingHashCode += nodeHashCode ^ setHashCode;
+      }
+    }
+    return Objects.hash(nodes, outgoingHashCode, incomingHashCode);
   }
 }
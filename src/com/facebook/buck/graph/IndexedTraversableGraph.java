@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+/**
+ * A {@link TraversableGraph} whose nodes are numbered densely from {@code 0} to {@code
+ * getNodeCount() - 1}.
+ *
+ * <p>Traversals can work on these ids directly and track visited nodes in a {@link
+ * java.util.BitSet} or an {@code int[]} instead of hashing every node into a {@link java.util.Set}
+ * or {@link java.util.Map}.
+ */
+public interface IndexedTraversableGraph<T> extends TraversableGraph<T> {
+
+  /** @return the number of nodes in the graph. */
+  int getNodeCount();
+
+  /** @return the id of {@code node}, or {@code -1} if it is not in the graph. */
+  int getNodeId(T node);
+
+  /** @return the node with the given id. */
+  T getNode(int id);
+
+  /** @return the number of nodes the node with the given id has edges to. */
+  int getOutgoingDegree(int id);
+
+  /** @return the id of the {@code index}-th node the node with the given id has an edge to. */
+  int getOutgoingNodeId(int id, int index);
+
+  /** @return the number of nodes that have an edge to the node with the given id. */
+  int getIncomingDegree(int id);
+
+  /** @return the id of the {@code index}-th node that has an edge to the node with the given id. */
+  int getIncomingNodeId(int id, int index);
+}
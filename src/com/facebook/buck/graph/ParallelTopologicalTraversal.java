@@ -0,0 +1,280 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Visits the nodes of a DAG in parallel, starting each node as soon as the nodes it has to wait
+ * for have been visited.
+ *
+ * <p>At most {@code maxInFlight} visits are handed to the executor at any time. The other nodes
+ * that are ready wait in a queue, so a large graph doesn't turn into a task per node up front. If
+ * the executor is a {@link ForkJoinPool}, nodes that become ready on one of its workers are forked
+ * onto that worker's own queue, so a node tends to run right after its last dependency on the same
+ * thread.
+ *
+ * <p>The first visit that throws fails the returned future, and so does cancelling it. Either way
+ * no further nodes are visited, although visits that already started run to completion.
+ */
+public class ParallelTopologicalTraversal<T> {
+
+  /** The order in which to visit the nodes. */
+  public enum Direction {
+    /**
+     * Visit a node after every node it has an outgoing edge to, like {@link
+     * AbstractBottomUpTraversal}.
+     */
+    BOTTOM_UP,
+    /** Visit a node after every node that has an edge to it. */
+    TOP_DOWN,
+  }
+
+  /** The work to do for each node. */
+  @FunctionalInterface
+  public interface Visitor<T> {
+    void visit(T node) throws Exception;
+  }
+
+  /** Told how long each successful visit took, on the thread that did the visit. */
+  @FunctionalInterface
+  public interface TimingListener<T> {
+    void onNodeVisited(T node, long elapsedNanos);
+  }
+
+  private final IndexedTraversableGraph<T> graph;
+  private final Direction direction;
+  private final Executor executor;
+  private final int maxInFlight;
+  private final TimingListener<T> timingListener;
+
+  public ParallelTopologicalTraversal(
+      IndexedTraversableGraph<T> graph, Direction direction, Executor executor, int maxInFlight) {
+    this(graph, direction, executor, maxInFlight, (node, elapsedNanos) -> {});
+  }
+
+  public ParallelTopologicalTraversal(
+      IndexedTraversableGraph<T> graph,
+      Direction direction,
+      Executor executor,
+      int maxInFlight,
+      TimingListener<T> timingListener) {
+    Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be positive: %s", maxInFlight);
+    this.graph = graph;
+    this.direction = direction;
+    this.executor = executor;
+    this.maxInFlight = maxInFlight;
+    this.timingListener = timingListener;
+  }
+
+  /** Visits every node in the graph. */
+  public ListenableFuture<Void> traverse(Visitor<T> visitor) {
+    BitSet included = new BitSet(graph.getNodeCount());
+    included.set(0, graph.getNodeCount());
+    return new Run(visitor, included).start();
+  }
+
+  /**
+   * Visits {@code roots} and every node that can be reached from them by following outgoing
+   * edges.
+   */
+  public ListenableFuture<Void> traverse(Iterable<? extends T> roots, Visitor<T> visitor) {
+    BitSet included = new BitSet(graph.getNodeCount());
+    int[] stack = new int[16];
+    int stackSize = 0;
+    for (T root : roots) {
+      int id = graph.getNodeId(root);
+      Preconditions.checkArgument(id != -1, "%s is not in the graph.", root);
+      if (stackSize == stack.length) {
+        stack = Arrays.copyOf(stack, stackSize * 2);
+      }
+      stack[stackSize++] = id;
+    }
+    while (stackSize > 0) {
+      int id = stack[--stackSize];
+      if (included.get(id)) {
+        continue;
+      }
+      included.set(id);
+      for (int i = 0; i < graph.getOutgoingDegree(id); i++) {
+        int child = graph.getOutgoingNodeId(id, i);
+        if (!included.get(child)) {
+          if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+          }
+          stack[stackSize++] = child;
+        }
+      }
+    }
+    return new Run(visitor, included).start();
+  }
+
+  /** The state of a single traversal. */
+  private class Run {
+    private final Visitor<T> visitor;
+    private final BitSet included;
+    private final int nodeCount;
+    private final AtomicIntegerArray remainingPrerequisites;
+    private final AtomicInteger visitedCount = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Integer> ready = new ConcurrentLinkedQueue<>();
+    private final SettableFuture<Void> result = SettableFuture.create();
+
+    /**
+     * Set while a thread hands ready nodes to the executor. An executor that runs visits inline
+     * then doesn't recurse into another round of scheduling for every node; the round that is
+     * already running picks up the nodes the visit made ready.
+     */
+    private final ThreadLocal<Boolean> scheduling = ThreadLocal.withInitial(() -> false);
+
+    Run(Visitor<T> visitor, BitSet included) {
+      this.visitor = visitor;
+      this.included = included;
+      this.nodeCount = included.cardinality();
+      this.remainingPrerequisites = new AtomicIntegerArray(graph.getNodeCount());
+    }
+
+    ListenableFuture<Void> start() {
+      if (nodeCount == 0) {
+        result.set(null);
+        return result;
+      }
+
+      for (int id = included.nextSetBit(0); id >= 0; id = included.nextSetBit(id + 1)) {
+        int prerequisites = countPrerequisites(id);
+        if (prerequisites == 0) {
+          ready.add(id);
+        } else {
+          remainingPrerequisites.set(id, prerequisites);
+        }
+      }
+      scheduleReadyNodes();
+      return result;
+    }
+
+    private int countPrerequisites(int id) {
+      if (direction == Direction.BOTTOM_UP) {
+        // Everything reachable from an included node is included as well.
+        return graph.getOutgoingDegree(id);
+      }
+      int count = 0;
+      for (int i = 0; i < graph.getIncomingDegree(id); i++) {
+        if (included.get(graph.getIncomingNodeId(id, i))) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    private void scheduleReadyNodes() {
+      if (scheduling.get()) {
+        return;
+      }
+      scheduling.set(true);
+      try {
+        scheduleReadyNodesOnce();
+      } finally {
+        scheduling.set(false);
+      }
+    }
+
+    private void scheduleReadyNodesOnce() {
+      while (!ready.isEmpty()) {
+        if (result.isDone()) {
+          ready.clear();
+          return;
+        }
+        int current = inFlight.get();
+        if (current >= maxInFlight) {
+          // A visit is in flight, and it will schedule more nodes once it is done.
+          return;
+        }
+        if (!inFlight.compareAndSet(current, current + 1)) {
+          continue;
+        }
+        Integer id = ready.poll();
+        if (id == null) {
+          inFlight.decrementAndGet();
+          continue;
+        }
+        submit(id);
+      }
+    }
+
+    private void submit(int id) {
+      try {
+        if (executor instanceof ForkJoinPool && ForkJoinTask.getPool() == executor) {
+          ForkJoinTask.adapt(() -> visit(id)).fork();
+        } else {
+          executor.execute(() -> visit(id));
+        }
+      } catch (RuntimeException e) {
+        // Most likely the executor was shut down.
+        result.setException(e);
+        inFlight.decrementAndGet();
+      }
+    }
+
+    private void visit(int id) {
+      try {
+        if (result.isDone()) {
+          // Cancelled, or an earlier visit failed.
+          return;
+        }
+        T node = graph.getNode(id);
+        long start = System.nanoTime();
+        visitor.visit(node);
+        timingListener.onNodeVisited(node, System.nanoTime() - start);
+
+        if (direction == Direction.BOTTOM_UP) {
+          for (int i = 0; i < graph.getIncomingDegree(id); i++) {
+            onPrerequisiteVisited(graph.getIncomingNodeId(id, i));
+          }
+        } else {
+          for (int i = 0; i < graph.getOutgoingDegree(id); i++) {
+            onPrerequisiteVisited(graph.getOutgoingNodeId(id, i));
+          }
+        }
+        if (visitedCount.incrementAndGet() == nodeCount) {
+          result.set(null);
+        }
+      } catch (Throwable t) {
+        result.setException(t);
+      } finally {
+        inFlight.decrementAndGet();
+        scheduleReadyNodes();
+      }
+    }
+
+    private void onPrerequisiteVisited(int id) {
+      if (included.get(id) && remainingPrerequisites.decrementAndGet(id) == 0) {
+        ready.add(id);
+      }
+    }
+  }
+}
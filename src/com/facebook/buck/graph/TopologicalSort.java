@@ -20,9 +20,12 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Queues;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
@@ -33,6 +36,10 @@ public class TopologicalSort {
   private TopologicalSort() {}
 
   public static <T extends Comparable<?>> ImmutableList<T> sort(TraversableGraph<T> graph) {
+    Optional<IndexedTraversableGraph<T>> indexedGraph = getIndexedGraph(graph);
+    if (indexedGraph.isPresent()) {
+      return sort(indexedGraph.get());
+    }
 
     // AtomicInteger is used to decrement the integer value in-place.
     Map<T, AtomicInteger> effectiveOutDegreesOfExplorableNodes = new HashMap<>();
@@ -77,4 +84,69 @@ public class TopologicalSort {
 
     return toReturn.build();
   }
+
+  private static <T> Optional<IndexedTraversableGraph<T>> getIndexedGraph(
+      TraversableGraph<T> graph) {
+    if (graph instanceof IndexedTraversableGraph) {
+      return Optional.of((IndexedTraversableGraph<T>) graph);
+    }
+    if (graph instanceof DirectedAcyclicGraph) {
+      return ((DirectedAcyclicGraph<T>) graph).getIndexedGraph();
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Same as {@link #sort(TraversableGraph)}, but keeps the remaining out degrees in an array
+   * indexed by node id instead of a map, and explores the levels in place in a single array.
+   */
+  private static <T extends Comparable<?>> ImmutableList<T> sort(
+      IndexedTraversableGraph<T> graph) {
+    int nodeCount = graph.getNodeCount();
+    int[] remainingOutDegrees = new int[nodeCount];
+    // Every node is appended exactly once, the current level is [levelStart, levelEnd).
+    int[] order = new int[nodeCount];
+    int orderSize = 0;
+    for (int id = 0; id < nodeCount; id++) {
+      remainingOutDegrees[id] = graph.getOutgoingDegree(id);
+      if (remainingOutDegrees[id] == 0) {
+        order[orderSize++] = id;
+      }
+    }
+    BitSet visitedNodes = new BitSet(nodeCount);
+    ImmutableList.Builder<T> toReturn = ImmutableList.builderWithExpectedSize(nodeCount);
+    Object[] level = new Object[nodeCount];
+
+    int levelStart = 0;
+    while (levelStart < orderSize) {
+      int levelEnd = orderSize;
+      for (int i = levelStart; i < levelEnd; i++) {
+        int id = order[i];
+        Preconditions.checkState(
+            !visitedNodes.get(id),
+            "The queue of nodes to explore should not contain a node that has already been"
+                + " visited.");
+        visitedNodes.set(id);
+        level[i - levelStart] = graph.getNode(id);
+
+        for (int j = 0; j < graph.getIncomingDegree(id); j++) {
+          int exploreCandidate = graph.getIncomingNodeId(id, j);
+          if (--remainingOutDegrees[exploreCandidate] == 0) {
+            order[orderSize++] = exploreCandidate;
+          }
+        }
+      }
+
+      // Nodes are distinct, so sorting them gives the same order as the TreeSet above.
+      Arrays.sort(level, 0, levelEnd - levelStart);
+      for (int i = 0; i < levelEnd - levelStart; i++) {
+        @SuppressWarnings("unchecked")
+        T node = (T) level[i];
+        toReturn.add(node);
+      }
+      levelStart = levelEnd;
+    }
+
+    return toReturn.build();
+  }
 }
@@ -17,7 +17,12 @@
 package com.facebook.buck.io;
 
 import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import org.immutables.value.Value;
 
 public interface WatchmanEvent {
@@ -55,3 +60,42 @@ abstract class AbstractWatchmanPathEvent implements WatchmanEvent {
    */
   public abstract Path getPath();
 }
+
+/**
+ * All changes observed in a single cell during one Watchman query, delivered to subscribers at
+ * once so that they can invalidate their caches in bulk rather than one path at a time.
+ */
+@Value.Immutable(copy = false, builder = false)
+@BuckStyleTuple
+abstract class AbstractWatchmanPathEventBatch implements WatchmanEvent {
+  @Override
+  public abstract Path getCellPath();
+
+  /**
+   * Coalesced path events, at most one per path. A file that was deleted and then re-created is
+   * reported as a modification, since its existence did not change.
+   */
+  public abstract ImmutableList<WatchmanPathEvent> getEvents();
+
+  /**
+   * Cell-relative directories whose entire contents must be treated as created, modified or
+   * deleted. Used instead of individual events when a change is too large to report file by file
+   * but is confined to a few directories (e.g. a directory rename).
+   */
+  public abstract ImmutableSet<Path> getChangedDirectories();
+
+  /** The events of this batch grouped by the directory containing the changed file. */
+  @Value.Lazy
+  public ImmutableListMultimap<Path, WatchmanPathEvent> getEventsByDirectory() {
+    return Multimaps.index(
+        getEvents(),
+        event -> {
+          Path parent = event.getPath().getParent();
+          return parent == null ? Paths.get("") : parent;
+        });
+  }
+
+  public boolean isEmpty() {
+    return getEvents().isEmpty() && getChangedDirectories().isEmpty();
+  }
+}
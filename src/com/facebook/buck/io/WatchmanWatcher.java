@@ -38,6 +38,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -78,6 +79,12 @@ public class WatchmanWatcher {
    */
   private static final int OVERFLOW_THRESHOLD = 10000;
 
+  /**
+   * When more than {@link #OVERFLOW_THRESHOLD} files change, but all of them are contained in at
+   * most this many directories, invalidate those directories rather than generating an overflow.
+   */
+  private static final int MAX_CHANGED_DIRECTORIES = 32;
+
   /** Attach changed files to the perf trace, if there aren't too many. */
   private static final int TRACE_CHANGES_THRESHOLD = 10;
 
@@ -367,21 +374,13 @@ public class WatchmanWatcher {
 
         List<Map<String, Object>> files = (List<Map<String, Object>>) response.get("files");
         if (files != null) {
-          if (files.size() > OVERFLOW_THRESHOLD) {
-            LOG.warn(
-                "Posting overflow event: too many files changed: %d > %d",
-                files.size(), OVERFLOW_THRESHOLD);
-            postWatchEvent(
-                buckEventBus, WatchmanOverflowEvent.of(cellPath, "Too many files changed."));
-            filesHaveChanged.set(true);
-            return;
-          }
           if (files.size() < TRACE_CHANGES_THRESHOLD) {
             perfEvent.appendFinishedInfo("files", files);
           } else {
             perfEvent.appendFinishedInfo("files_sample", files.subList(0, TRACE_CHANGES_THRESHOLD));
           }
 
+          List<WatchmanPathEvent> pathEvents = new ArrayList<>(files.size());
           for (Map<String, Object> file : files) {
             String fileName = (String) file.get("name");
             if (fileName == null) {
@@ -401,14 +400,41 @@ public class WatchmanWatcher {
             if (fileExists != null && !fileExists) {
               kind = WatchmanPathEvent.Kind.DELETE;
             }
-            postWatchEvent(buckEventBus, WatchmanPathEvent.of(cellPath, kind, Paths.get(fileName)));
+            pathEvents.add(WatchmanPathEvent.of(cellPath, kind, Paths.get(fileName)));
+          }
+
+          ImmutableList<WatchmanPathEvent> coalescedEvents = coalesce(pathEvents);
+          if (coalescedEvents.size() > OVERFLOW_THRESHOLD) {
+            Optional<ImmutableSet<Path>> changedDirectories =
+                findChangedDirectories(
+                    Lists.transform(coalescedEvents, WatchmanPathEvent::getPath),
+                    MAX_CHANGED_DIRECTORIES);
+            if (!changedDirectories.isPresent()) {
+              LOG.warn(
+                  "Posting overflow event: too many files changed: %d > %d",
+                  coalescedEvents.size(), OVERFLOW_THRESHOLD);
+              postWatchEvent(
+                  buckEventBus, WatchmanOverflowEvent.of(cellPath, "Too many files changed."));
+              filesHaveChanged.set(true);
+              return;
+            }
+            LOG.info(
+                "%d files changed under %d directories, invalidating the directories instead",
+                coalescedEvents.size(), changedDirectories.get().size());
+            postWatchEvent(
+                buckEventBus,
+                WatchmanPathEventBatch.of(cellPath, ImmutableList.of(), changedDirectories.get()));
+          } else if (!coalescedEvents.isEmpty()) {
+            postWatchEvent(
+                buckEventBus,
+                WatchmanPathEventBatch.of(cellPath, coalescedEvents, ImmutableSet.of()));
           }
 
           if (!files.isEmpty() || freshInstanceAction == FreshInstanceAction.NONE) {
             filesHaveChanged.set(true);
           }
 
-          LOG.debug("Posted %d Watchman events.", files.size());
+          LOG.debug("Posted %d Watchman events.", coalescedEvents.size());
         } else {
           if (freshInstanceAction == FreshInstanceAction.NONE) {
             filesHaveChanged.set(true);
@@ -432,6 +458,84 @@ public class WatchmanWatcher {
     }
   }
 
+  /**
+   * Collapses the events reported for the same path into a single event, keeping the order in
+   * which paths were first reported. A deletion always wins over earlier events, while a path
+   * that was deleted and then re-created or modified is reported as modified.
+   */
+  @VisibleForTesting
+  static ImmutableList<WatchmanPathEvent> coalesce(List<WatchmanPathEvent> events) {
+    Map<Path, WatchmanPathEvent> coalesced = new LinkedHashMap<>();
+    for (WatchmanPathEvent event : events) {
+      coalesced.merge(
+          event.getPath(),
+          event,
+          (previous, current) -> {
+            if (current.getKind() == WatchmanPathEvent.Kind.DELETE) {
+              return current;
+            }
+            switch (previous.getKind()) {
+              case CREATE:
+                return previous;
+              case DELETE:
+                return WatchmanPathEvent.of(
+                    current.getCellPath(), WatchmanPathEvent.Kind.MODIFY, current.getPath());
+              case MODIFY:
+                return current;
+            }
+            throw new IllegalStateException("Unhandled case: " + previous.getKind());
+          });
+    }
+    return ImmutableList.copyOf(coalesced.values());
+  }
+
+  /**
+   * Finds at most {@code maxDirectories} directories which together contain all of the given
+   * cell-relative paths, by repeatedly replacing the deepest directories with their parents.
+   *
+   * @return the directories, or {@link Optional#empty()} if covering the paths would require
+   *     invalidating the cell root.
+   */
+  @VisibleForTesting
+  static Optional<ImmutableSet<Path>> findChangedDirectories(
+      Iterable<Path> paths, int maxDirectories) {
+    Set<Path> directories = new HashSet<>();
+    for (Path path : paths) {
+      Path parent = path.getParent();
+      if (parent == null) {
+        return Optional.empty();
+      }
+      directories.add(parent);
+    }
+
+    while (directories.size() > maxDirectories) {
+      int maxDepth = directories.stream().mapToInt(Path::getNameCount).max().getAsInt();
+      if (maxDepth <= 1) {
+        return Optional.empty();
+      }
+      Set<Path> parents = new HashSet<>();
+      for (Path directory : directories) {
+        parents.add(directory.getNameCount() == maxDepth ? directory.getParent() : directory);
+      }
+      directories = parents;
+    }
+
+    // Drop directories which are already covered by one of their ancestors.
+    ImmutableSet.Builder<Path> result = ImmutableSet.builder();
+    for (Path directory : directories) {
+      boolean covered = false;
+      for (Path ancestor = directory.getParent();
+          ancestor != null && !covered;
+          ancestor = ancestor.getParent()) {
+        covered = directories.contains(ancestor);
+      }
+      if (!covered) {
+        result.add(directory);
+      }
+    }
+    return Optional.of(result.build());
+  }
+
   private void postWatchEvent(BuckEventBus eventBus, WatchmanEvent event) {
     LOG.warn("Posting WatchEvent: %s", event);
     fileChangeEventBus.post(event);
@@ -439,20 +543,20 @@ public class WatchmanWatcher {
     // Post analogous Status events for logging/status.
     if (event instanceof WatchmanOverflowEvent) {
       eventBus.post(WatchmanStatusEvent.overflow(((WatchmanOverflowEvent) event).getReason()));
-    } else if (event instanceof WatchmanPathEvent) {
-      WatchmanPathEvent pathEvent = (WatchmanPathEvent) event;
-      switch (pathEvent.getKind()) {
-        case CREATE:
-          eventBus.post(WatchmanStatusEvent.fileCreation(pathEvent.toString()));
-          return;
-        case DELETE:
-          eventBus.post(WatchmanStatusEvent.fileDeletion(pathEvent.toString()));
-          return;
-        case MODIFY:
-          // No analog for this event.
-          return;
+    } else if (event instanceof WatchmanPathEventBatch) {
+      for (WatchmanPathEvent pathEvent : ((WatchmanPathEventBatch) event).getEvents()) {
+        switch (pathEvent.getKind()) {
+          case CREATE:
+            eventBus.post(WatchmanStatusEvent.fileCreation(pathEvent.toString()));
+            break;
+          case DELETE:
+            eventBus.post(WatchmanStatusEvent.fileDeletion(pathEvent.toString()));
+            break;
+          case MODIFY:
+            // No analog for this event.
+            break;
+        }
       }
-      throw new IllegalStateException("Unhandled case: " + pathEvent.getKind());
     }
   }
 }
@@ -100,7 +100,8 @@ public class JsUtil {
                         WorkerProcessIdentity.of(
                             buildTarget.getCellPath().toString() + buildTarget,
                             worker.getInstanceKey()))
-                    : Optional.empty()));
+                    : Optional.empty(),
+                worker.getPoolPolicy()));
     return new WorkerShellStep(
         buildTarget,
         Optional.of(params),
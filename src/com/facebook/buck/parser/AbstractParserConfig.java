@@ -18,6 +18,7 @@ package com.facebook.buck.parser;
 import com.facebook.buck.config.BuckConfig;
 import com.facebook.buck.config.ConfigView;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import com.facebook.buck.graph.DirectedAcyclicGraph;
 import com.facebook.buck.io.WatchmanWatcher;
 import com.facebook.buck.parser.api.Syntax;
 import com.google.common.base.Splitter;
@@ -36,6 +37,7 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
   public static final String DEFAULT_BUILD_FILE_NAME = "BUCK";
   public static final String BUILDFILE_SECTION_NAME = "buildfile";
   public static final String INCLUDES_PROPERTY_NAME = "includes";
+  public static final long DEFAULT_DAEMON_STATE_SNAPSHOT_INTERVAL_SECONDS = 600;
 
   private static final long NUM_PARSING_THREADS_DEFAULT = 1L;
   private static final int TARGET_PARSER_THRESHOLD = 100000;
@@ -194,6 +196,15 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
     return Math.min(value, getDelegate().getNumThreads());
   }
 
+  /**
+   * @return whether to use fewer than {@link #getNumParsingThreads()} parsers while other work
+   *     keeps the CPUs busy.
+   */
+  @Value.Lazy
+  public boolean getEnableAdaptiveParsingThreads() {
+    return getDelegate().getBooleanValue("project", "adaptive_parsing_threads", false);
+  }
+
   @Value.Lazy
   public ApplyDefaultFlavorsMode getDefaultFlavorsMode() {
     return getDelegate()
@@ -201,6 +212,18 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
         .orElse(ApplyDefaultFlavorsMode.ENABLED);
   }
 
+  /**
+   * @return how the target graph stores its edges. {@code compact} uses much less memory on large
+   *     graphs, which matters when the daemon caches several versions of the graph.
+   */
+  @Value.Lazy
+  public DirectedAcyclicGraph.Representation getTargetGraphRepresentation() {
+    return getDelegate()
+        .getEnum(
+            "parser", "target_graph_representation", DirectedAcyclicGraph.Representation.class)
+        .orElse(DirectedAcyclicGraph.Representation.MULTIMAP);
+  }
+
   @Value.Lazy
   public ImmutableList<String> getBuildFileImportWhitelist() {
     return getDelegate().getListWithoutComments("project", "build_file_import_whitelist");
@@ -293,4 +316,34 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
   public int getParserTargetThreshold() {
     return getDelegate().getInteger("parser", "target_threshold").orElse(TARGET_PARSER_THRESHOLD);
   }
+
+  /**
+   * @return whether the daemon should save its parser state when it shuts down and restore it when
+   *     it starts, so that a restarted daemon only reparses build files that changed since then.
+   */
+  @Value.Lazy
+  public boolean isDaemonStateSnapshotEnabled() {
+    return getDelegate().getBooleanValue("parser", "daemon_state_snapshot", false);
+  }
+
+  /**
+   * @return how often a running daemon saves its parser state, in addition to saving it on
+   *     shutdown. Zero disables periodic snapshots.
+   */
+  @Value.Lazy
+  public long getDaemonStateSnapshotIntervalSeconds() {
+    return getDelegate()
+        .getLong("parser", "daemon_state_snapshot_interval_seconds")
+        .orElse(DEFAULT_DAEMON_STATE_SNAPSHOT_INTERVAL_SECONDS);
+  }
+
+  /**
+   * @return whether the daemon should index the target nodes it has parsed by reverse dependency,
+   *     input file, kind and label, so that queries can use these indexes instead of walking the
+   *     graph.
+   */
+  @Value.Lazy
+  public boolean isQueryIndexEnabled() {
+    return getDelegate().getBooleanValue("parser", "query_index", false);
+  }
 }
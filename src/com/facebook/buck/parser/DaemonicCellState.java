@@ -19,6 +19,7 @@ package com.facebook.buck.parser;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.UnflavoredBuildTarget;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.ImmutableUnflavoredBuildTarget;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
@@ -34,6 +35,7 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
@@ -82,6 +84,9 @@ class DaemonicCellState {
         if (updatedNode.equals(targetNode)) {
           targetsCornucopia.put(target.getUnflavoredBuildTarget(), target);
         }
+        if (updatedNode == targetNode && targetNode instanceof TargetNode) {
+          queryIndex.ifPresent(index -> index.add((TargetNode<?, ?>) targetNode));
+        }
         return updatedNode;
       }
     }
@@ -112,10 +117,16 @@ class DaemonicCellState {
 
   private final AutoCloseableReadWriteUpdateLock rawAndComputedNodesLock;
   private final int parsingThreads;
+  private final Optional<TargetNodeQueryIndex> queryIndex;
 
   DaemonicCellState(Cell cell, int parsingThreads) {
+    this(cell, parsingThreads, Optional.empty());
+  }
+
+  DaemonicCellState(Cell cell, int parsingThreads, Optional<TargetNodeQueryIndex> queryIndex) {
     this.cell = new AtomicReference<>(cell);
     this.parsingThreads = parsingThreads;
+    this.queryIndex = queryIndex;
     this.cellRoot = cell.getRoot();
     this.cellCanonicalName = cell.getCanonicalName();
     this.buildFileDependents = HashMultimap.create();
@@ -203,6 +214,7 @@ class DaemonicCellState {
           for (Cache<?> cache : typedNodeCaches.values()) {
             cache.allComputedNodes.invalidateAll(targetsCornucopia.get(target));
           }
+          queryIndex.ifPresent(index -> targetsCornucopia.get(target).forEach(index::remove));
           targetsCornucopia.removeAll(target);
           allRawNodeTargets.remove(target);
         }
@@ -225,6 +237,29 @@ class DaemonicCellState {
     }
   }
 
+  /**
+   * Invalidates every build file, and every file build files depend on, located under one of the
+   * given absolute directories.
+   */
+  int invalidatePathsUnder(Set<Path> directories) {
+    try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
+      Set<Path> paths = new HashSet<>();
+      for (Path path : Iterables.concat(allRawNodes.keySet(), buildFileDependents.keySet())) {
+        for (Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+          if (directories.contains(parent)) {
+            paths.add(path);
+            break;
+          }
+        }
+      }
+      int invalidatedRawNodes = 0;
+      for (Path path : paths) {
+        invalidatedRawNodes += invalidatePath(path);
+      }
+      return invalidatedRawNodes;
+    }
+  }
+
   Optional<MapDifference<String, String>> invalidateIfEnvHasChanged(Cell cell, Path buildFile) {
     // Invalidate if env vars have changed.
     ImmutableMap<String, Optional<String>> usedEnv;
@@ -317,8 +352,12 @@ class DaemonicCellState {
   }
 
   static DaemonicCellState deserialize(
-      RemoteDaemonicCellState remote, Cell cell, int parsingThreads) throws IOException {
-    DaemonicCellState daemonicCellState = new DaemonicCellState(cell, parsingThreads);
+      RemoteDaemonicCellState remote,
+      Cell cell,
+      int parsingThreads,
+      Optional<TargetNodeQueryIndex> queryIndex)
+      throws IOException {
+    DaemonicCellState daemonicCellState = new DaemonicCellState(cell, parsingThreads, queryIndex);
     Path root = cell.getRoot();
     for (String pathString : remote.buildFileDependents.keySet()) {
       Path key = root.resolve(pathString);
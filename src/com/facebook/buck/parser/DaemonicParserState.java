@@ -22,11 +22,13 @@ import com.facebook.buck.core.cell.resolver.CellPathResolver;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.counters.Counter;
 import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
 import com.facebook.buck.counters.TagSetCounter;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ParsingEvent;
 import com.facebook.buck.io.WatchmanOverflowEvent;
 import com.facebook.buck.io.WatchmanPathEvent;
+import com.facebook.buck.io.WatchmanPathEventBatch;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildFileTree;
 import com.facebook.buck.model.FilesystemBackedBuildFileTree;
@@ -53,6 +55,7 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -61,6 +64,8 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -103,6 +108,10 @@ public class DaemonicParserState {
       "rules_invalidated_by_watch_events";
   private static final String PATHS_ADDED_OR_REMOVED_INVALIDATING_BUILD_FILES =
       "paths_added_or_removed_invalidating_build_files";
+  private static final String REQUESTED_BUILD_FILE_QUEUE_WAIT_COUNTER_NAME =
+      "requested_build_file_queue_wait_ms";
+  private static final String SPECULATIVE_BUILD_FILE_QUEUE_WAIT_COUNTER_NAME =
+      "speculative_build_file_queue_wait_ms";
   // pattern all implicit include paths from build file includes should match
   // this should be kept in sync with pattern used in buck.py
   private static final Pattern INCLUDE_PATH_PATTERN = Pattern.compile("^([A-Za-z0-9_]*)//(.*)$");
@@ -185,7 +194,11 @@ public class DaemonicParserState {
       if (state == null) {
         return Optional.empty();
       }
-      return state.lookupRawNodes(buildFile);
+      Optional<ImmutableSet<Map<String, Object>>> rawNodes = state.lookupRawNodes(buildFile);
+      if (rawNodes.isPresent() && restoredBuildFiles.remove(buildFile)) {
+        restoredBuildFilesUsed.increment();
+      }
+      return rawNodes;
     }
 
     /**
@@ -213,6 +226,8 @@ public class DaemonicParserState {
       // (and so the partially-constructed graph will contain stale nodes if the cache was
       // invalidated mid-way through the parse).
       invalidateIfProjectBuildFileParserStateChanged(cell);
+      // The build file has been parsed again, so whatever was restored for it is gone.
+      restoredBuildFiles.remove(buildFile);
 
       ImmutableSet.Builder<Map<String, Object>> withoutMetaIncludesBuilder = ImmutableSet.builder();
       ImmutableSet.Builder<Path> dependentsOfEveryNode = ImmutableSet.builder();
@@ -275,6 +290,8 @@ public class DaemonicParserState {
   private final IntegerCounter filesChangedCounter;
   private final IntegerCounter rulesInvalidatedByWatchEventsCounter;
   private final TagSetCounter pathsAddedOrRemovedInvalidatingBuildFiles;
+  private final SamplingCounter requestedBuildFileQueueWaitCounter;
+  private final SamplingCounter speculativeBuildFileQueueWaitCounter;
 
   /**
    * The set of {@link Cell} instances that have been seen by this state. This information is used
@@ -290,6 +307,7 @@ public class DaemonicParserState {
 
   private final int parsingThreads;
   private final boolean shouldIgnoreEnvironmentVariablesChanges;
+  private final Optional<TargetNodeQueryIndex> queryIndex;
 
   private final LoadingCache<Cell, BuildFileTree> buildFileTrees;
 
@@ -303,12 +321,30 @@ public class DaemonicParserState {
   private final AutoCloseableReadWriteUpdateLock cachedStateLock;
   private final AutoCloseableReadWriteUpdateLock cellStateLock;
 
+  /** Build files restored by {@link #restoreState} whose raw nodes have not been used yet. */
+  private final Set<Path> restoredBuildFiles = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder restoredBuildFilesUsed = new LongAdder();
+  private final LongAdder buildFilesParsed = new LongAdder();
+  private final LongAdder buildFileParseNanos = new LongAdder();
+  private volatile long restoredAverageBuildFileParseNanos = 0;
+
   public DaemonicParserState(
       TypeCoercerFactory typeCoercerFactory,
       int parsingThreads,
       boolean shouldIgnoreEnvironmentVariablesChanges) {
+    this(typeCoercerFactory, parsingThreads, shouldIgnoreEnvironmentVariablesChanges, false);
+  }
+
+  public DaemonicParserState(
+      TypeCoercerFactory typeCoercerFactory,
+      int parsingThreads,
+      boolean shouldIgnoreEnvironmentVariablesChanges,
+      boolean enableQueryIndex) {
     this.parsingThreads = parsingThreads;
     this.shouldIgnoreEnvironmentVariablesChanges = shouldIgnoreEnvironmentVariablesChanges;
+    this.queryIndex =
+        enableQueryIndex ? Optional.of(new TargetNodeQueryIndex()) : Optional.empty();
     this.typeCoercerFactory = typeCoercerFactory;
     this.cacheInvalidatedByEnvironmentVariableChangeCounter =
         new TagSetCounter(
@@ -332,6 +368,12 @@ public class DaemonicParserState {
     this.pathsAddedOrRemovedInvalidatingBuildFiles =
         new TagSetCounter(
             COUNTER_CATEGORY, PATHS_ADDED_OR_REMOVED_INVALIDATING_BUILD_FILES, ImmutableMap.of());
+    this.requestedBuildFileQueueWaitCounter =
+        new SamplingCounter(
+            COUNTER_CATEGORY, REQUESTED_BUILD_FILE_QUEUE_WAIT_COUNTER_NAME, ImmutableMap.of());
+    this.speculativeBuildFileQueueWaitCounter =
+        new SamplingCounter(
+            COUNTER_CATEGORY, SPECULATIVE_BUILD_FILE_QUEUE_WAIT_COUNTER_NAME, ImmutableMap.of());
     this.buildFileTrees =
         CacheBuilder.newBuilder()
             .build(
@@ -379,6 +421,14 @@ public class DaemonicParserState {
     return rawNodeCache;
   }
 
+  /**
+   * @return the index of the target nodes held by this state, if {@code parser.query_index} is
+   *     enabled.
+   */
+  public Optional<TargetNodeQueryIndex> getQueryIndex() {
+    return queryIndex;
+  }
+
   @Nullable
   private DaemonicCellState getCellState(Cell cell) {
     try (AutoCloseableLock readLock = cellStateLock.readLock()) {
@@ -390,7 +440,7 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       DaemonicCellState state = cellPathToDaemonicState.get(cell.getRoot());
       if (state == null) {
-        state = new DaemonicCellState(cell, parsingThreads);
+        state = new DaemonicCellState(cell, parsingThreads, queryIndex);
         cellPathToDaemonicState.put(cell.getRoot(), state);
       }
       return state;
@@ -459,6 +509,80 @@ public class DaemonicParserState {
     invalidatePath(fullPath);
   }
 
+  /**
+   * Invalidates the parser cache for all changes of a batch at once: the build file tree of each
+   * cell is rebuilt at most once, and each affected build file is invalidated only once no matter
+   * how many of its inputs changed.
+   */
+  @Subscribe
+  public void invalidateBasedOn(WatchmanPathEventBatch batch) {
+    LOG.verbose(
+        "Parser watched %d events and %d changed directories in %s",
+        batch.getEvents().size(),
+        batch.getChangedDirectories().size(),
+        batch.getCellPath());
+
+    filesChangedCounter.inc(batch.getEvents().size());
+
+    // Only creations and deletions matter here, modifications should result in a rule key change.
+    // A changed directory may have had anything added to or removed from it.
+    List<Path> addedOrRemovedPaths = new ArrayList<>(batch.getChangedDirectories());
+    for (WatchmanPathEvent event : batch.getEvents()) {
+      if (isPathCreateOrDeleteEvent(event)) {
+        addedOrRemovedPaths.add(event.getPath());
+      }
+    }
+    ImmutableSet<Path> changedDirectories =
+        batch
+            .getChangedDirectories()
+            .stream()
+            .map(batch.getCellPath()::resolve)
+            .collect(ImmutableSet.toImmutableSet());
+
+    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
+      for (DaemonicCellState state : cellPathToDaemonicState.values()) {
+        if (!changedDirectories.isEmpty()) {
+          rulesInvalidatedByWatchEventsCounter.inc(
+              state.invalidatePathsUnder(changedDirectories));
+        }
+        for (WatchmanPathEvent event : batch.getEvents()) {
+          invalidatePath(state, event.getCellPath().resolve(event.getPath()));
+        }
+        if (addedOrRemovedPaths.isEmpty()) {
+          continue;
+        }
+        try {
+          Cell cell = state.getCell();
+          BuildFileTree buildFiles = buildFileTrees.get(cell);
+
+          // Added or removed files can affect globs, so invalidate the package build file
+          // "containing" each path unless its filename matches a temp file pattern.
+          boolean buildFilesChanged = !changedDirectories.isEmpty();
+          for (Path path : addedOrRemovedPaths) {
+            buildFilesChanged |= path.endsWith(cell.getBuildFileName());
+            if (!cell.getFilesystem().isIgnored(path)) {
+              invalidateContainingBuildFile(cell, buildFiles, path);
+            }
+          }
+
+          if (buildFilesChanged) {
+            LOG.debug("Build files changed, invalidating build file tree for cell %s", cell);
+            // If build files have been added or removed, reconstruct the build file tree.
+            buildFileTrees.invalidate(cell);
+          }
+        } catch (ExecutionException | UncheckedExecutionException e) {
+          try {
+            Throwables.throwIfInstanceOf(e, BuildFileParseException.class);
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException(e);
+          } catch (BuildFileParseException bfpe) {
+            LOG.warn("Unable to parse already parsed build file.", bfpe);
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Invalidate the parser cache relative to the changes to file at the given path.
    *
@@ -668,6 +792,7 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = cellPathToDaemonicState.containsKey(cell.getRoot());
       cellPathToDaemonicState.remove(cell.getRoot());
+      queryIndex.ifPresent(index -> index.removeCell(cell.getRoot()));
       if (invalidated) {
         LOG.debug("Cell cache data invalidated.");
       } else {
@@ -683,6 +808,8 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = !cellPathToDaemonicState.isEmpty();
       cellPathToDaemonicState.clear();
+      queryIndex.ifPresent(TargetNodeQueryIndex::clear);
+      restoredBuildFiles.clear();
       buildFileTrees.invalidateAll();
       if (invalidated) {
         LOG.debug("Cache data invalidated.");
@@ -693,6 +820,47 @@ public class DaemonicParserState {
     }
   }
 
+  /** Records how long it took to parse a build file that was not in the cache. */
+  public void recordBuildFileParsed(long elapsedNanos) {
+    buildFilesParsed.increment();
+    buildFileParseNanos.add(elapsedNanos);
+  }
+
+  /**
+   * Records how long a build file waited for a parser to become available.
+   *
+   * @param prioritized whether the build file was needed by the command, rather than only being
+   *     parsed speculatively.
+   */
+  public void recordBuildFileQueueWait(Path buildFile, boolean prioritized, long waitNanos) {
+    long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    if (prioritized) {
+      requestedBuildFileQueueWaitCounter.addSample(waitMillis);
+    } else {
+      speculativeBuildFileQueueWaitCounter.addSample(waitMillis);
+    }
+    LOG.verbose(
+        "%s waited %d ms for a parser (%s).",
+        buildFile, waitMillis, prioritized ? "requested" : "speculative");
+  }
+
+  /**
+   * @return the average time it takes to parse a build file, as measured by this daemon or, if it
+   *     has not parsed any yet, by the daemon that produced the restored state.
+   */
+  public long getAverageBuildFileParseNanos() {
+    long parsed = buildFilesParsed.sum();
+    return parsed == 0 ? restoredAverageBuildFileParseNanos : buildFileParseNanos.sum() / parsed;
+  }
+
+  /**
+   * @return how many build files had their raw nodes served from restored state rather than being
+   *     parsed. Each build file is counted at most once.
+   */
+  public long getRestoredBuildFilesUsed() {
+    return restoredBuildFilesUsed.sum();
+  }
+
   public ImmutableList<Counter> getCounters() {
     return ImmutableList.of(
         cacheInvalidatedByEnvironmentVariableChangeCounter,
@@ -701,7 +869,9 @@ public class DaemonicParserState {
         buildFilesInvalidatedByFileAddOrRemoveCounter,
         filesChangedCounter,
         rulesInvalidatedByWatchEventsCounter,
-        pathsAddedOrRemovedInvalidatingBuildFiles);
+        pathsAddedOrRemovedInvalidatingBuildFiles,
+        requestedBuildFileQueueWaitCounter,
+        speculativeBuildFileQueueWaitCounter);
   }
 
   @Override
@@ -740,6 +910,15 @@ public class DaemonicParserState {
     return remote;
   }
 
+  /**
+   * Restores the state held by a snapshot. Callers are responsible for checking that the snapshot
+   * was taken with the same configuration, and for invalidating what changed since.
+   */
+  public DaemonicParserState restoreSnapshot(DaemonicParserStateSnapshot snapshot, Cell rootCell) {
+    restoredAverageBuildFileParseNanos = snapshot.getAverageBuildFileParseNanos();
+    return restoreState(snapshot.getState(), rootCell);
+  }
+
   /** Create a state using serialized data produced with serializeDaemonicParserState(). */
   public DaemonicParserState restoreState(RemoteDaemonicParserState remote, Cell rootCell) {
     Map<String, Cell> pathsToCell =
@@ -758,8 +937,13 @@ public class DaemonicParserState {
           if (cell != null) {
             try {
               DaemonicCellState daemonicCellState =
-                  DaemonicCellState.deserialize(remoteDaemonicCellState, cell, parsingThreads);
+                  DaemonicCellState.deserialize(
+                      remoteDaemonicCellState, cell, parsingThreads, queryIndex);
+              queryIndex.ifPresent(index -> index.removeCell(cell.getRoot()));
               cellPathToDaemonicState.put(cell.getRoot(), daemonicCellState);
+              for (String buildFile : remoteDaemonicCellState.allRawNodesJsons.keySet()) {
+                restoredBuildFiles.add(cell.getRoot().resolve(buildFile));
+              }
             } catch (IOException e) {
               throw new RuntimeException(e);
             }
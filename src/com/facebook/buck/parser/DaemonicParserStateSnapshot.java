@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.parser.thrift.RemoteDaemonicParserState;
+import com.facebook.buck.slb.ThriftProtocol;
+import com.facebook.buck.slb.ThriftUtil;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The state of a {@link DaemonicParserState} together with what it is valid for, stored on disk so
+ * that a new daemon can start from the raw nodes parsed by the previous one.
+ *
+ * <p>The file starts with a small header holding the fingerprint of the Buck version and
+ * configuration that produced the state, and the Watchman clock of each cell at the time the state
+ * was captured. The state follows as a deflated, compact thrift {@link RemoteDaemonicParserState}.
+ */
+public final class DaemonicParserStateSnapshot {
+
+  private static final Logger LOG = Logger.get(DaemonicParserStateSnapshot.class);
+
+  private static final int MAGIC = 0x42505353; // "BPSS"
+  private static final int FORMAT_VERSION = 1;
+  private static final ThriftProtocol PROTOCOL = ThriftProtocol.COMPACT;
+
+  private final String fingerprint;
+  private final ImmutableMap<String, String> watchmanClocks;
+  private final long averageBuildFileParseNanos;
+  private final RemoteDaemonicParserState state;
+
+  /**
+   * @param fingerprint identifies the Buck version and configuration the state was produced with.
+   * @param watchmanClocks Watchman clock of each cell, keyed by the cell path relative to the root
+   *     cell, as used by {@link DaemonicParserState#serializeDaemonicParserState}.
+   * @param averageBuildFileParseNanos how long parsing a build file took on average, used to
+   *     estimate the time saved by restoring the state.
+   */
+  public DaemonicParserStateSnapshot(
+      String fingerprint,
+      ImmutableMap<String, String> watchmanClocks,
+      long averageBuildFileParseNanos,
+      RemoteDaemonicParserState state) {
+    this.fingerprint = fingerprint;
+    this.watchmanClocks = watchmanClocks;
+    this.averageBuildFileParseNanos = averageBuildFileParseNanos;
+    this.state = state;
+  }
+
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  public ImmutableMap<String, String> getWatchmanClocks() {
+    return watchmanClocks;
+  }
+
+  public long getAverageBuildFileParseNanos() {
+    return averageBuildFileParseNanos;
+  }
+
+  public RemoteDaemonicParserState getState() {
+    return state;
+  }
+
+  /**
+   * Writes the snapshot to the given path, replacing any previous snapshot atomically. Each write
+   * goes through a temporary file of its own, so concurrent writes never interleave.
+   */
+  public void write(Path path) throws IOException {
+    Files.createDirectories(path.getParent());
+    Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        output.writeUTF(fingerprint);
+        output.writeLong(averageBuildFileParseNanos);
+        output.writeInt(watchmanClocks.size());
+        for (Map.Entry<String, String> entry : watchmanClocks.entrySet()) {
+          output.writeUTF(entry.getKey());
+          output.writeUTF(entry.getValue());
+        }
+        output.flush();
+        try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(outputStream)) {
+          ThriftUtil.serialize(PROTOCOL, state, deflaterStream);
+        }
+      }
+      Files.move(
+          tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempPath);
+    }
+  }
+
+  /**
+   * Reads a snapshot written by {@link #write(Path)}.
+   *
+   * @return the snapshot, or {@link Optional#empty()} if there is no snapshot at the given path or
+   *     it was written in a different format.
+   */
+  public static Optional<DaemonicParserStateSnapshot> read(Path path) throws IOException {
+    try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(path))) {
+      DataInputStream input = new DataInputStream(inputStream);
+      if (input.readInt() != MAGIC) {
+        LOG.warn("Ignoring parser state snapshot with an unknown format: %s", path);
+        return Optional.empty();
+      }
+      int formatVersion = input.readInt();
+      if (formatVersion != FORMAT_VERSION) {
+        LOG.info("Ignoring parser state snapshot with format version %d", formatVersion);
+        return Optional.empty();
+      }
+      String fingerprint = input.readUTF();
+      long averageBuildFileParseNanos = input.readLong();
+      int numberOfClocks = input.readInt();
+      ImmutableMap.Builder<String, String> watchmanClocks = ImmutableMap.builder();
+      for (int i = 0; i < numberOfClocks; i++) {
+        watchmanClocks.put(input.readUTF(), input.readUTF());
+      }
+      RemoteDaemonicParserState state = new RemoteDaemonicParserState();
+      ThriftUtil.deserialize(PROTOCOL, new InflaterInputStream(inputStream), state);
+      return Optional.of(
+          new DaemonicParserStateSnapshot(
+              fingerprint, watchmanClocks.build(), averageBuildFileParseNanos, state));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+}
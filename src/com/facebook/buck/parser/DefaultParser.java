@@ -28,6 +28,7 @@ import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.rules.knowntypes.KnownBuildRuleTypesProvider;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal;
+import com.facebook.buck.graph.DirectedAcyclicGraph;
 import com.facebook.buck.graph.GraphTraversable;
 import com.facebook.buck.graph.MutableDirectedGraph;
 import com.facebook.buck.io.ExecutableFinder;
@@ -75,6 +76,7 @@ public class DefaultParser implements Parser {
   private final KnownBuildRuleTypesProvider knownBuildRuleTypesProvider;
   private final ParserPythonInterpreterProvider parserPythonInterpreterProvider;
   private final TargetSpecResolver targetSpecResolver;
+  private final DirectedAcyclicGraph.Representation targetGraphRepresentation;
 
   public DefaultParser(
       ParserConfig parserConfig,
@@ -89,12 +91,14 @@ public class DefaultParser implements Parser {
         new DaemonicParserState(
             typeCoercerFactory,
             parserConfig.getNumParsingThreads(),
-            parserConfig.shouldIgnoreEnvironmentVariablesChanges());
+            parserConfig.shouldIgnoreEnvironmentVariablesChanges(),
+            parserConfig.isQueryIndexEnabled());
     this.marshaller = marshaller;
     this.knownBuildRuleTypesProvider = knownBuildRuleTypesProvider;
     this.parserPythonInterpreterProvider =
         new ParserPythonInterpreterProvider(parserConfig, executableFinder);
     this.targetSpecResolver = targetSpecResolver;
+    this.targetGraphRepresentation = parserConfig.getTargetGraphRepresentation();
   }
 
   @Override
@@ -298,6 +302,7 @@ public class DefaultParser implements Parser {
 
     ParseEvent.Started parseStart = ParseEvent.started(toExplore);
     eventBus.post(parseStart);
+    long restoredBuildFilesBefore = permState.getRestoredBuildFilesUsed();
 
     GraphTraversable<BuildTarget> traversable =
         target -> {
@@ -345,16 +350,21 @@ public class DefaultParser implements Parser {
         }
       }
 
-      targetGraph = new TargetGraph(graph, ImmutableMap.copyOf(index));
+      targetGraph = new TargetGraph(graph, ImmutableMap.copyOf(index), targetGraphRepresentation);
       return targetGraph;
     } catch (AcyclicDepthFirstPostOrderTraversal.CycleException e) {
       throw new HumanReadableException(e.getMessage());
     } catch (RuntimeException e) {
       throw propagateRuntimeCause(e);
     } finally {
+      long restoredBuildFiles = permState.getRestoredBuildFilesUsed() - restoredBuildFilesBefore;
       eventBus.post(
           ParseEvent.finished(
-              parseStart, state.getParseProcessedBytes(), Optional.ofNullable(targetGraph)));
+              parseStart,
+              state.getParseProcessedBytes(),
+              restoredBuildFiles,
+              restoredBuildFiles * permState.getAverageBuildFileParseNanos(),
+              Optional.ofNullable(targetGraph)));
     }
   }
 
@@ -58,7 +58,22 @@ public abstract class ParseEvent extends AbstractBuckEvent implements LeafEvent,
 
   public static Finished finished(
       Started started, long processedBytes, Optional<TargetGraph> graph) {
-    return new Finished(started, processedBytes, graph);
+    return new Finished(started, processedBytes, 0, 0, graph);
+  }
+
+  /**
+   * @param restoredBuildFiles number of build files whose raw nodes came from a parser state
+   *     snapshot taken by a previous daemon rather than from parsing them.
+   * @param estimatedParseNanosSaved estimate of the time not spent parsing those build files.
+   */
+  public static Finished finished(
+      Started started,
+      long processedBytes,
+      long restoredBuildFiles,
+      long estimatedParseNanosSaved,
+      Optional<TargetGraph> graph) {
+    return new Finished(
+        started, processedBytes, restoredBuildFiles, estimatedParseNanosSaved, graph);
   }
 
   public static class Started extends ParseEvent {
@@ -74,12 +89,21 @@ public abstract class ParseEvent extends AbstractBuckEvent implements LeafEvent,
 
   public static class Finished extends ParseEvent {
     private final long processedBytes;
+    private final long restoredBuildFiles;
+    private final long estimatedParseNanosSaved;
     /** If this is {@link Optional#empty()}, then the parse did not complete successfully. */
     private final Optional<TargetGraph> graph;
 
-    protected Finished(Started started, long processedBytes, Optional<TargetGraph> graph) {
+    protected Finished(
+        Started started,
+        long processedBytes,
+        long restoredBuildFiles,
+        long estimatedParseNanosSaved,
+        Optional<TargetGraph> graph) {
       super(started.getEventKey(), started.getBuildTargets());
       this.processedBytes = processedBytes;
+      this.restoredBuildFiles = restoredBuildFiles;
+      this.estimatedParseNanosSaved = estimatedParseNanosSaved;
       this.graph = graph;
     }
 
@@ -92,6 +116,14 @@ public abstract class ParseEvent extends AbstractBuckEvent implements LeafEvent,
       return processedBytes;
     }
 
+    public long getRestoredBuildFiles() {
+      return restoredBuildFiles;
+    }
+
+    public long getEstimatedParseNanosSaved() {
+      return estimatedParseNanosSaved;
+    }
+
     @JsonIgnore
     public Optional<TargetGraph> getGraph() {
       return graph;
@@ -36,6 +36,7 @@ public class PerBuildState implements AutoCloseable {
 
   private final KnownBuildRuleTypesProvider knownBuildRuleTypesProvider;
   private final CellManager cellManager;
+  private final ProjectBuildFileParserPool projectBuildFileParserPool;
   private final RawNodeParsePipeline rawNodeParsePipeline;
   private final TargetNodeParsePipeline targetNodeParsePipeline;
 
@@ -58,16 +59,19 @@ public class PerBuildState implements AutoCloseable {
   PerBuildState(
       KnownBuildRuleTypesProvider knownBuildRuleTypesProvider,
       CellManager cellManager,
+      ProjectBuildFileParserPool projectBuildFileParserPool,
       RawNodeParsePipeline rawNodeParsePipeline,
       TargetNodeParsePipeline targetNodeParsePipeline) {
     this.knownBuildRuleTypesProvider = knownBuildRuleTypesProvider;
     this.cellManager = cellManager;
+    this.projectBuildFileParserPool = projectBuildFileParserPool;
     this.rawNodeParsePipeline = rawNodeParsePipeline;
     this.targetNodeParsePipeline = targetNodeParsePipeline;
   }
 
   TargetNode<?, ?> getTargetNode(BuildTarget target) throws BuildFileParseException {
     Cell owningCell = cellManager.getCell(target);
+    projectBuildFileParserPool.prioritize(owningCell.getAbsolutePathToBuildFileUnsafe(target));
 
     return targetNodeParsePipeline.getNode(
         owningCell, knownBuildRuleTypesProvider.get(owningCell), target, parseProcessedBytes);
@@ -76,6 +80,7 @@ public class PerBuildState implements AutoCloseable {
   ListenableFuture<TargetNode<?, ?>> getTargetNodeJob(BuildTarget target)
       throws BuildTargetException {
     Cell owningCell = cellManager.getCell(target);
+    projectBuildFileParserPool.prioritize(owningCell.getAbsolutePathToBuildFileUnsafe(target));
 
     return targetNodeParsePipeline.getNodeJob(
         owningCell, knownBuildRuleTypesProvider.get(owningCell), target, parseProcessedBytes);
@@ -84,6 +89,7 @@ public class PerBuildState implements AutoCloseable {
   ImmutableSet<TargetNode<?, ?>> getAllTargetNodes(Cell cell, Path buildFile)
       throws BuildFileParseException {
     Preconditions.checkState(buildFile.startsWith(cell.getRoot()));
+    projectBuildFileParserPool.prioritize(buildFile);
 
     return targetNodeParsePipeline.getAllNodes(
         cell, knownBuildRuleTypesProvider.get(cell), buildFile, parseProcessedBytes);
@@ -92,6 +98,7 @@ public class PerBuildState implements AutoCloseable {
   ListenableFuture<ImmutableSet<TargetNode<?, ?>>> getAllTargetNodesJob(Cell cell, Path buildFile)
       throws BuildTargetException {
     Preconditions.checkState(buildFile.startsWith(cell.getRoot()));
+    projectBuildFileParserPool.prioritize(buildFile);
 
     return targetNodeParsePipeline.getAllNodesJob(
         cell, knownBuildRuleTypesProvider.get(cell), buildFile, parseProcessedBytes);
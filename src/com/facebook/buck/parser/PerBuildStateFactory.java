@@ -56,7 +56,10 @@ public class PerBuildStateFactory {
         new ProjectBuildFileParserPool(
             numParsingThreads, // Max parsers to create per cell.
             projectBuildFileParserFactory,
-            enableProfiling);
+            enableProfiling,
+            daemonicParserState::recordBuildFileParsed,
+            daemonicParserState::recordBuildFileQueueWait,
+            parserConfig.getEnableAdaptiveParsingThreads());
 
     RawNodeParsePipeline rawNodeParsePipeline =
         new RawNodeParsePipeline(
@@ -86,6 +89,10 @@ public class PerBuildStateFactory {
     cellManager.register(rootCell);
 
     return new PerBuildState(
-        knownBuildRuleTypesProvider, cellManager, rawNodeParsePipeline, targetNodeParsePipeline);
+        knownBuildRuleTypesProvider,
+        cellManager,
+        projectBuildFileParserPool,
+        rawNodeParsePipeline,
+        targetNodeParsePipeline);
   }
 }
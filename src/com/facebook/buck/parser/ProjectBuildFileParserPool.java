@@ -22,16 +22,23 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.ProjectBuildFileParser;
 import com.facebook.buck.util.concurrent.ResourcePool;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongConsumer;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
@@ -40,10 +47,19 @@ import javax.annotation.concurrent.GuardedBy;
  * <p>Parser instances are lazily created up till a fixed maximum. If more than max parser are
  * requested the associated 'requests' are queued up. As soon as a parser is returned it will be
  * used to satisfy the first pending request, otherwise it is "parked".
+ *
+ * <p>Build files that were {@link #prioritize(Path) prioritized}, because a caller needs their
+ * targets rather than just parsing them speculatively, are handed a parser before all others.
+ *
+ * <p>With adaptive sizing the maximum number of parsers follows the number of CPUs that are not
+ * busy with other work, so that parsing doesn't compete with the rest of the machine, and the
+ * number of build files waiting to be parsed, so that idle parsers don't stay around.
  */
 class ProjectBuildFileParserPool implements AutoCloseable {
   private static final Logger LOG = Logger.get(ProjectBuildFileParserPool.class);
 
+  private static final long RESIZE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
   private final int maxParsersPerCell;
 
   @GuardedBy("this")
@@ -52,12 +68,82 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   private final ProjectBuildFileParserFactory projectBuildFileParserFactory;
   private final AtomicBoolean closing;
   private final boolean enableProfiler;
+  private final LongConsumer parseTimeListener;
+  private final QueueWaitListener queueWaitListener;
+  private final boolean adaptiveSizing;
+  private final DoubleSupplier systemLoadAverage;
+  private final int availableProcessors;
+  private final Set<Path> prioritizedBuildFiles = ConcurrentHashMap.newKeySet();
+  private final Map<Path, ResourcePool<ProjectBuildFileParser>.Request> waitingRequests =
+      new ConcurrentHashMap<>();
+  private final AtomicLong lastResizeNanos = new AtomicLong(System.nanoTime());
+
+  @GuardedBy("this")
+  private int parsersPerCell;
 
   /** @param maxParsersPerCell maximum number of parsers to create for a single cell. */
   public ProjectBuildFileParserPool(
       int maxParsersPerCell,
       ProjectBuildFileParserFactory projectBuildFileParserFactory,
       boolean enableProfiler) {
+    this(maxParsersPerCell, projectBuildFileParserFactory, enableProfiler, elapsedNanos -> {});
+  }
+
+  /**
+   * @param maxParsersPerCell maximum number of parsers to create for a single cell.
+   * @param parseTimeListener called with the time spent parsing each build file, excluding the
+   *     time spent waiting for a parser.
+   */
+  public ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      ProjectBuildFileParserFactory projectBuildFileParserFactory,
+      boolean enableProfiler,
+      LongConsumer parseTimeListener) {
+    this(
+        maxParsersPerCell,
+        projectBuildFileParserFactory,
+        enableProfiler,
+        parseTimeListener,
+        (buildFile, prioritized, waitNanos) -> {},
+        false);
+  }
+
+  /**
+   * @param maxParsersPerCell maximum number of parsers to create for a single cell.
+   * @param parseTimeListener called with the time spent parsing each build file, excluding the
+   *     time spent waiting for a parser.
+   * @param queueWaitListener called with the time each build file spent waiting for a parser.
+   * @param adaptiveSizing whether to lower the number of parsers below {@code maxParsersPerCell}
+   *     while other processes keep the CPUs busy.
+   */
+  public ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      ProjectBuildFileParserFactory projectBuildFileParserFactory,
+      boolean enableProfiler,
+      LongConsumer parseTimeListener,
+      QueueWaitListener queueWaitListener,
+      boolean adaptiveSizing) {
+    this(
+        maxParsersPerCell,
+        projectBuildFileParserFactory,
+        enableProfiler,
+        parseTimeListener,
+        queueWaitListener,
+        adaptiveSizing,
+        ManagementFactory.getOperatingSystemMXBean()::getSystemLoadAverage,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  @VisibleForTesting
+  ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      ProjectBuildFileParserFactory projectBuildFileParserFactory,
+      boolean enableProfiler,
+      LongConsumer parseTimeListener,
+      QueueWaitListener queueWaitListener,
+      boolean adaptiveSizing,
+      DoubleSupplier systemLoadAverage,
+      int availableProcessors) {
     Preconditions.checkArgument(maxParsersPerCell > 0);
 
     this.maxParsersPerCell = maxParsersPerCell;
@@ -65,6 +151,12 @@ class ProjectBuildFileParserPool implements AutoCloseable {
     this.projectBuildFileParserFactory = projectBuildFileParserFactory;
     this.closing = new AtomicBoolean(false);
     this.enableProfiler = enableProfiler;
+    this.parseTimeListener = parseTimeListener;
+    this.queueWaitListener = queueWaitListener;
+    this.adaptiveSizing = adaptiveSizing;
+    this.systemLoadAverage = systemLoadAverage;
+    this.availableProcessors = availableProcessors;
+    this.parsersPerCell = maxParsersPerCell;
   }
 
   /**
@@ -82,9 +174,114 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       ListeningExecutorService executorService) {
     Preconditions.checkState(!closing.get());
 
-    return getResourcePoolForCell(buckEventBus, cell)
-        .scheduleOperationWithResource(
-            parser -> parser.getBuildFileManifest(buildFile, processedBytes), executorService);
+    ResourcePool<ProjectBuildFileParser> resourcePool =
+        getResourcePoolForCell(buckEventBus, cell);
+    ResourcePool<ProjectBuildFileParser>.Request request =
+        resourcePool.newRequest(prioritizedBuildFiles.contains(buildFile));
+    waitingRequests.put(buildFile, request);
+    // A caller may have asked for the build file while the request was being registered.
+    if (prioritizedBuildFiles.contains(buildFile)) {
+      request.prioritize();
+    }
+    long scheduledNanos = System.nanoTime();
+
+    ListenableFuture<BuildFileManifest> manifest =
+        resourcePool.scheduleOperationWithResource(
+            parser -> {
+              long startNanos = System.nanoTime();
+              waitingRequests.remove(buildFile, request);
+              queueWaitListener.onParserAcquired(
+                  buildFile,
+                  prioritizedBuildFiles.contains(buildFile),
+                  startNanos - scheduledNanos);
+              BuildFileManifest result = parser.getBuildFileManifest(buildFile, processedBytes);
+              parseTimeListener.accept(System.nanoTime() - startNanos);
+              return result;
+            },
+            executorService,
+            request);
+    // Resize once the request is either running or waiting, so that it counts towards the demand.
+    maybeResize();
+    return manifest;
+  }
+
+  /**
+   * Marks a build file as needed by the current command, as opposed to being parsed only
+   * speculatively. If the build file is still waiting for a parser, it will get the next one.
+   */
+  public void prioritize(Path buildFile) {
+    if (!prioritizedBuildFiles.add(buildFile)) {
+      return;
+    }
+    ResourcePool<ProjectBuildFileParser>.Request request = waitingRequests.get(buildFile);
+    if (request != null) {
+      request.prioritize();
+    }
+  }
+
+  private void maybeResize() {
+    if (!adaptiveSizing) {
+      return;
+    }
+    long now = System.nanoTime();
+    long last = lastResizeNanos.get();
+    if (now - last < RESIZE_INTERVAL_NANOS || !lastResizeNanos.compareAndSet(last, now)) {
+      return;
+    }
+    synchronized (this) {
+      int busyParsers = 0;
+      int neededParsersPerCell = 0;
+      for (ResourcePool<ProjectBuildFileParser> pool : parserResourcePools.values()) {
+        int busy = pool.getBusyResourceCount();
+        busyParsers += busy;
+        neededParsersPerCell =
+            Math.max(neededParsersPerCell, busy + pool.getWaitingRequestCount());
+      }
+      int newParsersPerCell =
+          computeParsersPerCell(
+              maxParsersPerCell,
+              availableProcessors,
+              systemLoadAverage.getAsDouble(),
+              busyParsers,
+              neededParsersPerCell);
+      if (newParsersPerCell == parsersPerCell) {
+        return;
+      }
+      LOG.debug("Changing parsers per cell from %d to %d.", parsersPerCell, newParsersPerCell);
+      parsersPerCell = newParsersPerCell;
+      for (ResourcePool<ProjectBuildFileParser> pool : parserResourcePools.values()) {
+        pool.setMaxResources(newParsersPerCell);
+      }
+    }
+  }
+
+  /**
+   * @param systemLoadAverage the load average of the machine, which includes our busy parsers, or a
+   *     negative value if it is not available.
+   * @param neededParsersPerCell the most parsers that a cell has busy or waited for, so that idle
+   *     parsers are let go once nothing is queued and no more are started than there is work for.
+   * @return how many parsers each cell should be allowed to use, given how many CPUs are not busy
+   *     with other work.
+   */
+  @VisibleForTesting
+  static int computeParsersPerCell(
+      int maxParsersPerCell,
+      int availableProcessors,
+      double systemLoadAverage,
+      int busyParsers,
+      int neededParsersPerCell) {
+    int parsersPerCell = Math.min(maxParsersPerCell, neededParsersPerCell);
+    if (systemLoadAverage >= 0) {
+      double otherLoad = Math.max(0, systemLoadAverage - busyParsers);
+      int idleProcessors = (int) Math.floor(availableProcessors - otherLoad);
+      parsersPerCell = Math.min(parsersPerCell, idleProcessors);
+    }
+    return Math.max(1, parsersPerCell);
+  }
+
+  @VisibleForTesting
+  synchronized int getParsersPerCell() {
+    return parsersPerCell;
   }
 
   private synchronized ResourcePool<ProjectBuildFileParser> getResourcePoolForCell(
@@ -93,7 +290,7 @@ class ProjectBuildFileParserPool implements AutoCloseable {
         cell,
         c ->
             new ResourcePool<>(
-                maxParsersPerCell,
+                parsersPerCell,
                 // If the Python process garbles the output stream then the bser codec doesn't
                 // always
                 // recover and subsequent attempts at invoking the parser will fail.
@@ -135,4 +332,14 @@ class ProjectBuildFileParserPool implements AutoCloseable {
     }
     resourcePools.forEach(ResourcePool::close);
   }
+
+  /** Receives the time that build files spent waiting for a parser. */
+  @FunctionalInterface
+  interface QueueWaitListener {
+    /**
+     * @param prioritized whether the build file was needed by the command by the time it got a
+     *     parser, rather than only being parsed speculatively.
+     */
+    void onParserAcquired(Path buildFile, boolean prioritized, long waitNanos);
+  }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.description.arg.CommonDescriptionArg;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.util.concurrent.AutoCloseableLock;
+import com.facebook.buck.util.concurrent.AutoCloseableReadWriteUpdateLock;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Indexes of the {@link TargetNode}s cached by a {@link DaemonicParserState}, kept up to date as
+ * nodes are added to and invalidated from its caches.
+ *
+ * <p>This lets queries look up reverse dependencies, the owners of a file, and the targets of a
+ * kind or with a label without building a graph of the whole universe first. Only nodes that have
+ * been parsed are indexed, so callers have to make sure the nodes they are interested in were
+ * loaded through the parser.
+ */
+public class TargetNodeQueryIndex {
+
+  private final AutoCloseableReadWriteUpdateLock lock = new AutoCloseableReadWriteUpdateLock();
+
+  @GuardedBy("lock")
+  private final Map<BuildTarget, TargetNode<?, ?>> nodes = new HashMap<>();
+
+  /** From a target to the targets that have it as a parse dep. */
+  @GuardedBy("lock")
+  private final SetMultimap<BuildTarget, BuildTarget> reverseDeps = HashMultimap.create();
+
+  /** From the absolute path of an input to the targets that have it as an input. */
+  @GuardedBy("lock")
+  private final SetMultimap<Path, BuildTarget> owners = HashMultimap.create();
+
+  @GuardedBy("lock")
+  private final SetMultimap<String, BuildTarget> targetsByKind = HashMultimap.create();
+
+  @GuardedBy("lock")
+  private final SetMultimap<String, BuildTarget> targetsByLabel = HashMultimap.create();
+
+  /** Adds a node, replacing the one that was indexed for the same target, if any. */
+  public void add(TargetNode<?, ?> node) {
+    BuildTarget target = node.getBuildTarget();
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      TargetNode<?, ?> previous = nodes.put(target, node);
+      if (previous != null) {
+        removeEntries(previous);
+      }
+      for (BuildTarget dep : node.getParseDeps()) {
+        reverseDeps.put(dep, target);
+      }
+      for (Path input : node.getInputs()) {
+        owners.put(node.getFilesystem().resolve(input), target);
+      }
+      targetsByKind.put(getKind(node), target);
+      for (String label : getLabels(node)) {
+        targetsByLabel.put(label, target);
+      }
+    }
+  }
+
+  /** Removes the node of the given target, if it was indexed. */
+  public void remove(BuildTarget target) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      TargetNode<?, ?> node = nodes.remove(target);
+      if (node != null) {
+        removeEntries(node);
+      }
+    }
+  }
+
+  /** Removes the nodes of all the targets in the cell at {@code cellRoot}. */
+  public void removeCell(Path cellRoot) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      Iterator<TargetNode<?, ?>> iterator = nodes.values().iterator();
+      while (iterator.hasNext()) {
+        TargetNode<?, ?> node = iterator.next();
+        if (node.getBuildTarget().getCellPath().equals(cellRoot)) {
+          iterator.remove();
+          removeEntries(node);
+        }
+      }
+    }
+  }
+
+  public void clear() {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      nodes.clear();
+      reverseDeps.clear();
+      owners.clear();
+      targetsByKind.clear();
+      targetsByLabel.clear();
+    }
+  }
+
+  public int size() {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      return nodes.size();
+    }
+  }
+
+  public Optional<TargetNode<?, ?>> getNode(BuildTarget target) {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      return Optional.ofNullable(nodes.get(target));
+    }
+  }
+
+  /** @return the indexed targets that have {@code target} as a parse dep. */
+  public ImmutableSet<BuildTarget> getReverseDeps(BuildTarget target) {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      return ImmutableSet.copyOf(reverseDeps.get(target));
+    }
+  }
+
+  /**
+   * @return the indexed targets that have {@code path}, or a directory containing it, as an input.
+   */
+  public ImmutableSet<BuildTarget> getOwners(Path path) {
+    Preconditions.checkArgument(path.isAbsolute(), "%s should be absolute", path);
+    ImmutableSet.Builder<BuildTarget> result = ImmutableSet.builder();
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      for (Path current = path; current != null; current = current.getParent()) {
+        result.addAll(owners.get(current));
+      }
+    }
+    return result.build();
+  }
+
+  /** @return the names of the rule types of all the indexed targets. */
+  public ImmutableSet<String> getKinds() {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      return ImmutableSet.copyOf(targetsByKind.keySet());
+    }
+  }
+
+  public ImmutableSet<BuildTarget> getTargetsOfKind(String kind) {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      return ImmutableSet.copyOf(targetsByKind.get(kind));
+    }
+  }
+
+  public ImmutableSet<BuildTarget> getTargetsWithLabel(String label) {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      return ImmutableSet.copyOf(targetsByLabel.get(label));
+    }
+  }
+
+  @GuardedBy("lock")
+  private void removeEntries(TargetNode<?, ?> node) {
+    BuildTarget target = node.getBuildTarget();
+    for (BuildTarget dep : node.getParseDeps()) {
+      reverseDeps.remove(dep, target);
+    }
+    for (Path input : node.getInputs()) {
+      owners.remove(node.getFilesystem().resolve(input), target);
+    }
+    targetsByKind.remove(getKind(node), target);
+    for (String label : getLabels(node)) {
+      targetsByLabel.remove(label, target);
+    }
+  }
+
+  private static String getKind(TargetNode<?, ?> node) {
+    return node.getBuildRuleType().getName();
+  }
+
+  private static ImmutableSet<String> getLabels(TargetNode<?, ?> node) {
+    Object arg = node.getConstructorArg();
+    if (arg instanceof CommonDescriptionArg) {
+      return ((CommonDescriptionArg) arg).getLabels();
+    }
+    return ImmutableSet.of();
+  }
+}
@@ -22,7 +22,6 @@ import com.facebook.buck.query.QueryEnvironment.QueryFunction;
 import com.google.common.base.CaseFormat;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import java.util.function.Predicate;
 
 /**
  * A attrfilter(attribute, value, argument) filter expression, which computes the subset of nodes in
@@ -60,15 +59,6 @@ public class AttrFilterFunction implements QueryFunction {
     String attr = CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, args.get(0).getWord());
 
     String attrValue = args.get(1).getWord();
-    Predicate<Object> predicate = input -> attrValue.equals(input.toString());
-
-    ImmutableSet.Builder<QueryTarget> result = new ImmutableSet.Builder<>();
-    for (QueryTarget target : evaluator.eval(argument, env)) {
-      ImmutableSet<Object> matchingObjects = env.filterAttributeContents(target, attr, predicate);
-      if (!matchingObjects.isEmpty()) {
-        result.add(target);
-      }
-    }
-    return result.build();
+    return env.filterTargetsByAttributeValue(evaluator.eval(argument, env), attr, attrValue);
   }
 }
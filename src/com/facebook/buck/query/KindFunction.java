@@ -33,6 +33,9 @@ package com.facebook.buck.query;
 import com.facebook.buck.query.QueryEnvironment.Argument;
 import com.facebook.buck.query.QueryEnvironment.ArgumentType;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * A kind(pattern, argument) filter expression, which computes the subset of nodes in 'argument'
@@ -72,6 +75,16 @@ public class KindFunction extends RegexFilterFunction {
     return args.get(0).getWord();
   }
 
+  @Override
+  protected ImmutableSet<QueryTarget> filter(
+      QueryEnvironment env,
+      ImmutableList<Argument> args,
+      Set<QueryTarget> targets,
+      Pattern compiledPattern)
+      throws QueryException {
+    return env.filterTargetsByKind(targets, compiledPattern);
+  }
+
   @Override
   protected String getStringToFilter(
       QueryEnvironment env, ImmutableList<Argument> args, QueryTarget target)
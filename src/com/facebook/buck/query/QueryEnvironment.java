@@ -38,6 +38,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 /**
@@ -237,6 +238,21 @@ public interface QueryEnvironment {
 
   String getTargetKind(QueryTarget target) throws QueryException;
 
+  /**
+   * Returns the targets among {@code targets} whose kind contains a match for {@code kindPattern},
+   * in the order they appear in {@code targets}.
+   */
+  default ImmutableSet<QueryTarget> filterTargetsByKind(
+      Set<QueryTarget> targets, Pattern kindPattern) throws QueryException {
+    ImmutableSet.Builder<QueryTarget> result = ImmutableSet.builder();
+    for (QueryTarget target : targets) {
+      if (kindPattern.matcher(getTargetKind(target)).find()) {
+        result.add(target);
+      }
+    }
+    return result.build();
+  }
+
   /** Returns the tests associated with the given target. */
   ImmutableSet<QueryTarget> getTestsForTarget(QueryTarget target) throws QueryException;
 
@@ -254,6 +270,22 @@ public interface QueryEnvironment {
   ImmutableSet<Object> filterAttributeContents(
       QueryTarget target, String attribute, Predicate<Object> predicate) throws QueryException;
 
+  /**
+   * Returns the targets among {@code targets} that have an object in {@code attribute} whose string
+   * form is {@code value}, in the order they appear in {@code targets}.
+   */
+  default ImmutableSet<QueryTarget> filterTargetsByAttributeValue(
+      Set<QueryTarget> targets, String attribute, String value) throws QueryException {
+    Predicate<Object> predicate = input -> value.equals(input.toString());
+    ImmutableSet.Builder<QueryTarget> result = ImmutableSet.builder();
+    for (QueryTarget target : targets) {
+      if (!filterAttributeContents(target, attribute, predicate).isEmpty()) {
+        result.add(target);
+      }
+    }
+    return result.build();
+  }
+
   /** Returns the set of query functions implemented by this query environment. */
   Iterable<QueryFunction> getFunctions();
 
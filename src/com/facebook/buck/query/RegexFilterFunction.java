@@ -49,6 +49,16 @@ abstract class RegexFilterFunction implements QueryFunction {
     }
 
     Set<QueryTarget> targets = evaluator.eval(getExpressionToEval(args), env);
+    return filter(env, args, targets, compiledPattern);
+  }
+
+  /** Returns the targets for which {@link #getStringToFilter} contains a match for the pattern. */
+  protected ImmutableSet<QueryTarget> filter(
+      QueryEnvironment env,
+      ImmutableList<Argument> args,
+      Set<QueryTarget> targets,
+      Pattern compiledPattern)
+      throws QueryException {
     ImmutableSet.Builder<QueryTarget> result = new ImmutableSet.Builder<>();
     for (QueryTarget target : targets) {
       String attributeValue = getStringToFilter(env, args, target);
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import java.util.Set;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 /**
  * Provides a view of an existing {@link QueryEnvironment} augmented with additional target
@@ -73,6 +74,12 @@ public class TargetVariablesQueryEnvironment implements QueryEnvironment {
     return delegate.getTargetKind(target);
   }
 
+  @Override
+  public ImmutableSet<QueryTarget> filterTargetsByKind(
+      Set<QueryTarget> targets, Pattern kindPattern) throws QueryException {
+    return delegate.filterTargetsByKind(targets, kindPattern);
+  }
+
   @Override
   public ImmutableSet<QueryTarget> getTestsForTarget(QueryTarget target) throws QueryException {
     return delegate.getTestsForTarget(target);
@@ -101,6 +108,12 @@ public class TargetVariablesQueryEnvironment implements QueryEnvironment {
     return delegate.filterAttributeContents(target, attribute, predicate);
   }
 
+  @Override
+  public ImmutableSet<QueryTarget> filterTargetsByAttributeValue(
+      Set<QueryTarget> targets, String attribute, String value) throws QueryException {
+    return delegate.filterTargetsByAttributeValue(targets, attribute, value);
+  }
+
   @Override
   public Iterable<QueryFunction> getFunctions() {
     return delegate.getFunctions();
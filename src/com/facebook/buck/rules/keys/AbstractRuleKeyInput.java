@@ -19,6 +19,7 @@ package com.facebook.buck.rules.keys;
 import com.facebook.buck.core.util.immutables.BuckStyleTuple;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import java.nio.file.Path;
+import java.util.Set;
 import org.immutables.value.Value;
 
 /**
@@ -34,4 +35,20 @@ interface AbstractRuleKeyInput {
 
   /** @return the relative {@link Path} of the input. */
   Path getPath();
+
+  /**
+   * @return whether the input is from {@code filesystem} and is one of, or is located under, the
+   *     given relative directories.
+   */
+  default boolean isUnder(ProjectFilesystem filesystem, Set<Path> directories) {
+    if (!filesystem.equals(getFilesystem())) {
+      return false;
+    }
+    for (Path path = getPath(); path != null; path = path.getParent()) {
+      if (directories.contains(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -0,0 +1,772 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.MoreSuppliers;
+import com.facebook.buck.util.cache.CacheStatsTracker;
+import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
+import com.facebook.buck.util.concurrent.AutoCloseableLock;
+import com.facebook.buck.util.concurrent.AutoCloseableReadWriteUpdateLock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link TrackableRuleKeyCache} with the same invalidation semantics as {@link
+ * DefaultRuleKeyCache}, optimized for heap usage on very large action graphs.
+ *
+ * <p>Rules, appendables and inputs are interned to dense int ids, and the dependent and
+ * input-to-node edges are stored in primitive CSR (compressed sparse row) arrays. New edges are
+ * appended to a log, which is merged into the CSR arrays when an invalidation needs to walk them.
+ * Ids of invalidated nodes are only reused once the edges referring to them have been dropped by
+ * such a compaction.
+ *
+ * <p>When the estimated size of the cache exceeds the configured memory budget, the least recently
+ * used nodes are evicted together with their transitive dependents, as a dependent whose dependency
+ * is no longer tracked could not be invalidated anymore.
+ *
+ * <p>Lookups of nodes that are already cached only take a shared lock, so concurrent rule key
+ * calculations are only serialized when they add nodes or edges.
+ *
+ * @param <V> The rule key type.
+ */
+public class CompactRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
+
+  private static final Logger LOG = Logger.get(CompactRuleKeyCache.class);
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * Rough per-node cost of the id table, node arrays and the cached value (a {@link
+   * com.facebook.buck.core.rulekey.RuleKey} with its memoizing supplier).
+   */
+  private static final long ESTIMATED_BYTES_PER_NODE = 128;
+
+  private static final long ESTIMATED_BYTES_PER_INPUT = 64;
+
+  /** The fraction of nodes, by recency of use, evicted when the memory budget is exceeded. */
+  private static final double EVICTION_FRACTION = 0.25;
+
+  private final long memoryBudgetBytes;
+
+  private final AutoCloseableReadWriteUpdateLock lock = new AutoCloseableReadWriteUpdateLock();
+
+  private final ObjectIntMap nodeIds = new ObjectIntMap(true);
+  private Object[] nodes = new Object[INITIAL_CAPACITY];
+
+  @SuppressWarnings("unchecked")
+  private Supplier<V>[] values = new Supplier[INITIAL_CAPACITY];
+
+  /**
+   * When each node was last used. Cache hits update this under the shared lock, so concurrent
+   * updates may race, which only makes the recency order approximate.
+   */
+  private long[] lastAccess = new long[INITIAL_CAPACITY];
+  private final IdAllocator nodeIdAllocator = new IdAllocator();
+
+  private final ObjectIntMap inputIds = new ObjectIntMap(false);
+  private RuleKeyInput[] inputs = new RuleKeyInput[INITIAL_CAPACITY];
+  private final IdAllocator inputIdAllocator = new IdAllocator();
+
+  /** For each node, the nodes that depend on it. */
+  private final AdjacencyIndex dependents = new AdjacencyIndex();
+
+  /** For each input, the nodes that use it. */
+  private final AdjacencyIndex inputNodes = new AdjacencyIndex();
+
+  private final AtomicLong accessClock = new AtomicLong();
+  private int computationsInFlight = 0;
+
+  /** @param memoryBudgetBytes the estimated size above which cold nodes are evicted. */
+  public CompactRuleKeyCache(long memoryBudgetBytes) {
+    Preconditions.checkArgument(memoryBudgetBytes > 0);
+    this.memoryBudgetBytes = memoryBudgetBytes;
+  }
+
+  public CompactRuleKeyCache() {
+    this(Long.MAX_VALUE);
+  }
+
+  private <K> V calculateNode(K node, Function<K, RuleKeyResult<V>> create) {
+    Preconditions.checkArgument(
+        node instanceof BuildRule || node instanceof AddsToRuleKey,
+        "%s must be one of either a `BuildRule` or `AddsToRuleKey`",
+        node.getClass());
+
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      computationsInFlight++;
+    }
+    RuleKeyResult<V> result = null;
+    try {
+      result = create.apply(node);
+    } finally {
+      try (AutoCloseableLock writeLock = lock.writeLock()) {
+        computationsInFlight--;
+        if (result != null) {
+          recordEdges(node, result);
+        }
+        if (computationsInFlight == 0) {
+          // Evicting while computations are in flight could drop a dependency before the edge to
+          // the dependent being computed is recorded, leaving that dependent un-invalidatable.
+          enforceMemoryBudget();
+        }
+      }
+    }
+
+    return result.result;
+  }
+
+  private void recordEdges(Object node, RuleKeyResult<V> result) {
+    int nodeId = internNode(node);
+    for (Object dependency : result.deps) {
+      dependents.add(internNode(dependency), nodeId);
+    }
+    for (RuleKeyInput input : result.inputs) {
+      inputNodes.add(internInput(input), nodeId);
+    }
+    if (dependents.needsCompaction() || inputNodes.needsCompaction()) {
+      compact();
+    }
+  }
+
+  private <K> V getNode(
+      K node, Function<K, RuleKeyResult<V>> create, CacheStatsTracker statsTracker) {
+    CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
+    Supplier<V> supplier = getCachedSupplier(node);
+    if (supplier != null) {
+      request.recordHit();
+      return supplier.get();
+    }
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      int nodeId = internNode(node);
+      lastAccess[nodeId] = accessClock.incrementAndGet();
+      supplier = values[nodeId];
+      if (supplier == null) {
+        request.recordMiss();
+        supplier = MoreSuppliers.memoize(() -> calculateNode(node, create));
+        values[nodeId] = supplier;
+        request.recordLoadSuccess();
+      } else {
+        request.recordHit();
+      }
+    }
+    return supplier.get();
+  }
+
+  /** @return the supplier of the node's value if it is cached, marking the node as used. */
+  @Nullable
+  private Supplier<V> getCachedSupplier(Object node) {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      int nodeId = nodeIds.get(node);
+      if (nodeId < 0 || values[nodeId] == null) {
+        return null;
+      }
+      lastAccess[nodeId] = accessClock.incrementAndGet();
+      return values[nodeId];
+    }
+  }
+
+  @Nullable
+  @Override
+  public V get(BuildRule rule, CacheStatsTracker statsTracker) {
+    CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
+    Supplier<V> supplier = getCachedSupplier(rule);
+    if (supplier != null) {
+      request.recordHit();
+      return supplier.get();
+    }
+    request.recordMiss();
+    return null;
+  }
+
+  @Override
+  public V get(
+      BuildRule rule,
+      Function<? super BuildRule, RuleKeyResult<V>> create,
+      CacheStatsTracker statsTracker) {
+    return getNode(rule, create, statsTracker);
+  }
+
+  @Override
+  public V get(
+      AddsToRuleKey appendable,
+      Function<? super AddsToRuleKey, RuleKeyResult<V>> create,
+      CacheStatsTracker statsTracker) {
+    return getNode(appendable, create, statsTracker);
+  }
+
+  private boolean isCachedNode(Object object) {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      return nodeIds.get(object) >= 0;
+    }
+  }
+
+  @VisibleForTesting
+  boolean isCached(BuildRule rule) {
+    return isCachedNode(rule);
+  }
+
+  @VisibleForTesting
+  boolean isCached(AddsToRuleKey appendable) {
+    return isCachedNode(appendable);
+  }
+
+  @VisibleForTesting
+  long getEstimatedSizeBytes() {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      return estimateSizeBytes();
+    }
+  }
+
+  private long estimateSizeBytes() {
+    return nodeIdAllocator.size() * ESTIMATED_BYTES_PER_NODE
+        + inputIdAllocator.size() * ESTIMATED_BYTES_PER_INPUT
+        + dependents.estimateSizeBytes()
+        + inputNodes.estimateSizeBytes();
+  }
+
+  private int internNode(Object node) {
+    int nodeId = nodeIds.get(node);
+    if (nodeId < 0) {
+      nodeId = nodeIdAllocator.allocate();
+      if (nodeId >= nodes.length) {
+        int capacity = Math.max(nodeId + 1, nodes.length * 2);
+        nodes = Arrays.copyOf(nodes, capacity);
+        values = Arrays.copyOf(values, capacity);
+        lastAccess = Arrays.copyOf(lastAccess, capacity);
+      }
+      nodes[nodeId] = node;
+      lastAccess[nodeId] = accessClock.get();
+      nodeIds.put(node, nodeId);
+    }
+    return nodeId;
+  }
+
+  private int internInput(RuleKeyInput input) {
+    int inputId = inputIds.get(input);
+    if (inputId < 0) {
+      inputId = inputIdAllocator.allocate();
+      if (inputId >= inputs.length) {
+        inputs = Arrays.copyOf(inputs, Math.max(inputId + 1, inputs.length * 2));
+      }
+      inputs[inputId] = input;
+      inputIds.put(input, inputId);
+    }
+    return inputId;
+  }
+
+  /**
+   * Merges the edge logs into the CSR arrays, dropping all edges from or to released ids, which
+   * then become available for reuse.
+   */
+  private void compact() {
+    dependents.compact(
+        nodeIdAllocator.capacity(),
+        nodeIdAllocator.getReleasedIds(),
+        nodeIdAllocator.getReleasedIds());
+    inputNodes.compact(
+        inputIdAllocator.capacity(),
+        inputIdAllocator.getReleasedIds(),
+        nodeIdAllocator.getReleasedIds());
+    nodeIdAllocator.recycleReleasedIds();
+    inputIdAllocator.recycleReleasedIds();
+  }
+
+  private void compactIfNeeded() {
+    if (dependents.hasPendingEdges() || inputNodes.hasPendingEdges()) {
+      compact();
+    }
+  }
+
+  /** Invalidates the given nodes and, transitively, all their dependents. */
+  private void invalidateNodes(IntStack pending, CacheStatsTracker statsTracker) {
+    BitSet released = nodeIdAllocator.getReleasedIds();
+    while (!pending.isEmpty()) {
+      int nodeId = pending.pop();
+      // This node may have already been removed due to being someone else's reverse dependency.
+      if (released.get(nodeId) || nodes[nodeId] == null) {
+        continue;
+      }
+      LOG.verbose("invalidating node %s", nodes[nodeId]);
+      nodeIds.remove(nodes[nodeId]);
+      nodes[nodeId] = null;
+      values[nodeId] = null;
+      nodeIdAllocator.release(nodeId);
+      statsTracker.recordEviction();
+      dependents.forEachTarget(nodeId, pending::push);
+    }
+  }
+
+  /** Invalidate the given inputs and all their transitive dependents. */
+  @Override
+  public void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      invalidateInputsLocked(inputs, statsTracker);
+    }
+  }
+
+  private void invalidateInputsLocked(
+      Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
+    compactIfNeeded();
+    IntStack pending = new IntStack();
+    for (RuleKeyInput input : inputs) {
+      LOG.verbose("invalidating input %s", input);
+      int inputId = inputIds.remove(input);
+      if (inputId >= 0) {
+        this.inputs[inputId] = null;
+        inputIdAllocator.release(inputId);
+        inputNodes.forEachTarget(inputId, pending::push);
+      }
+    }
+    invalidateNodes(pending, statsTracker);
+  }
+
+  private void invalidateInputsMatching(
+      Predicate<RuleKeyInput> predicate, CacheStatsTracker statsTracker) {
+    List<RuleKeyInput> matching = new ArrayList<>();
+    for (RuleKeyInput input : inputs) {
+      if (input != null && predicate.test(input)) {
+        matching.add(input);
+      }
+    }
+    invalidateInputsLocked(matching, statsTracker);
+  }
+
+  /**
+   * Invalidate all inputs located under any of the given directories and their transitive
+   * dependents.
+   */
+  @Override
+  public void invalidateInputsUnder(
+      ProjectFilesystem filesystem,
+      ImmutableSet<Path> directories,
+      CacheStatsTracker statsTracker) {
+    if (directories.isEmpty()) {
+      return;
+    }
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      invalidateInputsMatching(input -> input.isUnder(filesystem, directories), statsTracker);
+    }
+  }
+
+  /**
+   * Invalidate all inputs *not* from the given {@link ProjectFilesystem}s and their transitive
+   * dependents.
+   */
+  @Override
+  public void invalidateAllExceptFilesystems(
+      ImmutableSet<ProjectFilesystem> filesystems, CacheStatsTracker statsTracker) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      if (filesystems.isEmpty()) {
+        invalidateAllLocked(statsTracker);
+      } else {
+        invalidateInputsMatching(
+            input -> !filesystems.contains(input.getFilesystem()), statsTracker);
+      }
+    }
+  }
+
+  /**
+   * Invalidate all inputs from a given {@link ProjectFilesystem} and their transitive dependents.
+   */
+  @Override
+  public void invalidateFilesystem(ProjectFilesystem filesystem, CacheStatsTracker statsTracker) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      invalidateInputsMatching(input -> filesystem.equals(input.getFilesystem()), statsTracker);
+    }
+  }
+
+  /** Invalidate everything in the cache. */
+  @Override
+  public void invalidateAll(CacheStatsTracker statsTracker) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      invalidateAllLocked(statsTracker);
+    }
+  }
+
+  private void invalidateAllLocked(CacheStatsTracker statsTracker) {
+    statsTracker.recordEviction(nodeIds.size());
+    nodeIds.clear();
+    Arrays.fill(nodes, null);
+    Arrays.fill(values, null);
+    nodeIdAllocator.clear();
+    inputIds.clear();
+    Arrays.fill(inputs, null);
+    inputIdAllocator.clear();
+    dependents.clear();
+    inputNodes.clear();
+  }
+
+  /**
+   * Evicts the least recently used nodes, along with their dependents, until the cache fits in its
+   * memory budget.
+   */
+  private void enforceMemoryBudget() {
+    if (estimateSizeBytes() <= memoryBudgetBytes) {
+      return;
+    }
+    compactIfNeeded();
+
+    long[] accessTimes = new long[nodeIds.size()];
+    int count = 0;
+    for (int nodeId = 0; nodeId < nodeIdAllocator.capacity(); nodeId++) {
+      if (nodes[nodeId] != null) {
+        accessTimes[count++] = lastAccess[nodeId];
+      }
+    }
+    if (count == 0) {
+      return;
+    }
+    Arrays.sort(accessTimes, 0, count);
+    long cutoff = accessTimes[(int) Math.min(count - 1, count * EVICTION_FRACTION)];
+
+    IntStack pending = new IntStack();
+    for (int nodeId = 0; nodeId < nodeIdAllocator.capacity(); nodeId++) {
+      if (nodes[nodeId] != null && lastAccess[nodeId] <= cutoff) {
+        pending.push(nodeId);
+      }
+    }
+    int before = nodeIds.size();
+    // The stats trackers are per-command, and this eviction isn't attributable to any command.
+    invalidateNodes(pending, new NoOpCacheStatsTracker());
+    LOG.debug(
+        "Evicted %d of %d rule key cache nodes to fit in %d bytes.",
+        before - nodeIds.size(), before, memoryBudgetBytes);
+  }
+
+  @Override
+  public ImmutableList<Map.Entry<BuildRule, V>> getCachedBuildRules() {
+    // The suppliers may need to calculate their value, which takes the write lock, so only collect
+    // them under the read lock.
+    List<Map.Entry<BuildRule, Supplier<V>>> suppliers = new ArrayList<>();
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      for (int nodeId = 0; nodeId < nodeIdAllocator.capacity(); nodeId++) {
+        if (nodes[nodeId] instanceof BuildRule && values[nodeId] != null) {
+          suppliers.add(
+              new AbstractMap.SimpleEntry<>(
+                  (BuildRule) nodes[nodeId], Preconditions.checkNotNull(values[nodeId])));
+        }
+      }
+    }
+    ImmutableList.Builder<Map.Entry<BuildRule, V>> builder = ImmutableList.builder();
+    for (Map.Entry<BuildRule, Supplier<V>> entry : suppliers) {
+      builder.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue().get()));
+    }
+    return builder.build();
+  }
+
+  /** Hands out dense ids, deferring the reuse of released ids until {@link #recycleReleasedIds}. */
+  private static final class IdAllocator {
+    private int capacity = 0;
+    private int size = 0;
+    private final IntStack freeIds = new IntStack();
+    private final BitSet releasedIds = new BitSet();
+
+    int allocate() {
+      size++;
+      return freeIds.isEmpty() ? capacity++ : freeIds.pop();
+    }
+
+    void release(int id) {
+      size--;
+      releasedIds.set(id);
+    }
+
+    BitSet getReleasedIds() {
+      return releasedIds;
+    }
+
+    void recycleReleasedIds() {
+      for (int id = releasedIds.nextSetBit(0); id >= 0; id = releasedIds.nextSetBit(id + 1)) {
+        freeIds.push(id);
+      }
+      releasedIds.clear();
+    }
+
+    /** @return one more than the highest id ever handed out. */
+    int capacity() {
+      return capacity;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      capacity = 0;
+      size = 0;
+      freeIds.clear();
+      releasedIds.clear();
+    }
+  }
+
+  /**
+   * Edges from source ids to target ids, stored as CSR arrays plus a log of edges added since the
+   * last compaction.
+   */
+  private static final class AdjacencyIndex {
+    private static final int MIN_LOG_SIZE_FOR_COMPACTION = 1 << 16;
+
+    private int[] offsets = new int[1];
+    private int[] targets = new int[0];
+    private int[] logSources = new int[16];
+    private int[] logTargets = new int[16];
+    private int logSize = 0;
+
+    void add(int source, int target) {
+      if (logSize == logSources.length) {
+        logSources = Arrays.copyOf(logSources, logSize * 2);
+        logTargets = Arrays.copyOf(logTargets, logSize * 2);
+      }
+      logSources[logSize] = source;
+      logTargets[logSize] = target;
+      logSize++;
+    }
+
+    boolean hasPendingEdges() {
+      return logSize > 0;
+    }
+
+    /** @return whether the log grew large enough, relative to the CSR arrays, to be merged. */
+    boolean needsCompaction() {
+      return logSize >= Math.max(MIN_LOG_SIZE_FOR_COMPACTION, targets.length);
+    }
+
+    /** Visits the targets of the given source. Only valid when there are no pending edges. */
+    void forEachTarget(int source, IntConsumer consumer) {
+      Preconditions.checkState(!hasPendingEdges());
+      if (source + 1 >= offsets.length) {
+        return;
+      }
+      for (int i = offsets[source]; i < offsets[source + 1]; i++) {
+        consumer.accept(targets[i]);
+      }
+    }
+
+    void compact(int sourceCount, BitSet deadSources, BitSet deadTargets) {
+      int[] newOffsets = new int[sourceCount + 1];
+      int compactedSources = offsets.length - 1;
+
+      // Count the live edges of each source, stored shifted by one to be turned into offsets.
+      for (int source = 0; source < compactedSources; source++) {
+        if (deadSources.get(source)) {
+          continue;
+        }
+        for (int i = offsets[source]; i < offsets[source + 1]; i++) {
+          if (!deadTargets.get(targets[i])) {
+            newOffsets[source + 1]++;
+          }
+        }
+      }
+      for (int i = 0; i < logSize; i++) {
+        if (!deadSources.get(logSources[i]) && !deadTargets.get(logTargets[i])) {
+          newOffsets[logSources[i] + 1]++;
+        }
+      }
+      for (int source = 0; source < sourceCount; source++) {
+        newOffsets[source + 1] += newOffsets[source];
+      }
+
+      int[] newTargets = new int[newOffsets[sourceCount]];
+      int[] cursors = Arrays.copyOf(newOffsets, sourceCount);
+      for (int source = 0; source < compactedSources; source++) {
+        if (deadSources.get(source)) {
+          continue;
+        }
+        for (int i = offsets[source]; i < offsets[source + 1]; i++) {
+          if (!deadTargets.get(targets[i])) {
+            newTargets[cursors[source]++] = targets[i];
+          }
+        }
+      }
+      for (int i = 0; i < logSize; i++) {
+        if (!deadSources.get(logSources[i]) && !deadTargets.get(logTargets[i])) {
+          newTargets[cursors[logSources[i]]++] = logTargets[i];
+        }
+      }
+
+      offsets = newOffsets;
+      targets = newTargets;
+      logSize = 0;
+      if (logSources.length > MIN_LOG_SIZE_FOR_COMPACTION) {
+        logSources = new int[16];
+        logTargets = new int[16];
+      }
+    }
+
+    long estimateSizeBytes() {
+      return 4L * (offsets.length + targets.length + logSources.length + logTargets.length);
+    }
+
+    void clear() {
+      offsets = new int[1];
+      targets = new int[0];
+      logSources = new int[16];
+      logTargets = new int[16];
+      logSize = 0;
+    }
+  }
+
+  @FunctionalInterface
+  private interface IntConsumer {
+    void accept(int value);
+  }
+
+  /** A growable stack of ints. */
+  private static final class IntStack {
+    private int[] elements = new int[16];
+    private int size = 0;
+
+    void push(int value) {
+      if (size == elements.length) {
+        elements = Arrays.copyOf(elements, size * 2);
+      }
+      elements[size++] = value;
+    }
+
+    int pop() {
+      return elements[--size];
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    void clear() {
+      size = 0;
+    }
+  }
+
+  /**
+   * An open addressing hash map from objects to non-negative ints, using either identity or {@link
+   * Object#equals} to compare keys.
+   */
+  private static final class ObjectIntMap {
+    private final boolean identity;
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    ObjectIntMap(boolean identity) {
+      this.identity = identity;
+    }
+
+    private int hash(Object key) {
+      int hash = identity ? System.identityHashCode(key) : key.hashCode();
+      // Spread the bits, as identity hash codes and path hash codes are poorly distributed.
+      hash *= 0x9E3779B9;
+      return hash ^ (hash >>> 16);
+    }
+
+    private boolean matches(Object a, Object b) {
+      return identity ? a == b : a.equals(b);
+    }
+
+    private int slot(Object key) {
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (keys[slot] != null && !matches(keys[slot], key)) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    /** @return the value for the key, or -1 if absent. */
+    int get(Object key) {
+      int slot = slot(key);
+      return keys[slot] == null ? -1 : values[slot];
+    }
+
+    void put(Object key, int value) {
+      int slot = slot(key);
+      if (keys[slot] == null) {
+        keys[slot] = key;
+        size++;
+      }
+      values[slot] = value;
+      if (size * 2 > keys.length) {
+        resize(keys.length * 2);
+      }
+    }
+
+    /** @return the removed value, or -1 if absent. */
+    int remove(Object key) {
+      int mask = keys.length - 1;
+      int slot = slot(key);
+      if (keys[slot] == null) {
+        return -1;
+      }
+      int removed = values[slot];
+      keys[slot] = null;
+      size--;
+      // Shift back the following entries of the probe sequence so that no tombstones are needed.
+      int next = (slot + 1) & mask;
+      while (keys[next] != null) {
+        int ideal = hash(keys[next]) & mask;
+        if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+          keys[slot] = keys[next];
+          values[slot] = values[next];
+          keys[next] = null;
+          slot = next;
+        }
+        next = (next + 1) & mask;
+      }
+      return removed;
+    }
+
+    private void resize(int capacity) {
+      Object[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new Object[capacity];
+      values = new int[capacity];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          int slot = slot(oldKeys[i]);
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      keys = new Object[INITIAL_CAPACITY];
+      values = new int[INITIAL_CAPACITY];
+      size = 0;
+    }
+  }
+}
@@ -75,15 +75,18 @@ public class ContentAgnosticRuleKeyFactory implements RuleKeyFactory<RuleKey> {
     this.ruleKeyLogger = ruleKeyLogger;
   }
 
+  private RuleKeyHasher<HashCode> newHasher() {
+    return RuleKeyBuilder.createDefaultHasher(ruleKeyFieldLoader.getHasherType(), ruleKeyLogger);
+  }
+
   private RuleKey calculateBuildRuleKey(BuildRule buildRule) {
-    Builder<HashCode> builder = new Builder<>(RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+    Builder<HashCode> builder = new Builder<>(newHasher());
     ruleKeyFieldLoader.setFields(builder, buildRule, RuleKeyType.CONTENT_AGNOSTIC);
     return builder.build(RuleKey::new);
   }
 
   private RuleKey calculateAppendableKey(AddsToRuleKey appendable) {
-    Builder<HashCode> subKeyBuilder =
-        new Builder<>(RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+    Builder<HashCode> subKeyBuilder = new Builder<>(newHasher());
     AlterRuleKeys.amendKey(subKeyBuilder, appendable);
     return subKeyBuilder.build(RuleKey::new);
   }
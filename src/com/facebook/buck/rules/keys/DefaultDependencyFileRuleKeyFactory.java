@@ -110,7 +110,7 @@ public final class DefaultDependencyFileRuleKeyFactory implements DependencyFile
             depFileEntries,
             rule.getCoveredByDepFilePredicate(pathResolver),
             rule.getExistenceOfInterestPredicate(pathResolver),
-            RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+            RuleKeyBuilder.createDefaultHasher(ruleKeyFieldLoader.getHasherType(), ruleKeyLogger));
     ruleKeyFieldLoader.setFields(builder, rule, keyType.toRuleKeyType());
     Result<RuleKey> result = builder.buildResult(RuleKey::new);
     return RuleKeyAndInputs.of(result.getRuleKey(), result.getSourcePaths());
@@ -27,6 +27,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
@@ -195,6 +196,27 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     }
   }
 
+  /**
+   * Invalidate all inputs located under any of the given directories and their transitive
+   * dependents.
+   */
+  @Override
+  public void invalidateInputsUnder(
+      ProjectFilesystem filesystem,
+      ImmutableSet<Path> directories,
+      CacheStatsTracker statsTracker) {
+    if (directories.isEmpty()) {
+      return;
+    }
+    invalidateInputs(
+        inputsIndex
+            .keySet()
+            .stream()
+            .filter(input -> input.isUnder(filesystem, directories))
+            .collect(Collectors.toList()),
+        statsTracker);
+  }
+
   /**
    * Invalidate all inputs *not* from the given {@link ProjectFilesystem}s and their transitive
    * dependents.
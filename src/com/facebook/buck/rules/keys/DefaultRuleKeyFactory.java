@@ -91,6 +91,10 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
         ruleKeyLogger);
   }
 
+  private RuleKeyHasher<HashCode> newHasher() {
+    return RuleKeyBuilder.createDefaultHasher(ruleKeyFieldLoader.getHasherType(), ruleKeyLogger);
+  }
+
   private <HASH> Builder<HASH> newPopulatedBuilder(
       BuildRule buildRule, RuleKeyHasher<HASH> hasher) {
     Builder<HASH> builder = new Builder<>(hasher);
@@ -108,7 +112,7 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
 
   @VisibleForTesting
   public Builder<HashCode> newBuilderForTesting(BuildRule buildRule) {
-    return newPopulatedBuilder(buildRule, RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+    return newPopulatedBuilder(buildRule, newHasher());
   }
 
   @Nullable
@@ -120,18 +124,12 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
   @Override
   public RuleKey build(BuildRule buildRule) {
     return ruleKeyCache.get(
-        buildRule,
-        rule ->
-            newPopulatedBuilder(rule, RuleKeyBuilder.createDefaultHasher(ruleKeyLogger))
-                .buildResult(RuleKey::new));
+        buildRule, rule -> newPopulatedBuilder(rule, newHasher()).buildResult(RuleKey::new));
   }
 
   private RuleKey buildAppendableKey(AddsToRuleKey appendable) {
     return ruleKeyCache.get(
-        appendable,
-        app ->
-            newPopulatedBuilder(app, RuleKeyBuilder.createDefaultHasher(ruleKeyLogger))
-                .buildResult(RuleKey::new));
+        appendable, app -> newPopulatedBuilder(app, newHasher()).buildResult(RuleKey::new));
   }
 
   @Override
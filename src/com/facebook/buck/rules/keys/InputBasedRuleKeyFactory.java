@@ -78,6 +78,10 @@ public class InputBasedRuleKeyFactory implements RuleKeyFactory<RuleKey> {
     return Optional.of(inputSizeLimit);
   }
 
+  private RuleKeyHasher<HashCode> newHasher() {
+    return RuleKeyBuilder.createDefaultHasher(ruleKeyFieldLoader.getHasherType(), ruleKeyLogger);
+  }
+
   private Result<RuleKey> calculateBuildRuleKey(BuildRule buildRule) {
     Builder<HashCode> builder = newVerifyingBuilder(buildRule);
     ruleKeyFieldLoader.setFields(builder, buildRule, RuleKeyType.INPUT);
@@ -85,8 +89,7 @@ public class InputBasedRuleKeyFactory implements RuleKeyFactory<RuleKey> {
   }
 
   private Result<RuleKey> calculateRuleKeyAppendableKey(AddsToRuleKey appendable) {
-    Builder<HashCode> subKeyBuilder =
-        new Builder<>(RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+    Builder<HashCode> subKeyBuilder = new Builder<>(newHasher());
     AlterRuleKeys.amendKey(subKeyBuilder, appendable);
     return subKeyBuilder.buildResult(RuleKey::new);
   }
@@ -119,7 +122,7 @@ public class InputBasedRuleKeyFactory implements RuleKeyFactory<RuleKey> {
   private Builder<HashCode> newVerifyingBuilder(BuildRule rule) {
     Iterable<DependencyAggregation> aggregatedRules =
         Iterables.filter(rule.getBuildDeps(), DependencyAggregation.class);
-    return new Builder<HashCode>(RuleKeyBuilder.createDefaultHasher(ruleKeyLogger)) {
+    return new Builder<HashCode>(newHasher()) {
       private boolean hasEffectiveDirectDep(BuildRule dep) {
         for (BuildRule aggregationRule : aggregatedRules) {
           if (aggregationRule.getBuildDeps().contains(dep)) {
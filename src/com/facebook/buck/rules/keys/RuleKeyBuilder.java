@@ -38,10 +38,12 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.log.thrift.rulekeys.FullRuleKey;
+import com.facebook.buck.rules.keys.config.RuleKeyHasherType;
 import com.facebook.buck.rules.keys.hasher.CountingRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.ForwardingRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.GuavaRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.StreamingRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.StringRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.ThriftRuleKeyHasher;
 import com.facebook.buck.util.Scope;
@@ -116,7 +118,17 @@ public abstract class RuleKeyBuilder<RULE_KEY> extends AbstractRuleKeyBuilder<RU
   }
 
   static RuleKeyHasher<HashCode> createDefaultHasher(Optional<ThriftRuleKeyLogger> thriftLogger) {
-    RuleKeyHasher<HashCode> hasher = new GuavaRuleKeyHasher(Hashing.sha1().newHasher());
+    return createDefaultHasher(RuleKeyHasherType.GUAVA, thriftLogger);
+  }
+
+  static RuleKeyHasher<HashCode> createDefaultHasher(
+      RuleKeyHasherType hasherType, Optional<ThriftRuleKeyLogger> thriftLogger) {
+    RuleKeyHasher<HashCode> hasher;
+    if (hasherType == RuleKeyHasherType.STREAMING) {
+      hasher = new StreamingRuleKeyHasher(Hashing.sha1().newHasher());
+    } else {
+      hasher = new GuavaRuleKeyHasher(Hashing.sha1().newHasher());
+    }
     if (logger.isVerboseEnabled()) {
       hasher =
           new ForwardingRuleKeyHasher<HashCode, String>(hasher, new StringRuleKeyHasher()) {
@@ -22,6 +22,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.WatchmanOverflowEvent;
 import com.facebook.buck.io.WatchmanPathEvent;
+import com.facebook.buck.io.WatchmanPathEventBatch;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.cache.InstrumentingCacheStatsTracker;
@@ -31,7 +32,9 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import java.nio.file.Path;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
 import javax.annotation.Nullable;
@@ -90,13 +93,41 @@ public class RuleKeyCacheRecycler<V> {
   }
 
   public void invalidatePath(ProjectFilesystem filesystem, Path path) {
-    cache.invalidateInputs(
-        // As inputs to rule keys can be directories, make sure we also invalidate any
-        // directories containing this path.
-        IntStream.range(1, path.getNameCount() + 1)
-            .mapToObj(end -> RuleKeyInput.of(filesystem, path.subpath(0, end)))
-            .collect(ImmutableList.toImmutableList()),
-        new NoOpCacheStatsTracker());
+    cache.invalidateInputs(getInputsForPath(filesystem, path), new NoOpCacheStatsTracker());
+  }
+
+  /**
+   * Invalidates everything touched by a batch of changes with a single call per filesystem, so
+   * that dependents shared by many changed inputs are only walked once.
+   */
+  @Subscribe
+  public void onFilesystemChange(WatchmanPathEventBatch batch) {
+    for (ProjectFilesystem filesystem : watchedFilesystems) {
+      LOG.verbose(
+          "invalidating %d paths and %d directories from filesystem at \"%s\"",
+          batch.getEvents().size(),
+          batch.getChangedDirectories().size(),
+          filesystem.getRootPath());
+      Set<RuleKeyInput> inputs = new LinkedHashSet<>();
+      for (WatchmanPathEvent event : batch.getEvents()) {
+        inputs.addAll(getInputsForPath(filesystem, event.getPath().normalize()));
+      }
+      for (Path directory : batch.getChangedDirectories()) {
+        inputs.addAll(getInputsForPath(filesystem, directory));
+      }
+      cache.invalidateInputs(inputs, new NoOpCacheStatsTracker());
+      cache.invalidateInputsUnder(
+          filesystem, batch.getChangedDirectories(), new NoOpCacheStatsTracker());
+    }
+  }
+
+  private static ImmutableList<RuleKeyInput> getInputsForPath(
+      ProjectFilesystem filesystem, Path path) {
+    // As inputs to rule keys can be directories, make sure we also invalidate any
+    // directories containing this path.
+    return IntStream.range(1, path.getNameCount() + 1)
+        .mapToObj(end -> RuleKeyInput.of(filesystem, path.subpath(0, end)))
+        .collect(ImmutableList.toImmutableList());
   }
 
   @Subscribe
@@ -21,6 +21,7 @@ import com.facebook.buck.core.rulekey.RuleKeyObjectSink;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.module.BuckModuleHashStrategy;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
+import com.facebook.buck.rules.keys.config.RuleKeyHasherType;
 import com.google.common.base.Preconditions;
 import java.nio.file.Path;
 
@@ -32,6 +33,10 @@ public class RuleKeyFieldLoader {
     this.ruleKeyConfiguration = ruleKeyConfiguration;
   }
 
+  RuleKeyHasherType getHasherType() {
+    return ruleKeyConfiguration.getHasherType();
+  }
+
   void setFields(RuleKeyObjectSink builder, BuildRule buildRule, RuleKeyType ruleKeyType) {
     // "." is not a valid first character for a field name, nor a valid character for rule attribute
     // name and so the following fields will never collide with other stuff.
@@ -22,6 +22,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.cache.CacheStatsTracker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.function.Function;
 import javax.annotation.Nullable;
@@ -48,6 +49,15 @@ public interface TrackableRuleKeyCache<V> {
 
   void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker);
 
+  /**
+   * Invalidate all inputs from the given {@link ProjectFilesystem} which are one of, or are located
+   * under, the given relative directories.
+   */
+  void invalidateInputsUnder(
+      ProjectFilesystem filesystem,
+      ImmutableSet<Path> directories,
+      CacheStatsTracker statsTracker);
+
   void invalidateAllExceptFilesystems(
       ImmutableSet<ProjectFilesystem> filesystems, CacheStatsTracker statsTracker);
 
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys.config;
+
+import com.facebook.buck.config.BuckConfig;
+import com.facebook.buck.config.ConfigView;
+import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import org.immutables.value.Value;
+
+/** Config section controlling the rule key cache kept by the daemon. */
+@Value.Immutable(builder = false, copy = false)
+@BuckStyleImmutable
+abstract class AbstractRuleKeyCacheConfig implements ConfigView<BuckConfig> {
+
+  private static final String SECTION = "rule_key";
+
+  /** Which cache implementation to use. */
+  public RuleKeyCacheMode getCacheMode() {
+    return getDelegate()
+        .getEnum(SECTION, "cache_mode", RuleKeyCacheMode.class)
+        .orElse(RuleKeyCacheMode.DEFAULT);
+  }
+
+  /**
+   * The estimated size, in bytes, above which the least recently used entries of a {@link
+   * RuleKeyCacheMode#COMPACT} cache are evicted. Unbounded by default.
+   */
+  public long getCacheMemoryBudgetBytes() {
+    return getDelegate()
+        .getLong(SECTION, "cache_memory_budget_mb")
+        .map(megabytes -> megabytes * 1024 * 1024)
+        .orElse(Long.MAX_VALUE);
+  }
+}
@@ -37,4 +37,10 @@ abstract class AbstractRuleKeyConfiguration {
 
   @Value.Parameter
   public abstract BuckModuleHashStrategy getBuckModuleHashStrategy();
+
+  /** How rule keys are hashed. Does not affect the resulting keys. */
+  @Value.Default
+  public RuleKeyHasherType getHasherType() {
+    return RuleKeyHasherType.GUAVA;
+  }
 }
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys.config;
+
+/** Defines how the values that make up a rule key are fed to its hash function. */
+public enum RuleKeyHasherType {
+  /** Every value is converted to bytes and passed to the hash function on its own. */
+  GUAVA,
+  /** Values are encoded into reusable per-thread buffers that are hashed in large chunks. */
+  STREAMING,
+}
@@ -22,6 +22,7 @@ import com.facebook.buck.module.BuckModuleManager;
 import com.facebook.buck.module.impl.DefaultBuckModuleHashStrategy;
 import com.facebook.buck.module.impl.NoOpBuckModuleHashStrategy;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
+import com.facebook.buck.rules.keys.config.RuleKeyHasherType;
 
 /** Creates {@link RuleKeyConfiguration} using information from {@link BuckConfig}. */
 public class ConfigRuleKeyConfigurationFactory {
@@ -34,6 +35,10 @@ public class ConfigRuleKeyConfigurationFactory {
         .setCoreKey(getCoreKey(buckConfig))
         .setBuildInputRuleKeyFileSizeLimit(inputKeySizeLimit)
         .setBuckModuleHashStrategy(createBuckModuleHashStrategy(buckConfig, moduleManager))
+        .setHasherType(
+            buckConfig
+                .getEnum("rule_key", "hasher", RuleKeyHasherType.class)
+                .orElse(RuleKeyHasherType.GUAVA))
         .build();
   }
 
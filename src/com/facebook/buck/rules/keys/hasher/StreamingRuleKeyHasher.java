@@ -0,0 +1,358 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys.hasher;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.type.BuildRuleType;
+import com.facebook.buck.core.sourcepath.BuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.ForwardingBuildTargetSourcePath;
+import com.facebook.buck.io.ArchiveMemberPath;
+import com.facebook.buck.rules.keys.SourceRoot;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link RuleKeyHasher} that produces the same hashes as {@link GuavaRuleKeyHasher}, but encodes
+ * values into a reusable buffer that is handed to the wrapped {@link Hasher} in large chunks.
+ *
+ * <p>Strings are encoded to UTF-8 straight into the buffer, and the encodings of keys, build
+ * targets and paths, which are the same objects for many rule keys, are cached per thread. Buffers
+ * are also pooled per thread and returned to the pool by {@link #hash()}, so that computing a rule
+ * key allocates little beyond what the wrapped {@link Hasher} does. Rule keys of dependencies are
+ * often computed while the key of a dependent rule is being built, so each thread may use several
+ * buffers at a time.
+ */
+public class StreamingRuleKeyHasher implements RuleKeyHasher<HashCode> {
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  /** Values whose encoding is larger than this are never cached. */
+  private static final int MAX_CACHED_ENCODING_SIZE = 512;
+
+  private static final ThreadLocal<ThreadState> THREAD_STATE =
+      ThreadLocal.withInitial(ThreadState::new);
+
+  private final Hasher hasher;
+  private final ThreadState threadState;
+  @Nullable private ByteBuffer buffer;
+
+  public StreamingRuleKeyHasher(Hasher hasher) {
+    this.hasher = hasher;
+    this.threadState = THREAD_STATE.get();
+    this.buffer = threadState.acquireBuffer();
+  }
+
+  private ByteBuffer buffer(int bytesNeeded) {
+    Preconditions.checkState(buffer != null, "The hash was already computed.");
+    if (buffer.remaining() < bytesNeeded) {
+      flush();
+    }
+    return buffer;
+  }
+
+  private void flush() {
+    buffer.flip();
+    hasher.putBytes(buffer);
+    buffer.clear();
+  }
+
+  private StreamingRuleKeyHasher putLengthAndType(int length, byte type) {
+    buffer(Integer.BYTES + 1).putInt(length).put(type);
+    return this;
+  }
+
+  private StreamingRuleKeyHasher putBytes(byte type, byte[] bytes) {
+    if (bytes.length > BUFFER_SIZE) {
+      flush();
+      hasher.putBytes(bytes);
+    } else {
+      buffer(bytes.length).put(bytes);
+    }
+    return putLengthAndType(bytes.length, type);
+  }
+
+  private StreamingRuleKeyHasher putHashCode(byte type, HashCode hashCode) {
+    int length = hashCode.bits() / Byte.SIZE;
+    ByteBuffer buffer = buffer(length);
+    hashCode.writeBytesTo(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+    buffer.position(buffer.position() + length);
+    return putLengthAndType(length, type);
+  }
+
+  private StreamingRuleKeyHasher putStringified(byte type, String val) {
+    return putLengthAndType(encode(val), type);
+  }
+
+  /** Puts a value whose string form is likely to be put again, e.g. by the key of a dependent. */
+  private <T> StreamingRuleKeyHasher putCached(
+      byte type, T val, Function<? super T, String> toString) {
+    byte[] encoded = threadState.getCachedEncoding(val);
+    if (encoded == null) {
+      String string = toString.apply(val);
+      if (string.length() * 3 > MAX_CACHED_ENCODING_SIZE) {
+        return putStringified(type, string);
+      }
+      encoded = string.getBytes(StandardCharsets.UTF_8);
+      threadState.cacheEncoding(val, encoded);
+    }
+    return putBytes(type, encoded);
+  }
+
+  /**
+   * Encodes the string to UTF-8 exactly as {@link String#getBytes} does, replacing unpaired
+   * surrogates with '?'.
+   *
+   * @return the number of bytes written.
+   */
+  private int encode(String val) {
+    int length = 0;
+    int size = val.length();
+    for (int i = 0; i < size; i++) {
+      char c = val.charAt(i);
+      ByteBuffer buffer = buffer(4);
+      if (c < 0x80) {
+        buffer.put((byte) c);
+        length += 1;
+      } else if (c < 0x800) {
+        buffer.put((byte) (0xc0 | (c >> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+        length += 2;
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c)
+            && i + 1 < size
+            && Character.isLowSurrogate(val.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, val.charAt(++i));
+          buffer.put((byte) (0xf0 | (codePoint >> 18)));
+          buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+          buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+          buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+          length += 4;
+        } else {
+          buffer.put((byte) '?');
+          length += 1;
+        }
+      } else {
+        buffer.put((byte) (0xe0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putKey(String key) {
+    return putCached(RuleKeyHasherTypes.KEY, key, Function.identity());
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putNull() {
+    buffer(1).put(RuleKeyHasherTypes.NULL);
+    return this;
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putCharacter(char val) {
+    buffer(Character.BYTES).putChar(val);
+    return this;
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putBoolean(boolean val) {
+    buffer(1).put(val ? RuleKeyHasherTypes.TRUE : RuleKeyHasherTypes.FALSE);
+    return this;
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putNumber(Number val) {
+    ByteBuffer buffer = buffer(Long.BYTES + 1);
+    if (val instanceof Integer) { // most common, so test first
+      buffer.putInt((Integer) val).put(RuleKeyHasherTypes.INTEGER);
+    } else if (val instanceof Long) {
+      buffer.putLong((Long) val).put(RuleKeyHasherTypes.LONG);
+    } else if (val instanceof Short) {
+      buffer.putShort((Short) val).put(RuleKeyHasherTypes.SHORT);
+    } else if (val instanceof Byte) {
+      buffer.put((Byte) val).put(RuleKeyHasherTypes.BYTE);
+    } else if (val instanceof Float) {
+      buffer.putInt(Float.floatToRawIntBits((Float) val)).put(RuleKeyHasherTypes.FLOAT);
+    } else if (val instanceof Double) {
+      buffer.putLong(Double.doubleToRawLongBits((Double) val)).put(RuleKeyHasherTypes.DOUBLE);
+    } else {
+      throw new UnsupportedOperationException(("Unsupported Number type: " + val.getClass()));
+    }
+    return this;
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putString(String val) {
+    return putStringified(RuleKeyHasherTypes.STRING, val);
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putBytes(byte[] bytes) {
+    return putBytes(RuleKeyHasherTypes.BYTE_ARRAY, bytes);
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putPattern(Pattern pattern) {
+    return putStringified(RuleKeyHasherTypes.PATTERN, pattern.toString());
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putSha1(Sha1HashCode sha1) {
+    flush();
+    sha1.update(hasher);
+    buffer(1).put(RuleKeyHasherTypes.SHA1);
+    return this;
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putPath(Path path, HashCode hash) {
+    putCached(RuleKeyHasherTypes.PATH, path, Path::toString);
+    return putHashCode(RuleKeyHasherTypes.PATH, hash);
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putArchiveMemberPath(ArchiveMemberPath path, HashCode hash) {
+    putStringified(RuleKeyHasherTypes.ARCHIVE_MEMBER_PATH, path.toString());
+    return putHashCode(RuleKeyHasherTypes.ARCHIVE_MEMBER_PATH, hash);
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putNonHashingPath(String path) {
+    return putStringified(RuleKeyHasherTypes.NON_HASHING_PATH, path);
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putSourceRoot(SourceRoot sourceRoot) {
+    return putStringified(RuleKeyHasherTypes.SOURCE_ROOT, sourceRoot.getName());
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putRuleKey(RuleKey ruleKey) {
+    return putHashCode(RuleKeyHasherTypes.RULE_KEY, ruleKey.getHashCode());
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putBuildRuleType(BuildRuleType buildRuleType) {
+    return putStringified(RuleKeyHasherTypes.RULE_TYPE, buildRuleType.toString());
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putBuildTarget(BuildTarget buildTarget) {
+    return putCached(
+        RuleKeyHasherTypes.TARGET, buildTarget, BuildTarget::getFullyQualifiedName);
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putBuildTargetSourcePath(BuildTargetSourcePath targetSourcePath) {
+    putCached(
+        RuleKeyHasherTypes.TARGET_SOURCE_PATH,
+        targetSourcePath.getTarget(),
+        BuildTarget::getFullyQualifiedName);
+    if (targetSourcePath instanceof ExplicitBuildTargetSourcePath) {
+      putCached(
+          RuleKeyHasherTypes.TARGET_SOURCE_PATH,
+          ((ExplicitBuildTargetSourcePath) targetSourcePath).getResolvedPath(),
+          Path::toString);
+    } else if (targetSourcePath instanceof ForwardingBuildTargetSourcePath) {
+      putStringified(
+          RuleKeyHasherTypes.TARGET_SOURCE_PATH, targetSourcePath.representationForRuleKey());
+    }
+    return this;
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putContainer(Container container, int length) {
+    buffer(Integer.BYTES + 2)
+        .put(RuleKeyHasherTypes.containerSubType(container))
+        .putInt(length)
+        .put(RuleKeyHasherTypes.CONTAINER);
+    return this;
+  }
+
+  @Override
+  public StreamingRuleKeyHasher putWrapper(Wrapper wrapper) {
+    buffer(2).put(RuleKeyHasherTypes.wrapperSubType(wrapper)).put(RuleKeyHasherTypes.WRAPPER);
+    return this;
+  }
+
+  @Override
+  public HashCode hash() {
+    flush();
+    threadState.releaseBuffer(buffer);
+    buffer = null;
+    return hasher.hash();
+  }
+
+  /** Buffers and cached encodings that are only ever used by a single thread. */
+  private static class ThreadState {
+
+    private static final int CACHE_SIZE = 4096;
+
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+
+    // A direct-mapped cache keyed by identity, as the same key, target and path objects are shared
+    // between the rules that refer to them.
+    private final Object[] cacheKeys = new Object[CACHE_SIZE];
+    private final byte[][] cacheValues = new byte[CACHE_SIZE][];
+
+    ByteBuffer acquireBuffer() {
+      ByteBuffer buffer = buffers.pollLast();
+      if (buffer == null) {
+        // Guava's hashers read multi-byte values in little-endian order.
+        buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      }
+      return buffer;
+    }
+
+    void releaseBuffer(ByteBuffer buffer) {
+      buffer.clear();
+      buffers.addLast(buffer);
+    }
+
+    @Nullable
+    byte[] getCachedEncoding(Object key) {
+      int index = slot(key);
+      return cacheKeys[index] == key ? cacheValues[index] : null;
+    }
+
+    void cacheEncoding(Object key, byte[] encoding) {
+      int index = slot(key);
+      cacheKeys[index] = key;
+      cacheValues[index] = encoding;
+    }
+
+    private static int slot(Object key) {
+      return System.identityHashCode(key) & (CACHE_SIZE - 1);
+    }
+  }
+}
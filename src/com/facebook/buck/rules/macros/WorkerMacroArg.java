@@ -30,6 +30,7 @@ import com.facebook.buck.model.macros.MacroMatchResult;
 import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.args.ProxyArg;
 import com.facebook.buck.shell.WorkerTool;
+import com.facebook.buck.worker.WorkerProcessPoolPolicy;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -169,6 +170,10 @@ public class WorkerMacroArg extends ProxyArg {
     return workerTool.getMaxWorkers();
   }
 
+  public WorkerProcessPoolPolicy getPoolPolicy() {
+    return workerTool.getPoolPolicy();
+  }
+
   public String getJobArgs(SourcePathResolver pathResolver) {
     return Arg.stringify(arg, pathResolver).trim();
   }
@@ -21,6 +21,7 @@ import com.facebook.buck.rules.modern.builders.MultiThreadedBlobUploader.UploadR
 import com.facebook.buck.rules.modern.builders.Protocol.Digest;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.util.List;
 
@@ -29,4 +30,12 @@ public interface CasBlobUploader {
   ImmutableSet<String> getMissingHashes(List<Digest> requiredDigests) throws IOException;
 
   ImmutableList<UploadResult> batchUpdateBlobs(ImmutableList<UploadData> build) throws IOException;
+
+  /**
+   * Uploads a single blob that is too large to be sent as part of a batch. Implementations should
+   * stream the data instead of holding all of it in memory.
+   */
+  default UploadResult uploadLargeBlob(UploadData blob) throws IOException {
+    return Iterables.getOnlyElement(batchUpdateBlobs(ImmutableList.of(blob)));
+  }
 }
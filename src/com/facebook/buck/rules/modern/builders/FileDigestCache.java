@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.modern.builders;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.function.ThrowingFunction;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the digests of files keyed by their (path, size, mtime) so that inputs which haven't
+ * changed since a previous build don't need to be rehashed before being uploaded to the CAS. This
+ * mostly matters for files under buck-out, which aren't covered by the watched file hash cache.
+ *
+ * <p>The index is loaded from and saved to a single file. Entries for files whose mtime is too
+ * close to the time they were hashed are never persisted, since a later modification within the
+ * same timestamp granularity would go unnoticed. Only entries that were looked up or recorded since
+ * the index was loaded, and whose files still exist, are saved again, so files that are no longer
+ * part of the build drop out of the index instead of accumulating forever.
+ */
+public class FileDigestCache implements ThrowingFunction<Path, HashCode, IOException> {
+  private static final Logger LOG = Logger.get(FileDigestCache.class);
+
+  private static final int FORMAT_VERSION = 1;
+  private static final long RACY_WINDOW_MILLIS = 2000;
+  private static final String COUNTER_CATEGORY = "buck_file_digest_cache";
+
+  private final Path indexFile;
+  private final ThrowingFunction<Path, HashCode, IOException> delegate;
+  private final Map<Path, Entry> entries;
+  private final IntegerCounter hits;
+  private final IntegerCounter misses;
+
+  private FileDigestCache(
+      Path indexFile,
+      ThrowingFunction<Path, HashCode, IOException> delegate,
+      Map<Path, Entry> entries) {
+    this.indexFile = indexFile;
+    this.delegate = delegate;
+    this.entries = entries;
+    this.hits = new IntegerCounter(COUNTER_CATEGORY, "hits", ImmutableMap.of());
+    this.misses = new IntegerCounter(COUNTER_CATEGORY, "misses", ImmutableMap.of());
+  }
+
+  /**
+   * Creates a cache backed by the given index file, loading any previously saved entries. A missing
+   * or unreadable index just results in an empty cache.
+   */
+  public static FileDigestCache load(
+      Path indexFile, ThrowingFunction<Path, HashCode, IOException> delegate) {
+    Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+      if (input.readInt() == FORMAT_VERSION) {
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+          Path path = Paths.get(input.readUTF());
+          long size = input.readLong();
+          long mtime = input.readLong();
+          byte[] hash = new byte[input.readUnsignedShort()];
+          input.readFully(hash);
+          entries.put(path, new Entry(size, mtime, HashCode.fromBytes(hash), true, false));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // Nothing saved yet.
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Failed to load file digest index %s, starting empty.", indexFile);
+      entries.clear();
+    }
+    return new FileDigestCache(indexFile, delegate, entries);
+  }
+
+  @Override
+  public HashCode apply(Path path) throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      misses.inc();
+      return delegate.apply(path);
+    }
+    long size = attributes.size();
+    long mtime = attributes.lastModifiedTime().toMillis();
+
+    Entry entry = entries.get(path);
+    if (entry != null && entry.size == size && entry.mtime == mtime) {
+      entry.used = true;
+      hits.inc();
+      return entry.hash;
+    }
+
+    misses.inc();
+    HashCode hash = delegate.apply(path);
+    if (attributes.isRegularFile() && System.currentTimeMillis() - mtime > RACY_WINDOW_MILLIS) {
+      entries.put(path, new Entry(size, mtime, hash, true, true));
+    } else {
+      entries.remove(path);
+    }
+    return hash;
+  }
+
+  /**
+   * Returns the remembered digest of a file if it hasn't changed since it was recorded, without
+   * hashing it.
+   */
+  public Optional<HashCode> getIfUnchanged(Path path) throws IOException {
+    Entry entry = entries.get(path);
+    if (entry == null) {
+      return Optional.empty();
+    }
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    if (!attributes.isRegularFile()
+        || attributes.size() != entry.size
+        || attributes.lastModifiedTime().toMillis() != entry.mtime) {
+      return Optional.empty();
+    }
+    entry.used = true;
+    return Optional.of(entry.hash);
+  }
+
+  /**
+   * Records the digest of a file whose contents are known, e.g. one that was just written from the
+   * CAS. Unlike {@link #apply(Path)} this remembers recently modified files too, since the caller
+   * vouches for the contents, but such entries are only kept in memory and never saved.
+   */
+  public void record(Path path, HashCode hash) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    long mtime = attributes.lastModifiedTime().toMillis();
+    entries.put(
+        path,
+        new Entry(
+            attributes.size(),
+            mtime,
+            hash,
+            System.currentTimeMillis() - mtime > RACY_WINDOW_MILLIS,
+            true));
+  }
+
+  /**
+   * Writes the entries used since the index was loaded out to the index file, replacing it
+   * atomically. Entries for files that no longer exist are dropped.
+   */
+  public void save() throws IOException {
+    Files.createDirectories(indexFile.getParent());
+    Path tempFile = Files.createTempFile(indexFile.getParent(), "digests", ".tmp");
+    try {
+      ImmutableMap<Path, Entry> snapshot =
+          entries
+              .entrySet()
+              .stream()
+              .filter(
+                  entry ->
+                      entry.getValue().persistable
+                          && entry.getValue().used
+                          && Files.isRegularFile(entry.getKey()))
+              .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
+      try (DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(snapshot.size());
+        for (Map.Entry<Path, Entry> mapEntry : snapshot.entrySet()) {
+          Entry entry = mapEntry.getValue();
+          byte[] hash = entry.hash.asBytes();
+          output.writeUTF(mapEntry.getKey().toString());
+          output.writeLong(entry.size);
+          output.writeLong(entry.mtime);
+          output.writeShort(hash.length);
+          output.write(hash);
+        }
+      }
+      Files.move(
+          tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  public ImmutableList<Counter> getCounters() {
+    return ImmutableList.of(hits, misses);
+  }
+
+  private static class Entry {
+    private final long size;
+    private final long mtime;
+    private final HashCode hash;
+    /** Whether the file was old enough when recorded for a later change to alter its mtime. */
+    private final boolean persistable;
+    /** Whether the entry was looked up or recorded since the index was loaded. */
+    private volatile boolean used;
+
+    private Entry(long size, long mtime, HashCode hash, boolean persistable, boolean used) {
+      this.size = size;
+      this.mtime = mtime;
+      this.hash = hash;
+      this.persistable = persistable;
+      this.used = used;
+    }
+  }
+}
@@ -70,7 +70,8 @@ class InProcessIsolatedExecution implements IsolatedExecution {
       Path projectRoot,
       HashCode hash,
       BuildTarget buildTarget,
-      Path cellPrefixRoot)
+      Path cellPrefixRoot,
+      FileDigestCache digestCache)
       throws IOException, StepFailedException, InterruptedException {
     String dirName =
         String.format(
@@ -36,6 +36,11 @@ import java.util.Set;
  * on a different machine, etc).
  */
 public interface IsolatedExecution extends Closeable {
+  /**
+   * Builds the rule and materializes its outputs under cellPrefixRoot. The digestCache knows the
+   * digests of files that are already present locally, and should be told about any outputs
+   * written.
+   */
   void build(
       ExecutionContext executionContext,
       FileTreeBuilder inputsBuilder,
@@ -43,7 +48,8 @@ public interface IsolatedExecution extends Closeable {
       Path projectRoot,
       HashCode hash,
       BuildTarget buildTarget,
-      Path cellPrefixRoot)
+      Path cellPrefixRoot,
+      FileDigestCache digestCache)
       throws IOException, StepFailedException, InterruptedException;
 
   /** Creates a BuildRuleStrategy for a particular */
@@ -70,7 +70,7 @@ public class IsolatedExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private final IsolatedExecution executionStrategy;
   private final CellPathResolver cellResolver;
   private final Cell rootCell;
-  private final ThrowingFunction<Path, HashCode, IOException> fileHasher;
+  private final FileDigestCache fileHasher;
   private final Serializer serializer;
   private final Map<Optional<String>, byte[]> cellToConfig;
   private final Map<Optional<String>, String> configHashes;
@@ -78,6 +78,8 @@ public class IsolatedExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private final Set<Optional<String>> cellNames;
   private final Map<HashCode, Node> nodeMap;
 
+  private static final String DIGEST_INDEX_NAME = "remote_file_digests.idx";
+
   IsolatedExecutionStrategy(
       IsolatedExecution executionStrategy,
       SourcePathRuleFinder ruleFinder,
@@ -87,7 +89,13 @@ public class IsolatedExecutionStrategy extends AbstractModernBuildRuleStrategy {
     this.executionStrategy = executionStrategy;
     this.cellResolver = cellResolver;
     this.rootCell = rootCell;
-    this.fileHasher = fileHasher;
+    this.fileHasher =
+        FileDigestCache.load(
+            rootCell
+                .getFilesystem()
+                .resolve(rootCell.getFilesystem().getBuckPaths().getCacheDir())
+                .resolve(DIGEST_INDEX_NAME),
+            fileHasher);
     this.nodeMap = new ConcurrentHashMap<>();
 
     Delegate delegate =
@@ -154,7 +162,11 @@ public class IsolatedExecutionStrategy extends AbstractModernBuildRuleStrategy {
 
   @Override
   public void close() throws IOException {
-    executionStrategy.close();
+    try {
+      fileHasher.save();
+    } finally {
+      executionStrategy.close();
+    }
   }
 
   @Override
@@ -206,7 +218,8 @@ public class IsolatedExecutionStrategy extends AbstractModernBuildRuleStrategy {
         cellPathPrefix.relativize(rootCell.getRoot()),
         hash,
         rule.getBuildTarget(),
-        cellPathPrefix);
+        cellPathPrefix,
+        fileHasher);
 
     converted.recordOutputs(buildableContext);
   }
@@ -151,6 +151,7 @@ public class LocalContentAddressedStorage implements ContentAddressedStorage {
         Path path = ensureParent(getPath(hash));
         try (AutoUnlocker ignored = fileLock.writeLock(hash)) {
           if (Files.exists(path)) {
+            responseBuilder.add(new UploadResult(data.digest, 0, null));
             continue;
           }
           Path tempPath = path.getParent().resolve(path.getFileName() + ".tmp");
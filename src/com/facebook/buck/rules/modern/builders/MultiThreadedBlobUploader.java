@@ -16,6 +16,9 @@
 
 package com.facebook.buck.rules.modern.builders;
 
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.modern.builders.Protocol.Digest;
 import com.facebook.buck.util.concurrent.MoreFutures;
 import com.facebook.buck.util.function.ThrowingSupplier;
@@ -32,11 +35,14 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -50,8 +56,17 @@ import javax.annotation.Nullable;
  * does/doesn't contain. Any that are missing will be added to a queue to be uploaded. Work threads
  * will then pull those off and upload them. When the upload is finished, the future for that digest
  * will be fulfilled.
+ *
+ * <p>Missing blobs are grouped into batches of at most uploadSizeLimit bytes. Blobs larger than
+ * that are never batched: each one is uploaded on its own with {@link
+ * CasBlobUploader#uploadLargeBlob(UploadData)}, which lets the CAS stream it in chunks. Several
+ * large blobs are uploaded in parallel, and small batches keep flowing while they are in progress.
  */
 public class MultiThreadedBlobUploader {
+  private static final Logger LOG = Logger.get(MultiThreadedBlobUploader.class);
+
+  private static final String COUNTER_CATEGORY = "buck_cas_upload";
+
   private final int missingCheckLimit;
   private final int uploadSizeLimit;
 
@@ -64,18 +79,36 @@ public class MultiThreadedBlobUploader {
     this.uploadSizeLimit = uploadSizeLimit;
     this.uploadService = uploadService;
     this.asyncBlobUploader = delegate;
+
+    ImmutableMap<String, String> tags = ImmutableMap.of();
+    this.missingChecks = new IntegerCounter(COUNTER_CATEGORY, "missing_checks", tags);
+    this.missingCheckMillis = new IntegerCounter(COUNTER_CATEGORY, "missing_check_millis", tags);
+    this.uploadBatches = new IntegerCounter(COUNTER_CATEGORY, "upload_batches", tags);
+    this.largeUploads = new IntegerCounter(COUNTER_CATEGORY, "large_uploads", tags);
+    this.uploadedBlobs = new IntegerCounter(COUNTER_CATEGORY, "uploaded_blobs", tags);
+    this.uploadedBytes = new IntegerCounter(COUNTER_CATEGORY, "uploaded_bytes", tags);
+    this.uploadMillis = new IntegerCounter(COUNTER_CATEGORY, "upload_millis", tags);
   }
 
   private final ConcurrentHashMap<String, ListenableFuture<Void>> pendingUploads =
       new ConcurrentHashMap<>();
 
   private final Set<String> containedHashes = Sets.newConcurrentHashSet();
-  private final BlockingQueue<PendingUpload> waitingUploads = new LinkedBlockingQueue<>();
+  private final BlockingDeque<PendingUpload> waitingUploads = new LinkedBlockingDeque<>();
+  private final BlockingQueue<PendingUpload> waitingLargeUploads = new LinkedBlockingQueue<>();
   private final BlockingQueue<PendingUpload> waitingMissingCheck = new LinkedBlockingQueue<>();
 
   private final ExecutorService uploadService;
   private final CasBlobUploader asyncBlobUploader;
 
+  private final IntegerCounter missingChecks;
+  private final IntegerCounter missingCheckMillis;
+  private final IntegerCounter uploadBatches;
+  private final IntegerCounter largeUploads;
+  private final IntegerCounter uploadedBlobs;
+  private final IntegerCounter uploadedBytes;
+  private final IntegerCounter uploadMillis;
+
   /**
    * Data required to upload a file. The underlying data will only be read if the CAS is missing
    * this digest.
@@ -106,6 +139,25 @@ public class MultiThreadedBlobUploader {
     String getHash() {
       return uploadData.getHash();
     }
+
+    long getSize() {
+      return uploadData.digest.getSize();
+    }
+  }
+
+  /**
+   * Counters tracking the missing checks and uploads of this uploader. The uploader may outlive a
+   * single build, so callers register these with each build they are used in.
+   */
+  public ImmutableList<Counter> getCounters() {
+    return ImmutableList.of(
+        missingChecks,
+        missingCheckMillis,
+        uploadBatches,
+        largeUploads,
+        uploadedBlobs,
+        uploadedBytes,
+        uploadMillis);
   }
 
   /** Uploads missing items to the CAS. */
@@ -177,11 +229,18 @@ public class MultiThreadedBlobUploader {
       List<Protocol.Digest> requiredDigests =
           data.stream().map(entry -> entry.uploadData.digest).collect(Collectors.toList());
 
+      long startNanos = System.nanoTime();
       Set<String> missing = asyncBlobUploader.getMissingHashes(requiredDigests);
+      missingChecks.inc();
+      missingCheckMillis.inc(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
 
       for (PendingUpload entry : data) {
         if (missing.contains(entry.getHash())) {
-          waitingUploads.add(entry);
+          if (entry.getSize() > uploadSizeLimit) {
+            waitingLargeUploads.add(entry);
+          } else {
+            waitingUploads.add(entry);
+          }
         } else {
           entry.future.set(null);
         }
@@ -193,49 +252,92 @@ public class MultiThreadedBlobUploader {
 
   private void processUploads() {
     processMissing();
+    processLargeUpload();
+    processBatchUpload();
+    if (!waitingMissingCheck.isEmpty()
+        || !waitingUploads.isEmpty()
+        || !waitingLargeUploads.isEmpty()) {
+      uploadService.submit(this::processUploads);
+    }
+  }
+
+  /** Uploads at most one blob that is too large to be batched. */
+  private void processLargeUpload() {
+    PendingUpload pendingUpload = waitingLargeUploads.poll();
+    if (pendingUpload == null) {
+      return;
+    }
+
+    try {
+      long startNanos = System.nanoTime();
+      UploadResult result = asyncBlobUploader.uploadLargeBlob(pendingUpload.uploadData);
+      long elapsedNanos = System.nanoTime() - startNanos;
+      largeUploads.inc();
+      recordUpload(1, pendingUpload.getSize(), elapsedNanos);
+      completeUpload(pendingUpload, result);
+    } catch (Exception e) {
+      pendingUpload.future.setException(e);
+    }
+  }
+
+  /** Uploads a batch of missing blobs of at most uploadSizeLimit bytes in total. */
+  private void processBatchUpload() {
     ImmutableMap.Builder<String, PendingUpload> dataBuilder = ImmutableMap.builder();
-    int size = 0;
+    long size = 0;
     while (size < uploadSizeLimit && !waitingUploads.isEmpty()) {
       PendingUpload data = waitingUploads.poll();
       if (data == null) {
         break;
       }
+      if (size > 0 && size + data.getSize() > uploadSizeLimit) {
+        // Leave it for the next batch rather than going over the limit.
+        waitingUploads.offerFirst(data);
+        break;
+      }
       dataBuilder.put(data.getHash(), data);
-      size += data.uploadData.digest.getSize();
+      size += data.getSize();
     }
     ImmutableMap<String, PendingUpload> data = dataBuilder.build();
 
     if (!data.isEmpty()) {
       try {
-        ImmutableList.Builder<UploadData> blobsBuilder = ImmutableList.builder();
-        for (PendingUpload entry : data.values()) {
-          blobsBuilder.add(entry.uploadData);
-        }
-
         ImmutableList<UploadData> blobs =
             data.values().stream().map(e -> e.uploadData).collect(ImmutableList.toImmutableList());
 
+        long startNanos = System.nanoTime();
         ImmutableList<UploadResult> results = asyncBlobUploader.batchUpdateBlobs(blobs);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        uploadBatches.inc();
+        recordUpload(blobs.size(), size, elapsedNanos);
+
         Preconditions.checkState(results.size() == blobs.size());
         results.forEach(
-            result -> {
-              PendingUpload pendingUpload =
-                  Preconditions.checkNotNull(data.get(result.digest.getHash()));
-              if (result.status == 0) {
-                pendingUpload.future.set(null);
-              } else {
-                pendingUpload.future.setException(
-                    new IOException(
-                        String.format("Failed uploading with message: %s", result.message)));
-              }
-            });
+            result ->
+                completeUpload(
+                    Preconditions.checkNotNull(data.get(result.digest.getHash())), result));
         data.forEach((k, pending) -> pending.future.setException(new RuntimeException("idk")));
       } catch (Exception e) {
         data.forEach((k, pending) -> pending.future.setException(e));
       }
     }
-    if (!waitingMissingCheck.isEmpty() || !waitingUploads.isEmpty()) {
-      uploadService.submit(this::processUploads);
+  }
+
+  private void recordUpload(int blobCount, long bytes, long elapsedNanos) {
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    uploadedBlobs.inc(blobCount);
+    uploadedBytes.inc(bytes);
+    uploadMillis.inc(elapsedMillis);
+    LOG.debug(
+        "Uploaded %d blobs (%d bytes) in %d ms (%d KB/s).",
+        blobCount, bytes, elapsedMillis, bytes * 1000 / 1024 / Math.max(1, elapsedMillis));
+  }
+
+  private static void completeUpload(PendingUpload pendingUpload, UploadResult result) {
+    if (result.status == 0) {
+      pendingUpload.future.set(null);
+    } else {
+      pendingUpload.future.setException(
+          new IOException(String.format("Failed uploading with message: %s", result.message)));
     }
   }
 
@@ -17,12 +17,16 @@
 package com.facebook.buck.rules.modern.builders;
 
 import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.LeafEvents;
 import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.rules.modern.builders.FileTreeBuilder.InputFile;
 import com.facebook.buck.rules.modern.builders.FileTreeBuilder.ProtocolTreeBuilder;
 import com.facebook.buck.rules.modern.builders.Protocol.Digest;
+import com.facebook.buck.rules.modern.builders.Protocol.OutputFile;
 import com.facebook.buck.rules.modern.builders.RemoteExecutionService.ExecutionResult;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.ExecutionContext;
@@ -31,6 +35,7 @@ import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.util.MoreSuppliers;
 import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.env.BuckClasspath;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -48,6 +53,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -71,6 +78,12 @@ public abstract class RemoteExecution implements IsolatedExecution {
 
   private final BuckEventBus eventBus;
 
+  private static final String COUNTER_CATEGORY = "buck_remote_outputs";
+  private final IntegerCounter fetchedFiles;
+  private final IntegerCounter fetchedBytes;
+  private final IntegerCounter reusedFiles;
+  private final IntegerCounter reusedBytes;
+
   public BuckEventBus getEventBus() {
     return eventBus;
   }
@@ -120,6 +133,15 @@ public abstract class RemoteExecution implements IsolatedExecution {
   protected RemoteExecution(BuckEventBus eventBus) throws IOException {
     this.eventBus = eventBus;
     this.trampoline = Files.readAllBytes(TRAMPOLINE);
+
+    ImmutableMap<String, String> tags = ImmutableMap.of();
+    this.fetchedFiles = new IntegerCounter(COUNTER_CATEGORY, "fetched_files", tags);
+    this.fetchedBytes = new IntegerCounter(COUNTER_CATEGORY, "fetched_bytes", tags);
+    this.reusedFiles = new IntegerCounter(COUNTER_CATEGORY, "reused_files", tags);
+    this.reusedBytes = new IntegerCounter(COUNTER_CATEGORY, "reused_bytes", tags);
+    eventBus.post(
+        new CounterRegistry.AsyncCounterRegistrationEvent(
+            ImmutableList.of(fetchedFiles, fetchedBytes, reusedFiles, reusedBytes)));
   }
 
   @Override
@@ -130,57 +152,85 @@ public abstract class RemoteExecution implements IsolatedExecution {
       Path projectRoot,
       HashCode hash,
       BuildTarget buildTarget,
-      Path cellPrefixRoot)
+      Path cellPrefixRoot,
+      FileDigestCache digestCache)
       throws IOException, InterruptedException, StepFailedException {
 
     HashMap<Digest, ThrowingSupplier<InputStream, IOException>> requiredDataBuilder;
     Digest commandDigest;
     Digest inputsRootDigest;
 
+    Map<Path, HashCode> reusableOutputs = new HashMap<>();
     try (Scope ignored = LeafEvents.scope(eventBus, "deleting_stale_outputs")) {
       for (Path path : outputs) {
-        MostFiles.deleteRecursivelyIfExists(cellPrefixRoot.resolve(path));
+        Path resolved = cellPrefixRoot.resolve(path);
+        Optional<HashCode> localDigest =
+            Files.isRegularFile(resolved)
+                ? digestCache.getIfUnchanged(resolved)
+                : Optional.empty();
+        if (localDigest.isPresent()) {
+          reusableOutputs.put(path, localDigest.get());
+        } else {
+          MostFiles.deleteRecursivelyIfExists(resolved);
+        }
       }
     }
 
-    try (Scope ignored = LeafEvents.scope(eventBus, "computing_action")) {
-      ImmutableList<Path> isolatedClasspath =
-          processClasspath(inputsBuilder, cellPrefixRoot, Holder.classPath);
-      ImmutableList<Path> isolatedBootstrapClasspath =
-          processClasspath(inputsBuilder, cellPrefixRoot, Holder.bootstrapClassPath);
-
-      Path trampolinePath = Paths.get("./__trampoline__.sh");
-      ImmutableList<String> command =
-          getBuilderCommand(trampolinePath, projectRoot, hash.toString());
-      ImmutableSortedMap<String, String> commandEnvironment =
-          getBuilderEnvironmentOverrides(isolatedBootstrapClasspath, isolatedClasspath);
-
-      inputsBuilder.addFile(
-          trampolinePath,
-          () -> trampoline,
-          data -> Hashing.sha1().hashBytes(data).toString(),
-          true);
-
-      Protocol.Command actionCommand = getProtocol().newCommand(command, commandEnvironment);
-
-      requiredDataBuilder = new HashMap<>();
-      ProtocolTreeBuilder grpcTreeBuilder =
-          new ProtocolTreeBuilder(requiredDataBuilder::put, directory -> {}, getProtocol());
-      inputsRootDigest = inputsBuilder.buildTree(grpcTreeBuilder);
-      byte[] commandData = getProtocol().toByteArray(actionCommand);
-      commandDigest = getProtocol().computeDigest(commandData);
-      requiredDataBuilder.put(commandDigest, () -> new ByteArrayInputStream(commandData));
-    }
+    ExecutionResult result11;
+    try {
+      try (Scope ignored = LeafEvents.scope(eventBus, "computing_action")) {
+        ImmutableList<Path> isolatedClasspath =
+            processClasspath(inputsBuilder, cellPrefixRoot, Holder.classPath);
+        ImmutableList<Path> isolatedBootstrapClasspath =
+            processClasspath(inputsBuilder, cellPrefixRoot, Holder.bootstrapClassPath);
 
-    try (Scope scope = LeafEvents.scope(eventBus, "uploading_inputs")) {
-      getStorage().addMissing(ImmutableMap.copyOf(requiredDataBuilder));
-    }
-    ExecutionResult result11 =
-        getExecutionService().execute(commandDigest, inputsRootDigest, outputs);
-    try (Scope scope = LeafEvents.scope(eventBus, "materializing_outputs")) {
-      getStorage()
-          .materializeOutputs(
-              result11.getOutputDirectories(), result11.getOutputFiles(), cellPrefixRoot);
+        Path trampolinePath = Paths.get("./__trampoline__.sh");
+        ImmutableList<String> command =
+            getBuilderCommand(trampolinePath, projectRoot, hash.toString());
+        ImmutableSortedMap<String, String> commandEnvironment =
+            getBuilderEnvironmentOverrides(isolatedBootstrapClasspath, isolatedClasspath);
+
+        inputsBuilder.addFile(
+            trampolinePath,
+            () -> trampoline,
+            data -> Hashing.sha1().hashBytes(data).toString(),
+            true);
+
+        Protocol.Command actionCommand = getProtocol().newCommand(command, commandEnvironment);
+
+        requiredDataBuilder = new HashMap<>();
+        ProtocolTreeBuilder grpcTreeBuilder =
+            new ProtocolTreeBuilder(requiredDataBuilder::put, directory -> {}, getProtocol());
+        inputsRootDigest = inputsBuilder.buildTree(grpcTreeBuilder);
+        byte[] commandData = getProtocol().toByteArray(actionCommand);
+        commandDigest = getProtocol().computeDigest(commandData);
+        requiredDataBuilder.put(commandDigest, () -> new ByteArrayInputStream(commandData));
+      }
+
+      try (Scope scope = LeafEvents.scope(eventBus, "uploading_inputs")) {
+        getStorage().addMissing(ImmutableMap.copyOf(requiredDataBuilder));
+      }
+      result11 = getExecutionService().execute(commandDigest, inputsRootDigest, outputs);
+      try (Scope scope = LeafEvents.scope(eventBus, "materializing_outputs")) {
+        List<OutputFile> requiredFiles =
+            selectRequiredOutputs(result11.getOutputFiles(), reusableOutputs, cellPrefixRoot);
+        getStorage()
+            .materializeOutputs(result11.getOutputDirectories(), requiredFiles, cellPrefixRoot);
+        if (canRecordDigests()) {
+          for (OutputFile file : requiredFiles) {
+            digestCache.record(
+                cellPrefixRoot.resolve(file.getPath()),
+                HashCode.fromString(file.getDigest().getHash()));
+          }
+        }
+      }
+    } catch (Throwable t) {
+      // Outputs kept around for reuse can't be trusted if we never got a result to compare them
+      // against.
+      for (Path path : reusableOutputs.keySet()) {
+        MostFiles.deleteRecursivelyIfExists(cellPrefixRoot.resolve(path));
+      }
+      throw t;
     }
     ExecutionResult result = result11;
 
@@ -198,6 +248,46 @@ public abstract class RemoteExecution implements IsolatedExecution {
     }
   }
 
+  /**
+   * Returns the outputs that actually need to be fetched. Files that are already present locally
+   * with the expected contents are left alone, and any other previously existing output is
+   * deleted.
+   */
+  private List<OutputFile> selectRequiredOutputs(
+      List<OutputFile> outputFiles, Map<Path, HashCode> reusableOutputs, Path cellPrefixRoot)
+      throws IOException {
+    ImmutableList.Builder<OutputFile> requiredFiles = ImmutableList.builder();
+    for (OutputFile file : outputFiles) {
+      Path path = Paths.get(file.getPath());
+      HashCode localDigest = reusableOutputs.remove(path);
+      if (localDigest != null && localDigest.toString().equals(file.getDigest().getHash())) {
+        reusedFiles.inc();
+        reusedBytes.inc(file.getDigest().getSize());
+      } else {
+        Files.deleteIfExists(cellPrefixRoot.resolve(path));
+        fetchedFiles.inc();
+        fetchedBytes.inc(file.getDigest().getSize());
+        requiredFiles.add(file);
+      }
+    }
+    for (Path stale : reusableOutputs.keySet()) {
+      MostFiles.deleteRecursivelyIfExists(cellPrefixRoot.resolve(stale));
+    }
+    return requiredFiles.build();
+  }
+
+  /**
+   * The digest cache holds sha1 hashes of file contents, so outputs can only be recorded in it if
+   * the protocol's digests are sha1 as well.
+   */
+  private boolean canRecordDigests() {
+    byte[] empty = new byte[0];
+    return getProtocol()
+        .computeDigest(empty)
+        .getHash()
+        .equals(Hashing.sha1().hashBytes(empty).toString());
+  }
+
   protected abstract Protocol getProtocol();
 
   protected abstract ContentAddressedStorage getStorage();
@@ -244,5 +334,20 @@ public abstract class RemoteExecution implements IsolatedExecution {
   }
 
   @Override
-  public void close() throws IOException {}
+  public void close() throws IOException {
+    if (reusedFiles.get() > 0) {
+      eventBus.post(
+          ConsoleEvent.info(
+              "Remote execution fetched %d output files (%s) and reused %d (%s) already present"
+                  + " locally.",
+              fetchedFiles.get(),
+              SizeUnit.toHumanReadableString(
+                  SizeUnit.getHumanReadableSize(fetchedBytes.get(), SizeUnit.BYTES),
+                  Locale.getDefault()),
+              reusedFiles.get(),
+              SizeUnit.toHumanReadableString(
+                  SizeUnit.getHumanReadableSize(reusedBytes.get(), SizeUnit.BYTES),
+                  Locale.getDefault())));
+    }
+  }
 }
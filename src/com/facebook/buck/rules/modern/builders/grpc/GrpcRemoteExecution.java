@@ -17,6 +17,7 @@
 package com.facebook.buck.rules.modern.builders.grpc;
 
 import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.rules.modern.builders.AsyncBlobFetcher;
 import com.facebook.buck.rules.modern.builders.CasBlobUploader;
@@ -41,11 +42,14 @@ import com.google.bytestream.ByteStreamGrpc;
 import com.google.bytestream.ByteStreamGrpc.ByteStreamStub;
 import com.google.bytestream.ByteStreamProto.ReadRequest;
 import com.google.bytestream.ByteStreamProto.ReadResponse;
+import com.google.bytestream.ByteStreamProto.WriteRequest;
+import com.google.bytestream.ByteStreamProto.WriteResponse;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
@@ -72,6 +76,9 @@ import com.google.protobuf.Any;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.io.InputStream;
@@ -81,6 +88,7 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 import org.immutables.value.Value;
@@ -91,10 +99,19 @@ public class GrpcRemoteExecution extends RemoteExecution {
   private final ContentAddressedStorage storage;
   private final GrpcRemoteExecutionService executionService;
 
+  /** Size of the chunks large blobs are streamed in. */
+  private static final int WRITE_CHUNK_SIZE = 1024 * 1024;
+
   private static String getReadResourceName(String instanceName, Protocol.Digest digest) {
     return String.format("%s/blobs/%s/%d", instanceName, digest.getHash(), digest.getSize());
   }
 
+  private static String getWriteResourceName(String instanceName, Protocol.Digest digest) {
+    return String.format(
+        "%s/uploads/%s/blobs/%s/%d",
+        instanceName, UUID.randomUUID(), digest.getHash(), digest.getSize());
+  }
+
   /** A parsed read resource path. */
   @Value.Immutable
   @BuckStyleTuple
@@ -203,7 +220,18 @@ public class GrpcRemoteExecution extends RemoteExecution {
                   throw new BuckUncheckedExecutionException(e);
                 }
               }
+
+              @Override
+              public UploadResult uploadLargeBlob(UploadData blob) throws IOException {
+                try {
+                  return writeByteStream(instanceName, blob, byteStreamStub).get();
+                } catch (InterruptedException | ExecutionException e) {
+                  MoreThrowables.throwIfInitialCauseInstanceOf(e, IOException.class);
+                  throw new BuckUncheckedExecutionException(e);
+                }
+              }
             });
+    getEventBus().post(new CounterRegistry.AsyncCounterRegistrationEvent(uploader.getCounters()));
 
     OutputsMaterializer outputsMaterializer =
         new OutputsMaterializer(
@@ -265,6 +293,92 @@ public class GrpcRemoteExecution extends RemoteExecution {
     return future;
   }
 
+  /**
+   * Streams a blob to the CAS with the ByteStream write API, WRITE_CHUNK_SIZE bytes at a time. Only
+   * one chunk is read ahead of what the channel is ready to send, so memory use does not depend on
+   * the size of the blob.
+   */
+  private static ListenableFuture<UploadResult> writeByteStream(
+      String instanceName, UploadData blob, ByteStreamStub byteStreamStub)
+      throws IOException, InterruptedException {
+    SettableFuture<UploadResult> future = SettableFuture.create();
+    Object readyLock = new Object();
+    ClientResponseObserver<WriteRequest, WriteResponse> responseObserver =
+        new ClientResponseObserver<WriteRequest, WriteResponse>() {
+          @Override
+          public void beforeStart(ClientCallStreamObserver<WriteRequest> requestStream) {
+            requestStream.setOnReadyHandler(
+                () -> {
+                  synchronized (readyLock) {
+                    readyLock.notifyAll();
+                  }
+                });
+          }
+
+          @Override
+          public void onNext(WriteResponse response) {
+            if (response.getCommittedSize() == blob.digest.getSize()) {
+              future.set(new UploadResult(blob.digest, 0, null));
+            } else {
+              future.set(
+                  new UploadResult(
+                      blob.digest,
+                      Status.Code.DATA_LOSS.value(),
+                      String.format(
+                          "Committed %d of %d bytes.",
+                          response.getCommittedSize(), blob.digest.getSize())));
+            }
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            future.setException(t);
+          }
+
+          @Override
+          public void onCompleted() {
+            future.setException(new IOException("Write finished without a response."));
+          }
+        };
+    ClientCallStreamObserver<WriteRequest> requestStream =
+        (ClientCallStreamObserver<WriteRequest>) byteStreamStub.write(responseObserver);
+
+    String resourceName = getWriteResourceName(instanceName, blob.digest);
+    try (InputStream dataStream = blob.data.get()) {
+      byte[] buffer = new byte[WRITE_CHUNK_SIZE];
+      long offset = 0;
+      boolean finished = false;
+      while (!finished) {
+        synchronized (readyLock) {
+          while (!requestStream.isReady() && !future.isDone()) {
+            readyLock.wait(100);
+          }
+        }
+        if (future.isDone()) {
+          // The server gave up on the write, its response tells us why.
+          break;
+        }
+        int read = ByteStreams.read(dataStream, buffer, 0, buffer.length);
+        finished = read < buffer.length || offset + read == blob.digest.getSize();
+        WriteRequest.Builder request =
+            WriteRequest.newBuilder()
+                .setWriteOffset(offset)
+                .setData(ByteString.copyFrom(buffer, 0, read))
+                .setFinishWrite(finished);
+        if (offset == 0) {
+          request.setResourceName(resourceName);
+        }
+        requestStream.onNext(request.build());
+        offset += read;
+      }
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      requestStream.onError(e);
+      throw e;
+    }
+    requestStream.onCompleted();
+    return future;
+  }
+
   private static class GrpcRemoteExecutionService implements RemoteExecutionService {
     private final ExecutionFutureStub executionStub;
     private final OperationsFutureStub operationsStub;
@@ -37,6 +37,9 @@ import com.google.bytestream.ByteStreamProto.WriteResponse;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
 import com.google.devtools.remoteexecution.v1test.Action;
 import com.google.devtools.remoteexecution.v1test.ActionResult;
 import com.google.devtools.remoteexecution.v1test.BatchUpdateBlobsRequest;
@@ -69,6 +72,7 @@ import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -80,6 +84,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /** A really simple implementation of remote execution (and CAS). Used for testing/debugging. */
 public class GrpcRemoteExecutionServiceImpl {
@@ -201,6 +206,19 @@ public class GrpcRemoteExecutionServiceImpl {
             .build());
   }
 
+  public static final Pattern WRITE_RESOURCE_NAME_PATTERN =
+      Pattern.compile("([^/]*)/uploads/[^/]*/blobs/([^/]*)/([0-9]*)");
+
+  /** Parses the digest out of a ByteStream write resource name. */
+  public static Digest parseWriteResourceName(String resource) {
+    Matcher matcher = WRITE_RESOURCE_NAME_PATTERN.matcher(resource);
+    Preconditions.checkState(matcher.matches(), "Invalid write resource name: %s", resource);
+    return Digest.newBuilder()
+        .setHash(matcher.group(2))
+        .setSizeBytes(Long.parseLong(matcher.group(3)))
+        .build();
+  }
+
   private class LocalBackedByteStreamImpl extends ByteStreamImplBase {
     @Override
     public void read(ReadRequest request, StreamObserver<ReadResponse> responseObserver) {
@@ -219,8 +237,77 @@ public class GrpcRemoteExecutionServiceImpl {
 
     @Override
     public StreamObserver<WriteRequest> write(StreamObserver<WriteResponse> responseObserver) {
-      // unimplemented.
-      return super.write(responseObserver);
+      return new StreamObserver<WriteRequest>() {
+        @Nullable private Digest digest;
+        @Nullable private Path tempFile;
+        @Nullable private HashingOutputStream output;
+        private long committedSize = 0;
+
+        @Override
+        public void onNext(WriteRequest request) {
+          try {
+            if (output == null) {
+              digest = parseWriteResourceName(request.getResourceName());
+              tempFile = Files.createTempFile(workDir, "upload", ".tmp");
+              output = new HashingOutputStream(Hashing.sha1(), Files.newOutputStream(tempFile));
+            }
+            Preconditions.checkState(
+                request.getWriteOffset() == committedSize,
+                "Expected write at offset %s, got %s.",
+                committedSize,
+                request.getWriteOffset());
+            request.getData().writeTo(output);
+            committedSize += request.getData().size();
+
+            if (request.getFinishWrite()) {
+              output.close();
+              Preconditions.checkState(
+                  committedSize == digest.getSizeBytes()
+                      && output.hash().toString().equals(digest.getHash()),
+                  "Uploaded data does not match digest %s.",
+                  digest);
+              Path data = tempFile;
+              UploadResult result =
+                  Iterables.getOnlyElement(
+                      storage.batchUpdateBlobs(
+                          ImmutableList.of(
+                              new UploadData(
+                                  new GrpcDigest(digest), () -> Files.newInputStream(data)))));
+              if (result.status != 0) {
+                throw new IOException(result.message);
+              }
+              cleanup();
+              responseObserver.onNext(
+                  WriteResponse.newBuilder().setCommittedSize(committedSize).build());
+              responseObserver.onCompleted();
+            }
+          } catch (Exception e) {
+            cleanup();
+            responseObserver.onError(new StatusRuntimeException(Status.fromThrowable(e)));
+          }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          cleanup();
+        }
+
+        @Override
+        public void onCompleted() {}
+
+        private void cleanup() {
+          try {
+            if (output != null) {
+              output.close();
+            }
+            if (tempFile != null) {
+              Files.deleteIfExists(tempFile);
+            }
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        }
+      };
     }
 
     @Override
@@ -30,6 +30,7 @@ import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.file.WriteFile;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.worker.WorkerProcessPoolPolicy;
 import com.google.common.hash.HashCode;
 import java.nio.file.Path;
 import java.util.SortedSet;
@@ -48,6 +49,7 @@ public class DefaultWorkerTool extends WriteFile
   private final Tool tool;
 
   private final int maxWorkers;
+  private final WorkerProcessPoolPolicy poolPolicy;
   private final boolean isPersistent;
   private final BuildOutputInitializer<UUID> buildOutputInitializer;
   private final Supplier<SortedSet<BuildRule>> depsSupplier;
@@ -58,6 +60,7 @@ public class DefaultWorkerTool extends WriteFile
       SourcePathRuleFinder ruleFinder,
       Tool tool,
       int maxWorkers,
+      WorkerProcessPoolPolicy poolPolicy,
       boolean isPersistent) {
     super(
         buildTarget,
@@ -72,6 +75,7 @@ public class DefaultWorkerTool extends WriteFile
           @AddToRuleKey SourcePath placeholder = getSourcePathToOutput();
         };
     this.maxWorkers = maxWorkers;
+    this.poolPolicy = poolPolicy;
     this.isPersistent = isPersistent;
     this.buildOutputInitializer = new BuildOutputInitializer<>(getBuildTarget(), this);
     this.depsSupplier = BuildableSupport.buildDepsSupplier(this, ruleFinder);
@@ -97,6 +101,11 @@ public class DefaultWorkerTool extends WriteFile
     return maxWorkers;
   }
 
+  @Override
+  public WorkerProcessPoolPolicy getPoolPolicy() {
+    return poolPolicy;
+  }
+
   @Override
   public boolean isPersistent() {
     return isPersistent;
@@ -410,7 +410,8 @@ public class Genrule extends AbstractBuildRuleWithDeclaredAndExtraDeps
                           WorkerProcessIdentity.of(
                               workerMacroArg.getPersistentWorkerKey().get(),
                               workerMacroArg.getWorkerHash()))
-                      : Optional.empty()));
+                      : Optional.empty(),
+                  workerMacroArg.getPoolPolicy()));
         });
   }
 
@@ -17,6 +17,7 @@
 package com.facebook.buck.shell;
 
 import com.facebook.buck.core.toolchain.tool.Tool;
+import com.facebook.buck.worker.WorkerProcessPoolPolicy;
 import com.google.common.hash.HashCode;
 import java.nio.file.Path;
 
@@ -27,6 +28,8 @@ public interface WorkerTool {
 
   int getMaxWorkers();
 
+  WorkerProcessPoolPolicy getPoolPolicy();
+
   boolean isPersistent();
 
   HashCode getInstanceKey();
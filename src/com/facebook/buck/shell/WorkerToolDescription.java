@@ -39,6 +39,7 @@ import com.facebook.buck.rules.macros.Macro;
 import com.facebook.buck.rules.macros.StringWithMacros;
 import com.facebook.buck.rules.macros.StringWithMacrosConverter;
 import com.facebook.buck.util.types.Either;
+import com.facebook.buck.worker.WorkerProcessPoolPolicy;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.util.Map;
@@ -51,6 +52,10 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
 
   private static final String CONFIG_SECTION = "worker";
   private static final String CONFIG_PERSISTENT_KEY = "persistent";
+  private static final String CONFIG_WARM_WORKERS_KEY = "warm_workers";
+  private static final String CONFIG_MAX_JOBS_PER_WORKER_KEY = "max_jobs_per_worker";
+  private static final String CONFIG_MAX_WORKER_MEMORY_MB_KEY = "max_worker_memory_mb";
+  private static final String CONFIG_IDLE_TIMEOUT_MS_KEY = "idle_timeout_ms";
 
   public static final ImmutableList<AbstractMacroExpander<? extends Macro, ?>> MACRO_EXPANDERS =
       ImmutableList.of(
@@ -139,10 +144,29 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
         new SourcePathRuleFinder(graphBuilder),
         tool,
         maxWorkers,
+        getPoolPolicy(),
         args.getPersistent()
             .orElse(buckConfig.getBooleanValue(CONFIG_SECTION, CONFIG_PERSISTENT_KEY, false)));
   }
 
+  private WorkerProcessPoolPolicy getPoolPolicy() {
+    return WorkerProcessPoolPolicy.builder()
+        .setWarmWorkers(
+            buckConfig.getLong(CONFIG_SECTION, CONFIG_WARM_WORKERS_KEY).orElse(0L).intValue())
+        .setMaxJobsPerWorker(
+            buckConfig
+                .getLong(CONFIG_SECTION, CONFIG_MAX_JOBS_PER_WORKER_KEY)
+                .orElse(0L)
+                .intValue())
+        .setMaxWorkerMemoryBytes(
+            buckConfig.getLong(CONFIG_SECTION, CONFIG_MAX_WORKER_MEMORY_MB_KEY).orElse(0L)
+                * 1024
+                * 1024)
+        .setIdleTimeoutMillis(
+            buckConfig.getLong(CONFIG_SECTION, CONFIG_IDLE_TIMEOUT_MS_KEY).orElse(0L))
+        .build();
+  }
+
   @BuckStyleImmutable
   @Value.Immutable
   interface AbstractWorkerToolDescriptionArg extends CommonDescriptionArg {
@@ -39,6 +39,7 @@ import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Closer;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.build.lib.profiler.Profiler;
 import java.io.Closeable;
 import java.io.IOException;
@@ -182,6 +183,12 @@ abstract class AbstractExecutionContext implements Closeable {
     return Optional.empty();
   }
 
+  /** @return the pool for CPU bound work, or a direct executor if this context doesn't have one. */
+  public ListeningExecutorService getCpuExecutorService() {
+    ListeningExecutorService executorService = getExecutors().get(ExecutorPool.CPU);
+    return executorService != null ? executorService : MoreExecutors.newDirectExecutorService();
+  }
+
   public void logError(Throwable error, String msg, Object... formatArgs) {
     getBuckEventBus().post(ThrowableConsoleEvent.create(error, msg, formatArgs));
   }
@@ -21,6 +21,7 @@ import com.facebook.buck.io.ArchiveMemberPath;
 import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nullable;
@@ -52,6 +53,11 @@ public class DelegatingFileHashCacheEngine implements FileHashCacheEngine {
     delegate.invalidateWithParents(path);
   }
 
+  @Override
+  public void invalidateAllWithParents(Collection<Path> paths) {
+    delegate.invalidateAllWithParents(paths);
+  }
+
   @Override
   public HashCode get(Path path) throws IOException {
     return delegate.get(path);
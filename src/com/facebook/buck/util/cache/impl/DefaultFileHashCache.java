@@ -55,10 +55,25 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
 
+  private final Optional<PersistentFileHashCacheEngine> persistentFileHashCacheEngine;
+
   protected DefaultFileHashCache(
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(projectFilesystem, ignoredPredicate, fileHashCacheMode, Optional.empty());
+  }
+
+  /**
+   * @param persistentIndexPath absolute path of the on-disk index used by {@link
+   *     FileHashCacheMode#PERSISTENT_PREFIX_TREE}. Caches that are not kept up to date by file
+   *     change events must not pass one, as their entries cannot be trusted across restarts.
+   */
+  protected DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<Path> persistentIndexPath) {
     this.projectFilesystem = projectFilesystem;
     this.ignoredPredicate = ignoredPredicate;
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
@@ -96,6 +111,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
             throw new RuntimeException(e);
           }
         };
+    PersistentFileHashCacheEngine persistentEngine = null;
     switch (fileHashCacheMode) {
       case PARALLEL_COMPARISON:
         fileHashCacheEngine = new ComboFileHashCache(hashLoader, sizeLoader, projectFilesystem);
@@ -123,9 +139,21 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
                         projectFilesystem, fileHashLoader, dirHashLoader, sizeLoader),
                     "limited"));
         break;
+      case PERSISTENT_PREFIX_TREE:
+        fileHashCacheEngine =
+            FileSystemMapFileHashCache.createWithStats(hashLoader, sizeLoader, projectFilesystem);
+        if (persistentIndexPath.isPresent()) {
+          persistentEngine =
+              new PersistentFileHashCacheEngine(
+                  fileHashCacheEngine, projectFilesystem, persistentIndexPath.get());
+          fileHashCacheEngine =
+              new StatsTrackingFileHashCacheEngine(persistentEngine, "persistent");
+        }
+        break;
       default:
         throw new RuntimeException("Unsupported file hash cache engine: " + fileHashCacheMode);
     }
+    this.persistentFileHashCacheEngine = Optional.ofNullable(persistentEngine);
   }
 
   public static DefaultFileHashCache createBuckOutFileHashCache(
@@ -341,6 +369,23 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
                     projectFilesystem.resolve(entry.getKey()), entry.getValue().getHashCode()));
   }
 
+  /**
+   * Writes the hashes known to this cache to its on-disk index, if it has one, so that they can be
+   * reused by the next daemon.
+   */
+  public void persist() throws IOException {
+    if (persistentFileHashCacheEngine.isPresent()) {
+      persistentFileHashCacheEngine.get().save();
+    }
+  }
+
+  /** Like {@link #persist()}, but leaves the on-disk index alone if nothing changed since. */
+  public void persistIfChanged() throws IOException {
+    if (persistentFileHashCacheEngine.isPresent()) {
+      persistentFileHashCacheEngine.get().saveIfChanged();
+    }
+  }
+
   public List<AbstractBuckEvent> getStatsEvents() {
     return fileHashCacheEngine.getStatsEvents();
   }
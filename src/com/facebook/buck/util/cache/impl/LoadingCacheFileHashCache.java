@@ -32,7 +32,10 @@ import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -130,6 +133,45 @@ class LoadingCacheFileHashCache implements FileHashCacheEngine {
     }
   }
 
+  @Override
+  public void invalidateAllWithParents(Collection<Path> paths) {
+    if (paths.isEmpty()) {
+      return;
+    }
+
+    // Same semantics as invalidateWithParents(), but a single pass over the cache checks every
+    // entry against all paths: an entry goes if it is one of the paths or is contained in one of
+    // them (see above for symlinks), or if it is a directory containing one of them.
+    Set<Path> roots = new HashSet<>(paths);
+    Set<Path> ancestors = new HashSet<>();
+    for (Path path : paths) {
+      for (Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+        if (!ancestors.add(parent)) {
+          break;
+        }
+      }
+    }
+
+    List<Path> pathsToInvalidate = new ArrayList<>();
+    for (Path entry : loadingCache.asMap().keySet()) {
+      if (ancestors.contains(entry) || isContainedIn(entry, roots)) {
+        pathsToInvalidate.add(entry);
+      }
+    }
+    for (Path pathToInvalidate : pathsToInvalidate) {
+      invalidate(pathToInvalidate);
+    }
+  }
+
+  private static boolean isContainedIn(Path path, Set<Path> roots) {
+    for (Path current = path; current != null; current = current.getParent()) {
+      if (roots.contains(current)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public void invalidate(Path path) {
     loadingCache.invalidate(path);
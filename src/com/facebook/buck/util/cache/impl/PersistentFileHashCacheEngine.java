@@ -0,0 +1,533 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.FileHashCacheEvent;
+import com.facebook.buck.io.ArchiveMemberPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.cache.DelegatingFileHashCacheEngine;
+import com.facebook.buck.util.cache.FileHashCacheEngine;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarHashCodeAndFileType;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link FileHashCacheEngine} that seeds its delegate from an on-disk, memory-mapped index of
+ * previously computed hashes, so that a freshly started daemon only re-hashes files that actually
+ * changed since the index was written.
+ *
+ * <p>Each persisted entry records the size, modification time and file key of the file at the time
+ * it was hashed. An entry is only reused if all of them still match, and never for a path that was
+ * invalidated since the index was loaded. Only regular files and archives are persisted; directory
+ * hashes depend on their children and are always recomputed.
+ *
+ * <p>The index is laid out as a header, a table of {@code (pathHash, offset)} pairs sorted by path
+ * hash and a data region holding the entries, so lookups are a binary search over the mapped file
+ * and never require loading the whole index onto the heap.
+ */
+class PersistentFileHashCacheEngine extends DelegatingFileHashCacheEngine {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashCacheEngine.class);
+
+  private static final int MAGIC = 0x42484643; // "BHFC"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12;
+  private static final int INDEX_ENTRY_SIZE = 12;
+
+  /**
+   * Files modified this recently are not persisted, as a subsequent change within the resolution
+   * of the filesystem's timestamps would not be detectable on reload.
+   */
+  private static final long RACY_MODIFICATION_WINDOW_MS = 2000;
+
+  private static final HashFunction PATH_HASH_FUNCTION = Hashing.murmur3_128();
+
+  private final ProjectFilesystem filesystem;
+  private final Path indexPath;
+
+  /** Stamps of files whose hashes are currently held by the delegate and may be persisted. */
+  private final Map<Path, FileStamp> stamps = new ConcurrentHashMap<>();
+
+  /** Paths that must not be seeded from the loaded index anymore. */
+  private final Set<Path> invalidatedPaths = ConcurrentHashMap.newKeySet();
+
+  private volatile @Nullable ByteBuffer index;
+
+  /** Whether the on-disk index is missing anything this engine knows, or holds stale entries. */
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong revalidations = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong hitLookupNanoTime = new AtomicLong();
+  private final AtomicLong revalidationLookupNanoTime = new AtomicLong();
+  private final AtomicLong missLookupNanoTime = new AtomicLong();
+
+  PersistentFileHashCacheEngine(
+      FileHashCacheEngine delegate, ProjectFilesystem filesystem, Path indexPath) {
+    super(delegate);
+    this.filesystem = filesystem;
+    this.indexPath = indexPath;
+    this.index = loadIndex(indexPath);
+  }
+
+  @Nullable
+  private static ByteBuffer loadIndex(Path indexPath) {
+    if (!Files.isRegularFile(indexPath)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+        LOG.warn("Ignoring file hash cache index %s of unexpected size.", indexPath);
+        return null;
+      }
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+        LOG.warn("Ignoring file hash cache index %s with unknown format.", indexPath);
+        return null;
+      }
+      long entryCount = buffer.getInt(8);
+      if (HEADER_SIZE + entryCount * INDEX_ENTRY_SIZE > buffer.capacity()) {
+        LOG.warn("Ignoring truncated file hash cache index %s.", indexPath);
+        return null;
+      }
+      LOG.debug("Loaded file hash cache index %s with %d entries.", indexPath, entryCount);
+      return buffer;
+    } catch (IOException | UnsupportedOperationException e) {
+      LOG.warn(e, "Unable to load file hash cache index %s.", indexPath);
+      return null;
+    }
+  }
+
+  @Override
+  public void put(Path path, HashCodeAndFileType value) {
+    forget(path);
+    super.put(path, value);
+  }
+
+  @Override
+  public void invalidate(Path path) {
+    forget(path);
+    super.invalidate(path);
+  }
+
+  @Override
+  public void invalidateWithParents(Path path) {
+    forgetWithParents(path);
+    super.invalidateWithParents(path);
+  }
+
+  @Override
+  public void invalidateAllWithParents(Collection<Path> paths) {
+    for (Path path : paths) {
+      forgetWithParents(path);
+    }
+    super.invalidateAllWithParents(paths);
+  }
+
+  @Override
+  public void invalidateAll() {
+    // We can no longer tell which of the persisted entries are still valid.
+    index = null;
+    stamps.clear();
+    invalidatedPaths.clear();
+    dirty.set(true);
+    super.invalidateAll();
+  }
+
+  @Override
+  public HashCode get(Path path) throws IOException {
+    prepare(path);
+    return super.get(path);
+  }
+
+  @Override
+  public HashCode get(ArchiveMemberPath archiveMemberPath) throws IOException {
+    prepare(archiveMemberPath.getArchivePath().normalize());
+    return super.get(archiveMemberPath);
+  }
+
+  private void forget(Path path) {
+    boolean changed = stamps.remove(path) != null;
+    if (index != null) {
+      changed |= invalidatedPaths.add(path);
+    }
+    if (changed) {
+      dirty.set(true);
+    }
+  }
+
+  private void forgetWithParents(Path path) {
+    for (Path current = path; current != null; current = current.getParent()) {
+      forget(current);
+    }
+  }
+
+  /**
+   * Makes sure that the delegate either already has a value for the given path, was seeded from
+   * the persisted index, or that the stamp of the file is recorded before it gets hashed.
+   */
+  private void prepare(Path path) {
+    if (super.getIfPresent(path) != null) {
+      return;
+    }
+    FileStamp stamp = FileStamp.of(filesystem, path);
+    if (stamp == null) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    PersistedEntry persisted = lookup(path);
+    long lookupNanos = System.nanoTime() - start;
+
+    if (persisted == null) {
+      misses.incrementAndGet();
+      missLookupNanoTime.addAndGet(lookupNanos);
+    } else if (persisted.stamp.equals(stamp)) {
+      hits.incrementAndGet();
+      hitLookupNanoTime.addAndGet(lookupNanos);
+      super.put(path, persisted.toHashCodeAndFileType(filesystem, path));
+    } else {
+      revalidations.incrementAndGet();
+      revalidationLookupNanoTime.addAndGet(lookupNanos);
+    }
+
+    if (!stamp.isRacy()) {
+      stamps.put(path, stamp);
+      // Hits are already in the index, anything else will only be there once the index is saved.
+      if (persisted == null || !persisted.stamp.equals(stamp)) {
+        dirty.set(true);
+      }
+    }
+  }
+
+  @Nullable
+  private PersistedEntry lookup(Path path) {
+    ByteBuffer buffer = index;
+    if (buffer == null || invalidatedPaths.contains(path)) {
+      return null;
+    }
+    byte[] pathBytes = path.toString().getBytes(StandardCharsets.UTF_8);
+    long pathHash = PATH_HASH_FUNCTION.hashBytes(pathBytes).asLong();
+
+    int low = 0;
+    int high = buffer.getInt(8) - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midHash = buffer.getLong(HEADER_SIZE + mid * INDEX_ENTRY_SIZE);
+      if (midHash < pathHash) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    // "low" is now the first slot with a hash that is not smaller; check all colliding slots.
+    for (int slot = low; slot < buffer.getInt(8); slot++) {
+      int slotOffset = HEADER_SIZE + slot * INDEX_ENTRY_SIZE;
+      if (buffer.getLong(slotOffset) != pathHash) {
+        break;
+      }
+      int dataOffset = buffer.getInt(slotOffset + 8);
+      if (pathMatches(buffer, dataOffset, pathBytes)) {
+        return PersistedEntry.read(buffer, dataOffset + 2 + pathBytes.length);
+      }
+    }
+    return null;
+  }
+
+  private static boolean pathMatches(ByteBuffer buffer, int offset, byte[] pathBytes) {
+    if (buffer.getChar(offset) != pathBytes.length) {
+      return false;
+    }
+    for (int i = 0; i < pathBytes.length; i++) {
+      if (buffer.get(offset + 2 + i) != pathBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Like {@link #save()}, but only if anything was hashed, seeded with a different stamp or
+   * invalidated since the index was last loaded or saved.
+   *
+   * @return whether the index was written.
+   */
+  synchronized boolean saveIfChanged() throws IOException {
+    if (!dirty.get()) {
+      return false;
+    }
+    save();
+    return true;
+  }
+
+  /**
+   * Writes all persistable hashes known to this engine to disk, replacing the existing index.
+   * Entries from the previously loaded index that were never requested nor invalidated are carried
+   * over.
+   */
+  synchronized void save() throws IOException {
+    // Cleared before collecting the entries, so that changes racing with the save mark it again.
+    dirty.set(false);
+    List<SerializedEntry> entries = new ArrayList<>();
+    Set<String> seen = new HashSet<>();
+
+    for (Map.Entry<Path, FileStamp> entry : stamps.entrySet()) {
+      HashCodeAndFileType value = super.getIfPresent(entry.getKey());
+      if (value == null || value.getType() == HashCodeAndFileType.TYPE_DIRECTORY) {
+        continue;
+      }
+      String path = entry.getKey().toString();
+      seen.add(path);
+      entries.add(
+          SerializedEntry.of(path, new PersistedEntry(entry.getValue(), value.getType(), value)));
+    }
+
+    ByteBuffer buffer = index;
+    if (buffer != null) {
+      int entryCount = buffer.getInt(8);
+      for (int slot = 0; slot < entryCount; slot++) {
+        int dataOffset = buffer.getInt(HEADER_SIZE + slot * INDEX_ENTRY_SIZE + 8);
+        int pathLength = buffer.getChar(dataOffset);
+        byte[] pathBytes = new byte[pathLength];
+        for (int i = 0; i < pathLength; i++) {
+          pathBytes[i] = buffer.get(dataOffset + 2 + i);
+        }
+        String path = new String(pathBytes, StandardCharsets.UTF_8);
+        if (seen.contains(path) || invalidatedPaths.contains(filesystem.getPath(path))) {
+          continue;
+        }
+        entries.add(
+            SerializedEntry.of(path, PersistedEntry.read(buffer, dataOffset + 2 + pathLength)));
+      }
+    }
+
+    entries.sort(Comparator.comparingLong(e -> e.pathHash));
+
+    Files.createDirectories(indexPath.getParent());
+    Path tmpPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entries.size());
+      int dataOffset = HEADER_SIZE + entries.size() * INDEX_ENTRY_SIZE;
+      for (SerializedEntry entry : entries) {
+        out.writeLong(entry.pathHash);
+        out.writeInt(dataOffset);
+        dataOffset += entry.data.length;
+      }
+      for (SerializedEntry entry : entries) {
+        out.write(entry.data);
+      }
+    }
+    Files.move(
+        tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("Saved %d entries to file hash cache index %s.", entries.size(), indexPath);
+  }
+
+  @Override
+  public List<AbstractBuckEvent> getStatsEvents() {
+    ImmutableList.Builder<AbstractBuckEvent> eventsBuilder =
+        ImmutableList.<AbstractBuckEvent>builder().addAll(super.getStatsEvents());
+    addCountEvent(eventsBuilder, "persistent.hit", hits, hitLookupNanoTime);
+    addCountEvent(
+        eventsBuilder, "persistent.revalidate", revalidations, revalidationLookupNanoTime);
+    addCountEvent(eventsBuilder, "persistent.miss", misses, missLookupNanoTime);
+    return eventsBuilder.build();
+  }
+
+  private static void addCountEvent(
+      ImmutableList.Builder<AbstractBuckEvent> eventsBuilder,
+      String subcategory,
+      AtomicLong count,
+      AtomicLong lookupNanoTime) {
+    long countValue = count.getAndSet(0);
+    long lookupTime = lookupNanoTime.getAndSet(0);
+    if (countValue > 0) {
+      eventsBuilder.add(new FileHashCacheEvent(subcategory, lookupTime, lookupTime, countValue));
+    }
+  }
+
+  @VisibleForTesting
+  Path getIndexPath() {
+    return indexPath;
+  }
+
+  /** The attributes of a file that are checked to decide whether a persisted hash is reusable. */
+  private static final class FileStamp {
+    private final long size;
+    private final long modifiedTimeMillis;
+    private final long fileKeyHash;
+    private final boolean racy;
+
+    private FileStamp(long size, long modifiedTimeMillis, long fileKeyHash, boolean racy) {
+      this.size = size;
+      this.modifiedTimeMillis = modifiedTimeMillis;
+      this.fileKeyHash = fileKeyHash;
+      this.racy = racy;
+    }
+
+    @Nullable
+    static FileStamp of(ProjectFilesystem filesystem, Path path) {
+      BasicFileAttributes attrs;
+      try {
+        attrs =
+            filesystem.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      } catch (IOException e) {
+        return null;
+      }
+      if (!attrs.isRegularFile()) {
+        return null;
+      }
+      long modifiedTimeMillis = attrs.lastModifiedTime().toMillis();
+      return new FileStamp(
+          attrs.size(),
+          modifiedTimeMillis,
+          Objects.hashCode(attrs.fileKey()),
+          System.currentTimeMillis() - modifiedTimeMillis < RACY_MODIFICATION_WINDOW_MS);
+    }
+
+    boolean isRacy() {
+      return racy;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof FileStamp)) {
+        return false;
+      }
+      FileStamp that = (FileStamp) other;
+      return size == that.size
+          && modifiedTimeMillis == that.modifiedTimeMillis
+          && fileKeyHash == that.fileKeyHash;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(size, modifiedTimeMillis, fileKeyHash);
+    }
+  }
+
+  /** An entry of the index, without its path. */
+  private static final class PersistedEntry {
+    private final FileStamp stamp;
+    private final byte type;
+    private final HashCode hashCode;
+
+    private PersistedEntry(FileStamp stamp, byte type, HashCodeAndFileType value) {
+      this(stamp, type, value.getHashCode());
+    }
+
+    private PersistedEntry(FileStamp stamp, byte type, HashCode hashCode) {
+      this.stamp = stamp;
+      this.type = type;
+      this.hashCode = hashCode;
+    }
+
+    static PersistedEntry read(ByteBuffer buffer, int offset) {
+      long size = buffer.getLong(offset);
+      long modifiedTimeMillis = buffer.getLong(offset + 8);
+      long fileKeyHash = buffer.getLong(offset + 16);
+      byte type = buffer.get(offset + 24);
+      byte[] hash = new byte[buffer.get(offset + 25)];
+      for (int i = 0; i < hash.length; i++) {
+        hash[i] = buffer.get(offset + 26 + i);
+      }
+      return new PersistedEntry(
+          new FileStamp(size, modifiedTimeMillis, fileKeyHash, false),
+          type,
+          HashCode.fromBytes(hash));
+    }
+
+    HashCodeAndFileType toHashCodeAndFileType(ProjectFilesystem filesystem, Path path) {
+      if (type == HashCodeAndFileType.TYPE_ARCHIVE) {
+        return JarHashCodeAndFileType.ofArchive(
+            hashCode, new DefaultJarContentHasher(filesystem, path));
+      }
+      return HashCodeAndFileType.ofFile(hashCode);
+    }
+
+    void write(ByteBuffer buffer) {
+      byte[] hash = hashCode.asBytes();
+      buffer.putLong(stamp.size);
+      buffer.putLong(stamp.modifiedTimeMillis);
+      buffer.putLong(stamp.fileKeyHash);
+      buffer.put(type);
+      buffer.put((byte) hash.length);
+      buffer.put(hash);
+    }
+
+    int getSerializedSize() {
+      return 26 + hashCode.bits() / 8;
+    }
+  }
+
+  /** A fully encoded data region entry, together with the hash of its path. */
+  private static final class SerializedEntry {
+    private final long pathHash;
+    private final byte[] data;
+
+    private SerializedEntry(long pathHash, byte[] data) {
+      this.pathHash = pathHash;
+      this.data = data;
+    }
+
+    static SerializedEntry of(String path, PersistedEntry entry) {
+      byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+      ByteBuffer buffer = ByteBuffer.allocate(2 + pathBytes.length + entry.getSerializedSize());
+      buffer.putChar((char) pathBytes.length);
+      buffer.put(pathBytes);
+      entry.write(buffer);
+      return new SerializedEntry(PATH_HASH_FUNCTION.hashBytes(pathBytes).asLong(), buffer.array());
+    }
+  }
+}
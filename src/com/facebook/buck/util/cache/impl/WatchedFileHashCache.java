@@ -18,11 +18,15 @@ package com.facebook.buck.util.cache.impl;
 
 import com.facebook.buck.io.WatchmanOverflowEvent;
 import com.facebook.buck.io.WatchmanPathEvent;
+import com.facebook.buck.io.WatchmanPathEventBatch;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.google.common.eventbus.Subscribe;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
@@ -30,7 +34,16 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
 
   public WatchedFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
-    super(projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+    super(
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        Optional.of(getPersistentIndexPath(projectFilesystem)));
+  }
+
+  private static Path getPersistentIndexPath(ProjectFilesystem projectFilesystem) {
+    return projectFilesystem.resolve(
+        projectFilesystem.getBuckPaths().getCacheDir().resolve("file_hash_cache.idx"));
   }
 
   /**
@@ -46,6 +59,20 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     fileHashCacheEngine.invalidateWithParents(path);
   }
 
+  /**
+   * Invalidates all paths of a batch at once. Changed directories are invalidated along with
+   * everything below them.
+   */
+  @Subscribe
+  public synchronized void onFileSystemChange(WatchmanPathEventBatch batch) {
+    Set<Path> paths = new HashSet<>(batch.getChangedDirectories());
+    for (WatchmanPathEvent event : batch.getEvents()) {
+      paths.add(event.getPath().normalize());
+    }
+    LOG.verbose("Invalidating %d paths", paths.size());
+    fileHashCacheEngine.invalidateAllWithParents(paths);
+  }
+
   @SuppressWarnings("unused")
   @Subscribe
   public synchronized void onFileSystemChange(WatchmanOverflowEvent event) {
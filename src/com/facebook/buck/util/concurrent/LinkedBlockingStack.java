@@ -41,6 +41,11 @@ public class LinkedBlockingStack<E> implements BlockingQueue<E> {
     return true;
   }
 
+  /** Adds an element to the bottom of the stack, so that it is taken after all the others. */
+  public void addLast(E element) {
+    delegate.addLast(element);
+  }
+
   @Override
   public boolean offer(E element) {
     return delegate.offerFirst(element);
@@ -99,6 +99,41 @@ public class MostExecutors {
         /* handler */ new ThreadPoolExecutor.DiscardPolicy());
   }
 
+  /**
+   * Creates a single threaded executor that holds at most {@code maxQueuedTasks} tasks waiting to
+   * run. Submitting a task while that many are waiting blocks until there is room. Tasks submitted
+   * after the executor was shut down, or still waiting for room when it is, are silently discarded.
+   */
+  public static ExecutorService newSingleThreadExecutor(
+      ThreadFactory threadFactory, int maxQueuedTasks) {
+    return new ThreadPoolExecutor(
+        /* corePoolSize */ 1,
+        /* maximumPoolSize */ 1,
+        /* keepAliveTime */ 0L,
+        TimeUnit.MILLISECONDS,
+        /* workQueue */ new LinkedBlockingQueue<Runnable>(maxQueuedTasks),
+        /* threadFactory */ threadFactory,
+        /* handler */ MostExecutors::waitForRoomInQueue);
+  }
+
+  private static void waitForRoomInQueue(Runnable task, ThreadPoolExecutor executor) {
+    // The executor can be shut down while we wait, after which its thread may have exited and
+    // nothing would ever take the task from the queue. So only wait a little at a time, and take
+    // the task back out if the executor was shut down while it was being queued.
+    try {
+      while (!executor.isShutdown()) {
+        if (executor.getQueue().offer(task, 100, TimeUnit.MILLISECONDS)) {
+          if (executor.isShutdown()) {
+            executor.getQueue().remove(task);
+          }
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   /**
    * Shutdown {@code service} and wait for all it's tasks to terminate. In the event of {@link
    * InterruptedException}, propagate the interrupt to all tasks, wait for them to finish, then
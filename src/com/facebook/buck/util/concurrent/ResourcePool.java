@@ -54,11 +54,16 @@ import javax.annotation.concurrent.GuardedBy;
  * of errors when "using" a resource it is assumed to be defective, will be retired and a new
  * resource will be requested from the supplier. The Future associated with the failed attempt to
  * use the resource will contain the relevant exception.
+ *
+ * <p>Requests scheduled with a {@link Request} handle that is {@link Request#prioritize()
+ * prioritized} are served before all others, even if they were already waiting. The maximum
+ * number of resources can be changed with {@link #setMaxResources(int)} while the pool is in use.
  */
 public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   private static final Logger LOG = Logger.get(ResourcePool.class);
 
-  private final int maxResources;
+  @GuardedBy("this")
+  private int maxResources;
   private final ResourceUsageErrorPolicy resourceUsageErrorPolicy;
 
   @GuardedBy("this")
@@ -73,6 +78,9 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   @GuardedBy("this")
   private final Deque<SettableFuture<Void>> resourceRequests;
 
+  @GuardedBy("this")
+  private final Deque<SettableFuture<Void>> prioritizedResourceRequests;
+
   private final AtomicBoolean closing;
 
   @GuardedBy("this")
@@ -98,6 +106,7 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
     this.createdResources = new ArrayList<>();
     this.parkedResources = new ArrayDeque<>();
     this.resourceRequests = new ArrayDeque<>();
+    this.prioritizedResourceRequests = new ArrayDeque<>();
     this.closing = new AtomicBoolean(false);
     this.shutdownFuture = null;
     this.pendingWork = new HashSet<>();
@@ -118,15 +127,27 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
    */
   public synchronized <T> ListenableFuture<T> scheduleOperationWithResource(
       ThrowingFunction<R, T> withResource, ListeningExecutorService executorService) {
+    return scheduleOperationWithResource(withResource, executorService, new Request(false));
+  }
+
+  /**
+   * Like {@link #scheduleOperationWithResource(ThrowingFunction, ListeningExecutorService)}, but
+   * lets the caller change the priority of the operation through {@code request} while it waits
+   * for a resource.
+   */
+  public synchronized <T> ListenableFuture<T> scheduleOperationWithResource(
+      ThrowingFunction<R, T> withResource,
+      ListeningExecutorService executorService,
+      Request request) {
     Preconditions.checkState(!closing.get());
 
     ListenableFuture<T> futureWork =
         Futures.transformAsync(
-            initialSchedule(),
+            initialSchedule(request),
             new AsyncFunction<Void, T>() {
               @Override
               public ListenableFuture<T> apply(Void input) throws Exception {
-                Either<R, ListenableFuture<Void>> resourceRequest = requestResource();
+                Either<R, ListenableFuture<Void>> resourceRequest = requestResource(request);
                 if (resourceRequest.isLeft()) {
                   R resource = resourceRequest.getLeft();
                   boolean resourceIsDefunct = false;
@@ -160,7 +181,7 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
     return Futures.nonCancellationPropagating(futureWork);
   }
 
-  private synchronized ListenableFuture<Void> initialSchedule() {
+  private synchronized ListenableFuture<Void> initialSchedule(Request request) {
     // If we'll (potentially) be allowed to create a resource or there are some parked then we'll
     // take the chance and attempt to run immediately.
     if (allowedToCreateResource() || !parkedResources.isEmpty()) {
@@ -169,26 +190,62 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
     // All possible resources are currently occupied. Because we're in a synchronized block, even
     // if one becomes available immediately after this call returns it will simply make this future
     // runnable, so we'll be able to progress.
-    return scheduleNewResourceRequest();
+    return scheduleNewResourceRequest(request);
   }
 
-  private synchronized Either<R, ListenableFuture<Void>> requestResource() {
+  private synchronized Either<R, ListenableFuture<Void>> requestResource(Request request) {
     Optional<R> resource = obtainResource();
     if (resource.isPresent()) {
+      request.waitingFor = null;
       return Either.ofLeft(resource.get());
     }
-    return Either.ofRight(scheduleNewResourceRequest());
+    return Either.ofRight(scheduleNewResourceRequest(request));
   }
 
-  private synchronized ListenableFuture<Void> scheduleNewResourceRequest() {
+  private synchronized ListenableFuture<Void> scheduleNewResourceRequest(Request request) {
     if (closing.get()) {
       return Futures.immediateCancelledFuture();
     }
     SettableFuture<Void> resourceFuture = SettableFuture.create();
-    resourceRequests.add(resourceFuture);
+    if (request.isPrioritized) {
+      prioritizedResourceRequests.add(resourceFuture);
+    } else {
+      resourceRequests.add(resourceFuture);
+    }
+    request.waitingFor = resourceFuture;
     return resourceFuture;
   }
 
+  /** @return the number of operations that are waiting for a resource. */
+  public synchronized int getWaitingRequestCount() {
+    return resourceRequests.size() + prioritizedResourceRequests.size();
+  }
+
+  /** @return the number of resources that are currently in use by an operation. */
+  public synchronized int getBusyResourceCount() {
+    return createdResources.size() - parkedResources.size();
+  }
+
+  /**
+   * Changes the maximum number of resources. Raising it lets waiting operations create new
+   * resources right away. Lowering it closes parked resources over the new maximum, and busy ones
+   * once they are returned.
+   */
+  public synchronized void setMaxResources(int maxResources) {
+    Preconditions.checkArgument(maxResources > 0);
+    int previousMaxResources = this.maxResources;
+    this.maxResources = maxResources;
+    if (closing.get()) {
+      return;
+    }
+    for (int i = previousMaxResources; i < maxResources; i++) {
+      scheduleNextRequest();
+    }
+    while (createdResources.size() > maxResources && !parkedResources.isEmpty()) {
+      retireResource(parkedResources.pollLast());
+    }
+  }
+
   private synchronized Optional<R> obtainResource() {
     if (closing.get()) {
       return Optional.empty();
@@ -201,22 +258,29 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   }
 
   private synchronized void returnResource(R resource, boolean resourceIsDefunct) {
-    if (resourceIsDefunct) {
-      createdResources.remove(resource);
-      try {
-        resource.close();
-      } catch (Exception e) {
-        LOG.info(e, "Error shutting down a defunct resource.");
-      }
+    if (resourceIsDefunct || createdResources.size() > maxResources) {
+      retireResource(resource);
     } else {
       parkedResources.add(resource);
     }
     scheduleNextRequest();
   }
 
+  private synchronized void retireResource(R resource) {
+    createdResources.remove(resource);
+    try {
+      resource.close();
+    } catch (Exception e) {
+      LOG.info(e, "Error shutting down a defunct resource.");
+    }
+  }
+
   private synchronized void scheduleNextRequest() {
     while (true) {
-      SettableFuture<Void> nextRequest = resourceRequests.pollFirst();
+      SettableFuture<Void> nextRequest = prioritizedResourceRequests.pollFirst();
+      if (nextRequest == null) {
+        nextRequest = resourceRequests.pollFirst();
+      }
       // Queue empty.
       if (nextRequest == null) {
         return;
@@ -254,6 +318,10 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
     closing.set(true);
 
     // Unblock all waiting requests.
+    for (SettableFuture<Void> request : prioritizedResourceRequests) {
+      request.set(null);
+    }
+    prioritizedResourceRequests.clear();
     for (SettableFuture<Void> request : resourceRequests) {
       request.set(null);
     }
@@ -302,6 +370,38 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
             executorService);
   }
 
+  /** @return a handle for scheduling an operation that can be prioritized later. */
+  public Request newRequest(boolean isPrioritized) {
+    return new Request(isPrioritized);
+  }
+
+  /** Tracks the priority of an operation that may be waiting for a resource. */
+  public class Request {
+    @GuardedBy("ResourcePool.this")
+    private boolean isPrioritized;
+
+    @GuardedBy("ResourcePool.this")
+    @Nullable
+    private SettableFuture<Void> waitingFor;
+
+    private Request(boolean isPrioritized) {
+      this.isPrioritized = isPrioritized;
+    }
+
+    /** Serves the operation before all operations that have not been prioritized. */
+    public void prioritize() {
+      synchronized (ResourcePool.this) {
+        if (isPrioritized) {
+          return;
+        }
+        isPrioritized = true;
+        if (waitingFor != null && resourceRequests.remove(waitingFor)) {
+          prioritizedResourceRequests.add(waitingFor);
+        }
+      }
+    }
+  }
+
   /** Describes how to handle errors that take place during resource usage. */
   public enum ResourceUsageErrorPolicy {
     RETIRE,
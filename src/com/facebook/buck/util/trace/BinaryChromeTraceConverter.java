@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.trace;
+
+import static com.facebook.buck.util.trace.BinaryChromeTraceFormat.readByte;
+import static com.facebook.buck.util.trace.BinaryChromeTraceFormat.readString;
+import static com.facebook.buck.util.trace.BinaryChromeTraceFormat.readVarint;
+
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Turns traces written in the {@link BinaryChromeTraceFormat} back into the JSON Array Format that
+ * chrome://tracing and the rest of the trace tooling understand.
+ *
+ * <p>The conversion is streamed one event at a time, so it doesn't need to hold the trace in
+ * memory. A trace that was cut short, for example because Buck was killed, is converted up to its
+ * last complete record.
+ */
+public class BinaryChromeTraceConverter {
+
+  private BinaryChromeTraceConverter() {}
+
+  /**
+   * Converts a binary trace given as the first argument, which may be compressed, to a JSON trace at
+   * the second.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: BinaryChromeTraceConverter <trace> <output.json>");
+      System.exit(1);
+    }
+    try (InputStream in = Files.newInputStream(Paths.get(args[0]));
+        OutputStream out = Files.newOutputStream(Paths.get(args[1]))) {
+      convert(in, out);
+    }
+  }
+
+  /** @return whether {@code in}, which must support marks, is at the start of a binary trace. */
+  public static boolean isBinaryTrace(InputStream in) throws IOException {
+    byte[] magic = BinaryChromeTraceFormat.MAGIC;
+    in.mark(magic.length);
+    byte[] start = new byte[magic.length];
+    int read = ByteStreams.read(in, start, 0, start.length);
+    in.reset();
+    return read == magic.length && Arrays.equals(magic, start);
+  }
+
+  /** @return whether {@code in}, which must support marks, is at the start of gzipped data. */
+  private static boolean isGzipped(InputStream in) throws IOException {
+    in.mark(2);
+    int first = in.read();
+    int second = in.read();
+    in.reset();
+    return first == (GZIPInputStream.GZIP_MAGIC & 0xFF)
+        && second == (GZIPInputStream.GZIP_MAGIC >> 8);
+  }
+
+  /**
+   * @return a stream of the JSON form of the trace in {@code in}, which may already be in the JSON
+   *     format. Traces written with {@code log.compress_traces} are decompressed first.
+   */
+  public static InputStream openAsJson(InputStream in) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(in);
+    if (isGzipped(buffered)) {
+      buffered = new BufferedInputStream(new GZIPInputStream(buffered));
+    }
+    if (!isBinaryTrace(buffered)) {
+      return buffered;
+    }
+    return new JsonInputStream(buffered);
+  }
+
+  /** Writes the JSON form of the trace in {@code in} to {@code out}. */
+  public static void convert(InputStream in, OutputStream out) throws IOException {
+    ByteStreams.copy(openAsJson(in), out);
+  }
+
+  /** Produces the JSON of the next record whenever the previous one has been read. */
+  private static class JsonInputStream extends InputStream {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+    private final Buffer buffer = new Buffer();
+    private final JsonGenerator generator;
+    private int position = 0;
+    private boolean finished = false;
+    private long microTime = 0;
+    private long microThreadUserTime = 0;
+
+    JsonInputStream(InputStream in) throws IOException {
+      this.in = new DataInputStream(in);
+      ByteStreams.skipFully(this.in, BinaryChromeTraceFormat.MAGIC.length);
+      int version = readByte(this.in);
+      if (version != BinaryChromeTraceFormat.VERSION) {
+        throw new IOException("Unsupported binary trace version: " + version);
+      }
+      this.generator = ObjectMappers.createGenerator(buffer);
+      generator.writeStartArray();
+      generator.flush();
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return buffer.byteAt(position++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.size() - position);
+      buffer.copyTo(position, bytes, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    /** @return false once all of the JSON has been read. */
+    private boolean fill() throws IOException {
+      while (position == buffer.size()) {
+        if (finished) {
+          return false;
+        }
+        buffer.reset();
+        position = 0;
+        convertNextRecord();
+        generator.flush();
+      }
+      return true;
+    }
+
+    private void convertNextRecord() throws IOException {
+      try {
+        int tag = in.read();
+        if (tag < 0 || tag == BinaryChromeTraceFormat.RECORD_END) {
+          finish();
+          return;
+        }
+        switch (tag) {
+          case BinaryChromeTraceFormat.RECORD_STRING:
+            strings.add(readString(in));
+            return;
+          case BinaryChromeTraceFormat.RECORD_EVENT:
+            convertEvent();
+            return;
+          default:
+            throw new IOException("Unknown record in binary trace: " + tag);
+        }
+      } catch (EOFException e) {
+        // The trace was cut short. Nothing of the incomplete record has been written yet.
+        finish();
+      }
+    }
+
+    private void finish() throws IOException {
+      generator.writeEndArray();
+      finished = true;
+    }
+
+    private void convertEvent() throws IOException {
+      String category = getString(readVarint(in));
+      String name = getString(readVarint(in));
+      char phase = (char) readByte(in);
+      long processId = readVarint(in);
+      long threadId = readVarint(in);
+      long eventMicroTime = microTime + readVarint(in);
+      long eventMicroThreadUserTime = microThreadUserTime + readVarint(in);
+      long argCount = readVarint(in);
+      List<String> argKeys = new ArrayList<>();
+      List<Object> argValues = new ArrayList<>();
+      for (long i = 0; i < argCount; i++) {
+        argKeys.add(getString(readVarint(in)));
+        argValues.add(readValue());
+      }
+      microTime = eventMicroTime;
+      microThreadUserTime = eventMicroThreadUserTime;
+
+      generator.writeStartObject();
+      generator.writeStringField("cat", category);
+      generator.writeStringField("name", name);
+      generator.writeStringField("ph", String.valueOf(phase));
+      generator.writeNumberField("pid", processId);
+      generator.writeNumberField("tid", threadId);
+      generator.writeNumberField("ts", eventMicroTime);
+      generator.writeNumberField("tts", eventMicroThreadUserTime);
+      if (argCount != BinaryChromeTraceFormat.NO_ARGS) {
+        generator.writeObjectFieldStart("args");
+        for (int i = 0; i < argKeys.size(); i++) {
+          generator.writeFieldName(argKeys.get(i));
+          writeValue(argValues.get(i));
+        }
+        generator.writeEndObject();
+      }
+      generator.writeEndObject();
+    }
+
+    private void writeValue(@Nullable Object value) throws IOException {
+      if (value == null) {
+        generator.writeNull();
+      } else if (value instanceof String) {
+        generator.writeString((String) value);
+      } else if (value instanceof Long) {
+        generator.writeNumber((Long) value);
+      } else if (value instanceof Double) {
+        generator.writeNumber((Double) value);
+      } else if (value instanceof Boolean) {
+        generator.writeBoolean((Boolean) value);
+      } else {
+        generator.writeRawValue(((RawJson) value).json);
+      }
+    }
+
+    @Nullable
+    private Object readValue() throws IOException {
+      int tag = readByte(in);
+      switch (tag) {
+        case BinaryChromeTraceFormat.VALUE_NULL:
+          return null;
+        case BinaryChromeTraceFormat.VALUE_STRING:
+          return readString(in);
+        case BinaryChromeTraceFormat.VALUE_LONG:
+          return readVarint(in);
+        case BinaryChromeTraceFormat.VALUE_DOUBLE:
+          return in.readDouble();
+        case BinaryChromeTraceFormat.VALUE_TRUE:
+          return true;
+        case BinaryChromeTraceFormat.VALUE_FALSE:
+          return false;
+        case BinaryChromeTraceFormat.VALUE_JSON:
+          return new RawJson(readString(in));
+        default:
+          throw new IOException("Unknown argument value in binary trace: " + tag);
+      }
+    }
+
+    private String getString(long index) throws IOException {
+      if (index < 0 || index >= strings.size()) {
+        throw new IOException("Undefined string in binary trace: " + index);
+      }
+      return strings.get((int) index);
+    }
+  }
+
+  /** An argument value that was already serialized when the trace was written. */
+  private static class RawJson {
+    private final String json;
+
+    RawJson(String json) {
+      this.json = json;
+    }
+  }
+
+  /** Lets the converted JSON be read back without copying it out of the stream first. */
+  private static class Buffer extends ByteArrayOutputStream {
+    byte byteAt(int index) {
+      return buf[index];
+    }
+
+    void copyTo(int index, byte[] bytes, int offset, int length) {
+      System.arraycopy(buf, index, bytes, offset, length);
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.trace;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and primitives of the compact binary encoding of Chrome traces.
+ *
+ * <p>A trace starts with {@link #MAGIC} and a version byte, followed by records that each start
+ * with a tag byte:
+ *
+ * <ul>
+ *   <li>{@link #RECORD_STRING}: a string that later records refer to by index, in the order the
+ *       strings were defined. Categories, names and argument keys are interned this way.
+ *   <li>{@link #RECORD_EVENT}: the indexes of the category and name, the phase character, the
+ *       process and thread ids, the timestamp and thread timestamp as deltas from the previous
+ *       event's, and the arguments.
+ *   <li>{@link #RECORD_END}: the end of the trace.
+ * </ul>
+ *
+ * <p>Integers are written as zigzag varints and strings as their UTF-8 length followed by their
+ * bytes. Argument values start with one of the {@code VALUE_*} tags.
+ */
+public final class BinaryChromeTraceFormat {
+
+  public static final byte[] MAGIC = {'B', 'C', 'T', 'R'};
+  public static final int VERSION = 1;
+
+  public static final int RECORD_END = 0;
+  public static final int RECORD_STRING = 1;
+  public static final int RECORD_EVENT = 2;
+
+  public static final int VALUE_NULL = 0;
+  public static final int VALUE_STRING = 1;
+  public static final int VALUE_LONG = 2;
+  public static final int VALUE_DOUBLE = 3;
+  public static final int VALUE_TRUE = 4;
+  public static final int VALUE_FALSE = 5;
+  /** Any other value, as its JSON serialization. */
+  public static final int VALUE_JSON = 6;
+
+  /** Written in place of the argument count when an event has no arguments map at all. */
+  public static final int NO_ARGS = -1;
+
+  private BinaryChromeTraceFormat() {}
+
+  public static void writeVarint(OutputStream out, long value) throws IOException {
+    long zigzag = (value << 1) ^ (value >> 63);
+    while ((zigzag & ~0x7FL) != 0) {
+      out.write((int) ((zigzag & 0x7F) | 0x80));
+      zigzag >>>= 7;
+    }
+    out.write((int) zigzag);
+  }
+
+  public static long readVarint(InputStream in) throws IOException {
+    long zigzag = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte(in);
+      zigzag |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+      }
+    }
+    throw new IOException("Malformed varint in binary trace.");
+  }
+
+  public static void writeString(OutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(out, bytes.length);
+    out.write(bytes);
+  }
+
+  public static String readString(InputStream in) throws IOException {
+    long length = readVarint(in);
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Malformed string length in binary trace: " + length);
+    }
+    byte[] bytes = new byte[(int) length];
+    int read = 0;
+    while (read < bytes.length) {
+      int count = in.read(bytes, read, bytes.length - read);
+      if (count < 0) {
+        throw new EOFException("Binary trace ended in the middle of a string.");
+      }
+      read += count;
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public static int readByte(InputStream in) throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException("Binary trace ended in the middle of a record.");
+    }
+    return b;
+  }
+}
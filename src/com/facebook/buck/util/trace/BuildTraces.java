@@ -99,10 +99,12 @@ public class BuildTraces {
     }
   }
 
+  /** @return the traces of the given build, in the JSON format whichever format they are in. */
   public Iterable<InputStream> getInputsForTraces(String id) throws IOException {
     ImmutableList.Builder<InputStream> tracesBuilder = ImmutableList.builder();
     for (Path p : getPathsToTraces(id)) {
-      tracesBuilder.add(projectFilesystem.getInputStreamForRelativePath(p));
+      InputStream trace = projectFilesystem.getInputStreamForRelativePath(p);
+      tracesBuilder.add(BinaryChromeTraceConverter.openAsJson(trace));
     }
     return tracesBuilder.build();
   }
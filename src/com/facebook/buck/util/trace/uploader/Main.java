@@ -17,14 +17,19 @@
 package com.facebook.buck.util.trace.uploader;
 
 import com.facebook.buck.util.network.MacIpv6BugWorkaround;
+import com.facebook.buck.util.trace.BinaryChromeTraceConverter;
 import com.facebook.buck.util.trace.uploader.types.CompressionType;
 import com.facebook.buck.util.zip.BestCompressionGZIPOutputStream;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter; // NOPMD this is just a log
 import java.net.URI;
 import java.nio.file.Files;
@@ -101,14 +106,15 @@ public final class Main {
               .addQueryParameter("uuid", this.uuid)
               .addQueryParameter("trace_file_kind", this.traceFileKind)
               .build();
-      Path fileToUpload = traceFilePath;
       String mediaType = "application/data";
       String traceName = traceFilePath.getFileName().toString();
+      if (traceName.endsWith(".gz")) {
+        traceName = traceName.substring(0, traceName.length() - ".gz".length());
+      }
       boolean compressionEnabled = false;
       if (compressionType != null) {
         switch (compressionType) {
           case GZIP:
-            fileToUpload = gzip(traceFilePath);
             mediaType = "application/json+gzip";
             traceName = traceName + ".gz";
             compressionEnabled = true;
@@ -117,6 +123,7 @@ public final class Main {
             break;
         }
       }
+      Path fileToUpload = prepareTraceForUpload(traceFilePath, compressionEnabled);
 
       log.format("Build ID: %s\n", uuid);
       log.format("Trace file: %s (%d) bytes\n", traceFilePath, Files.size(traceFilePath));
@@ -163,13 +170,21 @@ public final class Main {
     }
   }
 
-  private Path gzip(Path uncompressed) throws IOException {
-    Path compressed = Files.createTempFile("tmp", ".gz");
-    try (BestCompressionGZIPOutputStream gzipStream =
-        new BestCompressionGZIPOutputStream(
-            new BufferedOutputStream(Files.newOutputStream(compressed)), true)) {
-      Files.copy(uncompressed, gzipStream);
+  /**
+   * Writes the JSON form of a trace to a temporary file. The trace may have been written in the
+   * binary format or compressed, neither of which the server understands.
+   */
+  @VisibleForTesting
+  static Path prepareTraceForUpload(Path trace, boolean compress) throws IOException {
+    Path prepared = Files.createTempFile("tmp", compress ? ".gz" : ".json");
+    try (InputStream json = BinaryChromeTraceConverter.openAsJson(Files.newInputStream(trace));
+        OutputStream out =
+            compress
+                ? new BestCompressionGZIPOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(prepared)), true)
+                : new BufferedOutputStream(Files.newOutputStream(prepared))) {
+      ByteStreams.copy(json, out);
     }
-    return compressed;
+    return prepared;
   }
 }
@@ -17,6 +17,8 @@
 package com.facebook.buck.util.zip;
 
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,12 +27,21 @@ import java.nio.file.Paths;
 import java.util.zip.CRC32;
 
 public class DeterministicZipBuilder implements Closeable {
+  /** How many entries may be held in memory while they are being compressed. */
+  private static final int MAX_PENDING_ENTRIES = 32;
+
   // TODO(cjhopman): Should this buffer the entries and then sort them by name? We may have to
   // buffer them on disk to keep memory use sensible.
-  private final CustomZipOutputStream output;
+  private final ParallelZipWriter output;
 
   public DeterministicZipBuilder(Path path) throws IOException {
-    this.output = ZipOutputStreams.newOutputStream(path);
+    this(path, MoreExecutors.newDirectExecutorService());
+  }
+
+  /** Creates a builder that compresses entries on {@code executorService}. */
+  public DeterministicZipBuilder(Path path, ListeningExecutorService executorService)
+      throws IOException {
+    this.output = new ParallelZipWriter(path, executorService, MAX_PENDING_ENTRIES);
   }
 
   public void addEntry(
@@ -48,9 +59,7 @@ public class DeterministicZipBuilder implements Closeable {
       outputEntry.setCompressedSize(dataLength);
     }
     outputEntry.setSize(dataLength);
-    output.putNextEntry(outputEntry);
-    ByteStreams.copy(data, output);
-    output.closeEntry();
+    output.addEntry(outputEntry, ByteStreams.toByteArray(data));
   }
 
   public void addEntry(byte[] data, String name, int compressionLevel) throws IOException {
@@ -63,9 +72,7 @@ public class DeterministicZipBuilder implements Closeable {
       outputEntry.setCompressedSize(data.length);
     }
     outputEntry.setSize(data.length);
-    output.putNextEntry(outputEntry);
-    output.write(data);
-    output.closeEntry();
+    output.addEntry(outputEntry, data);
   }
 
   @Override
@@ -289,6 +289,25 @@ class EntryAccounting {
     return entry.getCompressedSize() + dataDescriptor.length;
   }
 
+  /**
+   * Like {@link #finish(OutputStream)}, but for an entry whose data was deflated elsewhere and has
+   * already been written to {@code out}. Must be called exactly once, instead of {@link
+   * #write(OutputStream, byte[], int, int)} and {@link #finish(OutputStream)}.
+   */
+  public long finishDeflated(OutputStream out, long size, long compressedSize, long crc)
+      throws IOException {
+    Preconditions.checkState(method == Method.DEFLATE);
+    entry.setSize(size);
+    entry.setCompressedSize(compressedSize);
+    entry.setCrc(crc);
+    deflater.end();
+
+    byte[] dataDescriptor = getDataDescriptor();
+    out.write(dataDescriptor);
+
+    return compressedSize + dataDescriptor.length;
+  }
+
   private boolean requiresDataDescriptor() {
     return method == Method.DEFLATE;
   }
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.facebook.buck.util.timing.Clock;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file while deflating its entries in parallel on an executor.
+ *
+ * <p>Entries are written in the order they are added, and the result is byte-for-byte identical to
+ * what a {@link CustomZipOutputStream} from {@link ZipOutputStreams#newOutputStream(OutputStream)}
+ * writes for the same entries. Only a bounded number of entries, and of bytes of their contents,
+ * are held in memory while they are compressed; adding an entry blocks once that many are waiting
+ * to be written. Entries read from a stream that are larger than that are not held in memory at
+ * all: they are compressed on the writing thread as they are read, after the entries before them
+ * have been written.
+ *
+ * <p>Optionally, entries larger than a block size are split into blocks that are deflated
+ * independently and concatenated. Each block uses the data before it as its dictionary, which keeps
+ * the loss in compression small. The output then differs from the sequential writer, but it is
+ * still the same every time for the same entries, block size and limit on pending bytes.
+ *
+ * <p>The writing thread runs any compression work for the next entry that the executor hasn't
+ * started yet itself, so it is safe to use an executor that the caller is running on.
+ *
+ * <p>Instances are not thread-safe: entries must be added from one thread at a time.
+ */
+public class ParallelZipWriter implements Closeable {
+
+  /** The largest window deflate can refer back to. */
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int DEFAULT_MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+  private final OutputStream out;
+  private final ListeningExecutorService executorService;
+  private final int maxPendingEntries;
+  private final int maxPendingBytes;
+  private final int blockSize;
+  private final Clock clock;
+
+  private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+  private final List<EntryAccounting> entries = new ArrayList<>();
+  private final Set<String> seenNames = new HashSet<>();
+  private long pendingBytes = 0;
+  private long currentOffset = 0;
+  private boolean closed = false;
+
+  /**
+   * @param zipFile the file to write to. Its parent directory must exist already.
+   * @param maxPendingEntries how many entries may be compressed ahead of the one being written.
+   */
+  public ParallelZipWriter(
+      Path zipFile, ListeningExecutorService executorService, int maxPendingEntries)
+      throws IOException {
+    this(
+        new BufferedOutputStream(Files.newOutputStream(zipFile)),
+        executorService,
+        maxPendingEntries,
+        /* blockSize */ 0,
+        new DefaultClock());
+  }
+
+  /**
+   * @param maxPendingEntries how many entries may be compressed ahead of the one being written.
+   * @param blockSize the size of the blocks that larger entries are split into, or 0 to deflate
+   *     every entry as a whole.
+   */
+  public ParallelZipWriter(
+      OutputStream out,
+      ListeningExecutorService executorService,
+      int maxPendingEntries,
+      int blockSize,
+      Clock clock) {
+    this(out, executorService, maxPendingEntries, DEFAULT_MAX_PENDING_BYTES, blockSize, clock);
+  }
+
+  /**
+   * @param maxPendingEntries how many entries may be compressed ahead of the one being written.
+   * @param maxPendingBytes how many bytes of entry contents may be held while they are compressed.
+   *     Entries read from a stream that are larger than this are compressed as they are read.
+   * @param blockSize the size of the blocks that larger entries are split into, or 0 to deflate
+   *     every entry as a whole.
+   */
+  public ParallelZipWriter(
+      OutputStream out,
+      ListeningExecutorService executorService,
+      int maxPendingEntries,
+      int maxPendingBytes,
+      int blockSize,
+      Clock clock) {
+    Preconditions.checkArgument(maxPendingEntries > 0);
+    Preconditions.checkArgument(maxPendingBytes > 0 && maxPendingBytes < Integer.MAX_VALUE);
+    Preconditions.checkArgument(blockSize == 0 || blockSize >= DICTIONARY_SIZE);
+    this.out = out;
+    this.executorService = executorService;
+    this.maxPendingEntries = maxPendingEntries;
+    this.maxPendingBytes = maxPendingBytes;
+    this.blockSize = blockSize;
+    this.clock = clock;
+  }
+
+  /**
+   * Adds an entry with the given contents. {@code data} must not be modified afterwards, since it
+   * may still be read while the entry is compressed.
+   */
+  public void addEntry(ZipEntry entry, byte[] data) throws IOException {
+    checkNewEntry(entry);
+
+    EntryAccounting accounting = new EntryAccounting(clock, entry, /* currentOffset */ 0);
+    List<ListenableFutureTask<?>> tasks = new ArrayList<>();
+    ListenableFuture<CompressedEntry> result;
+    if (blockSize > 0 && data.length > blockSize && entry.getMethod() != ZipEntry.STORED) {
+      result = deflateInBlocks(tasks, accounting, getCompressionLevel(entry), data);
+    } else {
+      result = submit(tasks, () -> compress(accounting, data));
+    }
+    pendingEntries.add(new PendingEntry(result, tasks, data.length));
+    pendingBytes += data.length;
+
+    while (pendingEntries.size() > maxPendingEntries || pendingBytes > maxPendingBytes) {
+      writeNextPendingEntry();
+    }
+  }
+
+  /** Adds an entry with the contents of {@code data}, which is read fully and then closed. */
+  public void addEntry(ZipEntry entry, InputStream data) throws IOException {
+    try {
+      // Read one byte more than may be held to find out whether the entry fits.
+      byte[] start = ByteStreams.toByteArray(ByteStreams.limit(data, maxPendingBytes + 1L));
+      if (start.length <= maxPendingBytes) {
+        addEntry(entry, start);
+      } else {
+        writeEntry(entry, start, data);
+      }
+    } finally {
+      data.close();
+    }
+  }
+
+  private void checkNewEntry(ZipEntry entry) throws ZipException {
+    Preconditions.checkState(!closed, "Writer has been closed.");
+    if (!seenNames.add(entry.getName())) {
+      // Same exception as ZipOutputStream.
+      throw new ZipException("duplicate entry: " + entry.getName());
+    }
+    if (entry.getMethod() == ZipEntry.STORED) {
+      Preconditions.checkState(
+          entry.getCompressedSize() == entry.getSize(),
+          "STORED entry where compressed != uncompressed size");
+    }
+  }
+
+  /**
+   * Compresses and writes an entry on this thread, starting with {@code start} and followed by the
+   * rest of {@code data}, once the entries before it have been written.
+   */
+  private void writeEntry(ZipEntry entry, byte[] start, InputStream data) throws IOException {
+    checkNewEntry(entry);
+    while (!pendingEntries.isEmpty()) {
+      writeNextPendingEntry();
+    }
+
+    EntryAccounting accounting = new EntryAccounting(clock, entry, currentOffset);
+    long written = accounting.writeLocalFileHeader(out);
+    accounting.write(out, start, 0, start.length);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    for (int read = data.read(buffer); read != -1; read = data.read(buffer)) {
+      accounting.write(out, buffer, 0, read);
+    }
+    written += accounting.finish(out);
+    currentOffset += written;
+    entries.add(accounting);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    try {
+      while (!pendingEntries.isEmpty()) {
+        writeNextPendingEntry();
+      }
+      new CentralDirectory().writeCentralDirectory(out, currentOffset, entries);
+    } finally {
+      for (PendingEntry pendingEntry : pendingEntries) {
+        pendingEntry.tasks.forEach(task -> task.cancel(true));
+        pendingEntry.result.cancel(true);
+      }
+      out.close();
+    }
+  }
+
+  private void writeNextPendingEntry() throws IOException {
+    PendingEntry pendingEntry = pendingEntries.removeFirst();
+    pendingBytes -= pendingEntry.size;
+    // Running a task that has already been started or finished does nothing.
+    pendingEntry.tasks.forEach(Runnable::run);
+    CompressedEntry compressed;
+    try {
+      compressed = pendingEntry.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    }
+
+    compressed.accounting.setOffset(currentOffset);
+    compressed.bytes.writeTo(out);
+    currentOffset += compressed.bytes.size();
+    entries.add(compressed.accounting);
+  }
+
+  private <T> ListenableFuture<T> submit(
+      List<ListenableFutureTask<?>> tasks, Callable<T> callable) {
+    ListenableFutureTask<T> task = ListenableFutureTask.create(callable);
+    tasks.add(task);
+    executorService.execute(task);
+    return task;
+  }
+
+  private static CompressedEntry compress(EntryAccounting accounting, byte[] data)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 128);
+    accounting.writeLocalFileHeader(bytes);
+    accounting.write(bytes, data, 0, data.length);
+    accounting.finish(bytes);
+    return new CompressedEntry(accounting, bytes);
+  }
+
+  private ListenableFuture<CompressedEntry> deflateInBlocks(
+      List<ListenableFutureTask<?>> tasks,
+      EntryAccounting accounting,
+      int compressionLevel,
+      byte[] data) {
+    List<ListenableFuture<byte[]>> blocks = new ArrayList<>();
+    for (int start = 0; start < data.length; start += blockSize) {
+      int blockStart = start;
+      int blockEnd = Math.min(data.length, start + blockSize);
+      blocks.add(submit(tasks, () -> deflateBlock(data, blockStart, blockEnd, compressionLevel)));
+    }
+    ListenableFuture<Long> crc =
+        submit(
+            tasks,
+            () -> {
+              CRC32 crc32 = new CRC32();
+              crc32.update(data);
+              return crc32.getValue();
+            });
+
+    List<ListenableFuture<?>> parts = new ArrayList<>(blocks);
+    parts.add(crc);
+    return Futures.whenAllSucceed(parts)
+        .call(
+            () -> {
+              ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 128);
+              accounting.writeLocalFileHeader(bytes);
+              long compressedSize = 0;
+              for (ListenableFuture<byte[]> block : blocks) {
+                byte[] deflated = Futures.getDone(block);
+                bytes.write(deflated);
+                compressedSize += deflated.length;
+              }
+              accounting.finishDeflated(bytes, data.length, compressedSize, Futures.getDone(crc));
+              return new CompressedEntry(accounting, bytes);
+            },
+            MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Deflates {@code data[start, end)} so that the result can be appended to the deflated blocks
+   * before it: the block is ended on a byte boundary, and only the last one is marked final.
+   */
+  private static byte[] deflateBlock(byte[] data, int start, int end, int compressionLevel) {
+    Deflater deflater = new Deflater(compressionLevel, true);
+    try {
+      if (start > 0) {
+        int dictionaryStart = Math.max(0, start - DICTIONARY_SIZE);
+        deflater.setDictionary(data, dictionaryStart, start - dictionaryStart);
+      }
+      deflater.setInput(data, start, end - start);
+
+      ByteArrayOutputStream deflated = new ByteArrayOutputStream(end - start);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      if (end == data.length) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          deflated.write(buffer, 0, deflater.deflate(buffer));
+        }
+      } else {
+        int written;
+        do {
+          written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          deflated.write(buffer, 0, written);
+        } while (written == buffer.length);
+      }
+      return deflated.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static int getCompressionLevel(ZipEntry entry) {
+    if (entry instanceof CustomZipEntry) {
+      return ((CustomZipEntry) entry).getCompressionLevel();
+    }
+    return Deflater.DEFAULT_COMPRESSION;
+  }
+
+  /** An entry that is being compressed, along with the tasks doing so. */
+  private static class PendingEntry {
+    private final ListenableFuture<CompressedEntry> result;
+    private final List<ListenableFutureTask<?>> tasks;
+    private final int size;
+
+    PendingEntry(
+        ListenableFuture<CompressedEntry> result, List<ListenableFutureTask<?>> tasks, int size) {
+      this.result = result;
+      this.tasks = tasks;
+      this.size = size;
+    }
+  }
+
+  /** An entry, from its local file header to its data descriptor, ready to be written. */
+  private static class CompressedEntry {
+    private final EntryAccounting accounting;
+    private final ByteArrayOutputStream bytes;
+
+    CompressedEntry(EntryAccounting accounting, ByteArrayOutputStream bytes) {
+      this.accounting = accounting;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -54,4 +54,7 @@ interface AbstractWorkerProcessParams {
    * command and startup arguments.
    */
   Optional<WorkerProcessIdentity> getWorkerProcessIdentity();
+
+  /** How the pool starts, keeps and recycles its worker processes. */
+  WorkerProcessPoolPolicy getPoolPolicy();
 }
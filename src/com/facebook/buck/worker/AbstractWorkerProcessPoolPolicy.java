@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import org.immutables.value.Value;
+
+/** Controls how a {@link WorkerProcessPool} starts, keeps and recycles its worker processes. */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractWorkerProcessPoolPolicy {
+
+  /**
+   * Number of idle workers that the pool keeps started ahead of demand, so that jobs don't have to
+   * wait for a worker to launch and handshake. Zero starts workers only when a job needs one.
+   */
+  @Value.Default
+  public int getWarmWorkers() {
+    return 0;
+  }
+
+  /** Number of jobs after which a worker process is restarted. Zero means no limit. */
+  @Value.Default
+  public int getMaxJobsPerWorker() {
+    return 0;
+  }
+
+  /**
+   * Resident memory, in bytes, above which a worker process is restarted once it finishes its
+   * current job. Zero means no limit.
+   */
+  @Value.Default
+  public long getMaxWorkerMemoryBytes() {
+    return 0;
+  }
+
+  /**
+   * Time, in milliseconds, after which an idle worker process is shut down. The pool starts it
+   * again when there is more work. Zero keeps idle workers around for the lifetime of the pool.
+   */
+  @Value.Default
+  public long getIdleTimeoutMillis() {
+    return 0;
+  }
+
+  @Value.Check
+  protected void check() {
+    if (getWarmWorkers() < 0
+        || getMaxJobsPerWorker() < 0
+        || getMaxWorkerMemoryBytes() < 0
+        || getIdleTimeoutMillis() < 0) {
+      throw new IllegalArgumentException("Worker process pool limits must not be negative.");
+    }
+  }
+}
@@ -22,6 +22,8 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.MoreStrings;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.ProcessHelper;
+import com.facebook.buck.util.ProcessResourceConsumption;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -46,7 +48,7 @@ public class WorkerProcess implements Closeable {
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
   @Nullable private WorkerProcessProtocol.CommandSender protocol;
-  @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
+  @Nullable private volatile ProcessExecutor.LaunchedProcess launchedProcess;
 
   /**
    * Worker process is a process that stays alive and receives commands which describe jobs. Worker
@@ -79,6 +81,24 @@ public class WorkerProcess implements Closeable {
     return launchedProcess != null && launchedProcess.isAlive();
   }
 
+  /**
+   * @return the resident memory of the worker process and its children, if the worker is running
+   *     and the platform lets us measure it.
+   */
+  public Optional<Long> getResidentMemoryBytes() {
+    ProcessExecutor.LaunchedProcess process = launchedProcess;
+    if (!(process instanceof ProcessExecutor.LaunchedProcessImpl)) {
+      return Optional.empty();
+    }
+    ProcessHelper processHelper = ProcessHelper.getInstance();
+    Long pid = processHelper.getPid(((ProcessExecutor.LaunchedProcessImpl) process).process);
+    if (pid == null) {
+      return Optional.empty();
+    }
+    ProcessResourceConsumption consumption = processHelper.getTotalResourceConsumption(pid);
+    return consumption == null ? Optional.empty() : Optional.of(consumption.getMemResident());
+  }
+
   public synchronized void ensureLaunchAndHandshake() throws IOException {
     if (handshakePerformed) {
       return;
@@ -16,21 +16,34 @@
 
 package com.facebook.buck.worker;
 
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.concurrent.LinkedBlockingStack;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -39,29 +52,126 @@ import javax.annotation.concurrent.ThreadSafe;
  *
  * <p>This pool supports acquisition and release of worker processes on different threads. Workers
  * are acquired with {@link #borrowWorkerProcess()}, which returns
+ *
+ * <p>Idle workers are handed out most recently used first, so jobs go to workers that are already
+ * started and warmed up by previous jobs. The {@link WorkerProcessPoolPolicy} decides how many idle
+ * workers are started ahead of demand, when idle workers are shut down again, and when a worker
+ * that has run too many jobs or grown too large is restarted.
  */
 @ThreadSafe
 public class WorkerProcessPool implements Closeable {
   private static final Logger LOG = Logger.get(WorkerProcessPool.class);
 
+  private static final String COUNTER_CATEGORY = "buck_worker_process_pool";
+
   private final int capacity;
-  private final BlockingQueue<WorkerLifecycle> availableWorkers;
+  private final LinkedBlockingStack<WorkerLifecycle> availableWorkers;
   private final WorkerLifecycle[] workerLifecycles;
   private final HashCode poolHash;
+  private final WorkerProcessPoolPolicy policy;
+  private final ExecutorService warmUpExecutor;
+  private final Optional<ScheduledExecutorService> idleCheckExecutor;
+  private final AtomicReference<String> countersRegisteredForBuild = new AtomicReference<>();
+
+  private final SamplingCounter queueWaitMs;
+  private final SamplingCounter jobLatencyMs;
+  private final IntegerCounter workerStarts;
+  private final IntegerCounter workerRestarts;
+  private final IntegerCounter workerRecycles;
+
+  public WorkerProcessPool(
+      int maxWorkers,
+      HashCode poolHash,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    this(
+        maxWorkers,
+        poolHash,
+        WorkerProcessPoolPolicy.builder().build(),
+        ImmutableMap.of(),
+        startWorkerProcess);
+  }
 
+  /** @param counterTags tags of the counters that this pool reports, identifying the pool. */
   public WorkerProcessPool(
       int maxWorkers,
       HashCode poolHash,
+      WorkerProcessPoolPolicy policy,
+      ImmutableMap<String, String> counterTags,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    this(
+        maxWorkers,
+        poolHash,
+        policy,
+        counterTags,
+        createWarmUpExecutor(policy),
+        createIdleCheckExecutor(policy),
+        startWorkerProcess);
+  }
+
+  @VisibleForTesting
+  WorkerProcessPool(
+      int maxWorkers,
+      HashCode poolHash,
+      WorkerProcessPoolPolicy policy,
+      ImmutableMap<String, String> counterTags,
+      ExecutorService warmUpExecutor,
+      Optional<ScheduledExecutorService> idleCheckExecutor,
       ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
     capacity = maxWorkers;
     availableWorkers = new LinkedBlockingStack<>();
     workerLifecycles = new WorkerLifecycle[maxWorkers];
     this.poolHash = poolHash;
+    this.policy = policy;
+    this.warmUpExecutor = warmUpExecutor;
+    this.idleCheckExecutor = idleCheckExecutor;
 
-    Arrays.setAll(
-        workerLifecycles,
-        ignored -> new WorkerLifecycle(startWorkerProcess, availableWorkers::add));
+    queueWaitMs = new SamplingCounter(COUNTER_CATEGORY, "queue_wait_ms", counterTags);
+    jobLatencyMs = new SamplingCounter(COUNTER_CATEGORY, "job_latency_ms", counterTags);
+    workerStarts = new IntegerCounter(COUNTER_CATEGORY, "worker_starts", counterTags);
+    workerRestarts = new IntegerCounter(COUNTER_CATEGORY, "worker_restarts", counterTags);
+    workerRecycles = new IntegerCounter(COUNTER_CATEGORY, "worker_recycles", counterTags);
+
+    Arrays.setAll(workerLifecycles, ignored -> new WorkerLifecycle(startWorkerProcess));
     Collections.addAll(availableWorkers, workerLifecycles);
+
+    long idleTimeoutMillis = policy.getIdleTimeoutMillis();
+    idleCheckExecutor.ifPresent(
+        executor ->
+            executor.scheduleWithFixedDelay(
+                this::closeIdleWorkers,
+                idleTimeoutMillis,
+                idleTimeoutMillis,
+                TimeUnit.MILLISECONDS));
+  }
+
+  private static ExecutorService createWarmUpExecutor(WorkerProcessPoolPolicy policy) {
+    if (policy.getWarmWorkers() == 0) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            /* corePoolSize */ policy.getWarmWorkers(),
+            /* maximumPoolSize */ policy.getWarmWorkers(),
+            /* keepAliveTime */ 10L,
+            TimeUnit.SECONDS,
+            /* workQueue */ new LinkedBlockingQueue<>(),
+            /* threadFactory */ new MostExecutors.NamedThreadFactory("WorkerProcessPool warm-up"),
+            /* handler */ new ThreadPoolExecutor.DiscardPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static Optional<ScheduledExecutorService> createIdleCheckExecutor(
+      WorkerProcessPoolPolicy policy) {
+    if (policy.getIdleTimeoutMillis() == 0) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("WorkerProcessPool idle check-%d")
+                .setDaemon(true)
+                .build()));
   }
 
   /**
@@ -70,19 +180,93 @@ public class WorkerProcessPool implements Closeable {
    * BorrowedWorkerProcess#close()} after using them.
    */
   public BorrowedWorkerProcess borrowWorkerProcess() throws InterruptedException {
-    return new BorrowedWorkerProcess(availableWorkers.take());
+    long startNanos = System.nanoTime();
+    WorkerLifecycle lifecycle = availableWorkers.take();
+    return borrowed(lifecycle, startNanos);
   }
 
   @VisibleForTesting
   Optional<BorrowedWorkerProcess> borrowWorkerProcess(int timeout, TimeUnit unit)
       throws InterruptedException {
-    return Optional.ofNullable(availableWorkers.poll(timeout, unit))
-        .map(BorrowedWorkerProcess::new);
+    long startNanos = System.nanoTime();
+    WorkerLifecycle lifecycle = availableWorkers.poll(timeout, unit);
+    return lifecycle == null ? Optional.empty() : Optional.of(borrowed(lifecycle, startNanos));
+  }
+
+  private BorrowedWorkerProcess borrowed(WorkerLifecycle lifecycle, long startNanos) {
+    queueWaitMs.addSample(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    warmUpIdleWorkers();
+    return new BorrowedWorkerProcess(lifecycle);
+  }
+
+  /**
+   * Starts idle workers in the background until {@link WorkerProcessPoolPolicy#getWarmWorkers()}
+   * of them are running, so that the next jobs don't have to wait for a worker to start up.
+   */
+  public void warmUpIdleWorkers() {
+    int toStart = policy.getWarmWorkers();
+    if (toStart == 0) {
+      return;
+    }
+    // The stack hands out its top first, so start the workers that will be borrowed next.
+    List<WorkerLifecycle> toWarmUp = new ArrayList<>();
+    for (WorkerLifecycle lifecycle : availableWorkers) {
+      if (toStart == 0) {
+        break;
+      }
+      toStart--;
+      if (!lifecycle.isStartedOrStarting()) {
+        toWarmUp.add(lifecycle);
+      }
+    }
+    for (WorkerLifecycle lifecycle : toWarmUp) {
+      lifecycle.markStarting();
+      warmUpExecutor.execute(lifecycle::warmUp);
+    }
+  }
+
+  /**
+   * Shuts down workers that have been idle for longer than {@link
+   * WorkerProcessPoolPolicy#getIdleTimeoutMillis()}. They are started again when needed. This runs
+   * periodically in the background, and can also be called directly.
+   */
+  public synchronized void closeIdleWorkers() {
+    long idleTimeoutMillis = policy.getIdleTimeoutMillis();
+    if (idleTimeoutMillis == 0) {
+      return;
+    }
+    long idleSinceNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    for (WorkerLifecycle lifecycle : workerLifecycles) {
+      // Taking the worker out of the queue makes sure that nobody borrows it while it's stopped.
+      if (lifecycle.isIdleSince(idleSinceNanos) && availableWorkers.remove(lifecycle)) {
+        try {
+          lifecycle.closeProcess();
+        } finally {
+          // Stopped workers go to the bottom, so that warm ones are still handed out first.
+          availableWorkers.addLast(lifecycle);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the counters of this pool if they haven't been handed out for the given build yet.
+   *     Pools outlive builds when they are persistent, and the counters need to be registered with
+   *     every build's counter registry.
+   */
+  public Optional<ImmutableList<Counter>> getCountersToRegister(String buildId) {
+    if (buildId.equals(countersRegisteredForBuild.getAndSet(buildId))) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        ImmutableList.of(queueWaitMs, jobLatencyMs, workerStarts, workerRestarts, workerRecycles));
   }
 
   @Override
   public synchronized void close() {
     Throwable caughtWhileClosing = null;
+    warmUpExecutor.shutdown();
+    idleCheckExecutor.ifPresent(ExecutorService::shutdownNow);
 
     // remove all available workers
     int numAvailableWorkers = availableWorkers.drainTo(new ArrayList<>(capacity));
@@ -117,22 +301,21 @@ public class WorkerProcessPool implements Closeable {
    * {@link WorkerProcessPool#availableWorkers}.
    *
    * <p>{@link #get()} and {@link #close()} are synchronized to allow closing as part of closing the
-   * pool with a consumer trying to acquire a worker in parallel.
+   * pool with a consumer trying to acquire a worker in parallel. This also lets a consumer that
+   * borrows a worker which is being warmed up wait for it to finish starting.
    */
   @ThreadSafe
-  private static class WorkerLifecycle
-      implements Closeable, ThrowingSupplier<WorkerProcess, IOException> {
+  private class WorkerLifecycle implements Closeable, ThrowingSupplier<WorkerProcess, IOException> {
 
     private final ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess;
-    private final Consumer<WorkerLifecycle> onWorkerProcessReturn;
     private boolean isClosed = false;
-    @Nullable private WorkerProcess workerProcess;
+    @Nullable private volatile WorkerProcess workerProcess;
+    private volatile boolean isStarting = false;
+    private volatile long idleSinceNanos = System.nanoTime();
+    private int jobCount = 0;
 
-    private WorkerLifecycle(
-        ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess,
-        Consumer<WorkerLifecycle> onWorkerProcessReturn) {
+    private WorkerLifecycle(ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
       this.startWorkerProcess = startWorkerProcess;
-      this.onWorkerProcessReturn = onWorkerProcessReturn;
     }
 
     /** Allows to retrieve the wrapped worker process, starting it up if necessary. */
@@ -140,33 +323,106 @@ public class WorkerProcessPool implements Closeable {
     public synchronized WorkerProcess get() throws IOException {
       Preconditions.checkState(!isClosed, "Worker was already terminated");
       // If the worker is broken, destroy it
-      if (workerProcess != null && !workerProcess.isAlive()) {
+      WorkerProcess process = workerProcess;
+      if (process != null && !process.isAlive()) {
+        workerRestarts.inc();
+        closeProcess();
+        process = null;
+      }
+
+      // start a worker if necessary, this might throw IOException
+      if (process == null) {
         try {
-          workerProcess.close();
-        } catch (Exception ex) {
-          LOG.error(ex, "Failed to close dead worker process; ignoring.");
+          process = startWorkerProcess.get();
         } finally {
-          workerProcess = null;
+          isStarting = false;
         }
+        workerStarts.inc();
+        workerProcess = process;
+        jobCount = 0;
       }
 
-      // start a worker if necessary, this might throw IOException
-      if (workerProcess == null) {
-        workerProcess = startWorkerProcess.get();
+      return process;
+    }
+
+    boolean isStartedOrStarting() {
+      return workerProcess != null || isStarting;
+    }
+
+    void markStarting() {
+      isStarting = true;
+    }
+
+    boolean isIdleSince(long nanos) {
+      return workerProcess != null && idleSinceNanos - nanos < 0;
+    }
+
+    /** Starts the worker ahead of demand. Failures are left for the next borrower to report. */
+    void warmUp() {
+      try {
+        synchronized (this) {
+          if (!isClosed) {
+            get();
+          }
+        }
+      } catch (Exception e) {
+        LOG.debug(e, "Failed to warm up worker process.");
+      } finally {
+        isStarting = false;
+      }
+    }
+
+    synchronized void onJobFinished(long latencyNanos) {
+      jobCount++;
+      jobLatencyMs.addSample(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+    }
+
+    void makeAvailable() {
+      if (shouldRecycle()) {
+        workerRecycles.inc();
+        closeProcess();
       }
+      idleSinceNanos = System.nanoTime();
+      availableWorkers.add(this);
+    }
 
-      return workerProcess;
+    private synchronized boolean shouldRecycle() {
+      WorkerProcess process = workerProcess;
+      if (process == null || isClosed) {
+        return false;
+      }
+      if (policy.getMaxJobsPerWorker() > 0 && jobCount >= policy.getMaxJobsPerWorker()) {
+        LOG.debug("Recycling worker process after %d jobs.", jobCount);
+        return true;
+      }
+      if (policy.getMaxWorkerMemoryBytes() > 0) {
+        Optional<Long> memory = process.getResidentMemoryBytes();
+        if (memory.isPresent() && memory.get() > policy.getMaxWorkerMemoryBytes()) {
+          LOG.debug("Recycling worker process using %d bytes of memory.", memory.get());
+          return true;
+        }
+      }
+      return false;
     }
 
-    public void makeAvailable() {
-      onWorkerProcessReturn.accept(this);
+    synchronized void closeProcess() {
+      WorkerProcess process = workerProcess;
+      workerProcess = null;
+      if (process != null) {
+        try {
+          process.close();
+        } catch (Exception ex) {
+          LOG.error(ex, "Failed to close worker process; ignoring.");
+        }
+      }
     }
 
     @Override
     public synchronized void close() {
       isClosed = true;
-      if (workerProcess != null) {
-        workerProcess.close();
+      WorkerProcess process = workerProcess;
+      if (process != null) {
+        process.close();
         workerProcess = null;
       }
     }
@@ -207,7 +463,14 @@ public class WorkerProcessPool implements Closeable {
      * @throws IOException
      */
     public WorkerJobResult submitAndWaitForJob(String expandedJobArgs) throws IOException {
-      return get().submitAndWaitForJob(expandedJobArgs);
+      WorkerProcess process = get();
+      WorkerLifecycle lifecycle = Preconditions.checkNotNull(this.lifecycle);
+      long startNanos = System.nanoTime();
+      try {
+        return process.submitAndWaitForJob(expandedJobArgs);
+      } finally {
+        lifecycle.onJobFinished(System.nanoTime() - startNanos);
+      }
     }
 
     @VisibleForTesting
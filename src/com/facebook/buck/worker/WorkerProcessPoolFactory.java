@@ -16,6 +16,8 @@
 
 package com.facebook.buck.worker;
 
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
@@ -33,6 +35,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -82,6 +85,14 @@ public class WorkerProcessPoolFactory {
 
     if (pool == null) {
       pool = createWorkerProcessPool(context, paramsToUse, processPoolMap, key, workerHash);
+    } else {
+      pool.closeIdleWorkers();
+    }
+
+    Optional<ImmutableList<Counter>> counters =
+        pool.getCountersToRegister(context.getBuildId().toString());
+    if (counters.isPresent()) {
+      context.postEvent(new CounterRegistry.AsyncCounterRegistrationEvent(counters.get()));
     }
 
     int poolCapacity = pool.getCapacity();
@@ -117,6 +128,8 @@ public class WorkerProcessPoolFactory {
         new WorkerProcessPool(
             paramsToUse.getMaxWorkers(),
             workerHash,
+            paramsToUse.getPoolPolicy(),
+            ImmutableMap.of("worker", key),
             () -> {
               Path tmpDir = workerTmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
               filesystem.mkdirs(tmpDir);
@@ -128,7 +141,12 @@ public class WorkerProcessPoolFactory {
     // If putIfAbsent does not return null, then that means another thread beat this thread
     // into putting an WorkerProcessPool in the map for this key. If that's the case, then we
     // should ignore newPool and return the existing one.
-    return previousPool == null ? newPool : previousPool;
+    if (previousPool != null) {
+      newPool.close();
+      return previousPool;
+    }
+    newPool.warmUpIdleWorkers();
+    return newPool;
   }
 
   public ImmutableList<String> getCommand(Platform platform, WorkerProcessParams paramsToUse) {
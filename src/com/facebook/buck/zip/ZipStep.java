@@ -16,8 +16,6 @@
 
 package com.facebook.buck.zip;
 
-import static com.facebook.buck.util.zip.ZipOutputStreams.HandleDuplicates.THROW_EXCEPTION;
-
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
@@ -27,14 +25,13 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import com.facebook.buck.util.types.Pair;
+import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.zip.CustomZipEntry;
-import com.facebook.buck.util.zip.CustomZipOutputStream;
+import com.facebook.buck.util.zip.ParallelZipWriter;
 import com.facebook.buck.util.zip.ZipCompressionLevel;
-import com.facebook.buck.util.zip.ZipOutputStreams;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
-import com.google.common.io.ByteStreams;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -55,6 +52,9 @@ public class ZipStep implements Step {
 
   private static final Logger LOG = Logger.get(ZipStep.class);
 
+  /** How many entries may be held in memory while they are being compressed. */
+  private static final int MAX_PENDING_ENTRIES = 32;
+
   private final ProjectFilesystem filesystem;
   private final Path pathToZipFile;
   private final ImmutableSet<Path> paths;
@@ -170,21 +170,23 @@ public class ZipStep implements Step {
           }
         };
 
-    try (BufferedOutputStream baseOut =
-            new BufferedOutputStream(filesystem.newFileOutputStream(pathToZipFile));
-        CustomZipOutputStream out = ZipOutputStreams.newOutputStream(baseOut, THROW_EXCEPTION)) {
+    try (ParallelZipWriter out =
+        new ParallelZipWriter(
+            new BufferedOutputStream(filesystem.newFileOutputStream(pathToZipFile)),
+            context.getCpuExecutorService(),
+            MAX_PENDING_ENTRIES,
+            /* blockSize */ 0,
+            new DefaultClock())) {
 
       filesystem.walkRelativeFileTree(baseDir, pathFileVisitor);
 
       // Write the entries out using the iteration order of the tree map above.
       for (Pair<CustomZipEntry, Optional<Path>> entry : entries.values()) {
-        out.putNextEntry(entry.getFirst());
         if (entry.getSecond().isPresent()) {
-          try (InputStream input = filesystem.newFileInputStream(entry.getSecond().get())) {
-            ByteStreams.copy(input, out);
-          }
+          out.addEntry(entry.getFirst(), filesystem.newFileInputStream(entry.getSecond().get()));
+        } else {
+          out.addEntry(entry.getFirst(), new byte[0]);
         }
-        out.closeEntry();
       }
     }
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.android.toolchain.AndroidPlatformTarget;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DexCacheTest {
+  @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private ExecutionContext context;
+  private ProjectFilesystem filesystem;
+  private Path cacheDir;
+
+  @Before
+  public void setUp() throws Exception {
+    context = TestExecutionContext.newInstance();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.newFolder().toPath());
+    cacheDir = tmpDir.newFolder("dex-cache").toPath();
+  }
+
+  @Test
+  public void storedArtifactsAreRestoredForTheSameKey() throws Exception {
+    DexCache cache = new DexCache(cacheDir, 1024 * 1024);
+    ImmutableMap<String, Path> artifacts =
+        ImmutableMap.of(
+            "dex", Paths.get("out/lib.dex.jar"), "meta", Paths.get("out/lib.dex.jar.meta"));
+    String key = Strings.repeat("a", 40);
+
+    assertFalse(cache.fetch(context, filesystem, key, artifacts));
+
+    filesystem.mkdirs(Paths.get("out"));
+    filesystem.writeContentsToPath("dex", Paths.get("out/lib.dex.jar"));
+    filesystem.writeContentsToPath("meta", Paths.get("out/lib.dex.jar.meta"));
+    cache.store(context, filesystem, key, artifacts);
+
+    filesystem.deleteRecursivelyIfExists(Paths.get("out"));
+    assertTrue(cache.fetch(context, filesystem, key, artifacts));
+    assertEquals("dex", filesystem.readFileIfItExists(Paths.get("out/lib.dex.jar")).get());
+    assertEquals("meta", filesystem.readFileIfItExists(Paths.get("out/lib.dex.jar.meta")).get());
+  }
+
+  @Test
+  public void artifactsMissingFromTheEntryAreDeleted() throws Exception {
+    DexCache cache = new DexCache(cacheDir, 1024 * 1024);
+    ImmutableMap<String, Path> artifacts =
+        ImmutableMap.of("dex", Paths.get("lib.dex.jar"), "resources", Paths.get("resources.json"));
+    String key = Strings.repeat("b", 40);
+
+    filesystem.writeContentsToPath("dex", Paths.get("lib.dex.jar"));
+    cache.store(context, filesystem, key, artifacts);
+
+    filesystem.writeContentsToPath("stale", Paths.get("resources.json"));
+    assertTrue(cache.fetch(context, filesystem, key, artifacts));
+    assertFalse(filesystem.exists(Paths.get("resources.json")));
+  }
+
+  @Test
+  public void partiallyEvictedEntriesAreMisses() throws Exception {
+    DexCache cache = new DexCache(cacheDir, 1024 * 1024);
+    ImmutableMap<String, Path> artifacts =
+        ImmutableMap.of("dex", Paths.get("lib.dex.jar"), "meta", Paths.get("lib.dex.jar.meta"));
+    String key = Strings.repeat("d", 40);
+
+    filesystem.writeContentsToPath("dex", Paths.get("lib.dex.jar"));
+    filesystem.writeContentsToPath("meta", Paths.get("lib.dex.jar.meta"));
+    cache.store(context, filesystem, key, artifacts);
+
+    Files.delete(cacheDir.resolve("dd").resolve(key).resolve("meta"));
+    assertFalse(cache.fetch(context, filesystem, key, artifacts));
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+    DexCache cache = new DexCache(cacheDir, 35);
+    ImmutableMap<String, Path> artifacts = ImmutableMap.of("dex", Paths.get("lib.dex.jar"));
+    String first = Strings.repeat("1", 40);
+    String second = Strings.repeat("2", 40);
+    String third = Strings.repeat("3", 40);
+
+    filesystem.writeContentsToPath(Strings.repeat("x", 10), Paths.get("lib.dex.jar"));
+    cache.store(context, filesystem, first, artifacts);
+    cache.store(context, filesystem, second, artifacts);
+    Files.setLastModifiedTime(cacheDir.resolve("11").resolve(first), FileTime.fromMillis(0));
+    cache.store(context, filesystem, third, artifacts);
+
+    assertEquals(2, cache.scanEntries().size());
+    assertFalse(cache.fetch(context, filesystem, first, artifacts));
+    assertTrue(cache.fetch(context, filesystem, second, artifacts));
+    assertTrue(cache.fetch(context, filesystem, third, artifacts));
+    try (Stream<Path> children = Files.list(cacheDir)) {
+      assertTrue(children.noneMatch(child -> child.getFileName().toString().startsWith(".tmp-")));
+    }
+  }
+
+  @Test
+  public void keyDependsOnOptionsAndOutputType() {
+    AndroidPlatformTarget platformTarget = createAndroidPlatformTarget();
+    String inputsHash = Strings.repeat("c", 40);
+    String key =
+        DexCache.computeKey(
+            inputsHash,
+            platformTarget,
+            DxStep.DX,
+            EnumSet.of(DxStep.Option.NO_OPTIMIZE),
+            Paths.get("a/classes.dex.jar"));
+
+    assertEquals(
+        key,
+        DexCache.computeKey(
+            inputsHash,
+            platformTarget,
+            DxStep.DX,
+            EnumSet.of(DxStep.Option.NO_OPTIMIZE),
+            Paths.get("b/other.dex.jar")));
+    assertNotEquals(
+        key,
+        DexCache.computeKey(
+            inputsHash,
+            platformTarget,
+            DxStep.DX,
+            EnumSet.of(DxStep.Option.NO_OPTIMIZE, DxStep.Option.FORCE_JUMBO),
+            Paths.get("a/classes.dex.jar")));
+    assertNotEquals(
+        key,
+        DexCache.computeKey(
+            inputsHash,
+            platformTarget,
+            DxStep.D8,
+            EnumSet.of(DxStep.Option.NO_OPTIMIZE),
+            Paths.get("a/classes.dex.jar")));
+    assertNotEquals(
+        key,
+        DexCache.computeKey(
+            inputsHash,
+            platformTarget,
+            DxStep.DX,
+            EnumSet.of(DxStep.Option.NO_OPTIMIZE),
+            Paths.get("a/classes.dex.jar.xz")));
+  }
+
+  private AndroidPlatformTarget createAndroidPlatformTarget() {
+    return AndroidPlatformTarget.of(
+        "android",
+        Paths.get(""),
+        Collections.emptyList(),
+        Paths.get(""),
+        Paths.get(""),
+        Paths.get(""),
+        Paths.get(""),
+        Paths.get(""),
+        Paths.get("/usr/bin/dx"),
+        Paths.get(""),
+        Paths.get(""),
+        Paths.get(""),
+        Paths.get(""));
+  }
+}
@@ -88,7 +88,8 @@ public class SmartDexingStepTest {
             EnumSet.of(DxStep.Option.NO_OPTIMIZE),
             OptionalInt.empty(),
             Optional.empty(),
-            DxStep.DX);
+            DxStep.DX,
+            Optional.empty());
     assertFalse("'dummy' is not a matching input hash", rule.checkIsCached());
 
     // Write the real hash into the output hash file and ensure that checkIsCached now
@@ -288,6 +289,23 @@ public class SmartDexingStepTest {
         DxStep.DX);
   }
 
+  @Test
+  public void testDexCacheArtifactsIncludeMetaFiles() {
+    assertEquals(
+        ImmutableMap.of(
+            "dex", Paths.get("secondary-1.dex.jar.xz"),
+            "meta", Paths.get("secondary-1.dex.jar.meta")),
+        SmartDexingStep.getDexCacheArtifacts(Paths.get("secondary-1.dex.jar.xz")));
+    assertEquals(
+        ImmutableMap.of(
+            "dex", Paths.get("secondary-1.dex.jar"),
+            "meta", Paths.get("secondary-1.dex.jar.meta")),
+        SmartDexingStep.getDexCacheArtifacts(Paths.get("secondary-1.dex.jar")));
+    assertEquals(
+        ImmutableMap.of("dex", Paths.get("classes.dex")),
+        SmartDexingStep.getDexCacheArtifacts(Paths.get("classes.dex")));
+  }
+
   private AndroidPlatformTarget createAndroidPlatformTarget() {
     return AndroidPlatformTarget.of(
         "android",
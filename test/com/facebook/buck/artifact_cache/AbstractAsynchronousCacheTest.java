@@ -17,6 +17,7 @@
 package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.AbstractAsynchronousCache.CacheEventListener;
@@ -24,10 +25,13 @@ import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.MoreAsserts;
+import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.concurrent.ExplicitRunExecutorService;
 import com.google.common.collect.ImmutableList;
@@ -35,14 +39,19 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class AbstractAsynchronousCacheTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
   @Test
   public void testMultiFetchLimiting() throws Exception {
     ExplicitRunExecutorService service = new ExplicitRunExecutorService();
@@ -145,6 +154,37 @@ public class AbstractAsynchronousCacheTest {
     }
   }
 
+  @Test
+  public void testStoreOfNonBorrowablePathOutlivesOriginal() throws Exception {
+    ExplicitRunExecutorService service = new ExplicitRunExecutorService();
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path original = tmp.newFile("artifact");
+    Files.write(original, "contents".getBytes(StandardCharsets.UTF_8));
+
+    List<Path> storedPaths = new ArrayList<>();
+    List<String> storedContents = new ArrayList<>();
+    try (AbstractAsynchronousCache cache =
+        new RequestedKeyRecordingAsynchronousCache(service, filesystem, new ArrayList<>(), 3, 3) {
+          @Override
+          protected StoreResult storeImpl(ArtifactInfo info, Path file) throws IOException {
+            storedPaths.add(filesystem.resolve(file));
+            storedContents.add(
+                new String(Files.readAllBytes(filesystem.resolve(file)), StandardCharsets.UTF_8));
+            return super.storeImpl(info, file);
+          }
+        }) {
+      ListenableFuture<Void> storeFuture =
+          cache.store(ArtifactInfo.builder().build(), BorrowablePath.notBorrowablePath(original));
+      // The owner of the path may delete it as soon as store() returns.
+      Files.delete(original);
+      service.run();
+      storeFuture.get();
+    }
+
+    assertEquals(ImmutableList.of("contents"), storedContents);
+    assertFalse(Files.exists(storedPaths.get(0)));
+  }
+
   private static class NoOpEventListener implements AbstractAsynchronousCache.CacheEventListener {
     @Override
     public AbstractAsynchronousCache.StoreEvents storeScheduled(
@@ -237,7 +277,7 @@ public class AbstractAsynchronousCacheTest {
     }
 
     @Override
-    protected StoreResult storeImpl(ArtifactInfo info, Path file) {
+    protected StoreResult storeImpl(ArtifactInfo info, Path file) throws IOException {
       return null;
     }
 
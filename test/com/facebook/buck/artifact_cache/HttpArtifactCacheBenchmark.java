@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.slb.SingleUriService;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.integration.HttpdForTests;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import okhttp3.OkHttpClient;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Measures the throughput and allocations of {@link HttpArtifactCache} fetching and storing large
+ * artifacts from and to a local stand-in for the cache server.
+ *
+ * <p>The server replays a canned fetch response and discards stored payloads, so that the numbers
+ * are dominated by the client.
+ */
+public class HttpArtifactCacheBenchmark {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  @Param({"1", "16", "256"})
+  private int artifactSizeMegabytes = 64;
+
+  @Param({"8"})
+  private int opCount = 8;
+
+  private static final RuleKey RULE_KEY = new RuleKey("00000000000000000000000000000000");
+
+  private ProjectFilesystem filesystem;
+  private Path artifact;
+  private Path fetchResponse;
+  private LazyPath output;
+  private HttpdForTests httpd;
+  private HttpArtifactCache artifactCache;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() throws Exception {
+    artifact = tmpDir.newFile("artifact");
+    byte[] chunk = new byte[1024 * 1024];
+    new Random(12345).nextBytes(chunk);
+    try (OutputStream outputStream = Files.newOutputStream(artifact)) {
+      for (int i = 0; i < artifactSizeMegabytes; i++) {
+        outputStream.write(chunk);
+      }
+    }
+    fetchResponse = tmpDir.newFile("fetch_response");
+    try (OutputStream outputStream = Files.newOutputStream(fetchResponse)) {
+      new HttpArtifactCacheBinaryProtocol.FetchResponse(
+              ImmutableSet.of(RULE_KEY), ImmutableMap.of(), MoreFiles.asByteSource(artifact))
+          .write(outputStream);
+    }
+    output = LazyPath.ofInstance(tmpDir.getRoot().resolve("output"));
+
+    httpd = new HttpdForTests();
+    httpd.addHandler(new StandInCacheHandler(fetchResponse));
+    httpd.start();
+
+    URI server = new URI("http", null, "127.0.0.1", httpd.getRootUri().getPort(), "/", null, null);
+    OkHttpClient client =
+        new OkHttpClient.Builder()
+            .readTimeout(1, TimeUnit.MINUTES)
+            .writeTimeout(1, TimeUnit.MINUTES)
+            .build();
+    artifactCache =
+        new HttpArtifactCache(
+            NetworkCacheArgs.builder()
+                .setCacheName("http")
+                .setCacheMode(ArtifactCacheMode.http)
+                .setRepository("benchmark")
+                .setScheduleType("benchmark")
+                .setFetchClient(new SingleUriService(server, client))
+                .setStoreClient(new SingleUriService(server, client))
+                .setCacheReadMode(CacheReadMode.READWRITE)
+                .setProjectFilesystem(filesystem)
+                .setBuckEventBus(BuckEventBusForTests.newInstance())
+                .setHttpWriteExecutorService(MoreExecutors.newDirectExecutorService())
+                .setHttpFetchExecutorService(MoreExecutors.newDirectExecutorService())
+                .setErrorTextTemplate("{cache_name}: {error_message}")
+                .setErrorTextLimit(100)
+                .build());
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws Exception {
+    artifactCache.close();
+    httpd.close();
+  }
+
+  @Ignore
+  @Test
+  public void testFetchThroughput() {
+    benchFetch();
+    report("fetch", this::benchFetch);
+  }
+
+  @Ignore
+  @Test
+  public void testStoreThroughput() {
+    benchStore();
+    report("store", this::benchStore);
+  }
+
+  /** Prints the throughput and the bytes allocated per megabyte transferred by {@code op}. */
+  private void report(String name, Runnable op) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+    long startNanos = System.nanoTime();
+    op.run();
+    long elapsedNanos = System.nanoTime() - startNanos;
+    long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    long megabytes = (long) opCount * artifactSizeMegabytes;
+    System.out.printf(
+        "%s: %d x %dMB: %.1f MB/s, %d bytes allocated per MB%n",
+        name,
+        opCount,
+        artifactSizeMegabytes,
+        megabytes * 1e9 / elapsedNanos,
+        allocated / megabytes);
+  }
+
+  @Benchmark
+  private void benchFetch() {
+    for (int i = 0; i < opCount; i++) {
+      CacheResult result = Futures.getUnchecked(artifactCache.fetchAsync(null, RULE_KEY, output));
+      if (!result.getType().isSuccess()) {
+        throw new IllegalStateException(result.toString());
+      }
+    }
+  }
+
+  @Benchmark
+  private void benchStore() {
+    ArtifactInfo info = ArtifactInfo.builder().addRuleKeys(RULE_KEY).build();
+    for (int i = 0; i < opCount; i++) {
+      Futures.getUnchecked(
+          artifactCache.store(info, BorrowablePath.notBorrowablePath(artifact)));
+    }
+  }
+
+  /** Serves the canned fetch response for every key and accepts, but discards, every store. */
+  private static class StandInCacheHandler extends AbstractHandler {
+    private final Path fetchResponse;
+
+    private StandInCacheHandler(Path fetchResponse) {
+      this.fetchResponse = fetchResponse;
+    }
+
+    @Override
+    public void handle(
+        String target,
+        Request baseRequest,
+        HttpServletRequest request,
+        HttpServletResponse response)
+        throws IOException {
+      if (baseRequest.getMethod().equals("GET")) {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentLengthLong(Files.size(fetchResponse));
+        Files.copy(fetchResponse, response.getOutputStream());
+      } else {
+        ByteStreams.exhaust(baseRequest.getInputStream());
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+      }
+      baseRequest.setHandled(true);
+    }
+  }
+}
@@ -29,8 +29,10 @@ import com.google.caliper.AfterExperiment;
 import com.google.caliper.BeforeExperiment;
 import com.google.caliper.Benchmark;
 import com.google.caliper.Param;
+import com.google.common.base.Stopwatch;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
@@ -42,6 +44,8 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Random;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -54,9 +58,12 @@ public class SQLiteArtifactCacheBenchmark {
   @Param({"1000", "10000", "100000"})
   private int opCount = 100;
 
-  @Param({"5", "10"})
+  @Param({"1", "4", "16", "64"})
   private int threadCount = 2;
 
+  @Param({"1", "4", "16"})
+  private int shardCount = 1;
+
   private static final Random random = new Random(12345);
   private static final long MAX_INLINED_BYTES = 1024;
 
@@ -95,6 +102,7 @@ public class SQLiteArtifactCacheBenchmark {
   @BeforeExperiment
   private void setUpBenchmark() throws IOException, SQLException {
     artifactCache = cache(Optional.of(1024 * 1024 * 1024L));
+    executor = MoreExecutors.newDirectExecutorService();
     byte[] randomRuleKey = new byte[16];
 
     ruleKeys = new ArrayList<>(opCount);
@@ -137,7 +145,8 @@ public class SQLiteArtifactCacheBenchmark {
         BuckEventBusForTests.newInstance(),
         maxCacheSizeBytes,
         Optional.of(MAX_INLINED_BYTES),
-        CacheReadMode.READWRITE);
+        CacheReadMode.READWRITE,
+        shardCount);
   }
 
   @Ignore
@@ -154,6 +163,37 @@ public class SQLiteArtifactCacheBenchmark {
     runAllBenchmarks();
   }
 
+  /**
+   * Prints the throughput of a mixed fetch/store workload for increasing thread counts, once for
+   * each shard count. With a single shard, throughput flattens out as soon as threads start
+   * contending for the database; with more shards it should keep climbing.
+   */
+  @Ignore
+  @Test
+  public void testThroughputScaling() throws IOException, SQLException {
+    int[] shardCounts = {1, 4, 16};
+    int[] threadCounts = {1, 2, 4, 8, 16, 32, 64};
+    for (int shards : shardCounts) {
+      for (int threads : threadCounts) {
+        artifactCache.close();
+        executor.shutdown();
+        cacheDir = tmpDir.newFolder();
+        output = LazyPath.ofInstance(cacheDir.resolve(".output"));
+        shardCount = shards;
+        threadCount = threads;
+        setUpBenchmark();
+        executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        runAllBenchmarks();
+        long elapsedMillis = Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        System.out.printf(
+            "shards=%d threads=%d ops=%d: %d ops/s%n",
+            shards, threads, 4 * opCount, 4 * opCount * 1000L / elapsedMillis);
+      }
+    }
+  }
+
   private void runAllBenchmarks() {
     benchMetadataStore();
     benchMetadataFetch();
@@ -161,35 +201,45 @@ public class SQLiteArtifactCacheBenchmark {
     benchArtifactFetch();
   }
 
+  /** Runs {@code op} for every index in {@code [0, count)} on the executor and waits for it. */
+  private void runOnExecutor(int count, IntConsumer op) {
+    List<ListenableFuture<?>> futures = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int index = i;
+      futures.add(executor.submit(() -> op.accept(index)));
+    }
+    Futures.getUnchecked(Futures.allAsList(futures));
+  }
+
   @Benchmark
   private void benchMetadataStore() {
-    for (ArtifactInfo info : metadataInfo) {
-      artifactCache.store(info, BorrowablePath.notBorrowablePath(emptyFile));
-    }
+    runOnExecutor(
+        metadataInfo.size(),
+        i -> artifactCache.store(metadataInfo.get(i), BorrowablePath.notBorrowablePath(emptyFile)));
   }
 
   @Benchmark
   private void benchMetadataFetch() {
-    for (RuleKey key : ruleKeys) {
-      Futures.getUnchecked(artifactCache.fetchAsync(null, key, output));
-    }
+    runOnExecutor(
+        ruleKeys.size(),
+        i -> Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKeys.get(i), output)));
   }
 
   @Benchmark
   private void benchArtifactStore() {
-    for (int i = 0; i < contentInfo.size() / 2; i++) {
-      artifactCache.store(contentInfo.get(i), BorrowablePath.notBorrowablePath(inlinedFile));
-    }
-
-    for (int i = contentInfo.size() / 2; i < contentInfo.size(); i++) {
-      artifactCache.store(contentInfo.get(i), BorrowablePath.notBorrowablePath(largeFile));
-    }
+    runOnExecutor(
+        contentInfo.size(),
+        i ->
+            artifactCache.store(
+                contentInfo.get(i),
+                BorrowablePath.notBorrowablePath(
+                    i < contentInfo.size() / 2 ? inlinedFile : largeFile)));
   }
 
   @Benchmark
   private void benchArtifactFetch() {
-    for (RuleKey key : ruleKeys) {
-      Futures.getUnchecked(artifactCache.fetchAsync(null, key, output));
-    }
+    runOnExecutor(
+        contentHashes.size(),
+        i -> Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashes.get(i), output)));
   }
 }
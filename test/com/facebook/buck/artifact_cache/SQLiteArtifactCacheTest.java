@@ -112,6 +112,19 @@ public class SQLiteArtifactCacheTest {
         CacheReadMode.READWRITE);
   }
 
+  private SQLiteArtifactCache shardedCache(Optional<Long> maxCacheSizeBytes, int shardCount)
+      throws IOException, SQLException {
+    return new SQLiteArtifactCache(
+        "sqlite",
+        filesystem,
+        cacheDir,
+        BuckEventBusForTests.newInstance(),
+        maxCacheSizeBytes,
+        Optional.of(MAX_INLINED_BYTES),
+        CacheReadMode.READWRITE,
+        shardCount);
+  }
+
   /**
    * Writes an artifact small enough to inline in the database.
    *
@@ -434,6 +447,79 @@ public class SQLiteArtifactCacheTest {
     assertArrayEquals(Files.readAllBytes(output.get()), Files.readAllBytes(fileA));
   }
 
+  @Test
+  public void testShardedStoreAndFetchHit() throws IOException, SQLException {
+    artifactCache = shardedCache(Optional.empty(), 4);
+    for (RuleKey ruleKey : ImmutableList.of(ruleKeyA, ruleKeyB, ruleKeyC)) {
+      artifactCache.store(
+          ArtifactInfo.builder()
+              .addRuleKeys(ruleKey)
+              .putMetadata(METADATA_KEY, contentHashA.toString())
+              .build(),
+          BorrowablePath.notBorrowablePath(emptyFile));
+    }
+    writeInlinedArtifact(fileA);
+    artifactCache.store(artifactInfoA, BorrowablePath.notBorrowablePath(fileA));
+
+    assertTrue(Files.exists(cacheDir.resolve("dircache-1-of-4.db")));
+    assertFalse(Files.exists(cacheDir.resolve("dircache.db")));
+
+    // buffered metadata is visible before it is written out
+    for (RuleKey ruleKey : ImmutableList.of(ruleKeyA, ruleKeyB, ruleKeyC)) {
+      CacheResult result = Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKey, output));
+      assertEquals(CacheResultType.HIT, result.getType());
+      assertEquals(contentHashA.toString(), result.getMetadata().get(METADATA_KEY));
+    }
+    CacheResult result = Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashA, output));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(Files.readAllBytes(fileA), Files.readAllBytes(output.get()));
+
+    assertThat(
+        artifactCache.metadataRuleKeys(),
+        Matchers.containsInAnyOrder(ruleKeyA, ruleKeyB, ruleKeyC));
+    assertThat(artifactCache.inlinedArtifactContentHashes(), Matchers.contains(contentHashA));
+  }
+
+  @Test
+  public void testShardedDeleteMetadataKeepsRecentlyAccessed() throws Exception {
+    artifactCache = shardedCache(Optional.of(0L), 4);
+    Timestamp time = Timestamp.from(Instant.now().minus(Duration.ofDays(8)));
+
+    artifactCache.insertMetadata(ruleKeyA, ImmutableMap.of(), time);
+    artifactCache.insertMetadata(ruleKeyB, ImmutableMap.of(), time);
+
+    // the access time update is buffered, but must be written out before eviction
+    Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKeyA, output));
+
+    artifactCache.removeOldMetadata().get();
+    assertThat(artifactCache.metadataRuleKeys(), Matchers.contains(ruleKeyA));
+  }
+
+  @Test
+  public void testShardedDeleteAfterStoreWhenFull() throws Exception {
+    artifactCache = shardedCache(Optional.of(2 * MAX_INLINED_BYTES), 4);
+
+    writeFileArtifact(fileA);
+    writeFileArtifact(fileB);
+    writeFileArtifact(fileC);
+
+    artifactCache.insertContent(
+        contentHashA,
+        BorrowablePath.borrowablePath(fileA),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(3))));
+    artifactCache.insertContent(
+        contentHashB,
+        BorrowablePath.borrowablePath(fileB),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(2))));
+    artifactCache.store(artifactInfoC, BorrowablePath.borrowablePath(fileC));
+    assertThat(artifactCache.directoryFileContentHashes(), Matchers.hasSize(3));
+
+    artifactCache.removeOldContent().get();
+    ImmutableList<RuleKey> filesNotDeleted = artifactCache.directoryFileContentHashes();
+    assertThat(filesNotDeleted.size(), Matchers.lessThan(3));
+    assertThat(filesNotDeleted, Matchers.hasItem(contentHashC));
+  }
+
   @Test
   public void testMarshalMetadata() throws IOException {
     byte[] expected = new byte[4];
@@ -24,14 +24,23 @@ import static org.junit.Assert.assertThat;
 import com.facebook.buck.config.FakeBuckConfig;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.TestCellBuilder;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetGraphAndBuildTargets;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.rules.knowntypes.DefaultKnownBuildRuleTypesFactory;
 import com.facebook.buck.core.rules.knowntypes.KnownBuildRuleTypesProvider;
 import com.facebook.buck.event.BuckEventBus;
-import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.event.BuckEventBusForTests.CapturingConsoleEventListener;
+import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.io.ExecutableFinder;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
 import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.parser.BuildTargetSpec;
+import com.facebook.buck.parser.DaemonicParserState;
 import com.facebook.buck.parser.DefaultParser;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
@@ -39,6 +48,7 @@ import com.facebook.buck.parser.ParserPythonInterpreterProvider;
 import com.facebook.buck.parser.PerBuildState;
 import com.facebook.buck.parser.PerBuildStateFactory;
 import com.facebook.buck.parser.SpeculativeParsing;
+import com.facebook.buck.parser.TargetNodeSpec;
 import com.facebook.buck.parser.TargetSpecResolver;
 import com.facebook.buck.plugin.impl.BuckPluginManagerFactory;
 import com.facebook.buck.query.QueryBuildTarget;
@@ -53,13 +63,22 @@ import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.testutil.integration.ProjectWorkspace;
 import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.facebook.buck.util.DefaultProcessExecutor;
+import com.facebook.buck.util.RichStream;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SortedMap;
 import java.util.concurrent.Executors;
 import org.hamcrest.CoreMatchers;
 import org.junit.After;
@@ -195,4 +214,228 @@ public class BuckQueryEnvironmentTest {
         capturingConsoleEventListener.getLogMessages(),
         CoreMatchers.equalTo(singletonList(expectedWarning)));
   }
+  @Test
+  public void queriesGiveTheSameResultsWithAndWithoutTheQueryIndex() throws Exception {
+    createQueryIndexFilesystem();
+    for (String query :
+        ImmutableList.of(
+            "deps(//app:app)",
+            "rdeps(set(//app:app //app:other), //lib:base)",
+            "kind('java_library', deps(set(//app:app //app:other)))",
+            "kind('fake', deps(set(//app:app //app:other)))",
+            "attrfilter(labels, 'app', deps(set(//app:app //app:other)))")) {
+      assertThat(
+          query,
+          createQueryIndexEnvironment(true, ImmutableSet.of()).evaluateQuery(query),
+          is(equalTo(createQueryIndexEnvironment(false, ImmutableSet.of()).evaluateQuery(query))));
+    }
+
+    BuckQueryEnvironment env = createQueryIndexEnvironment(true, ImmutableSet.of());
+    assertThat(
+        env.evaluateQuery("rdeps(set(//app:app //app:other), //lib:base)"),
+        is(equalTo(queryTargets("//lib:base", "//lib:util", "//app:app", "//app:other"))));
+    assertThat(
+        env.evaluateQuery("kind('java_library', deps(set(//app:app //app:other)))"),
+        is(equalTo(queryTargets("//lib:base", "//lib:util"))));
+    assertThat(
+        env.evaluateQuery("attrfilter(labels, 'app', deps(set(//app:app //app:other)))"),
+        is(equalTo(queryTargets("//app:app"))));
+  }
+
+  @Test
+  public void queriesFallBackToTheGraphWhenANodeIsNotIndexed() throws Exception {
+    createQueryIndexFilesystem();
+    // The index alone doesn't know that //lib:util depends on //lib:base.
+    BuckQueryEnvironment env =
+        createQueryIndexEnvironment(true, ImmutableSet.of("//lib:util"));
+
+    assertThat(
+        env.evaluateQuery("rdeps(set(//app:app //app:other), //lib:base)"),
+        is(equalTo(queryTargets("//lib:base", "//lib:util", "//app:app", "//app:other"))));
+    assertThat(
+        env.evaluateQuery("kind('java_library', deps(//app:app))"),
+        is(equalTo(queryTargets("//lib:base", "//lib:util"))));
+  }
+
+  private ProjectFilesystem filesystem;
+
+  private void createQueryIndexFilesystem() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.newFolder());
+    filesystem.mkdirs(Paths.get("lib"));
+    filesystem.mkdirs(Paths.get("app"));
+  }
+
+  private ImmutableSet<QueryTarget> queryTargets(String... targets) {
+    return RichStream.from(targets)
+        .<QueryTarget>map(
+            target -> QueryBuildTarget.of(BuildTargetFactory.newInstance(filesystem, target)))
+        .toImmutableSet();
+  }
+
+  /**
+   * Creates an environment over a small graph that doesn't need the build file parser. When the
+   * index is enabled, nodes are added to it as they are loaded, the same way the daemon's caches
+   * would, except for {@code notIndexed}.
+   */
+  private BuckQueryEnvironment createQueryIndexEnvironment(
+      boolean enableQueryIndex, ImmutableSet<String> notIndexed) {
+    Cell cell = new TestCellBuilder().setFilesystem(filesystem).build();
+    TargetNode<?, ?> base =
+        JavaLibraryBuilder.createBuilder(BuildTargetFactory.newInstance(filesystem, "//lib:base"))
+            .addSrc(Paths.get("lib/Base.java"))
+            .build();
+    TargetNode<?, ?> util =
+        JavaLibraryBuilder.createBuilder(BuildTargetFactory.newInstance(filesystem, "//lib:util"))
+            .addSrc(Paths.get("lib/Util.java"))
+            .addDep(base.getBuildTarget())
+            .build();
+    TargetNode<?, ?> app =
+        FakeTargetNodeBuilder.newBuilder(BuildTargetFactory.newInstance(filesystem, "//app:app"))
+            .setDeps(util)
+            .setLabel("app")
+            .build();
+    TargetNode<?, ?> other =
+        FakeTargetNodeBuilder.newBuilder(BuildTargetFactory.newInstance(filesystem, "//app:other"))
+            .setDeps(base)
+            .setLabel("other")
+            .build();
+    Parser parser =
+        new FakeParser(
+            new DaemonicParserState(TYPE_COERCER_FACTORY, 1, false, enableQueryIndex),
+            ImmutableList.of(base, util, app, other),
+            notIndexed);
+    return BuckQueryEnvironment.from(
+        cell,
+        OwnersReport.builder(cell, parser, eventBus),
+        parser,
+        /* parserState */ null,
+        MoreExecutors.newDirectExecutorService(),
+        new TargetPatternEvaluator(
+            cell, FakeBuckConfig.builder().build(), parser, eventBus, /* enableProfiling */ false),
+        eventBus,
+        TYPE_COERCER_FACTORY);
+  }
+
+  /** A {@link Parser} that only knows about a fixed set of nodes. */
+  private static class FakeParser implements Parser {
+    private final DaemonicParserState permState;
+    private final ImmutableMap<BuildTarget, TargetNode<?, ?>> nodes;
+    private final ImmutableSet<String> notIndexed;
+
+    private FakeParser(
+        DaemonicParserState permState,
+        Iterable<TargetNode<?, ?>> nodes,
+        ImmutableSet<String> notIndexed) {
+      this.permState = permState;
+      this.nodes = Maps.uniqueIndex(nodes, TargetNode::getBuildTarget);
+      this.notIndexed = notIndexed;
+    }
+
+    @Override
+    public DaemonicParserState getPermState() {
+      return permState;
+    }
+
+    @Override
+    public ImmutableSet<TargetNode<?, ?>> getAllTargetNodes(
+        BuckEventBus eventBus,
+        Cell cell,
+        boolean enableProfiling,
+        ListeningExecutorService executor,
+        Path buildFile) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TargetNode<?, ?> getTargetNode(
+        BuckEventBus eventBus,
+        Cell cell,
+        boolean enableProfiling,
+        ListeningExecutorService executor,
+        BuildTarget target) {
+      return getTargetNode(null, target);
+    }
+
+    @Override
+    public TargetNode<?, ?> getTargetNode(PerBuildState perBuildState, BuildTarget target) {
+      TargetNode<?, ?> node =
+          Preconditions.checkNotNull(nodes.get(target), "No node for %s", target);
+      if (!notIndexed.contains(target.getFullyQualifiedName())) {
+        permState.getQueryIndex().ifPresent(index -> index.add(node));
+      }
+      return node;
+    }
+
+    @Override
+    public ListenableFuture<TargetNode<?, ?>> getTargetNodeJob(
+        PerBuildState perBuildState, BuildTarget target) {
+      return Futures.immediateFuture(getTargetNode(perBuildState, target));
+    }
+
+    @Override
+    public SortedMap<String, Object> getTargetNodeRawAttributes(
+        PerBuildState state, Cell cell, TargetNode<?, ?> targetNode) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedMap<String, Object> getTargetNodeRawAttributes(
+        BuckEventBus eventBus,
+        Cell cell,
+        boolean enableProfiling,
+        ListeningExecutorService executor,
+        TargetNode<?, ?> targetNode) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TargetGraph buildTargetGraph(
+        BuckEventBus eventBus,
+        Cell rootCell,
+        boolean enableProfiling,
+        ListeningExecutorService executor,
+        Iterable<BuildTarget> toExplore) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TargetGraphAndBuildTargets buildTargetGraphForTargetNodeSpecs(
+        BuckEventBus eventBus,
+        Cell rootCell,
+        boolean enableProfiling,
+        ListeningExecutorService executor,
+        Iterable<? extends TargetNodeSpec> targetNodeSpecs) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TargetGraphAndBuildTargets buildTargetGraphForTargetNodeSpecs(
+        BuckEventBus eventBus,
+        Cell rootCell,
+        boolean enableProfiling,
+        ListeningExecutorService executor,
+        Iterable<? extends TargetNodeSpec> targetNodeSpecs,
+        ParserConfig.ApplyDefaultFlavorsMode applyDefaultFlavorsMode) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableList<ImmutableSet<BuildTarget>> resolveTargetSpecs(
+        BuckEventBus eventBus,
+        Cell rootCell,
+        boolean enableProfiling,
+        ListeningExecutorService executor,
+        Iterable<? extends TargetNodeSpec> specs,
+        SpeculativeParsing speculativeParsing,
+        ParserConfig.ApplyDefaultFlavorsMode applyDefaultFlavorsMode) {
+      ImmutableList.Builder<ImmutableSet<BuildTarget>> result = ImmutableList.builder();
+      for (TargetNodeSpec spec : specs) {
+        result.add(ImmutableSet.of(((BuildTargetSpec) spec).getBuildTarget()));
+      }
+      return result.build();
+    }
+
+    @Override
+    public void register(EventBus eventBus) {}
+  }
 }
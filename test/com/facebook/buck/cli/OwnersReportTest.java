@@ -43,6 +43,7 @@ import com.facebook.buck.model.FilesystemBackedBuildFileTree;
 import com.facebook.buck.parser.DefaultParser;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.parser.TargetNodeQueryIndex;
 import com.facebook.buck.parser.TargetSpecResolver;
 import com.facebook.buck.parser.exceptions.NoSuchBuildTargetException;
 import com.facebook.buck.plugin.impl.BuckPluginManagerFactory;
@@ -282,6 +283,53 @@ public class OwnersReportTest {
     assertTrue(report.nonExistentInputs.contains(input));
   }
 
+  @Test
+  public void reportFromQueryIndexMatchesCheckingEveryNode() throws IOException {
+    ImmutableList<String> files =
+        ImmutableList.of("java/somefolder/owned.java", "java/otherfolder/unowned.java");
+    for (String file : files) {
+      filesystem.mkdirs(filesystem.getPath(file).getParent());
+      filesystem.writeContentsToPath("", filesystem.getPath(file));
+    }
+    filesystem.mkdirs(filesystem.getPath("java/emptyfolder"));
+
+    TargetNode<?, ?> fileOwner =
+        createTargetNode(
+            BuildTargetFactory.newInstance("//java:file"),
+            ImmutableSet.of(filesystem.getPath("java/somefolder/owned.java")));
+    TargetNode<?, ?> directoryOwner =
+        createTargetNode(
+            BuildTargetFactory.newInstance("//java:directory"),
+            ImmutableSet.of(filesystem.getPath("java/somefolder")));
+    TargetNode<?, ?> noInputs =
+        createTargetNode(BuildTargetFactory.newInstance("//java:none"), ImmutableSet.of());
+    ImmutableSet<TargetNode<?, ?>> targetNodes =
+        ImmutableSet.of(fileOwner, directoryOwner, noInputs);
+    TargetNodeQueryIndex index = new TargetNodeQueryIndex();
+    targetNodes.forEach(index::add);
+
+    Cell cell = new TestCellBuilder().setFilesystem(filesystem).build();
+    for (String input :
+        ImmutableList.<String>builder()
+            .addAll(files)
+            .add("java/emptyfolder", "java/missing.java")
+            .build()) {
+      OwnersReport expected =
+          targetNodes
+              .stream()
+              .map(targetNode -> OwnersReport.generateOwnersReport(cell, targetNode, input))
+              .reduce(OwnersReport.emptyReport(), OwnersReport::updatedWith);
+      OwnersReport actual =
+          OwnersReport.Builder.getReportFromIndex(
+              index, cell, targetNodes, filesystem.getPath(input));
+
+      assertEquals(input, expected.owners, actual.owners);
+      assertEquals(input, expected.inputsWithNoOwners, actual.inputsWithNoOwners);
+      assertEquals(input, expected.nonExistentInputs, actual.nonExistentInputs);
+      assertEquals(input, expected.nonFileInputs, actual.nonFileInputs);
+    }
+  }
+
   private Parser createParser(Cell cell) {
     ProcessExecutor processExecutor = new DefaultProcessExecutor(new TestConsole());
     KnownBuildRuleTypesProvider knownBuildRuleTypesProvider =
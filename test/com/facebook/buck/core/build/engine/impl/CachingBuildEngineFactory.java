@@ -156,7 +156,8 @@ public class CachingBuildEngineFactory {
           remoteBuildRuleCompletionWaiter,
           resourceAwareSchedulingInfo,
           RuleKeyDiagnostics.nop(),
-          logBuildRuleFailuresInline);
+          logBuildRuleFailuresInline,
+          Optional.empty());
     }
 
     return new CachingBuildEngine(
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.build.stats.BuildRuleDurationHistory;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CriticalPathSchedulerTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final RuleDepsCache ruleDeps = new DefaultRuleDepsCache(new TestActionGraphBuilder());
+
+  private BuildRule slowLeaf;
+  private BuildRule fastLeaf;
+  private BuildRule library;
+  private BuildRule binary;
+
+  @Before
+  public void setUp() {
+    slowLeaf = new FakeBuildRule(BuildTargetFactory.newInstance("//:slow_leaf"));
+    fastLeaf = new FakeBuildRule(BuildTargetFactory.newInstance("//:fast_leaf"));
+    library = new FakeBuildRule(BuildTargetFactory.newInstance("//:library"), slowLeaf);
+    binary = new FakeBuildRule(BuildTargetFactory.newInstance("//:binary"), library, fastLeaf);
+  }
+
+  @Test
+  public void computesLongestChainOfDependents() {
+    ImmutableMap<BuildRule, Long> durations =
+        ImmutableMap.of(slowLeaf, 50L, fastLeaf, 10L, library, 20L, binary, 5L);
+
+    CriticalPathScheduler.CriticalPaths paths =
+        CriticalPathScheduler.CriticalPaths.compute(
+            ImmutableList.of(binary), ruleDeps, durations::get);
+
+    assertEquals(5, paths.getRemainingMillis(binary));
+    assertEquals(25, paths.getRemainingMillis(library));
+    assertEquals(75, paths.getRemainingMillis(slowLeaf));
+    assertEquals(15, paths.getRemainingMillis(fastLeaf));
+    assertEquals(75, paths.getCriticalPathMillis());
+    assertEquals(ImmutableList.of(slowLeaf, library, binary), paths.getCriticalPath());
+  }
+
+  @Test
+  public void prioritizesRulesOnTheCriticalPath() {
+    BuildRuleDurationHistory history =
+        BuildRuleDurationHistory.empty(tmp.getRoot().resolve("durations.json"));
+    history.record(slowLeaf.getBuildTarget(), 50);
+    history.record(fastLeaf.getBuildTarget(), 10);
+    history.record(library.getBuildTarget(), 20);
+    history.record(binary.getBuildTarget(), 5);
+    CriticalPathScheduler scheduler =
+        new CriticalPathScheduler(history, tmp.getRoot().resolve("report.json"));
+
+    // Nothing is known about the rules of the build before they are added.
+    assertEquals(0, scheduler.getPriority(slowLeaf));
+
+    scheduler.addTopLevelRules(ImmutableList.of(binary), ruleDeps);
+    assertEquals(75, scheduler.getPriority(slowLeaf));
+    assertEquals(
+        ImmutableList.of(library, fastLeaf),
+        scheduler.sortByPriority(ImmutableList.of(fastLeaf, library)));
+  }
+}
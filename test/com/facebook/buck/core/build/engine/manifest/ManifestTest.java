@@ -38,11 +38,13 @@ import com.google.common.hash.HashCode;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
@@ -76,6 +78,32 @@ public class ManifestTest {
     assertThat(ManifestUtil.toMap(deserialized), Matchers.equalTo(entries));
   }
 
+  @Test
+  public void deserializeLegacyFormat() throws IOException {
+    ImmutableMap<RuleKey, ImmutableMap<String, HashCode>> entries =
+        ImmutableMap.of(
+            new RuleKey("aa"),
+            ImmutableMap.of("foo/bar.h", HashCode.fromInt(20), "foo/baz.h", HashCode.fromInt(30)),
+            new RuleKey("bb"),
+            ImmutableMap.of("foo/bar.h", HashCode.fromInt(21)));
+    Manifest manifest = ManifestUtil.fromMap(new RuleKey("cc"), entries);
+
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    manifest.serializeLegacy(byteArrayOutputStream);
+    Manifest deserialized =
+        new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertThat(deserialized.getKey(), Matchers.equalTo(new RuleKey("cc")));
+    assertThat(ManifestUtil.toMap(deserialized), Matchers.equalTo(entries));
+
+    // Manifests fetched from the cache by older versions are stored compressed.
+    byteArrayOutputStream = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+      manifest.serializeLegacy(outputStream);
+    }
+    deserialized = new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertThat(ManifestUtil.toMap(deserialized), Matchers.equalTo(entries));
+  }
+
   @Test
   public void addEntry() throws IOException {
     Manifest manifest = new Manifest(new RuleKey("cc"));
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.manifest;
+
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
+import com.facebook.buck.core.sourcepath.resolver.impl.DefaultSourcePathResolver;
+import com.facebook.buck.rules.FakeSourcePath;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedManifestTest {
+
+  private static final SourcePathResolver RESOLVER =
+      DefaultSourcePathResolver.from(new SourcePathRuleFinder(new TestActionGraphBuilder()));
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void readsBackSerializedManifest() throws IOException {
+    ImmutableMap<RuleKey, ImmutableMap<String, HashCode>> entries =
+        ImmutableMap.of(
+            new RuleKey("aa"),
+            ImmutableMap.of("z.h", HashCode.fromInt(1), "a.h", HashCode.fromInt(2)),
+            new RuleKey("bb"),
+            ImmutableMap.of("m.h", HashCode.fromInt(3)));
+    MappedManifest mapped = ManifestUtil.fromMap(new RuleKey("cc"), entries).toMappedManifest();
+
+    assertThat(mapped.getKey(), Matchers.equalTo(new RuleKey("cc")));
+    assertThat(mapped.size(), Matchers.equalTo(2));
+    assertThat(
+        mapped.getStats(),
+        Matchers.equalTo(
+            ManifestStats.builder().setNumDepFiles(2).setNumInputs(3).setNumHashes(3).build()));
+    // Inputs are stored sorted so that they can be binary searched.
+    assertThat(mapped.getInput(0), Matchers.equalTo("a.h"));
+    assertThat(mapped.getInput(2), Matchers.equalTo("z.h"));
+  }
+
+  @Test
+  public void lookupMatchesFirstEntry() throws IOException {
+    SourcePath foo = FakeSourcePath.of("foo.h");
+    SourcePath bar = FakeSourcePath.of("bar.h");
+    String fooHeader = RESOLVER.getRelativePath(foo).toString();
+    String barHeader = RESOLVER.getRelativePath(bar).toString();
+    Manifest manifest =
+        ManifestUtil.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(
+                new RuleKey("aa"),
+                ImmutableMap.of(fooHeader, HashCode.fromInt(1), barHeader, HashCode.fromInt(2)),
+                new RuleKey("bb"),
+                ImmutableMap.of(fooHeader, HashCode.fromInt(3)),
+                new RuleKey("dd"),
+                ImmutableMap.of(barHeader, HashCode.fromInt(4))));
+    MappedManifest mapped = manifest.toMappedManifest();
+
+    FileHashCache fileHashCache =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                RESOLVER.getAbsolutePath(foo),
+                HashCode.fromInt(3),
+                RESOLVER.getAbsolutePath(bar),
+                HashCode.fromInt(4)));
+    ImmutableSet<SourcePath> universe = ImmutableSet.of(foo, bar);
+    assertThat(
+        mapped.lookup(fileHashCache, RESOLVER, universe),
+        Matchers.equalTo(Optional.of(new RuleKey("bb"))));
+    assertThat(
+        mapped.lookup(fileHashCache, RESOLVER, universe),
+        Matchers.equalTo(manifest.lookup(fileHashCache, RESOLVER, universe)));
+
+    // A missing file or a header outside of the universe never matches.
+    assertThat(
+        mapped.lookup(new FakeFileHashCache(ImmutableMap.of()), RESOLVER, universe),
+        Matchers.equalTo(Optional.empty()));
+    assertThat(
+        mapped.lookup(fileHashCache, RESOLVER, ImmutableSet.of(bar)),
+        Matchers.equalTo(Optional.of(new RuleKey("dd"))));
+  }
+
+  @Test
+  public void lookupMatchesInParallelWithManyEntries() throws IOException {
+    Manifest manifest = new Manifest(new RuleKey("cc"));
+    ImmutableMap.Builder<Path, HashCode> hashes = ImmutableMap.builder();
+    ImmutableSet.Builder<SourcePath> universe = ImmutableSet.builder();
+    for (int i = 0; i < 64; i++) {
+      SourcePath input = FakeSourcePath.of("input" + i + ".h");
+      universe.add(input);
+      hashes.put(RESOLVER.getAbsolutePath(input), HashCode.fromInt(i));
+    }
+    FileHashCache fileHashCache = new FakeFileHashCache(hashes.build());
+    ImmutableSet<SourcePath> inputs = universe.build();
+
+    // Every entry refers to all inputs, but only the last one matches their current contents.
+    for (int i = 0; i < 100; i++) {
+      int[] hashIndices = new int[inputs.size()];
+      int index = 0;
+      for (SourcePath input : inputs) {
+        HashCode hash =
+            i == 99
+                ? fileHashCache.get(RESOLVER.getAbsolutePath(input))
+                : HashCode.fromLong(i * 1000L + index);
+        hashIndices[index++] = manifest.addHash(RESOLVER.getRelativePath(input).toString(), hash);
+      }
+      manifest.entries.add(new Pair<>(new RuleKey(String.format("%04x", i)), hashIndices));
+    }
+
+    assertThat(
+        manifest.toMappedManifest().lookup(fileHashCache, RESOLVER, inputs),
+        Matchers.equalTo(Optional.of(new RuleKey("0063"))));
+  }
+
+  @Test
+  public void parallelLookupReturnsFirstOfSeveralMatchingEntries() throws IOException {
+    Manifest manifest = new Manifest(new RuleKey("cc"));
+    ImmutableMap.Builder<Path, HashCode> hashes = ImmutableMap.builder();
+    ImmutableSet.Builder<SourcePath> universe = ImmutableSet.builder();
+    for (int i = 0; i < 64; i++) {
+      SourcePath input = FakeSourcePath.of("input" + i + ".h");
+      universe.add(input);
+      hashes.put(RESOLVER.getAbsolutePath(input), HashCode.fromInt(i));
+    }
+    FileHashCache fileHashCache = new FakeFileHashCache(hashes.build());
+    ImmutableSet<SourcePath> inputs = universe.build();
+
+    // Later matching entries are checked by other threads, possibly before the earliest one.
+    ImmutableSet<Integer> matchingEntries = ImmutableSet.of(41, 42, 43, 70, 99);
+    for (int i = 0; i < 100; i++) {
+      int[] hashIndices = new int[inputs.size()];
+      int index = 0;
+      for (SourcePath input : inputs) {
+        HashCode hash =
+            matchingEntries.contains(i)
+                ? fileHashCache.get(RESOLVER.getAbsolutePath(input))
+                : HashCode.fromLong(i * 1000L + index);
+        hashIndices[index++] = manifest.addHash(RESOLVER.getRelativePath(input).toString(), hash);
+      }
+      manifest.entries.add(new Pair<>(new RuleKey(String.format("%04x", i)), hashIndices));
+    }
+
+    MappedManifest mapped = manifest.toMappedManifest();
+    for (int i = 0; i < 20; i++) {
+      assertThat(
+          mapped.lookup(fileHashCache, RESOLVER, inputs),
+          Matchers.equalTo(Optional.of(new RuleKey("0029"))));
+    }
+  }
+
+  @Test
+  public void openConvertsLegacyCompressedManifest() throws IOException {
+    SourcePath input = FakeSourcePath.of("input.h");
+    Manifest manifest =
+        ManifestUtil.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(
+                new RuleKey("aa"),
+                ImmutableMap.of(RESOLVER.getRelativePath(input).toString(), HashCode.fromInt(5))));
+    Path path = tmp.newFile("manifest").toPath();
+    try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(path))) {
+      manifest.serializeLegacy(outputStream);
+    }
+
+    MappedManifest mapped = MappedManifest.open(path);
+    assertThat(mapped.getKey(), Matchers.equalTo(new RuleKey("cc")));
+    assertThat(
+        mapped.lookup(
+            new FakeFileHashCache(
+                ImmutableMap.of(RESOLVER.getAbsolutePath(input), HashCode.fromInt(5))),
+            RESOLVER,
+            ImmutableSet.of(input)),
+        Matchers.equalTo(Optional.of(new RuleKey("aa"))));
+  }
+
+  @Test
+  public void openMapsManifestInCurrentFormat() throws IOException {
+    Manifest manifest =
+        ManifestUtil.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(new RuleKey("aa"), ImmutableMap.of("foo.h", HashCode.fromInt(5))));
+    Path path = tmp.newFile("manifest").toPath();
+    try (OutputStream outputStream = Files.newOutputStream(path)) {
+      manifest.serialize(outputStream);
+    }
+    MappedManifest mapped = MappedManifest.open(path);
+    assertThat(mapped.getKey(), Matchers.equalTo(new RuleKey("cc")));
+    assertThat(mapped.getEntryKey(0), Matchers.equalTo(new RuleKey("aa")));
+  }
+}
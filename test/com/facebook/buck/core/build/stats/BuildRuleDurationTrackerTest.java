@@ -21,6 +21,7 @@ import static org.junit.Assert.assertEquals;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.rules.FakeBuildRule;
 import com.facebook.buck.util.timing.ClockDuration;
+import java.util.Optional;
 import org.junit.Test;
 
 public class BuildRuleDurationTrackerTest {
@@ -53,5 +54,12 @@ public class BuildRuleDurationTrackerTest {
     assertEquals(new ClockDuration(18, 18000, 1500), tracker.doEnding(rule1, 33, 33000, 200));
     assertEquals(new ClockDuration(12, 12000, 42), tracker.doEnding(rule2, 35, 35000, 42));
     assertEquals(new ClockDuration(22, 22000, 1900), tracker.doEnding(rule1, 37, 37000, 400));
+
+    assertEquals(
+        Optional.of(new ClockDuration(22, 22000, 1900)),
+        tracker.getDuration(rule1.getBuildTarget()));
+    assertEquals(
+        Optional.empty(),
+        tracker.getDuration(new FakeBuildRule("//fake:rule3").getBuildTarget()));
   }
 }
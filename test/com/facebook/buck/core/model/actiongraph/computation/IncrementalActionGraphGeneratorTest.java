@@ -17,6 +17,7 @@
 package com.facebook.buck.core.model.actiongraph.computation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -500,6 +501,35 @@ public class IncrementalActionGraphGeneratorTest {
     oldRuleResolver.getRuleOptional(node.getBuildTarget());
   }
 
+  @Test
+  public void onlyReverseDependenciesOfChangedTargetInvalidated() {
+    TargetNode<?, ?> originalChildNode = createTargetNode("child");
+    TargetNode<?, ?> originalParentNode = createTargetNode("parent", originalChildNode);
+    TargetNode<?, ?> unrelatedNode = createTargetNode("unrelated");
+    setUpTargetGraphAndResolver(originalParentNode, originalChildNode, unrelatedNode);
+
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(originalParentNode.getBuildTarget());
+    BuildRule unrelatedBuildRule = graphBuilder.requireRule(unrelatedNode.getBuildTarget());
+
+    TargetNode<?, ?> newChildNode = createTargetNode("child", "new_label");
+    TargetNode<?, ?> newParentNode = createTargetNode("parent", newChildNode);
+    setUpTargetGraphAndResolver(newParentNode, newChildNode, unrelatedNode);
+
+    ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
+    IncrementalActionGraphGenerator.Delta delta =
+        generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, newGraphBuilder);
+
+    assertEquals(1, delta.getChangedNodeCount());
+    assertEquals(2, delta.getInvalidatedNodeCount());
+    assertEquals(1, delta.getReusedRuleCount());
+    assertTrue(delta.isReused(unrelatedNode.getBuildTarget()));
+    assertFalse(delta.isReused(newParentNode.getBuildTarget()));
+    assertFalse(delta.isReused(newChildNode.getBuildTarget()));
+    assertSame(unrelatedBuildRule, newGraphBuilder.getRule(unrelatedNode.getBuildTarget()));
+    assertFalse(newGraphBuilder.getRuleOptional(newParentNode.getBuildTarget()).isPresent());
+  }
+
   @Test
   public void actionGraphEventsRaised() throws InterruptedException {
     TargetNode<?, ?> node = createTargetNode("test1");
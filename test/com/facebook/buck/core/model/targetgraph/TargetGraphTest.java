@@ -20,8 +20,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.graph.DirectedAcyclicGraph;
+import com.facebook.buck.graph.MutableDirectedGraph;
 import com.facebook.buck.jvm.java.JavaLibraryBuilder;
 import com.facebook.buck.model.BuildTargetFactory;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -157,6 +160,34 @@ public class TargetGraphTest {
     assertEquals(graph1.hashCode(), graph2.hashCode());
   }
 
+  @Test
+  public void testCompactRepresentationHasTheSameSubgraphs() {
+    MutableDirectedGraph<TargetNode<?, ?>> graph = new MutableDirectedGraph<>();
+    for (TargetNode<?, ?> node : targetGraph.getNodes()) {
+      graph.addNode(node);
+      for (TargetNode<?, ?> dep : targetGraph.getOutgoingNodesFor(node)) {
+        graph.addEdge(node, dep);
+      }
+    }
+    TargetGraph compactGraph =
+        new TargetGraph(
+            graph,
+            targetGraph
+                .getNodes()
+                .stream()
+                .collect(ImmutableMap.toImmutableMap(TargetNode::getBuildTarget, n -> n)),
+            DirectedAcyclicGraph.Representation.COMPACT);
+
+    assertEquals(targetGraph, compactGraph);
+    TargetGraph subgraph = compactGraph.getSubgraph(ImmutableSet.of(nodeB, nodeD, nodeH));
+    assertEquals(DirectedAcyclicGraph.Representation.COMPACT, subgraph.getRepresentation());
+    assertEquals(
+        ImmutableSet.of(nodeB, nodeD, nodeE, nodeF, nodeG, nodeH, nodeI), subgraph.getNodes());
+    for (TargetNode<?, ?> node : subgraph.getNodes()) {
+      assertEquals(targetGraph.getOutgoingNodesFor(node), subgraph.getOutgoingNodesFor(node));
+    }
+  }
+
   private void checkSubgraph(
       ImmutableSet<TargetNode<?, ?>> roots, ImmutableSet<TargetNode<?, ?>> expectedNodes) {
     TargetGraph subgraph = targetGraph.getSubgraph(roots);
@@ -21,8 +21,10 @@ import static org.junit.Assert.assertThat;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -148,4 +150,13 @@ public class DepfilesTest {
         Depfiles.parseDepfile(new StringReader(input)),
         Matchers.equalTo(new Depfiles.Depfile(expectedTarget, expectedPrereqs)));
   }
+
+  @Test
+  public void parseDepfileIncrementally() throws IOException {
+    List<String> prereqs = new ArrayList<>();
+    assertThat(
+        Depfiles.parseDepfile(new StringReader(input), prereqs::add),
+        Matchers.equalTo(expectedTarget));
+    assertThat(ImmutableList.copyOf(prereqs), Matchers.equalTo(expectedPrereqs));
+  }
 }
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cxx;
 
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
@@ -61,6 +62,20 @@ public class HeaderPathNormalizerTest {
         Matchers.equalTo(headerPath));
   }
 
+  @Test
+  public void lookupsAreCached() {
+    SourcePathResolver pathResolver =
+        DefaultSourcePathResolver.from(new SourcePathRuleFinder(new TestActionGraphBuilder()));
+    Path header = filesystem.getPath("foo/bar.h");
+    SourcePath headerPath = PathSourcePath.of(filesystem, header);
+    HeaderPathNormalizer normalizer =
+        new HeaderPathNormalizer.Builder(pathResolver).addHeader(headerPath).build();
+    Optional<Path> absolutePath =
+        normalizer.getAbsolutePathForUnnormalizedPath(filesystem.resolve(header));
+    assertSame(
+        absolutePath, normalizer.getAbsolutePathForUnnormalizedPath(filesystem.resolve(header)));
+  }
+
   @Test
   public void managedHeaderWithRelativePath() {
     SourcePathResolver pathResolver =
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.args.StringArg;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+public class TransitiveCxxPreprocessorInputsTest {
+
+  private static final BuildTarget TOP = BuildTargetFactory.newInstance("//:top");
+  private static final BuildTarget LEFT = BuildTargetFactory.newInstance("//:left");
+  private static final BuildTarget RIGHT = BuildTargetFactory.newInstance("//:right");
+  private static final BuildTarget BOTTOM = BuildTargetFactory.newInstance("//:bottom");
+
+  @Test
+  public void flattensSharedDependenciesOnce() {
+    TransitiveCxxPreprocessorInputs bottom = inputsFor(BOTTOM);
+    TransitiveCxxPreprocessorInputs left = inputsFor(LEFT, bottom);
+    TransitiveCxxPreprocessorInputs right = inputsFor(RIGHT, bottom);
+    TransitiveCxxPreprocessorInputs top = inputsFor(TOP, left, right);
+
+    assertEquals(ImmutableList.of(BOTTOM, LEFT, RIGHT, TOP), top.toMap().keySet().asList());
+    assertEquals(inputFor(BOTTOM), top.toMap().get(BOTTOM));
+    assertEquals(ImmutableList.of(BOTTOM, LEFT), left.toMap().keySet().asList());
+  }
+
+  @Test
+  public void flattenedMapIsComputedOnce() {
+    TransitiveCxxPreprocessorInputs top =
+        inputsFor(TOP, inputsFor(LEFT, inputsFor(BOTTOM)), inputsFor(RIGHT));
+    assertSame(top.toMap(), top.toMap());
+  }
+
+  @Test
+  public void setsWithNothingToAddAreShared() {
+    TransitiveCxxPreprocessorInputs bottom = inputsFor(BOTTOM);
+    assertSame(
+        bottom,
+        TransitiveCxxPreprocessorInputs.of(ImmutableMap.of(), ImmutableList.of(bottom, bottom)));
+    assertSame(
+        TransitiveCxxPreprocessorInputs.of(ImmutableMap.of()),
+        TransitiveCxxPreprocessorInputs.of(ImmutableMap.of(), ImmutableList.of()));
+  }
+
+  @Test
+  public void wrappedMapIsReturnedAsIs() {
+    ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs =
+        ImmutableMap.of(LEFT, inputFor(LEFT), RIGHT, inputFor(RIGHT));
+    assertEquals(inputs, TransitiveCxxPreprocessorInputs.of(inputs).toMap());
+  }
+
+  private static CxxPreprocessorInput inputFor(BuildTarget target) {
+    return CxxPreprocessorInput.builder()
+        .putPreprocessorFlags(CxxSource.Type.C, StringArg.of("-D" + target.getShortName()))
+        .build();
+  }
+
+  private static TransitiveCxxPreprocessorInputs inputsFor(
+      BuildTarget target, TransitiveCxxPreprocessorInputs... children) {
+    return TransitiveCxxPreprocessorInputs.of(
+        ImmutableMap.of(target, inputFor(target)), ImmutableList.copyOf(children));
+  }
+}
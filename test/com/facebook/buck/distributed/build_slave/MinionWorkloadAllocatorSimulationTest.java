@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed.build_slave;
+
+import static com.facebook.buck.distributed.thrift.MinionType.STANDARD_SPEC;
+
+import com.facebook.buck.distributed.build_slave.DistBuildTrace.MinionThread;
+import com.facebook.buck.distributed.build_slave.DistBuildTrace.MinionTrace;
+import com.facebook.buck.distributed.build_slave.DistBuildTrace.RuleTrace;
+import com.facebook.buck.distributed.build_slave.MinionWorkloadAllocator.WorkloadAllocationResult;
+import com.facebook.buck.distributed.thrift.StampedeId;
+import com.facebook.buck.distributed.thrift.WorkUnit;
+import com.facebook.buck.util.timing.SettableFakeClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Replays a build against {@link MinionWorkloadAllocator} with minions of different speeds, to
+ * check how scheduling decisions affect the total build time.
+ */
+public class MinionWorkloadAllocatorSimulationTest {
+  private static final StampedeId STAMPEDE_ID = new StampedeId().setId("SIMULATION");
+  private static final long POLL_INTERVAL_MILLIS = 100;
+  private static final long MAX_SIMULATED_MILLIS = 1_000_000;
+  private static final String SLOW_MINION = "slow_minion";
+  private static final String FAST_MINION = "fast_minion";
+
+  @Test
+  public void speculationHidesSlowMinion() {
+    ImmutableMap<String, ImmutableSet<String>> dependencies =
+        ImmutableMap.<String, ImmutableSet<String>>builder()
+            .put("a1", ImmutableSet.of())
+            .put("a2", ImmutableSet.of("a1"))
+            .put("a3", ImmutableSet.of("a2"))
+            .put("a4", ImmutableSet.of("a3"))
+            .put("a5", ImmutableSet.of("a4"))
+            .put("b1", ImmutableSet.of())
+            .put("b2", ImmutableSet.of("b1"))
+            .put("b3", ImmutableSet.of("b2"))
+            .build();
+    Map<String, List<RuleTrace>> recordedRules = new HashMap<>();
+    long start = 0;
+    for (String target : dependencies.keySet()) {
+      recordedRules
+          .computeIfAbsent("recorded_minion", minion -> new ArrayList<>())
+          .add(new RuleTrace(target, start, start + 1000));
+      start += 1000;
+    }
+    ImmutableMap<String, Long> durations =
+        getRuleDurations(new DistBuildTrace(STAMPEDE_ID, recordedRules, Optional.empty()));
+
+    // The slow minion polls first, so it picks up the longer chain.
+    ImmutableMap<String, Double> slowdownByMinion =
+        ImmutableMap.of(SLOW_MINION, 10.0, FAST_MINION, 1.0);
+
+    long withoutSpeculation = simulate(dependencies, durations, slowdownByMinion, Long.MAX_VALUE);
+    long withSpeculation = simulate(dependencies, durations, slowdownByMinion, 2000);
+
+    Assert.assertTrue(withoutSpeculation >= 50_000);
+    Assert.assertTrue(withSpeculation <= 9_000);
+  }
+
+  /** Returns how long each rule took in the given trace. */
+  static ImmutableMap<String, Long> getRuleDurations(DistBuildTrace trace) {
+    Map<String, Long> durations = new HashMap<>();
+    for (MinionTrace minion : trace.minions) {
+      for (MinionThread thread : minion.threads) {
+        for (RuleTrace rule : thread.ruleTraces) {
+          durations.put(rule.ruleName, rule.finishEpochMillis - rule.startEpochMillis);
+        }
+      }
+    }
+    return ImmutableMap.copyOf(durations);
+  }
+
+  /**
+   * Runs the build with single threaded minions that poll the allocator every {@link
+   * #POLL_INTERVAL_MILLIS}, and returns the time it took. Targets that were already built by
+   * another minion are treated as cache hits and finish instantly.
+   */
+  static long simulate(
+      ImmutableMap<String, ImmutableSet<String>> dependencies,
+      ImmutableMap<String, Long> durations,
+      ImmutableMap<String, Double> slowdownByMinion,
+      long speculationDelayMillis) {
+    SettableFakeClock clock = new SettableFakeClock(0, -1_000_000_000_000L);
+    MinionWorkloadAllocator allocator =
+        new MinionWorkloadAllocator(
+            MinionWorkloadAllocatorTest.createQueue(dependencies),
+            new DistBuildTraceTracker(STAMPEDE_ID, clock),
+            Optional.empty(),
+            clock,
+            speculationDelayMillis);
+
+    Set<String> builtTargets = new HashSet<>();
+    Map<String, SimulatedMinion> minions = new HashMap<>();
+    slowdownByMinion.forEach(
+        (minionId, slowdown) -> minions.put(minionId, new SimulatedMinion(slowdown)));
+
+    for (long now = 0; now < MAX_SIMULATED_MILLIS; now += POLL_INTERVAL_MILLIS) {
+      clock.setCurrentTimeMillis(now);
+      for (String minionId : slowdownByMinion.keySet()) {
+        SimulatedMinion minion = minions.get(minionId);
+        if (minion.released) {
+          continue;
+        }
+        minion.advance(now, builtTargets, durations);
+        List<String> finishedTargets = new ArrayList<>(minion.unreportedTargets);
+        minion.unreportedTargets.clear();
+        WorkloadAllocationResult result =
+            allocator.updateMinionWorkloadAllocation(
+                minionId, STANDARD_SPEC, finishedTargets, minion.isIdle() ? 1 : 0);
+        if (allocator.isBuildFinished()) {
+          return now;
+        }
+        minion.released = result.shouldReleaseMinion;
+        for (WorkUnit workUnit : result.newWorkUnitsForMinion) {
+          // Copy the targets, as the allocator keeps updating the work units it hands out.
+          minion.pendingTargets.addAll(ImmutableList.copyOf(workUnit.getBuildTargets()));
+        }
+        minion.advance(now, builtTargets, durations);
+      }
+    }
+    throw new AssertionError("Simulated build did not finish.");
+  }
+
+  private static class SimulatedMinion {
+    private final double slowdown;
+    private final Deque<String> pendingTargets = new ArrayDeque<>();
+    private final List<String> unreportedTargets = new ArrayList<>();
+    private Optional<String> currentTarget = Optional.empty();
+    private long currentTargetFinishMillis;
+    private boolean released;
+
+    private SimulatedMinion(double slowdown) {
+      this.slowdown = slowdown;
+    }
+
+    private boolean isIdle() {
+      return !currentTarget.isPresent() && pendingTargets.isEmpty();
+    }
+
+    /** Finishes everything that is done by now and starts on the next target. */
+    private void advance(long now, Set<String> builtTargets, Map<String, Long> durations) {
+      while (true) {
+        if (currentTarget.isPresent()) {
+          if (currentTargetFinishMillis > now) {
+            return;
+          }
+          builtTargets.add(currentTarget.get());
+          unreportedTargets.add(currentTarget.get());
+          currentTarget = Optional.empty();
+        }
+        if (pendingTargets.isEmpty()) {
+          return;
+        }
+        String target = pendingTargets.removeFirst();
+        currentTarget = Optional.of(target);
+        currentTargetFinishMillis =
+            builtTargets.contains(target) ? now : now + (long) (durations.get(target) * slowdown);
+      }
+    }
+  }
+}
@@ -18,6 +18,8 @@ package com.facebook.buck.distributed.build_slave;
 
 import static com.facebook.buck.distributed.thrift.MinionType.LOW_SPEC;
 import static com.facebook.buck.distributed.thrift.MinionType.STANDARD_SPEC;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
@@ -26,6 +28,7 @@ import com.facebook.buck.core.build.engine.impl.DefaultRuleDepsCache;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.distributed.NoopArtifactCacheByBuildRule;
+import com.facebook.buck.distributed.build_slave.DistributableBuildGraph.DistributableNode;
 import com.facebook.buck.distributed.build_slave.MinionWorkloadAllocator.WorkloadAllocationResult;
 import com.facebook.buck.distributed.testutil.CustomActiongGraphBuilderFactory;
 import com.facebook.buck.distributed.thrift.MinionType;
@@ -33,11 +36,15 @@ import com.facebook.buck.distributed.thrift.StampedeId;
 import com.facebook.buck.distributed.thrift.WorkUnit;
 import com.facebook.buck.event.listener.NoOpCoordinatorBuildRuleEventsPublisher;
 import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.util.timing.SettableFakeClock;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import org.easymock.EasyMock;
@@ -56,6 +63,8 @@ public class MinionWorkloadAllocatorTest {
   private static final int MANY_REMAINING_UNITS = 100;
   private static final int MOST_BUILD_RULES_FINISHED_PERCENTAGE = 100;
   private static final StampedeId STAMPEDE_ID = new StampedeId().setId("DUMMY_ID");
+  private static final long START_MILLIS = 1_000_000;
+  private static final long SPECULATION_DELAY_MILLIS = 5000;
 
   private DistBuildTraceTracker tracker;
 
@@ -298,7 +307,9 @@ public class MinionWorkloadAllocatorTest {
         .anyTimes();
     List<WorkUnit> noUnits = new LinkedList<>();
     List<String> noTargets = new LinkedList<>();
-    expect(queue.dequeueZeroDependencyNodes(noTargets, MAX_WORK_UNITS_TO_FETCH))
+    expect(
+            queue.dequeueZeroDependencyNodes(
+                eq(noTargets), eq(MAX_WORK_UNITS_TO_FETCH), anyObject()))
         .andReturn(noUnits)
         .anyTimes();
     replay(queue);
@@ -324,19 +335,29 @@ public class MinionWorkloadAllocatorTest {
     ImmutableList<String> targets = ImmutableList.copyOf(getAllTargets(units));
     List<String> noTargets = new LinkedList<>();
     // Provide units on 1st and 2nd call, then do not.
-    expect(queue.dequeueZeroDependencyNodes(noTargets, MAX_WORK_UNITS_TO_FETCH))
+    expect(
+            queue.dequeueZeroDependencyNodes(
+                eq(noTargets), eq(MAX_WORK_UNITS_TO_FETCH), anyObject()))
         .andReturn(units)
         .once();
-    expect(queue.dequeueZeroDependencyNodes(noTargets, MAX_WORK_UNITS_TO_FETCH))
+    expect(
+            queue.dequeueZeroDependencyNodes(
+                eq(noTargets), eq(MAX_WORK_UNITS_TO_FETCH), anyObject()))
         .andReturn(units2)
         .once();
-    expect(queue.dequeueZeroDependencyNodes(noTargets, MAX_WORK_UNITS_TO_FETCH))
+    expect(
+            queue.dequeueZeroDependencyNodes(
+                eq(noTargets), eq(MAX_WORK_UNITS_TO_FETCH), anyObject()))
         .andReturn(noUnits)
         .once();
-    expect(queue.dequeueZeroDependencyNodes(targets, MAX_WORK_UNITS_TO_FETCH))
+    expect(
+            queue.dequeueZeroDependencyNodes(
+                eq(targets), eq(MAX_WORK_UNITS_TO_FETCH), anyObject()))
         .andReturn(noUnits)
         .once();
-    expect(queue.dequeueZeroDependencyNodes(noTargets, MAX_WORK_UNITS_TO_FETCH))
+    expect(
+            queue.dequeueZeroDependencyNodes(
+                eq(noTargets), eq(MAX_WORK_UNITS_TO_FETCH), anyObject()))
         .andReturn(noUnits)
         .once();
     // Notify "many units left to do" on 1st call and "no units" on 2nd.
@@ -357,6 +378,140 @@ public class MinionWorkloadAllocatorTest {
     verify(queue);
   }
 
+  @Test
+  public void testStragglingWorkUnitIsSpeculativelyCopiedAndFirstResultWins() {
+    SettableFakeClock clock = new SettableFakeClock(START_MILLIS, 0);
+    MinionWorkloadAllocator allocator =
+        new MinionWorkloadAllocator(
+            createQueue(ImmutableMap.of("a", ImmutableSet.of(), "b", ImmutableSet.of("a"))),
+            tracker,
+            Optional.of(MINION_TWO),
+            clock,
+            SPECULATION_DELAY_MILLIS);
+
+    Assert.assertEquals(
+        ImmutableList.of(ImmutableList.of("a", "b")),
+        allocate(allocator, MINION_ONE, ImmutableList.of(), 1));
+    // Nothing has been stuck for long enough yet.
+    Assert.assertEquals(
+        ImmutableList.of(), allocate(allocator, MINION_TWO, ImmutableList.of(), 1));
+
+    clock.setCurrentTimeMillis(START_MILLIS + SPECULATION_DELAY_MILLIS);
+    Assert.assertEquals(
+        ImmutableList.of(ImmutableList.of("a", "b")),
+        allocate(allocator, MINION_TWO, ImmutableList.of(), 1));
+    // Only one speculative copy is made.
+    Assert.assertEquals(
+        ImmutableList.of(), allocate(allocator, MINION_THREE, ImmutableList.of(), 1));
+
+    // Minion two finishes first, so the results from minion one are ignored.
+    allocate(allocator, MINION_TWO, ImmutableList.of("a"), 0);
+    allocate(allocator, MINION_ONE, ImmutableList.of("a"), 0);
+    Assert.assertFalse(allocator.isBuildFinished());
+    allocate(allocator, MINION_TWO, ImmutableList.of("b"), 1);
+    Assert.assertTrue(allocator.isBuildFinished());
+    allocate(allocator, MINION_ONE, ImmutableList.of("b"), 1);
+    Assert.assertTrue(allocator.isBuildFinished());
+  }
+
+  @Test
+  public void testWorkIsPreferablyAllocatedToMinionThatBuiltItsDependencies() {
+    MinionWorkloadAllocator allocator =
+        new MinionWorkloadAllocator(
+            createQueue(
+                ImmutableMap.<String, ImmutableSet<String>>builder()
+                    .put("l1", ImmutableSet.of())
+                    .put("l2", ImmutableSet.of())
+                    .put("l3", ImmutableSet.of())
+                    .put("l4", ImmutableSet.of())
+                    .put("top", ImmutableSet.of("l1", "l2"))
+                    .put("other", ImmutableSet.of("l3", "l4"))
+                    .put("root", ImmutableSet.of("top", "other"))
+                    .build()),
+            tracker,
+            Optional.empty());
+
+    Assert.assertEquals(
+        ImmutableList.of(ImmutableList.of("l1"), ImmutableList.of("l2")),
+        allocate(allocator, MINION_ONE, ImmutableList.of(), 2));
+    Assert.assertEquals(
+        ImmutableList.of(ImmutableList.of("l3"), ImmutableList.of("l4")),
+        allocate(allocator, MINION_TWO, ImmutableList.of(), 2));
+
+    // "other" becomes ready first, but minion one is offered "top" as it built all of its inputs.
+    Assert.assertEquals(
+        ImmutableList.of(), allocate(allocator, MINION_TWO, ImmutableList.of("l3", "l4"), 0));
+    Assert.assertEquals(
+        ImmutableList.of(ImmutableList.of("top")),
+        allocate(allocator, MINION_ONE, ImmutableList.of("l1", "l2"), 1));
+    Assert.assertEquals(
+        ImmutableList.of(ImmutableList.of("other")),
+        allocate(allocator, MINION_TWO, ImmutableList.of(), 1));
+  }
+
+  @Test
+  public void testMinionThroughputIsTrackedWhileBusy() {
+    SettableFakeClock clock = new SettableFakeClock(START_MILLIS, 0);
+    MinionWorkloadAllocator allocator =
+        new MinionWorkloadAllocator(
+            createQueue(ImmutableMap.of("a", ImmutableSet.of(), "b", ImmutableSet.of("a"))),
+            tracker,
+            Optional.empty(),
+            clock,
+            SPECULATION_DELAY_MILLIS);
+
+    allocate(allocator, MINION_ONE, ImmutableList.of(), 1);
+    Assert.assertFalse(allocator.getMinionThroughput(MINION_ONE).isPresent());
+
+    clock.setCurrentTimeMillis(START_MILLIS + 4000);
+    allocate(allocator, MINION_ONE, ImmutableList.of("a", "b"), 1);
+    Assert.assertEquals(0.5, allocator.getMinionThroughput(MINION_ONE).getAsDouble(), 0.001);
+
+    // Idle time doesn't count against the minion.
+    clock.setCurrentTimeMillis(START_MILLIS + 10000);
+    allocate(allocator, MINION_ONE, ImmutableList.of(), 1);
+    Assert.assertEquals(0.5, allocator.getMinionThroughput(MINION_ONE).getAsDouble(), 0.001);
+  }
+
+  /** Creates a queue over a graph given as a map from each target to its dependencies. */
+  static BuildTargetsQueue createQueue(ImmutableMap<String, ImmutableSet<String>> dependencies) {
+    ImmutableMap.Builder<String, DistributableNode> nodes = ImmutableMap.builder();
+    ImmutableSet.Builder<DistributableNode> leafNodes = ImmutableSet.builder();
+    dependencies.forEach(
+        (target, targetDependencies) -> {
+          ImmutableSet<String> dependents =
+              dependencies
+                  .entrySet()
+                  .stream()
+                  .filter(entry -> entry.getValue().contains(target))
+                  .map(Map.Entry::getKey)
+                  .collect(ImmutableSet.toImmutableSet());
+          DistributableNode node =
+              new DistributableNode(target, dependents, targetDependencies, false);
+          nodes.put(target, node);
+          if (targetDependencies.isEmpty()) {
+            leafNodes.add(node);
+          }
+        });
+    return new ReverseDepBuildTargetsQueue(
+        new DistributableBuildGraph(nodes.build(), leafNodes.build()),
+        MOST_BUILD_RULES_FINISHED_PERCENTAGE);
+  }
+
+  private static ImmutableList<ImmutableList<String>> allocate(
+      MinionWorkloadAllocator allocator,
+      String minionId,
+      ImmutableList<String> finishedNodes,
+      int maxWorkUnitsToFetch) {
+    // Copy the targets, as the allocator keeps updating the work units it hands out.
+    return allocator
+        .updateMinionWorkloadAllocation(minionId, STANDARD_SPEC, finishedNodes, maxWorkUnitsToFetch)
+        .newWorkUnitsForMinion
+        .stream()
+        .map(unit -> ImmutableList.copyOf(unit.getBuildTargets()))
+        .collect(ImmutableList.toImmutableList());
+  }
+
   private static void allocateWorkAndCheckRelease(
       MinionWorkloadAllocator allocator,
       String minionId,
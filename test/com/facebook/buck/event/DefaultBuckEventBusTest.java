@@ -19,14 +19,20 @@ package com.facebook.buck.event;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.timing.SettableFakeClock;
 import com.google.common.eventbus.Subscribe;
 import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 public class DefaultBuckEventBusTest {
@@ -115,6 +121,53 @@ public class DefaultBuckEventBusTest {
     assertEquals(event.getNanoTime(), 64738);
   }
 
+  @Test
+  public void slowListenerDoesNotDelayOtherListeners() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(),
+            false,
+            BuckEventBusForTests.BUILD_ID_FOR_TEST,
+            timeoutMillis,
+            Optional.of(ListenerDispatchOptions.builder().build()));
+    CountDownLatch release = new CountDownLatch(1);
+    CountingListener slowListener =
+        new CountingListener() {
+          @Override
+          public void onTestEvent(TestEvent event) throws InterruptedException {
+            release.await();
+            super.onTestEvent(event);
+          }
+        };
+    CountingListener fastListener = new CountingListener();
+    eb.register(slowListener);
+    eb.register(fastListener);
+
+    for (int i = 0; i < 10; i++) {
+      eb.post(new TestEvent());
+    }
+    assertFalse(eb.waitEvents(100));
+    assertEquals(10, fastListener.received.get());
+    assertEquals(0, slowListener.received.get());
+
+    release.countDown();
+    assertTrue(eb.waitEvents(timeoutMillis));
+    assertEquals(10, slowListener.received.get());
+    eb.close();
+  }
+
+  private static class CountingListener implements BuckEventListener {
+    protected final AtomicInteger received = new AtomicInteger();
+
+    @Subscribe
+    public void onTestEvent(TestEvent event) throws InterruptedException {
+      received.incrementAndGet();
+    }
+
+    @Override
+    public void outputTrace(BuildId buildId) {}
+  }
+
   private static class SleepEvent extends AbstractBuckEvent {
     public final long milliseconds;
 
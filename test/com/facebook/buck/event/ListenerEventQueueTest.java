@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ListenerEventQueueTest {
+
+  private BlockingListener listener;
+  private AtomicInteger finishedEvents;
+  private ListenerEventQueue queue;
+
+  @Before
+  public void setUp() {
+    listener = new BlockingListener();
+    finishedEvents = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown() {
+    listener.release.countDown();
+    if (queue != null) {
+      queue.close();
+    }
+  }
+
+  private void createQueue(EventQueueOverflowPolicy policy) throws InterruptedException {
+    queue =
+        new ListenerEventQueue(
+            listener,
+            ListenerDispatchOptions.builder().setQueueCapacity(2).setOverflowPolicy(policy).build(),
+            finishedEvents::addAndGet);
+    // Park the consumer thread on a first event so that the queue can be filled deterministically.
+    assertTrue(queue.offer(new TestEvent("blocker")));
+    assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void lowPriorityEventsAreDroppedWhenFull() throws InterruptedException {
+    createQueue(EventQueueOverflowPolicy.DROP_LOW_PRIORITY);
+    ProgressEvent first = ProgressEvent.buildProgressUpdated(0.1);
+    ProgressEvent second = ProgressEvent.buildProgressUpdated(0.2);
+    assertTrue(queue.offer(first));
+    assertTrue(queue.offer(second));
+
+    assertFalse(queue.offer(ProgressEvent.buildProgressUpdated(0.3)));
+    TestEvent important = new TestEvent("important");
+    assertTrue(queue.offer(important));
+
+    listener.release.countDown();
+    // The evicted event was accepted, so it is reported as finished along with the delivered ones.
+    waitForFinishedEvents(4);
+    assertEquals(
+        ImmutableList.of("blocker", second.toString(), important.toString()), listener.received);
+    assertEquals(2, getCounter("dropped_events").get());
+  }
+
+  @Test
+  public void lowPriorityEventsAreCoalescedWhenFull() throws InterruptedException {
+    createQueue(EventQueueOverflowPolicy.COALESCE);
+    TestEvent other = new TestEvent("other");
+    assertTrue(queue.offer(ProgressEvent.buildProgressUpdated(0.1)));
+    assertTrue(queue.offer(other));
+
+    ProgressEvent latest = ProgressEvent.buildProgressUpdated(0.2);
+    assertFalse(queue.offer(latest));
+
+    listener.release.countDown();
+    waitForFinishedEvents(3);
+    assertEquals(
+        ImmutableList.of("blocker", latest.toString(), other.toString()), listener.received);
+    assertEquals(1, getCounter("coalesced_events").get());
+  }
+
+  @Test
+  public void queuedEventsAreFinishedOnClose() throws InterruptedException {
+    createQueue(EventQueueOverflowPolicy.BLOCK);
+    assertTrue(queue.offer(new TestEvent("first")));
+    assertTrue(queue.offer(new TestEvent("second")));
+
+    queue.close();
+    assertEquals(2, finishedEvents.get());
+    assertFalse(queue.offer(new TestEvent("third")));
+  }
+
+  @Test(timeout = 10000)
+  public void listenersPostingToEachOthersFullQueuesDoNotDeadlock() throws InterruptedException {
+    // Every event makes its listener post two more to the other listener, until the given depth.
+    int depth = 10;
+    int totalEvents = (1 << (depth + 1)) - 1;
+    CountDownLatch delivered = new CountDownLatch(totalEvents);
+    ForwardingListener first = new ForwardingListener(delivered);
+    ForwardingListener second = new ForwardingListener(delivered);
+    ListenerDispatchOptions options =
+        ListenerDispatchOptions.builder()
+            .setQueueCapacity(1)
+            .setOverflowPolicy(EventQueueOverflowPolicy.BLOCK)
+            .build();
+    ListenerEventQueue firstQueue = new ListenerEventQueue(first, options, count -> {});
+    ListenerEventQueue secondQueue = new ListenerEventQueue(second, options, count -> {});
+    try {
+      first.target = secondQueue;
+      second.target = firstQueue;
+
+      assertTrue(firstQueue.offer(new DepthEvent(depth)));
+      delivered.await();
+    } finally {
+      firstQueue.close();
+      secondQueue.close();
+    }
+  }
+
+  private void waitForFinishedEvents(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (finishedEvents.get() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, finishedEvents.get());
+  }
+
+  private IntegerCounter getCounter(String name) {
+    for (Counter counter : queue.getCounters()) {
+      if (counter.getName().equals(name)) {
+        return (IntegerCounter) counter;
+      }
+    }
+    throw new AssertionError("No counter named " + name);
+  }
+
+  private static class BlockingListener {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+    @Subscribe
+    public void onEvent(BuckEvent event) throws InterruptedException {
+      received.add(event.toString());
+      started.countDown();
+      release.await();
+    }
+  }
+
+  private static class ForwardingListener {
+    private final CountDownLatch delivered;
+    private volatile ListenerEventQueue target;
+
+    private ForwardingListener(CountDownLatch delivered) {
+      this.delivered = delivered;
+    }
+
+    @Subscribe
+    public void onEvent(DepthEvent event) {
+      if (event.remaining > 0) {
+        target.offer(new DepthEvent(event.remaining - 1));
+        target.offer(new DepthEvent(event.remaining - 1));
+      }
+      delivered.countDown();
+    }
+  }
+
+  private static class DepthEvent extends TestEvent {
+    private final int remaining;
+
+    private DepthEvent(int remaining) {
+      super("depth " + remaining);
+      this.remaining = remaining;
+    }
+  }
+
+  private static class TestEvent extends AbstractBuckEvent {
+    private final String name;
+
+    private TestEvent(String name) {
+      super(EventKey.unique());
+      this.name = name;
+    }
+
+    @Override
+    protected String getValueString() {
+      return name;
+    }
+
+    @Override
+    public String getEventName() {
+      return "TestEvent";
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
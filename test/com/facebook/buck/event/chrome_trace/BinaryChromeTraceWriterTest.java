@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.trace.BinaryChromeTraceConverter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+public class BinaryChromeTraceWriterTest {
+
+  private static final List<ChromeTraceEvent> EVENTS =
+      ImmutableList.of(
+          new ChromeTraceEvent(
+              "buck",
+              "process_name",
+              Phase.METADATA,
+              0,
+              0,
+              100,
+              50,
+              ImmutableMap.of(
+                  "user_args", ImmutableList.of("build", "//:a"), "is_daemon", true, "pid", 42)),
+          new ChromeTraceEvent(
+              "buck", "//foo:bar", Phase.BEGIN, 0, 12, 1_000_000, 2_000, ImmutableMap.of()),
+          new ChromeTraceEvent(
+              "buck",
+              "//foo:bar",
+              Phase.END,
+              0,
+              12,
+              999_000,
+              1_500,
+              ImmutableMap.of(
+                  "cache_result", "miss", "ratio", 0.25, "success", false, "unicode", "\u00e9")),
+          new ChromeTraceEvent("perf", "counter", Phase.COUNTER, 3, 4, 999_001, 1_501, null));
+
+  @Test
+  public void convertsToTheSameJsonAsTheJsonWriter() throws IOException {
+    byte[] binary = writeBinary(EVENTS);
+
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    BinaryChromeTraceConverter.convert(new ByteArrayInputStream(binary), json);
+
+    assertEquals(writeJson(EVENTS), ObjectMappers.READER.readTree(json.toString("UTF-8")));
+  }
+
+  @Test
+  public void isSmallerThanJson() throws IOException {
+    ImmutableList.Builder<ChromeTraceEvent> events = ImmutableList.builder();
+    for (int i = 0; i < 1000; i++) {
+      events.add(
+          new ChromeTraceEvent(
+              "buck",
+              "//some/package:target" + (i % 50),
+              i % 2 == 0 ? Phase.BEGIN : Phase.END,
+              0,
+              i % 8,
+              1_000_000_000L + i * 137,
+              5_000_000L + i * 11,
+              ImmutableMap.of("cache_result", "miss")));
+    }
+
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    try (ChromeTraceWriter writer = new ChromeTraceWriter(json)) {
+      writer.writeStart();
+      for (ChromeTraceEvent event : events.build()) {
+        writer.writeEvent(event);
+      }
+      writer.writeEnd();
+    }
+
+    assertTrue(writeBinary(events.build()).length * 4 < json.size());
+  }
+
+  @Test
+  public void convertsTruncatedTracesUpToTheLastCompleteEvent() throws IOException {
+    byte[] binary = writeBinary(EVENTS);
+    // Cut the trace in the middle of the last event, which ends with its argument count.
+    byte[] truncated = Arrays.copyOf(binary, binary.length - 2);
+
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    BinaryChromeTraceConverter.convert(new ByteArrayInputStream(truncated), json);
+
+    assertEquals(
+        writeJson(EVENTS.subList(0, 3)), ObjectMappers.READER.readTree(json.toString("UTF-8")));
+  }
+
+  @Test
+  public void jsonTracesArePassedThrough() throws IOException {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    try (ChromeTraceWriter writer = new ChromeTraceWriter(json)) {
+      writer.writeStart();
+      writer.writeEvent(EVENTS.get(1));
+      writer.writeEnd();
+    }
+
+    ByteArrayOutputStream converted = new ByteArrayOutputStream();
+    BinaryChromeTraceConverter.convert(new ByteArrayInputStream(json.toByteArray()), converted);
+
+    assertEquals(json.toString("UTF-8"), converted.toString("UTF-8"));
+    assertFalse(
+        BinaryChromeTraceConverter.isBinaryTrace(
+            new BufferedInputStream(new ByteArrayInputStream(json.toByteArray()))));
+    assertTrue(
+        BinaryChromeTraceConverter.isBinaryTrace(
+            new BufferedInputStream(new ByteArrayInputStream(writeBinary(EVENTS)))));
+  }
+
+  @Test
+  public void compressedTracesAreDecompressedBeforeConverting() throws IOException {
+    for (byte[] trace : ImmutableList.of(writeBinary(EVENTS), writeJsonBytes(EVENTS))) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+        gzip.write(trace);
+      }
+
+      ByteArrayOutputStream json = new ByteArrayOutputStream();
+      BinaryChromeTraceConverter.convert(new ByteArrayInputStream(compressed.toByteArray()), json);
+
+      assertEquals(writeJson(EVENTS), ObjectMappers.READER.readTree(json.toString("UTF-8")));
+    }
+  }
+
+  private static byte[] writeBinary(List<ChromeTraceEvent> events) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (BinaryChromeTraceWriter writer = new BinaryChromeTraceWriter(out)) {
+      writer.writeStart();
+      for (ChromeTraceEvent event : events) {
+        writer.writeEvent(event);
+      }
+      writer.writeEnd();
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] writeJsonBytes(List<ChromeTraceEvent> events) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ChromeTraceWriter writer = new ChromeTraceWriter(out)) {
+      writer.writeStart();
+      for (ChromeTraceEvent event : events) {
+        writer.writeEvent(event);
+      }
+      writer.writeEnd();
+    }
+    return out.toByteArray();
+  }
+
+  private static JsonNode writeJson(List<ChromeTraceEvent> events) throws IOException {
+    return ObjectMappers.READER.readTree(new String(writeJsonBytes(events), UTF_8));
+  }
+}
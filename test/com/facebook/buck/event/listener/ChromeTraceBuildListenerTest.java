@@ -67,6 +67,7 @@ import com.facebook.buck.util.perf.PerfStatsTracking;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.util.timing.FakeClock;
 import com.facebook.buck.util.timing.IncrementingFakeClock;
+import com.facebook.buck.util.trace.BinaryChromeTraceConverter;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -76,6 +77,7 @@ import com.google.common.collect.Iterables;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
 import java.nio.file.Path;
@@ -87,6 +89,7 @@ import java.util.Optional;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -728,6 +731,58 @@ public class ChromeTraceBuildListenerTest {
     assertThat(elements, not(empty()));
   }
 
+  @Test
+  public void canWriteCompressedBinaryTraces() throws IOException {
+    ProjectFilesystem projectFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot().toPath());
+
+    ChromeTraceBuildListener listener =
+        new ChromeTraceBuildListener(
+            projectFilesystem,
+            invocationInfo,
+            FAKE_CLOCK,
+            Locale.US,
+            TimeZone.getTimeZone("America/Los_Angeles"),
+            ManagementFactory.getThreadMXBean(),
+            ChromeTraceBuckConfig.of(
+                FakeBuckConfig.builder()
+                    .setSections(
+                        ImmutableMap.of(
+                            "log",
+                            ImmutableMap.of(
+                                "compress_traces", "true",
+                                "trace_format", "binary",
+                                "max_buffered_trace_events", "2")))
+                    .build()));
+    FakeBuckEvent event = new FakeBuckEvent();
+    eventBus.post(event);
+    // More events than can be buffered, so that writing them has to wait for the trace writer.
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      names.add("event" + i);
+      listener.writeChromeTraceEvent(
+          "test", "event" + i, ChromeTraceEvent.Phase.BEGIN, ImmutableMap.of(), event);
+    }
+    listener.outputTrace(invocationInfo.getBuildId());
+
+    Path tracePath = Paths.get(EXPECTED_DIR + "build.2014-09-02.16-55-51.BUILD_ID.trace.gz");
+    InputStream stream =
+        BinaryChromeTraceConverter.openAsJson(
+            new GZIPInputStream(projectFilesystem.newFileInputStream(tracePath)));
+    List<ChromeTraceEvent> events =
+        ObjectMappers.createParser(stream)
+            .readValueAs(new TypeReference<List<ChromeTraceEvent>>() {});
+
+    assertThat(events.get(0).getName(), Matchers.equalTo("process_name"));
+    assertThat(
+        events
+            .stream()
+            .filter(e -> e.getCategory().equals("test"))
+            .map(ChromeTraceEvent::getName)
+            .collect(Collectors.toList()),
+        Matchers.equalTo(names));
+  }
+
   private static ChromeTraceBuckConfig chromeTraceConfig(int tracesToKeep, boolean compressTraces) {
     return ChromeTraceBuckConfig.of(
         FakeBuckConfig.builder()
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal.CycleException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class CompactDirectedAcyclicGraphTest {
+
+  //           A
+  //         /  \
+  //       B     C
+  //      /     / \
+  //    D    __/   E
+  //  /  \  /
+  // F    G
+  private MutableDirectedGraph<String> makeGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addNode("C");
+    graph.addNode("B");
+    graph.addNode("E");
+    graph.addNode("A");
+    graph.addNode("F");
+    graph.addNode("G");
+    graph.addNode("D");
+
+    graph.addEdge("D", "G");
+    graph.addEdge("A", "C");
+    graph.addEdge("D", "F");
+    graph.addEdge("B", "D");
+    graph.addEdge("A", "B");
+    graph.addEdge("C", "E");
+    graph.addEdge("C", "G");
+    return graph;
+  }
+
+  @Test
+  public void hasTheSameNodesAndEdges() {
+    MutableDirectedGraph<String> graph = makeGraph();
+    CompactDirectedAcyclicGraph<String> compact = CompactDirectedAcyclicGraph.copyOf(graph);
+
+    assertEquals(graph.getNodes(), compact.getNodes());
+    assertEquals(7, compact.getNodeCount());
+    assertEquals(7, compact.getEdgeCount());
+    for (String node : graph.getNodes()) {
+      assertEquals(
+          ImmutableSet.copyOf(graph.getOutgoingNodesFor(node)),
+          ImmutableSet.copyOf(compact.getOutgoingNodesFor(node)));
+      assertEquals(
+          ImmutableSet.copyOf(graph.getIncomingNodesFor(node)),
+          ImmutableSet.copyOf(compact.getIncomingNodesFor(node)));
+    }
+    assertEquals(ImmutableSet.of("A"), ImmutableSet.copyOf(compact.getNodesWithNoIncomingEdges()));
+    assertEquals(
+        ImmutableSet.of("E", "F", "G"), ImmutableSet.copyOf(compact.getNodesWithNoOutgoingEdges()));
+  }
+
+  @Test
+  public void idsMapBackToNodes() {
+    CompactDirectedAcyclicGraph<String> compact = CompactDirectedAcyclicGraph.copyOf(makeGraph());
+
+    for (int id = 0; id < compact.getNodeCount(); id++) {
+      String node = compact.getNode(id);
+      assertEquals(id, compact.getNodeId(node));
+      List<String> outgoing = new ArrayList<>();
+      for (int i = 0; i < compact.getOutgoingDegree(id); i++) {
+        outgoing.add(compact.getNode(compact.getOutgoingNodeId(id, i)));
+      }
+      assertEquals(compact.getOutgoingNodesFor(node), outgoing);
+    }
+    assertEquals(-1, compact.getNodeId("H"));
+    assertTrue(compact.getOutgoingNodesFor("H").isEmpty());
+  }
+
+  @Test
+  public void worksWithManyCollidingNodes() {
+    MutableDirectedGraph<Colliding> graph = new MutableDirectedGraph<>();
+    for (int i = 1; i < 100; i++) {
+      graph.addEdge(new Colliding(i), new Colliding(i - 1));
+    }
+    CompactDirectedAcyclicGraph<Colliding> compact = CompactDirectedAcyclicGraph.copyOf(graph);
+
+    for (int i = 1; i < 100; i++) {
+      assertEquals(
+          ImmutableList.of(new Colliding(i - 1)), compact.getOutgoingNodesFor(new Colliding(i)));
+    }
+    assertEquals(-1, compact.getNodeId(new Colliding(100)));
+  }
+
+  @Test
+  public void sortsTheSameAsTheMultimapRepresentation() {
+    assertEquals(
+        TopologicalSort.sort(
+            new DirectedAcyclicGraph<>(makeGraph(), DirectedAcyclicGraph.Representation.MULTIMAP)),
+        TopologicalSort.sort(
+            new DirectedAcyclicGraph<>(makeGraph(), DirectedAcyclicGraph.Representation.COMPACT)));
+  }
+
+  @Test
+  public void depthFirstTraversalMatchesTraversable() throws CycleException {
+    CompactDirectedAcyclicGraph<String> compact = CompactDirectedAcyclicGraph.copyOf(makeGraph());
+    GraphTraversable<String> traversable = node -> compact.getOutgoingNodesFor(node).iterator();
+
+    assertEquals(
+        ImmutableList.copyOf(
+            new AcyclicDepthFirstPostOrderTraversal<>(traversable)
+                .traverse(ImmutableList.of("C", "A"))),
+        ImmutableList.copyOf(
+            new AcyclicDepthFirstPostOrderTraversal<>(compact)
+                .traverse(ImmutableList.of("C", "A"))));
+    assertEquals(
+        ImmutableList.copyOf(
+            new AcyclicDepthFirstPostOrderTraversal<>(traversable)
+                .traverse(ImmutableList.of("A"), node -> !node.equals("D"))),
+        ImmutableList.copyOf(
+            new AcyclicDepthFirstPostOrderTraversal<>(compact)
+                .traverse(ImmutableList.of("A"), node -> !node.equals("D"))));
+  }
+
+  @Test
+  public void breadthFirstTraversalHandlesNodesOutsideTheGraph() {
+    CompactDirectedAcyclicGraph<String> compact = CompactDirectedAcyclicGraph.copyOf(makeGraph());
+    List<String> visited = new ArrayList<>();
+
+    new AbstractBreadthFirstTraversal<String>(ImmutableList.of("A"), compact) {
+      @Override
+      public Iterable<String> visit(String node) {
+        visited.add(node);
+        if (node.equals("E")) {
+          return ImmutableList.of("H", "A");
+        }
+        return compact.getOutgoingNodesFor(node);
+      }
+    }.start();
+
+    assertEquals(8, visited.size());
+    assertEquals(
+        ImmutableSet.of("A", "B", "C", "D", "E", "F", "G", "H"), ImmutableSet.copyOf(visited));
+  }
+
+  @Test
+  public void compactFormIsOnlyCopiedOnce() {
+    DirectedAcyclicGraph<String> multimap =
+        new DirectedAcyclicGraph<>(makeGraph(), DirectedAcyclicGraph.Representation.MULTIMAP);
+    DirectedAcyclicGraph<String> compact =
+        new DirectedAcyclicGraph<>(makeGraph(), DirectedAcyclicGraph.Representation.COMPACT);
+
+    assertSame(multimap.getCompactGraph(), multimap.getCompactGraph());
+    assertEquals(multimap.getNodes(), multimap.getCompactGraph().getNodes());
+    assertSame(compact.getIndexedGraph().get(), compact.getCompactGraph());
+  }
+
+  @Test
+  public void representationsAreEqual() {
+    DirectedAcyclicGraph<String> multimap =
+        new DirectedAcyclicGraph<>(makeGraph(), DirectedAcyclicGraph.Representation.MULTIMAP);
+    DirectedAcyclicGraph<String> compact =
+        new DirectedAcyclicGraph<>(makeGraph(), DirectedAcyclicGraph.Representation.COMPACT);
+
+    assertEquals(multimap, compact);
+    assertEquals(compact, multimap);
+    assertEquals(multimap.hashCode(), compact.hashCode());
+    assertEquals(multimap.getOutgoingNodesFor("A"), compact.getOutgoingNodesFor("A"));
+    assertEquals(multimap.getIncomingNodesFor("G"), compact.getIncomingNodesFor("G"));
+    assertEquals(multimap.getNodesWithNoIncomingEdges(), compact.getNodesWithNoIncomingEdges());
+    assertFalse(multimap.getIndexedGraph().isPresent());
+    assertTrue(compact.getIndexedGraph().isPresent());
+
+    MutableDirectedGraph<String> other = makeGraph();
+    other.addEdge("E", "F");
+    assertFalse(
+        compact.equals(
+            new DirectedAcyclicGraph<>(other, DirectedAcyclicGraph.Representation.COMPACT)));
+  }
+
+  /** Has a hash code shared with every other instance. */
+  private static class Colliding {
+    private final int value;
+
+    Colliding(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Colliding && ((Colliding) other).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return 42;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal.CycleException;
+import com.google.common.collect.ImmutableList;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the {@link DirectedAcyclicGraph.Representation}s on a synthetic graph shaped like a
+ * target graph: every node depends on a handful of nodes created before it, mostly nearby ones.
+ *
+ * <p>The heap retained by the graph is printed once per fork during setup. Run {@link #build} with
+ * {@code -prof gc} to also see how much is allocated while building it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DirectedAcyclicGraphBenchmark {
+
+  @Param({"MULTIMAP", "COMPACT"})
+  private DirectedAcyclicGraph.Representation representation;
+
+  @Param({"100000", "1000000"})
+  private int numNodes;
+
+  @Param({"5"})
+  private int depsPerNode;
+
+  private MutableDirectedGraph<String> mutableGraph;
+  private DirectedAcyclicGraph<String> graph;
+  private ImmutableList<String> roots;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    String[] nodes = new String[numNodes];
+    mutableGraph = new MutableDirectedGraph<>();
+    for (int i = 0; i < numNodes; i++) {
+      nodes[i] = String.format("//synthetic/p%d:t%d", i / 10, i);
+      mutableGraph.addNode(nodes[i]);
+      for (int j = 0; j < Math.min(i, depsPerNode); j++) {
+        // Half of the deps are in the same area of the graph, the others anywhere before it.
+        int dep = j % 2 == 0 ? i - 1 - random.nextInt(Math.min(i, 100)) : random.nextInt(i);
+        mutableGraph.addEdge(nodes[i], nodes[dep]);
+      }
+    }
+
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    System.gc();
+    long before = memory.getHeapMemoryUsage().getUsed();
+    graph = new DirectedAcyclicGraph<>(mutableGraph, representation);
+    System.gc();
+    long after = memory.getHeapMemoryUsage().getUsed();
+    System.out.printf(
+        "%n%s graph with %d nodes retains about %d MB%n",
+        representation, numNodes, (after - before) / (1024 * 1024));
+
+    roots = ImmutableList.copyOf(graph.getNodesWithNoIncomingEdges());
+  }
+
+  @Benchmark
+  public DirectedAcyclicGraph<String> build() {
+    return new DirectedAcyclicGraph<>(mutableGraph, representation);
+  }
+
+  @Benchmark
+  public ImmutableList<String> topologicalSort() {
+    return TopologicalSort.sort(graph);
+  }
+
+  @Benchmark
+  public Iterable<String> depthFirstPostOrderTraversal() throws CycleException {
+    AcyclicDepthFirstPostOrderTraversal<String> traversal =
+        graph.getIndexedGraph().isPresent()
+            ? new AcyclicDepthFirstPostOrderTraversal<>(graph.getIndexedGraph().get())
+            : new AcyclicDepthFirstPostOrderTraversal<>(
+                node -> graph.getOutgoingNodesFor(node).iterator());
+    return traversal.traverse(roots);
+  }
+
+  @Benchmark
+  public void breadthFirstTraversal(Blackhole blackhole) {
+    IndexedTraversableGraph<String> indexedGraph = graph.getIndexedGraph().orElse(null);
+    new AbstractBreadthFirstTraversal<String>(roots, indexedGraph) {
+      @Override
+      public Iterable<String> visit(String node) {
+        blackhole.consume(node);
+        return indexedGraph == null
+            ? graph.getOutgoingNodesFor(node)
+            : indexedGraph.getOutgoingNodesFor(node);
+      }
+    }.start();
+  }
+}
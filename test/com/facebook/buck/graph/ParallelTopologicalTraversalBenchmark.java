@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares a sequential {@link AbstractBottomUpTraversal} with a {@link
+ * ParallelTopologicalTraversal} on a synthetic graph shaped like a target graph, burning {@code
+ * tokensPerNode} of CPU on every node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelTopologicalTraversalBenchmark {
+
+  @Param({"100000", "1000000"})
+  private int numNodes;
+
+  @Param({"5"})
+  private int depsPerNode;
+
+  @Param({"1000"})
+  private long tokensPerNode;
+
+  @Param({"4"})
+  private int inFlightPerThread;
+
+  private DirectedAcyclicGraph<String> graph;
+  private CompactDirectedAcyclicGraph<String> compactGraph;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    String[] nodes = new String[numNodes];
+    MutableDirectedGraph<String> mutableGraph = new MutableDirectedGraph<>();
+    for (int i = 0; i < numNodes; i++) {
+      nodes[i] = String.format("//synthetic/p%d:t%d", i / 10, i);
+      mutableGraph.addNode(nodes[i]);
+      for (int j = 0; j < Math.min(i, depsPerNode); j++) {
+        int dep = j % 2 == 0 ? i - 1 - random.nextInt(Math.min(i, 100)) : random.nextInt(i);
+        mutableGraph.addEdge(nodes[i], nodes[dep]);
+      }
+    }
+    graph = new DirectedAcyclicGraph<>(mutableGraph);
+    compactGraph = CompactDirectedAcyclicGraph.copyOf(graph);
+    pool = new ForkJoinPool();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Benchmark
+  public void sequential() {
+    new AbstractBottomUpTraversal<String, RuntimeException>(graph) {
+      @Override
+      public void visit(String node) {
+        Blackhole.consumeCPU(tokensPerNode);
+      }
+    }.traverse();
+  }
+
+  @Benchmark
+  public void parallel() throws Exception {
+    new ParallelTopologicalTraversal<>(
+            compactGraph,
+            ParallelTopologicalTraversal.Direction.BOTTOM_UP,
+            pool,
+            inFlightPerThread * pool.getParallelism())
+        .traverse(node -> Blackhole.consumeCPU(tokensPerNode))
+        .get();
+  }
+}
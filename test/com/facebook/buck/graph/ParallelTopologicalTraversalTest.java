@@ -0,0 +1,273 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelTopologicalTraversalTest {
+
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  //           A
+  //         /  \
+  //       B     C
+  //      /     / \
+  //    D    __/   E
+  //  /  \  /
+  // F    G
+  private CompactDirectedAcyclicGraph<String> makeGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("A", "B");
+    graph.addEdge("A", "C");
+    graph.addEdge("B", "D");
+    graph.addEdge("C", "G");
+    graph.addEdge("C", "E");
+    graph.addEdge("D", "F");
+    graph.addEdge("D", "G");
+    return CompactDirectedAcyclicGraph.copyOf(graph);
+  }
+
+  @Test
+  public void bottomUpVisitsDepsFirst() throws Exception {
+    CompactDirectedAcyclicGraph<String> graph = makeGraph();
+    List<String> visited = new CopyOnWriteArrayList<>();
+
+    new ParallelTopologicalTraversal<>(
+            graph, ParallelTopologicalTraversal.Direction.BOTTOM_UP, pool, 2)
+        .traverse(visited::add)
+        .get(10, TimeUnit.SECONDS);
+
+    assertEquals(graph.getNodes(), ImmutableSet.copyOf(visited));
+    assertEquals(graph.getNodeCount(), visited.size());
+    for (String node : graph.getNodes()) {
+      for (String dep : graph.getOutgoingNodesFor(node)) {
+        assertTrue(
+            dep + " should come before " + node, visited.indexOf(dep) < visited.indexOf(node));
+      }
+    }
+  }
+
+  @Test
+  public void topDownVisitsDependentsFirst() throws Exception {
+    CompactDirectedAcyclicGraph<String> graph = makeGraph();
+    List<String> visited = new CopyOnWriteArrayList<>();
+
+    new ParallelTopologicalTraversal<>(
+            graph, ParallelTopologicalTraversal.Direction.TOP_DOWN, pool, 2)
+        .traverse(visited::add)
+        .get(10, TimeUnit.SECONDS);
+
+    assertEquals(graph.getNodeCount(), visited.size());
+    for (String node : graph.getNodes()) {
+      for (String dep : graph.getOutgoingNodesFor(node)) {
+        assertTrue(
+            node + " should come before " + dep, visited.indexOf(node) < visited.indexOf(dep));
+      }
+    }
+  }
+
+  @Test
+  public void onlyVisitsNodesReachableFromRoots() throws Exception {
+    CompactDirectedAcyclicGraph<String> graph = makeGraph();
+    Set<String> bottomUp = ConcurrentHashMap.newKeySet();
+    List<String> topDown = new CopyOnWriteArrayList<>();
+
+    new ParallelTopologicalTraversal<>(
+            graph, ParallelTopologicalTraversal.Direction.BOTTOM_UP, pool, 2)
+        .traverse(ImmutableList.of("C"), bottomUp::add)
+        .get(10, TimeUnit.SECONDS);
+    new ParallelTopologicalTraversal<>(
+            graph, ParallelTopologicalTraversal.Direction.TOP_DOWN, pool, 2)
+        .traverse(ImmutableList.of("B", "C"), topDown::add)
+        .get(10, TimeUnit.SECONDS);
+
+    assertEquals(ImmutableSet.of("C", "E", "G"), bottomUp);
+    // A is not included, so it must not hold back B and C.
+    assertEquals(ImmutableSet.of("B", "C", "D", "E", "F", "G"), ImmutableSet.copyOf(topDown));
+    assertTrue(topDown.indexOf("D") < topDown.indexOf("G"));
+    assertTrue(topDown.indexOf("C") < topDown.indexOf("G"));
+  }
+
+  @Test
+  public void failureIsPropagatedAndStopsTheTraversal() throws Exception {
+    CompactDirectedAcyclicGraph<String> graph = makeGraph();
+    Set<String> visited = ConcurrentHashMap.newKeySet();
+    IllegalArgumentException failure = new IllegalArgumentException("D is broken");
+
+    ListenableFuture<Void> future =
+        new ParallelTopologicalTraversal<>(
+                graph, ParallelTopologicalTraversal.Direction.BOTTOM_UP, pool, 2)
+            .traverse(
+                node -> {
+                  if (node.equals("D")) {
+                    throw failure;
+                  }
+                  visited.add(node);
+                });
+
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("The traversal should have failed.");
+    } catch (ExecutionException e) {
+      assertSame(failure, e.getCause());
+    }
+    assertFalse(visited.contains("B"));
+    assertFalse(visited.contains("A"));
+  }
+
+  @Test
+  public void deepGraphsDoNotOverflowTheStackOnDirectExecutor() throws Exception {
+    MutableDirectedGraph<Integer> chain = new MutableDirectedGraph<>();
+    int depth = 200_000;
+    for (int i = 1; i < depth; i++) {
+      chain.addEdge(i, i - 1);
+    }
+    AtomicInteger visits = new AtomicInteger();
+
+    new ParallelTopologicalTraversal<>(
+            CompactDirectedAcyclicGraph.copyOf(chain),
+            ParallelTopologicalTraversal.Direction.BOTTOM_UP,
+            MoreExecutors.directExecutor(),
+            1)
+        .traverse(node -> visits.incrementAndGet())
+        .get(10, TimeUnit.SECONDS);
+
+    assertEquals(depth, visits.get());
+  }
+
+  @Test
+  public void cancellingStopsSchedulingNewNodes() throws Exception {
+    MutableDirectedGraph<Integer> chain = new MutableDirectedGraph<>();
+    for (int i = 1; i < 100; i++) {
+      chain.addEdge(i, i - 1);
+    }
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    AtomicInteger visits = new AtomicInteger();
+
+    ListenableFuture<Void> future =
+        new ParallelTopologicalTraversal<>(
+                CompactDirectedAcyclicGraph.copyOf(chain),
+                ParallelTopologicalTraversal.Direction.BOTTOM_UP,
+                pool,
+                2)
+            .traverse(
+                node -> {
+                  visits.incrementAndGet();
+                  started.countDown();
+                  cancelled.await();
+                });
+
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    assertTrue(future.cancel(false));
+    cancelled.countDown();
+    pool.awaitQuiescence(10, TimeUnit.SECONDS);
+
+    assertEquals(1, visits.get());
+  }
+
+  @Test
+  public void inFlightVisitsAreBounded() throws Exception {
+    MutableDirectedGraph<Integer> wide = new MutableDirectedGraph<>();
+    for (int i = 1; i <= 64; i++) {
+      wide.addEdge(0, i);
+    }
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    new ParallelTopologicalTraversal<>(
+            CompactDirectedAcyclicGraph.copyOf(wide),
+            ParallelTopologicalTraversal.Direction.BOTTOM_UP,
+            pool,
+            2)
+        .traverse(
+            node -> {
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              Thread.sleep(1);
+              running.decrementAndGet();
+            })
+        .get(10, TimeUnit.SECONDS);
+
+    assertThat(maxRunning.get(), lessThanOrEqualTo(2));
+  }
+
+  @Test
+  public void reportsTimingForEachNode() throws Exception {
+    CompactDirectedAcyclicGraph<String> graph = makeGraph();
+    Map<String, Long> timings = new ConcurrentHashMap<>();
+
+    new ParallelTopologicalTraversal<>(
+            graph,
+            ParallelTopologicalTraversal.Direction.BOTTOM_UP,
+            MoreExecutors.directExecutor(),
+            1,
+            (node, elapsedNanos) -> assertEquals(null, timings.put(node, elapsedNanos)))
+        .traverse(node -> {})
+        .get();
+
+    assertEquals(graph.getNodes(), timings.keySet());
+  }
+
+  @Test
+  public void rejectedExecutionFailsTheTraversal() throws Exception {
+    pool.shutdownNow();
+    try {
+      new ParallelTopologicalTraversal<>(
+              makeGraph(), ParallelTopologicalTraversal.Direction.BOTTOM_UP, pool, 2)
+          .traverse(node -> {})
+          .get(10, TimeUnit.SECONDS);
+      fail("The traversal should have failed.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(RuntimeException.class));
+    }
+  }
+}
@@ -142,7 +142,11 @@ public class WatchmanWatcherIntegrationTest {
 
     @Subscribe
     protected void handle(WatchmanEvent event) {
-      events.add(event);
+      if (event instanceof WatchmanPathEventBatch) {
+        events.addAll(((WatchmanPathEventBatch) event).getEvents());
+      } else {
+        events.add(event);
+      }
     }
 
     public void clear() {
@@ -203,7 +203,7 @@ public class WatchmanWatcherTest {
         new ImmutableList.Builder<>();
     // The threshold is 10000; go a little above that.
     for (int i = 0; i < 10010; i++) {
-      changedFiles.add(ImmutableMap.of("name", "foo/bar/baz" + Integer.toString(i)));
+      changedFiles.add(ImmutableMap.of("name", "foo" + Integer.toString(i) + "/baz"));
     }
     ImmutableMap<String, Object> watchmanOutput = ImmutableMap.of("files", changedFiles.build());
     WatchmanWatcher watcher = createWatcher(eventBus, watchmanOutput);
@@ -213,6 +213,72 @@ public class WatchmanWatcherTest {
     assertThat(eventBuffer.getOnlyEvent(), instanceOf(WatchmanOverflowEvent.class));
   }
 
+  @Test
+  public void whenTooManyChangesInFewDirectoriesThenDirectoriesAreInvalidated()
+      throws IOException, InterruptedException {
+    ImmutableList.Builder<ImmutableMap<String, Object>> changedFiles =
+        new ImmutableList.Builder<>();
+    for (int i = 0; i < 10010; i++) {
+      changedFiles.add(
+          ImmutableMap.of("name", "foo/bar" + Integer.toString(i % 100) + "/baz" + i));
+    }
+    changedFiles.add(ImmutableMap.of("name", "qux/quux/baz"));
+    ImmutableMap<String, Object> watchmanOutput = ImmutableMap.of("files", changedFiles.build());
+    WatchmanWatcher watcher = createWatcher(eventBus, watchmanOutput);
+    watcher.postEvents(
+        BuckEventBusForTests.newInstance(FakeClock.doNotCare()),
+        WatchmanWatcher.FreshInstanceAction.NONE);
+    WatchmanPathEventBatch batch = eventBuffer.getOnlyBatch();
+    assertTrue(batch.getEvents().isEmpty());
+    assertEquals(
+        ImmutableSet.of(Paths.get("foo"), Paths.get("qux")), batch.getChangedDirectories());
+  }
+
+  @Test
+  public void eventsForTheSamePathAreCoalesced() {
+    Path path = Paths.get("foo/bar");
+    Path other = Paths.get("foo/baz");
+    ImmutableList<WatchmanPathEvent> coalesced =
+        WatchmanWatcher.coalesce(
+            ImmutableList.of(
+                WatchmanPathEvent.of(FAKE_ROOT, WatchmanPathEvent.Kind.DELETE, path),
+                WatchmanPathEvent.of(FAKE_ROOT, WatchmanPathEvent.Kind.CREATE, other),
+                WatchmanPathEvent.of(FAKE_ROOT, WatchmanPathEvent.Kind.CREATE, path),
+                WatchmanPathEvent.of(FAKE_ROOT, WatchmanPathEvent.Kind.MODIFY, other)));
+    assertEquals(
+        ImmutableList.of(
+            WatchmanPathEvent.of(FAKE_ROOT, WatchmanPathEvent.Kind.MODIFY, path),
+            WatchmanPathEvent.of(FAKE_ROOT, WatchmanPathEvent.Kind.CREATE, other)),
+        coalesced);
+
+    assertEquals(
+        ImmutableList.of(WatchmanPathEvent.of(FAKE_ROOT, WatchmanPathEvent.Kind.DELETE, path)),
+        WatchmanWatcher.coalesce(
+            ImmutableList.of(
+                WatchmanPathEvent.of(FAKE_ROOT, WatchmanPathEvent.Kind.CREATE, path),
+                WatchmanPathEvent.of(FAKE_ROOT, WatchmanPathEvent.Kind.DELETE, path))));
+  }
+
+  @Test
+  public void changedDirectoriesCoverAllPathsWithoutTheRoot() {
+    assertFalse(
+        WatchmanWatcher.findChangedDirectories(
+                ImmutableList.of(Paths.get("foo/bar"), Paths.get("baz")), 10)
+            .isPresent());
+    assertFalse(
+        WatchmanWatcher.findChangedDirectories(
+                ImmutableList.of(Paths.get("a/b"), Paths.get("c/d"), Paths.get("e/f")), 2)
+            .isPresent());
+    assertEquals(
+        Optional.of(ImmutableSet.of(Paths.get("a"), Paths.get("c/d"))),
+        WatchmanWatcher.findChangedDirectories(
+            ImmutableList.of(Paths.get("a/x"), Paths.get("c/d/e/f"), Paths.get("c/d/g/h")), 2));
+    assertEquals(
+        Optional.of(ImmutableSet.of(Paths.get("c"))),
+        WatchmanWatcher.findChangedDirectories(
+            ImmutableList.of(Paths.get("c/x"), Paths.get("c/d/e/f")), 5));
+  }
+
   @Test
   public void whenWatchmanFailsThenOverflowEventGenerated() throws InterruptedException {
     WatchmanWatcher watcher =
@@ -685,9 +751,24 @@ public class WatchmanWatcherTest {
   private static class EventBuffer {
     public final List<WatchmanEvent> events = new ArrayList<>();
 
+    public final List<WatchmanPathEventBatch> batches = new ArrayList<>();
+
     @Subscribe
     public void on(WatchmanEvent event) {
-      events.add(event);
+      // Unpack batches so tests can look at the individual path events.
+      if (event instanceof WatchmanPathEventBatch) {
+        WatchmanPathEventBatch batch = (WatchmanPathEventBatch) event;
+        batches.add(batch);
+        events.addAll(batch.getEvents());
+      } else {
+        events.add(event);
+      }
+    }
+
+    /** Helper to retrieve the only batch that should have been posted. */
+    public WatchmanPathEventBatch getOnlyBatch() {
+      assertEquals("Should contain only one batch", 1, batches.size());
+      return batches.get(0);
     }
 
     /** Helper to retrieve the only event that should be in the list. */
@@ -18,12 +18,15 @@ package com.facebook.buck.parser;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.config.BuckConfig;
 import com.facebook.buck.config.FakeBuckConfig;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.TestCellBuilder;
 import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.model.BuildTargetFactory;
@@ -123,4 +126,27 @@ public class DaemonicCellStateTest {
         Optional.empty(),
         cache.lookupComputedNode(target));
   }
+  @Test
+  public void invalidatingABuildFileRemovesItsNodesFromTheQueryIndex()
+      throws BuildTargetException {
+    TargetNodeQueryIndex index = new TargetNodeQueryIndex();
+    DaemonicCellState indexedState = new DaemonicCellState(rootCell, 1, Optional.of(index));
+    BuildTarget target = BuildTargetFactory.newInstance(filesystem, "//path/to:target");
+    BuildTarget otherTarget = BuildTargetFactory.newInstance(filesystem, "//other:target");
+    populateDummyRawNode(indexedState, target);
+    populateDummyRawNode(indexedState, otherTarget);
+
+    @SuppressWarnings("unchecked")
+    Cache<TargetNode<?, ?>> cache =
+        indexedState.getOrCreateCache((Class<TargetNode<?, ?>>) (Class<?>) TargetNode.class);
+    cache.putComputedNodeIfNotPresent(target, FakeTargetNodeBuilder.newBuilder(target).build());
+    cache.putComputedNodeIfNotPresent(
+        otherTarget, FakeTargetNodeBuilder.newBuilder(otherTarget).build());
+    assertEquals(2, index.size());
+
+    indexedState.invalidatePath(filesystem.resolve("path/to/BUCK"));
+
+    assertFalse(index.getNode(target).isPresent());
+    assertTrue(index.getNode(otherTarget).isPresent());
+  }
 }
@@ -20,11 +20,13 @@ import static com.facebook.buck.parser.ParserConfig.DEFAULT_BUILD_FILE_NAME;
 import static com.google.common.base.Charsets.UTF_8;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
@@ -63,6 +65,7 @@ import com.facebook.buck.event.FakeBuckEventListener;
 import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.WatchmanOverflowEvent;
 import com.facebook.buck.io.WatchmanPathEvent;
+import com.facebook.buck.io.WatchmanPathEventBatch;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
@@ -118,7 +121,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Assert;
@@ -720,6 +726,48 @@ public class DefaultParserTest {
     assertEquals("Should have invalidated cache.", 2, counter.calls);
   }
 
+  @Test
+  public void whenNotifiedOfChangedDirectoryContainingBuildFileThenCacheRulesAreInvalidated()
+      throws BuildFileParseException, IOException, InterruptedException {
+    // Call parseBuildFile to populate the cache.
+    getRawTargetNodes(
+        parser,
+        typeCoercerFactory,
+        eventBus,
+        cell,
+        knownBuildRuleTypesProvider,
+        false,
+        executorService,
+        executableFinder,
+        testBuildFile);
+
+    // Process event.
+    parser
+        .getPermState()
+        .invalidateBasedOn(
+            WatchmanPathEventBatch.of(
+                filesystem.getRootPath(),
+                ImmutableList.of(),
+                ImmutableSet.of(
+                    MorePaths.relativize(
+                        tempDir.getRoot().toRealPath(), testBuildFile.getParent().getParent()))));
+
+    // Call parseBuildFile to request cached rules.
+    getRawTargetNodes(
+        parser,
+        typeCoercerFactory,
+        eventBus,
+        cell,
+        knownBuildRuleTypesProvider,
+        false,
+        executorService,
+        executableFinder,
+        testBuildFile);
+
+    // Test that the second parseBuildFile call repopulated the cache.
+    assertEquals("Should have invalidated cache.", 2, counter.calls);
+  }
+
   @Test
   public void whenNotifiedOfBuildFileDeleteThenCacheRulesAreInvalidated()
       throws BuildFileParseException, IOException, InterruptedException {
@@ -2094,6 +2142,106 @@ public class DefaultParserTest {
     assertEquals(oldGraph, newGraph);
   }
 
+  @Test
+  public void daemonicParserStateSnapshotIsRestoredWithoutReparsing() throws Exception {
+    Path buckFile = cellRoot.resolve("lib/BUCK");
+    Files.createDirectories(buckFile.getParent());
+    Files.write(
+        buckFile, "genrule(name='gen', out='generated', cmd='touch ${OUT}')".getBytes(UTF_8));
+    BuildTarget target = BuildTargetFactory.newInstance(cellRoot, "//lib", "gen");
+
+    TargetGraph oldGraph =
+        parser.buildTargetGraph(eventBus, cell, false, executorService, ImmutableList.of(target));
+    long averageParseNanos = parser.getPermState().getAverageBuildFileParseNanos();
+    assertThat(averageParseNanos, greaterThan(0L));
+
+    Path snapshotPath = tempDir.getRoot().resolve("snapshot/parser_state");
+    new DaemonicParserStateSnapshot(
+            "fingerprint",
+            ImmutableMap.of("", "c:123"),
+            averageParseNanos,
+            parser.getPermState().serializeDaemonicParserState(cell))
+        .write(snapshotPath);
+    DaemonicParserStateSnapshot snapshot = DaemonicParserStateSnapshot.read(snapshotPath).get();
+    assertEquals("fingerprint", snapshot.getFingerprint());
+    assertEquals(ImmutableMap.of("", "c:123"), snapshot.getWatchmanClocks());
+
+    TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory();
+    parser =
+        new DefaultParser(
+            cell.getBuckConfig().getView(ParserConfig.class),
+            typeCoercerFactory,
+            new ConstructorArgMarshaller(typeCoercerFactory),
+            knownBuildRuleTypesProvider,
+            executableFinder,
+            new TargetSpecResolver());
+    parser.getPermState().restoreSnapshot(snapshot, cell);
+
+    List<ParseEvent.Finished> events = new ArrayList<>();
+    class EventListener {
+      @Subscribe
+      public void onParseFinished(ParseEvent.Finished event) {
+        events.add(event);
+      }
+    }
+    eventBus.register(new EventListener());
+
+    TargetGraph newGraph =
+        parser.buildTargetGraph(eventBus, cell, false, executorService, ImmutableList.of(target));
+    assertEquals(oldGraph, newGraph);
+    ParseEvent.Finished finished = Iterables.getOnlyElement(events);
+    assertEquals(0L, finished.getProcessedBytes());
+    assertEquals(1L, finished.getRestoredBuildFiles());
+    assertEquals(averageParseNanos, finished.getEstimatedParseNanosSaved());
+
+    // A restored build file only counts towards the savings of the first parse that uses it.
+    events.clear();
+    parser.buildTargetGraph(eventBus, cell, false, executorService, ImmutableList.of(target));
+    assertEquals(0L, Iterables.getOnlyElement(events).getRestoredBuildFiles());
+  }
+
+  @Test
+  public void readingMissingDaemonicParserStateSnapshotReturnsEmpty() throws Exception {
+    assertFalse(DaemonicParserStateSnapshot.read(tempDir.getRoot().resolve("missing")).isPresent());
+  }
+
+  @Test
+  public void concurrentDaemonicParserStateSnapshotWritesDoNotInterleave() throws Exception {
+    Path snapshotDir = tempDir.newFolder("concurrent_snapshot");
+    Path snapshotPath = snapshotDir.resolve("parser_state");
+    ExecutorService writers = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> writes = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        DaemonicParserStateSnapshot snapshot =
+            new DaemonicParserStateSnapshot(
+                "fingerprint" + i,
+                ImmutableMap.of("", "c:" + i),
+                i,
+                new RemoteDaemonicParserState());
+        writes.add(
+            writers.submit(
+                () -> {
+                  snapshot.write(snapshotPath);
+                  return null;
+                }));
+      }
+      for (Future<?> write : writes) {
+        write.get();
+      }
+    } finally {
+      writers.shutdownNow();
+    }
+
+    DaemonicParserStateSnapshot snapshot = DaemonicParserStateSnapshot.read(snapshotPath).get();
+    assertEquals(
+        ImmutableMap.of("", "c:" + snapshot.getAverageBuildFileParseNanos()),
+        snapshot.getWatchmanClocks());
+    try (Stream<Path> files = Files.list(snapshotDir)) {
+      assertEquals(ImmutableList.of(snapshotPath), files.collect(ImmutableList.toImmutableList()));
+    }
+  }
+
   @Test
   public void buildTargetHashCodePopulatesCorrectly() throws Exception {
     tempDir.newFolder("foo");
@@ -124,6 +124,39 @@ public class ProjectBuildFileParserPoolTest {
         /* expectedCreateCount */ 1);
   }
 
+  @Test
+  public void adaptiveSizingLeavesProcessorsBusyWithOtherWorkAlone() {
+    // Idle machine: everything up to the configured maximum.
+    assertThat(
+        ProjectBuildFileParserPool.computeParsersPerCell(4, 8, 0.5, 0, 10), Matchers.equalTo(4));
+    // Our own busy parsers don't count as other work.
+    assertThat(
+        ProjectBuildFileParserPool.computeParsersPerCell(4, 8, 4.0, 4, 10), Matchers.equalTo(4));
+    // Six processors are busy with something else.
+    assertThat(
+        ProjectBuildFileParserPool.computeParsersPerCell(4, 8, 8.0, 2, 10), Matchers.equalTo(2));
+    // Overloaded machine: still make progress.
+    assertThat(
+        ProjectBuildFileParserPool.computeParsersPerCell(4, 8, 20.0, 0, 10), Matchers.equalTo(1));
+    // Load average not available.
+    assertThat(
+        ProjectBuildFileParserPool.computeParsersPerCell(4, 8, -1, 0, 10), Matchers.equalTo(4));
+  }
+
+  @Test
+  public void adaptiveSizingFollowsTheNumberOfWaitingBuildFiles() {
+    // Two busy parsers and one build file waiting: no point in starting a fourth parser.
+    assertThat(
+        ProjectBuildFileParserPool.computeParsersPerCell(4, 8, 2.0, 2, 3), Matchers.equalTo(3));
+    // Nothing waiting: let the idle parsers go.
+    assertThat(
+        ProjectBuildFileParserPool.computeParsersPerCell(4, 8, 1.0, 1, 1), Matchers.equalTo(1));
+    assertThat(
+        ProjectBuildFileParserPool.computeParsersPerCell(4, 8, 0.0, 0, 0), Matchers.equalTo(1));
+    assertThat(
+        ProjectBuildFileParserPool.computeParsersPerCell(4, 8, -1, 0, 2), Matchers.equalTo(2));
+  }
+
   @Test
   public void closesCreatedParsers() throws Exception {
     int parsersCount = 4;
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Paths;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TargetNodeQueryIndexTest {
+
+  private ProjectFilesystem filesystem;
+  private TargetNodeQueryIndex index;
+  private BuildTarget libTarget;
+  private BuildTarget binTarget;
+  private TargetNode<?, ?> lib;
+  private TargetNode<?, ?> bin;
+
+  @Before
+  public void setUp() {
+    filesystem = new FakeProjectFilesystem();
+    index = new TargetNodeQueryIndex();
+    libTarget = BuildTargetFactory.newInstance(filesystem, "//lib:lib");
+    binTarget = BuildTargetFactory.newInstance(filesystem, "//bin:bin");
+    lib =
+        JavaLibraryBuilder.createBuilder(libTarget, filesystem)
+            .addSrc(Paths.get("lib/Lib.java"))
+            .addSrc(Paths.get("lib/res"))
+            .build();
+    bin = FakeTargetNodeBuilder.newBuilder(binTarget).setDeps(lib).setLabel("app").build();
+  }
+
+  @Test
+  public void indexesReverseDepsKindsAndLabels() {
+    index.add(lib);
+    index.add(bin);
+
+    assertEquals(2, index.size());
+    assertSame(lib, index.getNode(libTarget).get());
+    assertEquals(ImmutableSet.of(binTarget), index.getReverseDeps(libTarget));
+    assertEquals(ImmutableSet.of(), index.getReverseDeps(binTarget));
+    assertEquals(ImmutableSet.of(libTarget), index.getTargetsOfKind("java_library"));
+    assertEquals(ImmutableSet.of(binTarget), index.getTargetsWithLabel("app"));
+  }
+
+  @Test
+  public void findsOwnersOfFilesAndOfFilesInDirectoryInputs() {
+    index.add(lib);
+
+    assertEquals(
+        ImmutableSet.of(libTarget), index.getOwners(filesystem.resolve("lib/Lib.java")));
+    assertEquals(
+        ImmutableSet.of(libTarget), index.getOwners(filesystem.resolve("lib/res/a.png")));
+    assertEquals(ImmutableSet.of(), index.getOwners(filesystem.resolve("lib/Other.java")));
+  }
+
+  @Test
+  public void replacingANodeDropsItsOldEntries() {
+    index.add(lib);
+    index.add(bin);
+    TargetNode<?, ?> newBin = FakeTargetNodeBuilder.newBuilder(binTarget).build();
+
+    index.add(newBin);
+
+    assertEquals(2, index.size());
+    assertSame(newBin, index.getNode(binTarget).get());
+    assertEquals(ImmutableSet.of(), index.getReverseDeps(libTarget));
+    assertEquals(ImmutableSet.of(), index.getTargetsWithLabel("app"));
+  }
+
+  @Test
+  public void removedNodesAreForgotten() {
+    index.add(lib);
+    index.add(bin);
+
+    index.remove(binTarget);
+    assertFalse(index.getNode(binTarget).isPresent());
+    assertEquals(ImmutableSet.of(), index.getReverseDeps(libTarget));
+
+    index.removeCell(filesystem.getRootPath());
+    assertEquals(0, index.size());
+    assertEquals(ImmutableSet.of(), index.getOwners(filesystem.resolve("lib/Lib.java")));
+    assertEquals(ImmutableSet.of(), index.getKinds());
+  }
+}
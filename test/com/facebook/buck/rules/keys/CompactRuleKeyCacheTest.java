@@ -0,0 +1,286 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.NoopBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.TestBuildRuleParams;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.InstrumentingCacheStatsTracker;
+import com.facebook.buck.util.timing.Clock;
+import com.facebook.buck.util.timing.IncrementingFakeClock;
+import com.google.common.collect.ImmutableList;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class CompactRuleKeyCacheTest {
+
+  private static final ProjectFilesystem FILESYSTEM = new FakeProjectFilesystem();
+
+  @Test
+  public void testGetReturnValue() {
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(
+            new CompactRuleKeyCache<>(), new InstrumentingCacheStatsTracker());
+    TestRule rule = new TestRule();
+    assertThat(
+        cache.get(rule, r -> new RuleKeyResult<>("result", ImmutableList.of(), ImmutableList.of())),
+        Matchers.equalTo("result"));
+  }
+
+  @Test
+  public void testCacheRule() {
+    CompactRuleKeyCache<String> internalCache = new CompactRuleKeyCache<>();
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    TestRule rule = new TestRule();
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of()));
+    assertTrue(internalCache.isCached(rule));
+    cache.get(
+        rule,
+        r -> {
+          throw new IllegalStateException();
+        });
+  }
+
+  @Test
+  public void testInvalidateInputToCachedRule() {
+    CompactRuleKeyCache<String> internalCache = new CompactRuleKeyCache<>();
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    TestRule rule = new TestRule();
+    RuleKeyInput input = RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input"));
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)));
+    assertTrue(internalCache.isCached(rule));
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertFalse(internalCache.isCached(rule));
+  }
+
+  @Test
+  public void testInvalidateTransitiveInputToCachedRule() {
+    CompactRuleKeyCache<String> internalCache = new CompactRuleKeyCache<>();
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    RuleKeyInput input = RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input"));
+    TestRule dep = new TestRule();
+    cache.get(dep, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)));
+    TestRule rule = new TestRule();
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(dep), ImmutableList.of()));
+
+    assertTrue(internalCache.isCached(rule));
+    assertTrue(internalCache.isCached(dep));
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertFalse(internalCache.isCached(rule));
+    assertFalse(internalCache.isCached(dep));
+  }
+
+  @Test
+  public void testInvalidateInputToCachedRuleDoesNotInvalidateDependency() {
+    CompactRuleKeyCache<String> internalCache = new CompactRuleKeyCache<>();
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    RuleKeyInput input = RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input"));
+    TestRule dep = new TestRule();
+    cache.get(dep, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of()));
+    TestRule rule = new TestRule();
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(dep), ImmutableList.of(input)));
+    assertTrue(internalCache.isCached(rule));
+    assertTrue(internalCache.isCached(dep));
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertFalse(internalCache.isCached(rule));
+    assertTrue(internalCache.isCached(dep));
+  }
+
+  @Test
+  public void invalidatingDiamondDependencyWorksCorrectly() {
+    // A -> B
+    // |    |
+    // v    v
+    // C -> D
+
+    RuleKeyInput input = RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input"));
+    TestRule ruleA = new TestRule();
+    TestRule ruleB = new TestRule();
+    TestRule ruleC = new TestRule();
+    TestRule ruleD = new TestRule();
+
+    CompactRuleKeyCache<String> internalCache = new CompactRuleKeyCache<>();
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    cache.get(ruleA, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)));
+    cache.get(ruleB, r -> new RuleKeyResult<>("", ImmutableList.of(ruleA), ImmutableList.of()));
+    cache.get(ruleC, r -> new RuleKeyResult<>("", ImmutableList.of(ruleA), ImmutableList.of()));
+    cache.get(
+        ruleD, r -> new RuleKeyResult<>("", ImmutableList.of(ruleB, ruleC), ImmutableList.of()));
+    assertTrue(internalCache.isCached(ruleD));
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertFalse(internalCache.isCached(ruleD));
+  }
+
+  @Test
+  public void testHitMissStats() {
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(
+            new CompactRuleKeyCache<>(), new InstrumentingCacheStatsTracker());
+    TestRule rule = new TestRule();
+    cache.get(rule, r -> new RuleKeyResult<>("result", ImmutableList.of(), ImmutableList.of()));
+    cache.get(rule, r -> new RuleKeyResult<>("result", ImmutableList.of(), ImmutableList.of()));
+    cache.get(rule, r -> new RuleKeyResult<>("result", ImmutableList.of(), ImmutableList.of()));
+    assertThat(cache.getStats().getMissCount().get(), Matchers.equalTo(1L));
+    assertThat(cache.getStats().getHitCount().get(), Matchers.equalTo(2L));
+  }
+
+  @Test
+  public void testEvictionStats() {
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(
+            new CompactRuleKeyCache<>(), new InstrumentingCacheStatsTracker());
+    TestRule rule = new TestRule();
+    RuleKeyInput input = RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input"));
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)));
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertThat(cache.getStats().getEvictionCount().get(), Matchers.equalTo(1L));
+  }
+
+  @Test
+  public void testLoadTime() {
+    Clock clock = new IncrementingFakeClock(TimeUnit.MILLISECONDS.toNanos(1));
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(
+            new CompactRuleKeyCache<>(), new InstrumentingCacheStatsTracker(clock));
+    TestRule rule = new TestRule();
+    RuleKeyInput input = RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input"));
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)));
+    cache.invalidateInputs(ImmutableList.of(input));
+    assertThat(cache.getStats().getTotalLoadTime().get(), Matchers.equalTo(1L));
+  }
+
+  @Test
+  public void testReinsertAfterInvalidationTracksNewEdges() {
+    CompactRuleKeyCache<String> internalCache = new CompactRuleKeyCache<>();
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    RuleKeyInput input1 = RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input1"));
+    RuleKeyInput input2 = RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("input2"));
+    TestRule dep = new TestRule();
+    TestRule rule = new TestRule();
+    cache.get(dep, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input1)));
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(dep), ImmutableList.of()));
+    cache.invalidateInputs(ImmutableList.of(input1));
+    assertFalse(internalCache.isCached(rule));
+
+    // Ids freed above are reused, and must not inherit the edges of their previous owners.
+    TestRule other = new TestRule();
+    cache.get(other, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input2)));
+    cache.get(dep, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input1)));
+    cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(dep), ImmutableList.of()));
+    cache.invalidateInputs(ImmutableList.of(input2));
+    assertFalse(internalCache.isCached(other));
+    assertTrue(internalCache.isCached(dep));
+    assertTrue(internalCache.isCached(rule));
+    cache.invalidateInputs(ImmutableList.of(input1));
+    assertFalse(internalCache.isCached(dep));
+    assertFalse(internalCache.isCached(rule));
+  }
+
+  @Test
+  public void testColdestNodesAreEvictedWithTheirDependentsWhenOverBudget() {
+    CompactRuleKeyCache<String> unbounded = new CompactRuleKeyCache<>();
+    for (int i = 0; i < 4; i++) {
+      unbounded.get(
+          new TestRule(),
+          r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of()),
+          new InstrumentingCacheStatsTracker());
+    }
+
+    CompactRuleKeyCache<String> internalCache =
+        new CompactRuleKeyCache<>(unbounded.getEstimatedSizeBytes());
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    TestRule cold = new TestRule();
+    TestRule coldDependent = new TestRule();
+    TestRule hot1 = new TestRule();
+    TestRule hot2 = new TestRule();
+    TestRule hot3 = new TestRule();
+    cache.get(cold, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of()));
+    cache.get(
+        coldDependent, r -> new RuleKeyResult<>("", ImmutableList.of(cold), ImmutableList.of()));
+    cache.get(hot1, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of()));
+    cache.get(hot2, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of()));
+    assertTrue(internalCache.isCached(cold));
+    assertTrue(internalCache.isCached(coldDependent));
+
+    cache.get(hot3, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of()));
+    assertFalse(internalCache.isCached(cold));
+    assertFalse(internalCache.isCached(coldDependent));
+    assertTrue(internalCache.isCached(hot1));
+    assertTrue(internalCache.isCached(hot2));
+    assertTrue(internalCache.isCached(hot3));
+  }
+
+  @Test(timeout = 10000)
+  public void testGetCachedBuildRulesWhileValueIsBeingComputed() throws Exception {
+    CompactRuleKeyCache<String> internalCache = new CompactRuleKeyCache<>();
+    TrackedRuleKeyCache<String> cache =
+        new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+    TestRule rule = new TestRule();
+    CountDownLatch computing = new CountDownLatch(1);
+    FutureTask<ImmutableList<Map.Entry<BuildRule, String>>> listing =
+        new FutureTask<>(internalCache::getCachedBuildRules);
+    Thread listingThread = new Thread(listing);
+    FutureTask<String> computation =
+        new FutureTask<>(
+            () ->
+                cache.get(
+                    rule,
+                    r -> {
+                      computing.countDown();
+                      // Finish only once the listing waits for this value.
+                      while (listingThread.getState() == Thread.State.NEW
+                          || listingThread.getState() == Thread.State.RUNNABLE) {
+                        Thread.yield();
+                      }
+                      return new RuleKeyResult<>("result", ImmutableList.of(), ImmutableList.of());
+                    }));
+    new Thread(computation).start();
+    computing.await();
+    listingThread.start();
+
+    assertThat(computation.get(), Matchers.equalTo("result"));
+    assertThat(listing.get(), Matchers.hasSize(1));
+  }
+
+  private static class TestRule extends NoopBuildRuleWithDeclaredAndExtraDeps {
+
+    private TestRule() {
+      super(
+          BuildTargetFactory.newInstance("//:rule"),
+          new FakeProjectFilesystem(),
+          TestBuildRuleParams.create());
+    }
+  }
+}
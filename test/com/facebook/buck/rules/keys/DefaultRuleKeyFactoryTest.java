@@ -26,6 +26,7 @@ import com.facebook.buck.core.rulekey.AddsToRuleKey;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rulekey.RuleKeyAppendable;
 import com.facebook.buck.core.rulekey.RuleKeyObjectSink;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.impl.NoopBuildRuleWithDeclaredAndExtraDeps;
@@ -40,9 +41,12 @@ import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.rules.FakeSourcePath;
 import com.facebook.buck.rules.TestBuildRuleParams;
 import com.facebook.buck.rules.keys.RuleKeyDiagnostics.Result;
+import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
+import com.facebook.buck.rules.keys.config.RuleKeyHasherType;
 import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
 import com.facebook.buck.rules.keys.hasher.StringRuleKeyHasher;
 import com.facebook.buck.testutil.DummyFileHashCache;
+import com.facebook.buck.testutil.FakeFileHashCache;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.cache.FileHashCacheMode;
@@ -52,6 +56,7 @@ import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.facebook.buck.util.types.Either;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -518,6 +523,56 @@ public class DefaultRuleKeyFactoryTest {
     assertThat(result.deps, Matchers.containsInAnyOrder(dep, appendable));
   }
 
+  @Test
+  public void testStreamingHasherProducesTheSameKeys() {
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(graphBuilder);
+    SourcePathResolver pathResolver = DefaultSourcePathResolver.from(ruleFinder);
+    FileHashCache hashCache =
+        FakeFileHashCache.createFromStrings(
+            ImmutableMap.of(
+                "input.c", Strings.repeat("a", 40),
+                "input.h", Strings.repeat("b", 40)));
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+
+    BuildRule dep = new EmptyFakeBuildRule(BuildTargetFactory.newInstance("//:dep"));
+    BuildRule rule =
+        new NoopBuildRuleWithDeclaredAndExtraDeps(
+            BuildTargetFactory.newInstance("//:target#flavor"),
+            filesystem,
+            TestBuildRuleParams.create().withDeclaredDeps(ImmutableSortedSet.of(dep))) {
+
+          @AddToRuleKey
+          private final ImmutableList<SourcePath> inputs =
+              ImmutableList.of(
+                  FakeSourcePath.of(filesystem, "input.c"),
+                  FakeSourcePath.of(filesystem, "input.h"));
+
+          @AddToRuleKey
+          private final AddsToRuleKey appendable =
+              new AddsToRuleKey() {
+                @AddToRuleKey private final String flag = "-DNAME=\"\u00e9t\u00e9\"";
+              };
+        };
+
+    Function<RuleKeyHasherType, RuleKey> buildRuleKey =
+        hasherType ->
+            new DefaultRuleKeyFactory(
+                    new RuleKeyFieldLoader(
+                        RuleKeyConfiguration.builder()
+                            .from(TestRuleKeyConfigurationFactory.create())
+                            .setHasherType(hasherType)
+                            .build()),
+                    hashCache,
+                    pathResolver,
+                    ruleFinder)
+                .build(rule);
+
+    assertEquals(
+        buildRuleKey.apply(RuleKeyHasherType.GUAVA),
+        buildRuleKey.apply(RuleKeyHasherType.STREAMING));
+  }
+
   @Test
   public void testFactoryReportsInputsAndDependenciesToCacheForRuleKeyAppendable()
       throws IOException {
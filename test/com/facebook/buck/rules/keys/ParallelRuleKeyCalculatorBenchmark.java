@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.build.engine.impl.DefaultRuleDepsCache;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.calculator.ParallelRuleKeyCalculator;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how {@link ParallelRuleKeyCalculator} scales with the number of threads when computing
+ * the default rule key of the root of a {@link SyntheticActionGraph}.
+ *
+ * <p>A chain leaves no room for parallelism and shows the overhead of the futures, a fan-in graph
+ * shows how well independent rules are spread over the threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelRuleKeyCalculatorBenchmark {
+
+  @Param({"CHAIN", "FAN_IN"})
+  private SyntheticActionGraph.Shape shape;
+
+  @Param({"1000"})
+  private int numRules;
+
+  @Param({"100"})
+  private int numSourcesPerRule;
+
+  @Param({"1", "2", "4", "8"})
+  private int threads;
+
+  private SyntheticActionGraph graph;
+  private RuleKeyFieldLoader ruleKeyFieldLoader;
+  private BuckEventBus eventBus;
+  private ListeningExecutorService executor;
+
+  @Setup
+  public void setUp() {
+    graph = SyntheticActionGraph.create(shape, numRules, numSourcesPerRule);
+    ruleKeyFieldLoader = new RuleKeyFieldLoader(TestRuleKeyConfigurationFactory.create());
+    eventBus = BuckEventBusForTests.newInstance();
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public RuleKey calculate() throws ExecutionException, InterruptedException {
+    ParallelRuleKeyCalculator<RuleKey> calculator =
+        new ParallelRuleKeyCalculator<>(
+            executor,
+            new DefaultRuleKeyFactory(
+                ruleKeyFieldLoader,
+                graph.getFileHashCache(),
+                graph.getPathResolver(),
+                graph.getRuleFinder()),
+            new DefaultRuleDepsCache(graph.getGraphBuilder()),
+            (buckEventBus, rule) -> () -> {});
+    return calculator.calculate(eventBus, graph.getRoot()).get();
+  }
+}
@@ -26,6 +26,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.DefaultBuckEventBus;
 import com.facebook.buck.io.WatchmanOverflowEvent;
 import com.facebook.buck.io.WatchmanPathEvent;
+import com.facebook.buck.io.WatchmanPathEventBatch;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
@@ -89,6 +90,32 @@ public class RuleKeyCacheRecyclerTest {
     assertFalse(cache.isCached(appendable));
   }
 
+  @Test
+  public void pathWatchEventBatchInvalidatesPathsAndChangedDirectories() {
+    DefaultRuleKeyCache<String> cache = new DefaultRuleKeyCache<>();
+    RuleKeyInput fileInput = RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("dir/file"));
+    AddsToRuleKey fileAppendable = cacheWithInput(cache, fileInput);
+    AddsToRuleKey nestedAppendable =
+        cacheWithInput(cache, RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("other/a/b")));
+    AddsToRuleKey parentAppendable =
+        cacheWithInput(cache, RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("moved")));
+    AddsToRuleKey untouchedAppendable =
+        cacheWithInput(cache, RuleKeyInput.of(FILESYSTEM, FILESYSTEM.getPath("untouched")));
+    RuleKeyCacheRecycler<String> recycler =
+        RuleKeyCacheRecycler.createAndRegister(EVENT_BUS, cache, ImmutableSet.of(FILESYSTEM));
+    recycler.onFilesystemChange(
+        WatchmanPathEventBatch.of(
+            FILESYSTEM.getRootPath(),
+            ImmutableList.of(
+                WatchmanPathEvent.of(
+                    FILESYSTEM.getRootPath(), WatchmanPathEvent.Kind.MODIFY, fileInput.getPath())),
+            ImmutableSet.of(FILESYSTEM.getPath("other"), FILESYSTEM.getPath("moved/dir"))));
+    assertFalse(cache.isCached(fileAppendable));
+    assertFalse(cache.isCached(nestedAppendable));
+    assertFalse(cache.isCached(parentAppendable));
+    assertTrue(cache.isCached(untouchedAppendable));
+  }
+
   @Test
   public void overflowWatchEventInvalidatesEverything() {
     DefaultRuleKeyCache<String> cache = new DefaultRuleKeyCache<>();
@@ -189,4 +216,14 @@ public class RuleKeyCacheRecyclerTest {
         c -> {});
     assertFalse(cache.isCached(appendable));
   }
+
+  private static AddsToRuleKey cacheWithInput(
+      DefaultRuleKeyCache<String> cache, RuleKeyInput input) {
+    AddsToRuleKey appendable = new AddsToRuleKey() {};
+    cache.get(
+        appendable,
+        a -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of(input)),
+        new NoOpCacheStatsTracker());
+    return appendable;
+  }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.rules.keys.SyntheticActionGraph.SyntheticRule;
+import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
+import com.facebook.buck.rules.keys.config.RuleKeyHasherType;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how long each rule key factory takes to compute the keys of every rule in a {@link
+ * SyntheticActionGraph}.
+ *
+ * <p>Every invocation starts from an empty rule key cache, so the numbers reflect a build after
+ * the action graph was invalidated. Run with {@code -prof gc} to also report the bytes allocated
+ * per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleKeyFactoryBenchmark {
+
+  @Param({"CHAIN", "FAN_IN"})
+  private SyntheticActionGraph.Shape shape;
+
+  @Param({"1000"})
+  private int numRules;
+
+  @Param({"10", "1000"})
+  private int numSourcesPerRule;
+
+  @Param({"GUAVA", "STREAMING"})
+  private RuleKeyHasherType hasherType;
+
+  private SyntheticActionGraph graph;
+  private RuleKeyFieldLoader ruleKeyFieldLoader;
+
+  @Setup
+  public void setUp() {
+    graph = SyntheticActionGraph.create(shape, numRules, numSourcesPerRule);
+    ruleKeyFieldLoader =
+        new RuleKeyFieldLoader(
+            RuleKeyConfiguration.builder()
+                .from(TestRuleKeyConfigurationFactory.create())
+                .setHasherType(hasherType)
+                .build());
+  }
+
+  @Benchmark
+  public void defaultRuleKeys(Blackhole blackhole) {
+    DefaultRuleKeyFactory factory =
+        new DefaultRuleKeyFactory(
+            ruleKeyFieldLoader,
+            graph.getFileHashCache(),
+            graph.getPathResolver(),
+            graph.getRuleFinder());
+    for (SyntheticRule rule : graph.getRules()) {
+      blackhole.consume(factory.build(rule));
+    }
+  }
+
+  @Benchmark
+  public void inputBasedRuleKeys(Blackhole blackhole) {
+    InputBasedRuleKeyFactory factory =
+        new InputBasedRuleKeyFactory(
+            ruleKeyFieldLoader,
+            graph.getFileHashCache(),
+            graph.getPathResolver(),
+            graph.getRuleFinder(),
+            Long.MAX_VALUE,
+            Optional.empty());
+    for (SyntheticRule rule : graph.getRules()) {
+      blackhole.consume(factory.build(rule));
+    }
+  }
+
+  @Benchmark
+  public void depFileRuleKeys(Blackhole blackhole) throws IOException {
+    DefaultDependencyFileRuleKeyFactory factory =
+        new DefaultDependencyFileRuleKeyFactory(
+            ruleKeyFieldLoader,
+            graph.getFileHashCache(),
+            graph.getPathResolver(),
+            graph.getRuleFinder());
+    for (SyntheticRule rule : graph.getRules()) {
+      blackhole.consume(factory.build(rule, rule.getDepFileEntries()));
+    }
+  }
+
+  @Benchmark
+  public void manifestRuleKeys(Blackhole blackhole) throws IOException {
+    DefaultDependencyFileRuleKeyFactory factory =
+        new DefaultDependencyFileRuleKeyFactory(
+            ruleKeyFieldLoader,
+            graph.getFileHashCache(),
+            graph.getPathResolver(),
+            graph.getRuleFinder());
+    for (SyntheticRule rule : graph.getRules()) {
+      blackhole.consume(factory.buildManifestKey(rule));
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
+import com.facebook.buck.rules.keys.SyntheticActionGraph.SyntheticRule;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.rules.keys.hasher.GuavaRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.StreamingRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.ThriftRuleKeyHasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link RuleKeyBuilder} feeding the fields of every rule in a {@link
+ * SyntheticActionGraph} to each {@link com.facebook.buck.rules.keys.hasher.RuleKeyHasher}.
+ *
+ * <p>The keys of all deps are computed once up front, so only the work of hashing each rule itself
+ * is measured. Run with {@code -prof gc} to also report the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleKeyHasherBenchmark {
+
+  @Param({"CHAIN", "FAN_IN"})
+  private SyntheticActionGraph.Shape shape;
+
+  @Param({"1000"})
+  private int numRules;
+
+  @Param({"10", "1000"})
+  private int numSourcesPerRule;
+
+  private SyntheticActionGraph graph;
+  private DefaultRuleKeyFactory factory;
+  private ThriftRuleKeyLogger thriftLogger;
+
+  @Setup
+  public void setUp() {
+    graph = SyntheticActionGraph.create(shape, numRules, numSourcesPerRule);
+    factory =
+        new DefaultRuleKeyFactory(
+            new RuleKeyFieldLoader(TestRuleKeyConfigurationFactory.create()),
+            graph.getFileHashCache(),
+            graph.getPathResolver(),
+            graph.getRuleFinder());
+    for (SyntheticRule rule : graph.getRules()) {
+      factory.build(rule);
+    }
+    thriftLogger = new ThriftRuleKeyLogger(ByteStreams.nullOutputStream());
+  }
+
+  @Benchmark
+  public void guavaHasher(Blackhole blackhole) {
+    for (SyntheticRule rule : graph.getRules()) {
+      blackhole.consume(
+          factory.buildForDiagnostics(rule, new GuavaRuleKeyHasher(Hashing.sha1().newHasher()))
+              .diagKey);
+    }
+  }
+
+  @Benchmark
+  public void streamingHasher(Blackhole blackhole) {
+    for (SyntheticRule rule : graph.getRules()) {
+      blackhole.consume(
+          factory.buildForDiagnostics(rule, new StreamingRuleKeyHasher(Hashing.sha1().newHasher()))
+              .diagKey);
+    }
+  }
+
+  @Benchmark
+  public void thriftHasher(Blackhole blackhole) {
+    for (SyntheticRule rule : graph.getRules()) {
+      blackhole.consume(
+          factory.buildForDiagnostics(rule, new ThriftRuleKeyHasher(thriftLogger)).diagKey);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.type.BuildRuleType;
+import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.keys.hasher.GuavaRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher.Container;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher.Wrapper;
+import com.facebook.buck.rules.keys.hasher.StreamingRuleKeyHasher;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@SuppressWarnings("PMD.TestClassWithoutTestCases")
+@RunWith(Enclosed.class)
+public class StreamingRuleKeyHasherTest {
+
+  @RunWith(Parameterized.class)
+  public static class UniquenessTest extends CommonRuleKeyHasherTest.UniquenessTest<HashCode> {
+    @Parameters(name = "{0} != {2}")
+    public static Iterable<Object[]> cases() {
+      return CommonRuleKeyHasherTest.uniquenessTestCases(StreamingRuleKeyHasherTest::newHasher);
+    }
+  }
+
+  public static class ConsistencyTest extends CommonRuleKeyHasherTest.ConsistencyTest<HashCode> {
+
+    @Override
+    protected StreamingRuleKeyHasher newHasher() {
+      return StreamingRuleKeyHasherTest.newHasher();
+    }
+  }
+
+  public static class CompatibilityTest {
+
+    private static final BuildTarget TARGET =
+        BuildTargetFactory.newInstance(Paths.get("/root"), "//example/base:one#flavor");
+    private static final Path PATH = Paths.get("example/base/one.c");
+
+    @Test
+    public void testPrimitivesMatchGuavaHasher() {
+      assertSameHash(
+          hasher ->
+              hasher
+                  .putKey("key")
+                  .putNull()
+                  .putBoolean(true)
+                  .putBoolean(false)
+                  .putCharacter('\u20ac')
+                  .putNumber(42)
+                  .putNumber(-42L)
+                  .putNumber((short) 42)
+                  .putNumber((byte) 42)
+                  .putNumber(4.2f)
+                  .putNumber(4.2)
+                  .putContainer(Container.MAP, 3)
+                  .putWrapper(Wrapper.OPTIONAL)
+                  .putBytes(new byte[] {4, 2}));
+    }
+
+    @Test
+    public void testStringsMatchGuavaHasher() {
+      assertSameHash(
+          hasher ->
+              hasher
+                  .putString("")
+                  .putString("ascii")
+                  .putString("\u00e9t\u00e9 \u20ac")
+                  .putString("\ud83d\ude00 surrogate pair")
+                  .putString("unpaired \ud83d and \ude00")
+                  .putString("high surrogate at the end \ud83d")
+                  .putPattern(Pattern.compile("[a-z]+"))
+                  .putNonHashingPath("some/path")
+                  .putSourceRoot(new SourceRoot("root"))
+                  .putBuildRuleType(BuildRuleType.of("genrule")));
+    }
+
+    @Test
+    public void testValuesLargerThanTheBufferMatchGuavaHasher() {
+      String longString = Strings.repeat("\u00e9abc", 10000);
+      byte[] largeArray = new byte[100 * 1024];
+      largeArray[largeArray.length - 1] = 42;
+      assertSameHash(hasher -> hasher.putString(longString).putBytes(largeArray).putKey("end"));
+    }
+
+    @Test
+    public void testCachedValuesMatchGuavaHasher() {
+      ExplicitBuildTargetSourcePath sourcePath =
+          ExplicitBuildTargetSourcePath.of(TARGET, Paths.get("buck-out/gen/one.o"));
+      // Put every value twice so that the second time comes from the cache.
+      Consumer<RuleKeyHasher<HashCode>> putValues =
+          hasher ->
+              hasher
+                  .putKey("srcs")
+                  .putBuildTarget(TARGET)
+                  .putPath(PATH, HashCode.fromInt(42))
+                  .putBuildTargetSourcePath(sourcePath);
+      assertSameHash(putValues.andThen(putValues));
+    }
+
+    @Test
+    public void testHashesMatchGuavaHasher() {
+      assertSameHash(
+          hasher ->
+              hasher
+                  .putSha1(Sha1HashCode.of("a002b39af204cdfaa5fdb67816b13867c32ac52c"))
+                  .putRuleKey(new RuleKey("b67816b13867c32ac52ca002b39af204cdfaa5fd"))
+                  .putPath(PATH, HashCode.fromLong(42)));
+    }
+
+    @Test
+    public void testNestedHashersOnTheSameThreadDoNotInterfere() {
+      StreamingRuleKeyHasher outer = newHasher();
+      outer.putKey("outer");
+      StreamingRuleKeyHasher inner = newHasher();
+      inner.putKey("inner");
+      outer.putRuleKey(new RuleKey(inner.hash()));
+      // The buffer released by the inner hasher is reused here.
+      StreamingRuleKeyHasher sibling = newHasher();
+      sibling.putKey("inner");
+
+      GuavaRuleKeyHasher expectedInner = GuavaRuleKeyHasherTest.newHasher();
+      expectedInner.putKey("inner");
+      GuavaRuleKeyHasher expectedOuter = GuavaRuleKeyHasherTest.newHasher();
+      expectedOuter.putKey("outer").putRuleKey(new RuleKey(expectedInner.hash()));
+
+      assertEquals(expectedOuter.hash(), outer.hash());
+      assertEquals(GuavaRuleKeyHasherTest.newHasher().putKey("inner").hash(), sibling.hash());
+    }
+
+    private static void assertSameHash(Consumer<RuleKeyHasher<HashCode>> putValues) {
+      RuleKeyHasher<HashCode> expected = GuavaRuleKeyHasherTest.newHasher();
+      putValues.accept(expected);
+      RuleKeyHasher<HashCode> actual = newHasher();
+      putValues.accept(actual);
+      assertEquals(expected.hash(), actual.hash());
+    }
+  }
+
+  public static StreamingRuleKeyHasher newHasher() {
+    return new StreamingRuleKeyHasher(Hashing.sha1().newHasher());
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.build.buildable.context.BuildableContext;
+import com.facebook.buck.core.build.context.BuildContext;
+import com.facebook.buck.core.cell.resolver.CellPathResolver;
+import com.facebook.buck.core.description.BuildRuleParams;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.attr.SupportsDependencyFileRuleKey;
+import com.facebook.buck.core.rules.attr.SupportsInputBasedRuleKey;
+import com.facebook.buck.core.rules.impl.AbstractBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
+import com.facebook.buck.core.sourcepath.resolver.impl.DefaultSourcePathResolver;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.rules.TestBuildRuleParams;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * An action graph of synthetic rules with a configurable shape, used to benchmark rule key
+ * computation without running the parser.
+ *
+ * <p>Every rule has its own set of source files and consumes the outputs of its deps through
+ * {@link SourcePath}s, so the graph supports default, input-based and dependency file rule keys.
+ * All files are in memory and hashed through a {@link FakeFileHashCache}.
+ */
+public class SyntheticActionGraph {
+
+  /** How the rules in the graph depend on each other. */
+  public enum Shape {
+    /** Every rule depends on the one created before it. */
+    CHAIN,
+    /** A single root depends directly on every other rule. */
+    FAN_IN,
+  }
+
+  private final ActionGraphBuilder graphBuilder;
+  private final SourcePathRuleFinder ruleFinder;
+  private final SourcePathResolver pathResolver;
+  private final FileHashCache fileHashCache;
+  private final ImmutableList<SyntheticRule> rules;
+
+  private SyntheticActionGraph(
+      ActionGraphBuilder graphBuilder,
+      SourcePathRuleFinder ruleFinder,
+      SourcePathResolver pathResolver,
+      FileHashCache fileHashCache,
+      ImmutableList<SyntheticRule> rules) {
+    this.graphBuilder = graphBuilder;
+    this.ruleFinder = ruleFinder;
+    this.pathResolver = pathResolver;
+    this.fileHashCache = fileHashCache;
+    this.rules = rules;
+  }
+
+  /**
+   * @param numRules the number of rules in the graph, including the root.
+   * @param numSourcesPerRule the number of source files each rule adds to its rule keys.
+   */
+  static SyntheticActionGraph create(Shape shape, int numRules, int numSourcesPerRule) {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(graphBuilder);
+    SourcePathResolver pathResolver = DefaultSourcePathResolver.from(ruleFinder);
+    Map<Path, HashCode> hashes = new HashMap<>();
+
+    ImmutableList.Builder<SyntheticRule> rules = ImmutableList.builder();
+    ImmutableList.Builder<SyntheticRule> leaves = ImmutableList.builder();
+    SyntheticRule previous = null;
+    for (int i = 0; i < numRules; i++) {
+      ImmutableSortedSet<BuildRule> deps;
+      if (shape == Shape.CHAIN) {
+        deps = previous == null ? ImmutableSortedSet.of() : ImmutableSortedSet.of(previous);
+      } else if (i == numRules - 1) {
+        deps = ImmutableSortedSet.copyOf(leaves.build());
+      } else {
+        deps = ImmutableSortedSet.of();
+      }
+
+      BuildTarget target = BuildTargetFactory.newInstance(String.format("//synthetic:r%06d", i));
+      ImmutableSortedSet.Builder<SourcePath> srcs = ImmutableSortedSet.naturalOrder();
+      for (int j = 0; j < numSourcesPerRule; j++) {
+        Path path = Paths.get("synthetic", String.format("r%06d", i), String.format("s%05d.c", j));
+        srcs.add(PathSourcePath.of(filesystem, path));
+        hashes.put(filesystem.resolve(path), hash(path.toString()));
+      }
+
+      BuildRuleParams params = TestBuildRuleParams.create().withDeclaredDeps(deps);
+      SyntheticRule rule = new SyntheticRule(target, filesystem, params, srcs.build());
+      graphBuilder.addToIndex(rule);
+      hashes.put(
+          pathResolver.getAbsolutePath(rule.getSourcePathToOutput()), hash(target.toString()));
+
+      rules.add(rule);
+      leaves.add(rule);
+      previous = rule;
+    }
+
+    return new SyntheticActionGraph(
+        graphBuilder, ruleFinder, pathResolver, new FakeFileHashCache(hashes), rules.build());
+  }
+
+  private static HashCode hash(String contents) {
+    return Hashing.sha1().hashString(contents, StandardCharsets.UTF_8);
+  }
+
+  ActionGraphBuilder getGraphBuilder() {
+    return graphBuilder;
+  }
+
+  SourcePathRuleFinder getRuleFinder() {
+    return ruleFinder;
+  }
+
+  SourcePathResolver getPathResolver() {
+    return pathResolver;
+  }
+
+  FileHashCache getFileHashCache() {
+    return fileHashCache;
+  }
+
+  /** @return the rules of the graph, every rule after all of its deps. */
+  ImmutableList<SyntheticRule> getRules() {
+    return rules;
+  }
+
+  /** @return the rule that transitively depends on every other rule in the graph. */
+  SyntheticRule getRoot() {
+    return rules.get(rules.size() - 1);
+  }
+
+  /**
+   * A rule whose sources are all covered by its dep file, and which reports every other one of
+   * them as used.
+   */
+  static class SyntheticRule extends AbstractBuildRuleWithDeclaredAndExtraDeps
+      implements SupportsInputBasedRuleKey, SupportsDependencyFileRuleKey {
+
+    @AddToRuleKey private final ImmutableSortedSet<SourcePath> srcs;
+    @AddToRuleKey private final ImmutableList<SourcePath> depOutputs;
+    @AddToRuleKey private final ImmutableList<String> flags = ImmutableList.of("-O2", "-g");
+
+    private final Path output;
+    private final ImmutableList<DependencyFileEntry> depFileEntries;
+
+    private SyntheticRule(
+        BuildTarget buildTarget,
+        ProjectFilesystem projectFilesystem,
+        BuildRuleParams params,
+        ImmutableSortedSet<SourcePath> srcs) {
+      super(buildTarget, projectFilesystem, params);
+      this.srcs = srcs;
+      this.depOutputs =
+          params
+              .getDeclaredDeps()
+              .get()
+              .stream()
+              .map(BuildRule::getSourcePathToOutput)
+              .collect(ImmutableList.toImmutableList());
+      this.output = BuildTargets.getGenPath(projectFilesystem, buildTarget, "%s.o");
+      ImmutableList.Builder<DependencyFileEntry> entries = ImmutableList.builder();
+      int index = 0;
+      for (SourcePath src : srcs) {
+        if (index++ % 2 == 0) {
+          entries.add(
+              DependencyFileEntry.of(((PathSourcePath) src).getRelativePath(), Optional.empty()));
+        }
+      }
+      this.depFileEntries = entries.build();
+    }
+
+    /** @return the entries of the dep file this rule would produce when built. */
+    ImmutableList<DependencyFileEntry> getDepFileEntries() {
+      return depFileEntries;
+    }
+
+    @Override
+    public boolean useDependencyFileRuleKeys() {
+      return true;
+    }
+
+    @Override
+    public Predicate<SourcePath> getCoveredByDepFilePredicate(SourcePathResolver pathResolver) {
+      return srcs::contains;
+    }
+
+    @Override
+    public Predicate<SourcePath> getExistenceOfInterestPredicate(SourcePathResolver pathResolver) {
+      return path -> false;
+    }
+
+    @Override
+    public ImmutableList<SourcePath> getInputsAfterBuildingLocally(
+        BuildContext context, CellPathResolver cellPathResolver) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableList<? extends Step> getBuildSteps(
+        BuildContext context, BuildableContext buildableContext) {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public SourcePath getSourcePathToOutput() {
+      return ExplicitBuildTargetSourcePath.of(getBuildTarget(), output);
+    }
+  }
+}
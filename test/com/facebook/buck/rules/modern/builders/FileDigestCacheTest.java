@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.modern.builders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.function.ThrowingFunction;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class FileDigestCacheTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final AtomicInteger hashCount = new AtomicInteger();
+  private final ThrowingFunction<Path, HashCode, IOException> hasher =
+      path -> {
+        hashCount.incrementAndGet();
+        return Hashing.sha1().hashBytes(Files.readAllBytes(path));
+      };
+
+  private Path indexFile;
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    indexFile = tmp.getRoot().resolve("cache/digests.idx");
+    file = tmp.getRoot().resolve("file.txt");
+    writeFile("hello", 0);
+  }
+
+  @Test
+  public void unchangedFilesAreNotRehashedAcrossLoads() throws IOException {
+    FileDigestCache cache = FileDigestCache.load(indexFile, hasher);
+    HashCode first = cache.apply(file);
+    cache.save();
+
+    FileDigestCache reloaded = FileDigestCache.load(indexFile, hasher);
+    assertEquals(first, reloaded.apply(file));
+    assertEquals(1, hashCount.get());
+  }
+
+  @Test
+  public void modifiedFilesAreRehashed() throws IOException {
+    FileDigestCache cache = FileDigestCache.load(indexFile, hasher);
+    cache.apply(file);
+    cache.save();
+
+    writeFile("goodbye", 1000);
+    FileDigestCache reloaded = FileDigestCache.load(indexFile, hasher);
+    assertEquals(
+        Hashing.sha1().hashBytes("goodbye".getBytes(StandardCharsets.UTF_8)),
+        reloaded.apply(file));
+    assertEquals(2, hashCount.get());
+  }
+
+  @Test
+  public void recentlyModifiedFilesAreNotRemembered() throws IOException {
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    FileDigestCache cache = FileDigestCache.load(indexFile, hasher);
+    cache.apply(file);
+    cache.apply(file);
+    assertEquals(2, hashCount.get());
+  }
+
+  @Test
+  public void corruptIndexIsIgnored() throws IOException {
+    Files.createDirectories(indexFile.getParent());
+    Files.write(indexFile, new byte[] {0, 0, 0, 1, 0, 0, 0, 5});
+    FileDigestCache cache = FileDigestCache.load(indexFile, hasher);
+    cache.apply(file);
+    assertEquals(1, hashCount.get());
+  }
+
+  @Test
+  public void recordedDigestsAreReturnedUntilTheFileChanges() throws IOException {
+    HashCode hash = Hashing.sha1().hashBytes("hello".getBytes(StandardCharsets.UTF_8));
+    FileDigestCache cache = FileDigestCache.load(indexFile, hasher);
+    assertEquals(Optional.empty(), cache.getIfUnchanged(file));
+
+    cache.record(file, hash);
+    assertEquals(Optional.of(hash), cache.getIfUnchanged(file));
+
+    writeFile("goodbye", 1000);
+    assertEquals(Optional.empty(), cache.getIfUnchanged(file));
+    assertEquals(0, hashCount.get());
+  }
+
+  @Test
+  public void recentlyRecordedDigestsAreNotSaved() throws IOException {
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    HashCode hash = Hashing.sha1().hashBytes("hello".getBytes(StandardCharsets.UTF_8));
+    FileDigestCache cache = FileDigestCache.load(indexFile, hasher);
+    cache.record(file, hash);
+    assertEquals(Optional.of(hash), cache.getIfUnchanged(file));
+    cache.save();
+
+    FileDigestCache reloaded = FileDigestCache.load(indexFile, hasher);
+    assertEquals(Optional.empty(), reloaded.getIfUnchanged(file));
+  }
+
+  @Test
+  public void unusedAndDeletedEntriesAreNotSaved() throws IOException {
+    Path unused = tmp.getRoot().resolve("unused.txt");
+    Path deleted = tmp.getRoot().resolve("deleted.txt");
+    Files.write(unused, "unused".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(unused, FileTime.fromMillis(0));
+    Files.write(deleted, "deleted".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(deleted, FileTime.fromMillis(0));
+    FileDigestCache cache = FileDigestCache.load(indexFile, hasher);
+    cache.apply(file);
+    cache.apply(unused);
+    cache.apply(deleted);
+    cache.save();
+
+    FileDigestCache reloaded = FileDigestCache.load(indexFile, hasher);
+    assertTrue(reloaded.getIfUnchanged(file).isPresent());
+    assertTrue(reloaded.getIfUnchanged(deleted).isPresent());
+    Files.delete(deleted);
+    reloaded.save();
+
+    FileDigestCache pruned = FileDigestCache.load(indexFile, hasher);
+    assertTrue(pruned.getIfUnchanged(file).isPresent());
+    assertEquals(Optional.empty(), pruned.getIfUnchanged(unused));
+    Files.write(deleted, "deleted".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(deleted, FileTime.fromMillis(0));
+    assertEquals(Optional.empty(), pruned.getIfUnchanged(deleted));
+  }
+
+  private void writeFile(String contents, long mtime) throws IOException {
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(mtime));
+  }
+}
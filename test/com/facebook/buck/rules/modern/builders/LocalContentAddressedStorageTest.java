@@ -20,10 +20,13 @@ import static org.junit.Assert.*;
 
 import com.facebook.buck.rules.modern.builders.FileTreeBuilder.InputFile;
 import com.facebook.buck.rules.modern.builders.FileTreeBuilder.ProtocolTreeBuilder;
+import com.facebook.buck.rules.modern.builders.MultiThreadedBlobUploader.UploadData;
+import com.facebook.buck.rules.modern.builders.MultiThreadedBlobUploader.UploadResult;
 import com.facebook.buck.rules.modern.builders.Protocol.Digest;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
@@ -85,6 +88,18 @@ public class LocalContentAddressedStorageTest {
             }));
   }
 
+  @Test
+  public void uploadingPresentBlobReportsSuccess() throws IOException {
+    byte[] data = "hello world!".getBytes(Charsets.UTF_8);
+    Digest digest = protocol.newDigest("myhashcode", data.length);
+    storage.addMissing(ImmutableMap.of(digest, () -> new ByteArrayInputStream(data)));
+    ImmutableList<UploadResult> results =
+        storage.batchUpdateBlobs(
+            ImmutableList.of(new UploadData(digest, () -> new ByteArrayInputStream(data))));
+    assertEquals(1, results.size());
+    assertEquals(0, results.get(0).status);
+  }
+
   @Test
   public void addingAndMaterializingFullInputsWorks() throws IOException {
     FileTreeBuilder inputsBuilder = new FileTreeBuilder();
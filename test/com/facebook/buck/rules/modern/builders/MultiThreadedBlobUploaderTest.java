@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.modern.builders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.rules.modern.builders.MultiThreadedBlobUploader.UploadData;
+import com.facebook.buck.rules.modern.builders.MultiThreadedBlobUploader.UploadResult;
+import com.facebook.buck.rules.modern.builders.Protocol.Digest;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiThreadedBlobUploaderTest {
+  private static final int UPLOAD_SIZE_LIMIT = 100;
+
+  private final Protocol protocol = new ThriftProtocol();
+  private final RecordingUploader recorder = new RecordingUploader();
+  private ExecutorService uploadService;
+  private MultiThreadedBlobUploader uploader;
+
+  @Before
+  public void setUp() {
+    uploadService = MostExecutors.newMultiThreadExecutor("test-cas-upload", 4);
+    uploader = new MultiThreadedBlobUploader(1000, UPLOAD_SIZE_LIMIT, uploadService, recorder);
+  }
+
+  @After
+  public void tearDown() {
+    uploadService.shutdownNow();
+  }
+
+  @Test
+  public void batchesNeverExceedTheSizeLimit() throws IOException {
+    ImmutableMap.Builder<Digest, ThrowingSupplier<InputStream, IOException>> data =
+        ImmutableMap.builder();
+    for (int i = 0; i < 10; i++) {
+      addBlob(data, i, 40);
+    }
+    uploader.addMissing(data.build());
+
+    assertEquals(10, recorder.stored.size());
+    assertTrue(recorder.largeUploads.isEmpty());
+    for (List<UploadData> batch : recorder.batches) {
+      assertTrue(batch.stream().mapToLong(blob -> blob.digest.getSize()).sum() <= 100);
+    }
+  }
+
+  @Test
+  public void largeBlobsAreUploadedIndividually() throws IOException {
+    ImmutableMap.Builder<Digest, ThrowingSupplier<InputStream, IOException>> data =
+        ImmutableMap.builder();
+    Digest large = addBlob(data, 0, 250);
+    addBlob(data, 1, 10);
+    uploader.addMissing(data.build());
+
+    assertEquals(ImmutableList.of(large.getHash()), recorder.largeUploads);
+    assertEquals(2, recorder.stored.size());
+    assertEquals(250, recorder.stored.get(large.getHash()).intValue());
+  }
+
+  @Test
+  public void blobsAreOnlyUploadedOnce() throws IOException {
+    ImmutableMap.Builder<Digest, ThrowingSupplier<InputStream, IOException>> data =
+        ImmutableMap.builder();
+    addBlob(data, 0, 10);
+    addBlob(data, 1, 200);
+    ImmutableMap<Digest, ThrowingSupplier<InputStream, IOException>> blobs = data.build();
+
+    uploader.addMissing(blobs);
+    int batches = recorder.batches.size();
+    uploader.addMissing(blobs);
+
+    assertEquals(batches, recorder.batches.size());
+    assertEquals(1, recorder.largeUploads.size());
+    assertEquals(2, recorder.stored.size());
+  }
+
+  private Digest addBlob(
+      ImmutableMap.Builder<Digest, ThrowingSupplier<InputStream, IOException>> data,
+      int seed,
+      int size) {
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) (seed + i);
+    }
+    Digest digest = protocol.newDigest(Hashing.sha1().hashBytes(bytes).toString(), size);
+    data.put(digest, () -> new ByteArrayInputStream(bytes));
+    return digest;
+  }
+
+  private static class RecordingUploader implements CasBlobUploader {
+    private final ConcurrentHashMap<String, Integer> stored = new ConcurrentHashMap<>();
+    private final List<List<UploadData>> batches = new CopyOnWriteArrayList<>();
+    private final List<String> largeUploads = new CopyOnWriteArrayList<>();
+
+    @Override
+    public ImmutableSet<String> getMissingHashes(List<Digest> requiredDigests) {
+      return requiredDigests
+          .stream()
+          .map(Digest::getHash)
+          .filter(hash -> !stored.containsKey(hash))
+          .collect(ImmutableSet.toImmutableSet());
+    }
+
+    @Override
+    public ImmutableList<UploadResult> batchUpdateBlobs(ImmutableList<UploadData> blobs)
+        throws IOException {
+      batches.add(blobs);
+      ImmutableList.Builder<UploadResult> results = ImmutableList.builder();
+      for (UploadData blob : blobs) {
+        results.add(store(blob));
+      }
+      return results.build();
+    }
+
+    @Override
+    public UploadResult uploadLargeBlob(UploadData blob) throws IOException {
+      largeUploads.add(blob.getHash());
+      return store(blob);
+    }
+
+    private UploadResult store(UploadData blob) throws IOException {
+      int size = 0;
+      try (InputStream input = blob.data.get()) {
+        while (input.read() != -1) {
+          size++;
+        }
+      }
+      stored.put(blob.getHash(), size);
+      return new UploadResult(blob.digest, 0, null);
+    }
+  }
+}
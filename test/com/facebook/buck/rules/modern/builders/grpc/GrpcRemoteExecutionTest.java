@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.modern.builders.grpc;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.rules.modern.builders.LocalContentAddressedStorage;
+import com.facebook.buck.rules.modern.builders.Protocol;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class GrpcRemoteExecutionTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private LocalContentAddressedStorage storage;
+  private Server server;
+  private ManagedChannel channel;
+  private GrpcRemoteExecution remoteExecution;
+
+  @Before
+  public void setUp() throws IOException {
+    storage =
+        new LocalContentAddressedStorage(
+            tmp.getRoot().resolve("__cache__"), GrpcRemoteExecution.PROTOCOL);
+    GrpcRemoteExecutionServiceImpl service =
+        new GrpcRemoteExecutionServiceImpl(storage, tmp.newFolder("__work__"));
+
+    String name = "grpc-remote-execution-test";
+    InProcessServerBuilder builder = InProcessServerBuilder.forName(name);
+    service.getServices().forEach(builder::addService);
+    server = builder.build().start();
+    channel = InProcessChannelBuilder.forName(name).build();
+    remoteExecution =
+        new GrpcRemoteExecution("test", channel, BuckEventBusForTests.newInstance());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    remoteExecution.close();
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  @Test
+  public void largeAndSmallBlobsAreUploaded() throws IOException {
+    byte[] large = new byte[11 * 1024 * 1024 + 17];
+    new Random(0).nextBytes(large);
+    byte[] small = "hello world!".getBytes();
+    Protocol.Digest largeDigest = digest(large);
+    Protocol.Digest smallDigest = digest(small);
+
+    remoteExecution
+        .getStorage()
+        .addMissing(
+            ImmutableMap.<Protocol.Digest, ThrowingSupplier<InputStream, IOException>>of(
+                largeDigest,
+                () -> new ByteArrayInputStream(large),
+                smallDigest,
+                () -> new ByteArrayInputStream(small)));
+
+    assertArrayEquals(large, read(largeDigest));
+    assertArrayEquals(small, read(smallDigest));
+  }
+
+  private Protocol.Digest digest(byte[] data) {
+    return GrpcRemoteExecution.PROTOCOL.newDigest(
+        Hashing.sha1().hashBytes(data).toString(), data.length);
+  }
+
+  private byte[] read(Protocol.Digest digest) throws IOException {
+    try (InputStream data = storage.getData(digest)) {
+      return ByteStreams.toByteArray(data);
+    }
+  }
+}
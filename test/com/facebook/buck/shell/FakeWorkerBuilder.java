@@ -28,6 +28,7 @@ import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.worker.WorkerProcessPoolPolicy;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
@@ -71,6 +72,11 @@ public class FakeWorkerBuilder
       return 0;
     }
 
+    @Override
+    public WorkerProcessPoolPolicy getPoolPolicy() {
+      return WorkerProcessPoolPolicy.builder().build();
+    }
+
     @Override
     public boolean isPersistent() {
       return false;
@@ -41,6 +41,7 @@ import com.facebook.buck.worker.WorkerProcessIdentity;
 import com.facebook.buck.worker.WorkerProcessParams;
 import com.facebook.buck.worker.WorkerProcessPool;
 import com.facebook.buck.worker.WorkerProcessPoolFactory;
+import com.facebook.buck.worker.WorkerProcessPoolPolicy;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -51,6 +52,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -60,6 +62,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.hamcrest.Matchers;
 import org.junit.Test;
@@ -122,7 +125,17 @@ public class WorkerShellStepTest {
             maxWorkers,
             persistentWorkerKey == null || workerHash == null
                 ? Optional.empty()
-                : Optional.of(WorkerProcessIdentity.of(persistentWorkerKey, workerHash))));
+                : Optional.of(WorkerProcessIdentity.of(persistentWorkerKey, workerHash)),
+            WorkerProcessPoolPolicy.builder().build()));
+  }
+
+  /** Pools also post events to register their counters, which these tests don't care about. */
+  private static List<BuckEvent> getConsoleEvents(FakeBuckEventListener listener) {
+    return listener
+        .getEvents()
+        .stream()
+        .filter(event -> event instanceof ConsoleEvent)
+        .collect(Collectors.toList());
   }
 
   private ExecutionContext createExecutionContextWith(int exitCode, String stdout, String stderr) {
@@ -261,11 +274,11 @@ public class WorkerShellStepTest {
     assertThat(exitCode, Matchers.equalTo(0));
 
     // assert that the job's stdout and stderr were written to the console
-    BuckEvent firstEvent = listener.getEvents().get(0);
+    BuckEvent firstEvent = getConsoleEvents(listener).get(0);
     assertTrue(firstEvent instanceof ConsoleEvent);
     assertThat(((ConsoleEvent) firstEvent).getLevel(), Matchers.is(Level.INFO));
     assertThat(((ConsoleEvent) firstEvent).getMessage(), Matchers.is(stdout));
-    BuckEvent secondEvent = listener.getEvents().get(1);
+    BuckEvent secondEvent = getConsoleEvents(listener).get(1);
     assertTrue(secondEvent instanceof ConsoleEvent);
     assertThat(((ConsoleEvent) secondEvent).getLevel(), Matchers.is(Level.WARNING));
     assertThat(((ConsoleEvent) secondEvent).getMessage(), Matchers.is(stderr));
@@ -343,11 +356,11 @@ public class WorkerShellStepTest {
     assertThat(exitCode, Matchers.equalTo(1));
 
     // assert that the job's stderr was written to the console as error, not as warning
-    BuckEvent firstEvent = listener.getEvents().get(0);
+    BuckEvent firstEvent = getConsoleEvents(listener).get(0);
     assertTrue(firstEvent instanceof ConsoleEvent);
     assertThat(((ConsoleEvent) firstEvent).getLevel(), Matchers.is(Level.SEVERE));
     assertThat(((ConsoleEvent) firstEvent).getMessage(), Matchers.is(stderr));
-    BuckEvent secondEvent = listener.getEvents().get(1);
+    BuckEvent secondEvent = getConsoleEvents(listener).get(1);
     assertTrue(secondEvent instanceof ConsoleEvent);
     assertThat(((ConsoleEvent) secondEvent).getLevel(), Matchers.is(Level.INFO));
     assertThat(
@@ -488,7 +501,7 @@ public class WorkerShellStepTest {
     WorkerShellStep step = createWorkerShellStep(params, null, null);
     step.execute(context);
 
-    BuckEvent firstEvent = listener.getEvents().get(0);
+    BuckEvent firstEvent = getConsoleEvents(listener).get(0);
     assertThat(firstEvent, Matchers.instanceOf(ConsoleEvent.class));
 
     ConsoleEvent consoleEvent = (ConsoleEvent) firstEvent;
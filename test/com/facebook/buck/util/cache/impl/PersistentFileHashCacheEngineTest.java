@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.FileHashCacheEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCacheEngine;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashCacheEngineTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path indexPath;
+  private AtomicInteger loads;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    indexPath = tmp.getRoot().resolve("index");
+    loads = new AtomicInteger();
+  }
+
+  private PersistentFileHashCacheEngine newEngine() {
+    FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
+        path -> {
+          loads.incrementAndGet();
+          try {
+            return HashCodeAndFileType.ofFile(filesystem.computeSha1(path).asHashCode());
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        };
+    return new PersistentFileHashCacheEngine(
+        LoadingCacheFileHashCache.createWithStats(hashLoader, path -> 0L), filesystem, indexPath);
+  }
+
+  private void writeFile(Path path, String contents, long modifiedTimeMillis) throws IOException {
+    filesystem.writeContentsToPath(contents, path);
+    filesystem.setLastModifiedTime(path, FileTime.fromMillis(modifiedTimeMillis));
+  }
+
+  private static HashCode sha1(String contents) {
+    return Hashing.sha1().hashString(contents, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void unchangedFilesAreNotRehashedAfterRestart() throws IOException {
+    Path path = Paths.get("Foo.java");
+    writeFile(path, "foo", 100000);
+
+    PersistentFileHashCacheEngine engine = newEngine();
+    assertEquals(sha1("foo"), engine.get(path));
+    engine.save();
+    assertEquals(1, loads.get());
+
+    PersistentFileHashCacheEngine restarted = newEngine();
+    assertEquals(sha1("foo"), restarted.get(path));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void changedFilesAreRehashedAfterRestart() throws IOException {
+    Path path = Paths.get("Foo.java");
+    writeFile(path, "foo", 100000);
+
+    PersistentFileHashCacheEngine engine = newEngine();
+    engine.get(path);
+    engine.save();
+
+    writeFile(path, "foobar", 200000);
+    PersistentFileHashCacheEngine restarted = newEngine();
+    assertEquals(sha1("foobar"), restarted.get(path));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void invalidatedPathsAreNotSeededFromIndex() throws IOException {
+    Path path = Paths.get("Foo.java");
+    writeFile(path, "foo", 100000);
+
+    PersistentFileHashCacheEngine engine = newEngine();
+    engine.get(path);
+    engine.save();
+
+    // Same size and modification time, but reported as changed.
+    writeFile(path, "bar", 100000);
+    PersistentFileHashCacheEngine restarted = newEngine();
+    restarted.invalidate(path);
+    assertEquals(sha1("bar"), restarted.get(path));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void pathsInvalidatedInBatchesAreNotSeededFromIndex() throws IOException {
+    Path path = Paths.get("dir", "Foo.java");
+    filesystem.mkdirs(path.getParent());
+    writeFile(path, "foo", 100000);
+
+    PersistentFileHashCacheEngine engine = newEngine();
+    engine.get(path);
+    engine.save();
+
+    writeFile(path, "bar", 100000);
+    PersistentFileHashCacheEngine restarted = newEngine();
+    restarted.invalidateAllWithParents(ImmutableList.of(path));
+    assertEquals(sha1("bar"), restarted.get(path));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void statsAreReportedPerOutcome() throws IOException {
+    Path foo = Paths.get("Foo.java");
+    Path bar = Paths.get("Bar.java");
+    writeFile(foo, "foo", 100000);
+    writeFile(bar, "bar", 100000);
+
+    PersistentFileHashCacheEngine engine = newEngine();
+    engine.get(foo);
+    engine.save();
+
+    PersistentFileHashCacheEngine restarted = newEngine();
+    restarted.get(foo);
+    restarted.get(bar);
+    Map<String, Long> counts = new HashMap<>();
+    for (AbstractBuckEvent event : restarted.getStatsEvents()) {
+      if (event instanceof FileHashCacheEvent) {
+        FileHashCacheEvent stats = (FileHashCacheEvent) event;
+        counts.put(stats.getCategory(), stats.getDataPointsCount());
+      }
+    }
+    String prefix = "file_hash_cache_invalidation.persistent.";
+    assertEquals(Long.valueOf(1), counts.get(prefix + "hit"));
+    assertEquals(Long.valueOf(1), counts.get(prefix + "miss"));
+    assertFalse(counts.containsKey(prefix + "revalidate"));
+  }
+
+  @Test
+  public void entriesNotRequestedAreCarriedOverOnSave() throws IOException {
+    Path foo = Paths.get("Foo.java");
+    Path bar = Paths.get("Bar.java");
+    writeFile(foo, "foo", 100000);
+    writeFile(bar, "bar", 100000);
+
+    PersistentFileHashCacheEngine engine = newEngine();
+    engine.get(foo);
+    engine.get(bar);
+    engine.save();
+
+    PersistentFileHashCacheEngine second = newEngine();
+    second.get(foo);
+    second.save();
+
+    PersistentFileHashCacheEngine third = newEngine();
+    assertEquals(sha1("foo"), third.get(foo));
+    assertEquals(sha1("bar"), third.get(bar));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void recentlyModifiedFilesAreNotPersisted() throws IOException {
+    Path path = Paths.get("Foo.java");
+    writeFile(path, "foo", System.currentTimeMillis());
+
+    PersistentFileHashCacheEngine engine = newEngine();
+    engine.get(path);
+    engine.save();
+
+    PersistentFileHashCacheEngine restarted = newEngine();
+    restarted.get(path);
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void indexIsOnlyRewrittenWhenChanged() throws IOException {
+    Path path = Paths.get("Foo.java");
+    writeFile(path, "foo", 100000);
+
+    PersistentFileHashCacheEngine engine = newEngine();
+    assertFalse(engine.saveIfChanged());
+    engine.get(path);
+    assertTrue(engine.saveIfChanged());
+    assertFalse(engine.saveIfChanged());
+
+    PersistentFileHashCacheEngine restarted = newEngine();
+    restarted.get(path);
+    assertFalse(restarted.saveIfChanged());
+    restarted.invalidate(path);
+    assertTrue(restarted.saveIfChanged());
+  }
+}
@@ -24,6 +24,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.WatchmanOverflowEvent;
 import com.facebook.buck.io.WatchmanPathEvent;
+import com.facebook.buck.io.WatchmanPathEventBatch;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
@@ -32,6 +33,7 @@ import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.HashCodeAndFileType;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import java.io.File;
 import java.io.IOException;
@@ -123,6 +125,32 @@ public class WatchedFileHashCacheTest {
         nullValue());
   }
 
+  @Test
+  public void whenNotifiedOfEventBatchPathsAndChangedDirectoriesAreRemoved() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    Path changed = Paths.get("foo/Changed.java");
+    Path moved = Paths.get("bar/baz/Moved.java");
+    Path unchanged = Paths.get("foo/Unchanged.java");
+    HashCodeAndFileType value = HashCodeAndFileType.ofFile(HashCode.fromInt(42));
+    for (Path path : ImmutableList.of(changed, moved, unchanged)) {
+      filesystem.touch(path);
+      cache.fileHashCacheEngine.put(path, value);
+    }
+
+    cache.onFileSystemChange(
+        WatchmanPathEventBatch.of(
+            filesystem.getRootPath(),
+            ImmutableList.of(
+                WatchmanPathEvent.of(
+                    filesystem.getRootPath(), WatchmanPathEvent.Kind.MODIFY, changed)),
+            ImmutableSet.of(Paths.get("bar"))));
+
+    assertFalse(cache.getIfPresent(changed).isPresent());
+    assertFalse(cache.getIfPresent(moved).isPresent());
+    assertTrue(cache.getIfPresent(unchanged).isPresent());
+  }
+
   @Test
   public void whenNotifiedOfDeleteEventCacheEntryIsRemoved() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -25,6 +25,8 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -153,6 +155,104 @@ public class ResourcePoolTest {
     }
   }
 
+  @Test
+  public void prioritizedRequestsAreServedFirst() throws Exception {
+    try (Fixture f = new Fixture(/* maxResources */ 1)) {
+      CountDownLatch firstStarted = new CountDownLatch(1);
+      CountDownLatch unblockFirst = new CountDownLatch(1);
+      List<String> order = Collections.synchronizedList(new ArrayList<>());
+      List<ListenableFuture<?>> futures = new ArrayList<>();
+      futures.add(
+          f.getPool()
+              .scheduleOperationWithResource(
+                  r -> {
+                    firstStarted.countDown();
+                    unblockFirst.await();
+                    return order.add("first");
+                  },
+                  f.getExecutorService()));
+      firstStarted.await();
+
+      ResourcePool<TestResource>.Request late = f.getPool().newRequest(false);
+      for (String name : new String[] {"a", "b"}) {
+        futures.add(
+            f.getPool()
+                .scheduleOperationWithResource(r -> order.add(name), f.getExecutorService()));
+      }
+      futures.add(
+          f.getPool()
+              .scheduleOperationWithResource(r -> order.add("late"), f.getExecutorService(), late));
+      futures.add(
+          f.getPool()
+              .scheduleOperationWithResource(
+                  r -> order.add("urgent"), f.getExecutorService(), f.getPool().newRequest(true)));
+      assertThat(f.getPool().getWaitingRequestCount(), equalTo(4));
+      late.prioritize();
+      unblockFirst.countDown();
+
+      Futures.allAsList(futures).get();
+      assertThat(order, equalTo(Arrays.asList("first", "urgent", "late", "a", "b")));
+    }
+  }
+
+  @Test
+  public void raisingMaxResourcesServesWaitingRequests() throws Exception {
+    try (Fixture f = new Fixture(/* maxResources */ 2)) {
+      f.getPool().setMaxResources(1);
+      CountDownLatch bothStarted = new CountDownLatch(2);
+      List<ListenableFuture<TestResource>> futures = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        futures.add(
+            f.getPool()
+                .scheduleOperationWithResource(
+                    r -> {
+                      bothStarted.countDown();
+                      bothStarted.await();
+                      return r;
+                    },
+                    f.getExecutorService()));
+        while (f.getPool().getBusyResourceCount() + f.getPool().getWaitingRequestCount() <= i) {
+          Thread.sleep(1);
+        }
+      }
+      assertThat(f.getPool().getWaitingRequestCount(), equalTo(1));
+      assertThat(f.getPool().getBusyResourceCount(), equalTo(1));
+
+      f.getPool().setMaxResources(2);
+      Futures.allAsList(futures).get(5, TimeUnit.SECONDS);
+      assertThat(f.getCreatedResources().get(), equalTo(2));
+    }
+  }
+
+  @Test
+  public void loweringMaxResourcesClosesParkedResources() throws Exception {
+    try (Fixture f = new Fixture(/* maxResources */ 2)) {
+      CountDownLatch bothStarted = new CountDownLatch(2);
+      List<ListenableFuture<TestResource>> futures = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        futures.add(
+            f.getPool()
+                .scheduleOperationWithResource(
+                    r -> {
+                      bothStarted.countDown();
+                      bothStarted.await();
+                      return r;
+                    },
+                    f.getExecutorService()));
+      }
+      Futures.allAsList(futures).get();
+
+      f.getPool().setMaxResources(1);
+      assertThat(f.getClosedResourceCount(), equalTo(1));
+
+      ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+      for (int i = 0; i < 3; i++) {
+        f.getPool().scheduleOperationWithResource(r -> r, executorService).get();
+      }
+      assertThat(f.getCreatedResources().get(), equalTo(2));
+    }
+  }
+
   private static class TestResource implements AutoCloseable {
     private final int id;
 
@@ -235,6 +335,12 @@ public class ResourcePoolTest {
       return maxResources;
     }
 
+    public int getClosedResourceCount() {
+      synchronized (closedResourcesSet) {
+        return closedResourcesSet.size();
+      }
+    }
+
     public ResourcePool<TestResource> getPool() {
       return pool;
     }
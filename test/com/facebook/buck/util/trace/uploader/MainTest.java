@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.trace.uploader;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.event.chrome_trace.BinaryChromeTraceWriter;
+import com.facebook.buck.event.chrome_trace.ChromeTraceEvent;
+import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MainTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void compressedBinaryTracesAreUploadedAsJson() throws IOException {
+    Path trace = tmp.getRoot().resolve("build.trace.gz");
+    try (BinaryChromeTraceWriter writer =
+        new BinaryChromeTraceWriter(new GZIPOutputStream(Files.newOutputStream(trace)))) {
+      writer.writeStart();
+      writer.writeEvent(
+          new ChromeTraceEvent(
+              "buck", "//foo:bar", Phase.BEGIN, 0, 12, 1_000, 20, ImmutableMap.of("a", "b")));
+      writer.writeEnd();
+    }
+
+    JsonNode compressed;
+    try (InputStream in =
+        new GZIPInputStream(Files.newInputStream(Main.prepareTraceForUpload(trace, true)))) {
+      compressed = ObjectMappers.READER.readTree(in);
+    }
+    JsonNode uncompressed;
+    try (InputStream in = Files.newInputStream(Main.prepareTraceForUpload(trace, false))) {
+      uncompressed = ObjectMappers.READER.readTree(in);
+    }
+
+    assertEquals(1, compressed.size());
+    assertEquals("//foo:bar", compressed.get(0).get("name").asText());
+    assertEquals("b", compressed.get(0).get("args").get("a").asText());
+    assertEquals(compressed, uncompressed);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares writing a jar-sized zip with {@link CustomZipOutputStream} against {@link
+ * ParallelZipWriter}. The entries look roughly like class files: mostly a few KB of moderately
+ * compressible data, with the occasional large resource. Output goes to a counting stream so that
+ * disk speed doesn't matter.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelZipWriterBenchmark {
+
+  @Param({"50000", "100000"})
+  private int numEntries;
+
+  @Param({"1", "4", "8"})
+  private int threads;
+
+  @Param({"0", "1048576"})
+  private int blockSize;
+
+  private String[] names;
+  private byte[][] contents;
+  private ListeningExecutorService executorService;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    names = new String[numEntries];
+    contents = new byte[numEntries][];
+    for (int i = 0; i < numEntries; i++) {
+      names[i] = String.format("com/example/p%d/Class%d.class", i / 100, i);
+      int length = i % 1000 == 0 ? 4 * 1024 * 1024 : 512 + random.nextInt(8 * 1024);
+      contents[i] = new byte[length];
+      for (int j = 0; j < length; j++) {
+        // A small alphabet with runs, which deflates to about a third of its size.
+        contents[i][j] = (byte) (j % 7 == 0 ? random.nextInt(256) : 'a' + random.nextInt(16));
+      }
+    }
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+  }
+
+  @TearDown
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Benchmark
+  public long sequential() throws IOException {
+    CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(out)) {
+      for (int i = 0; i < numEntries; i++) {
+        zip.putNextEntry(new CustomZipEntry(names[i]));
+        zip.write(contents[i]);
+        zip.closeEntry();
+      }
+    }
+    return out.getCount();
+  }
+
+  @Benchmark
+  public long parallel() throws IOException {
+    CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(out, executorService, 4 * threads, blockSize, new DefaultClock())) {
+      for (int i = 0; i < numEntries; i++) {
+        writer.addEntry(new CustomZipEntry(names[i]), contents[i]);
+      }
+    }
+    return out.getCount();
+  }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2018-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelZipWriterTest {
+
+  private ListeningExecutorService executorService;
+
+  @Before
+  public void setUp() {
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+  }
+
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void writesTheSameBytesAsTheSequentialWriter() throws IOException {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(expected)) {
+      for (int i = 0; i < 50; i++) {
+        zip.putNextEntry(newEntry(i));
+        zip.write(contents(i));
+        zip.closeEntry();
+      }
+    }
+
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(
+            actual, executorService, /* maxPendingEntries */ 3, 0, new DefaultClock())) {
+      for (int i = 0; i < 50; i++) {
+        writer.addEntry(newEntry(i), contents(i));
+      }
+    }
+
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+
+  @Test
+  public void entriesLargerThanThePendingBytesAreStreamed() throws IOException {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(expected)) {
+      for (int i = 0; i < 50; i++) {
+        zip.putNextEntry(newEntry(i));
+        zip.write(contents(i));
+        zip.closeEntry();
+      }
+    }
+
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(
+            actual,
+            executorService,
+            /* maxPendingEntries */ 3,
+            /* maxPendingBytes */ 20_000,
+            /* blockSize */ 0,
+            new DefaultClock())) {
+      for (int i = 0; i < 50; i++) {
+        // Every entry from the 21st on is bigger than what may be held in memory.
+        writer.addEntry(newEntry(i), new ByteArrayInputStream(contents(i)));
+      }
+    }
+
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+
+  @Test
+  public void pendingEntriesAreBoundedByTheirSize() throws IOException {
+    // Nothing is compressed ahead of time, so entries are only written when they have to be.
+    ListeningExecutorService neverRuns =
+        MoreExecutors.listeningDecorator(
+            new AbstractExecutorService() {
+              @Override
+              public void execute(Runnable command) {}
+
+              @Override
+              public void shutdown() {}
+
+              @Override
+              public List<Runnable> shutdownNow() {
+                return ImmutableList.of();
+              }
+
+              @Override
+              public boolean isShutdown() {
+                return false;
+              }
+
+              @Override
+              public boolean isTerminated() {
+                return false;
+              }
+
+              @Override
+              public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return false;
+              }
+            });
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(
+            out,
+            neverRuns,
+            /* maxPendingEntries */ 32,
+            /* maxPendingBytes */ 100_000,
+            /* blockSize */ 0,
+            new DefaultClock())) {
+      writer.addEntry(new CustomZipEntry("a"), compressibleBytes(40_000));
+      writer.addEntry(new CustomZipEntry("b"), compressibleBytes(40_000));
+      assertEquals(0, out.size());
+
+      writer.addEntry(new CustomZipEntry("c"), compressibleBytes(40_000));
+      assertThat(out.size(), greaterThan(0));
+    }
+  }
+
+  @Test
+  public void entriesSplitIntoBlocksAreDeterministicAndReadable() throws IOException {
+    Map<String, byte[]> files = new LinkedHashMap<>();
+    files.put("small.txt", "hello".getBytes(UTF_8));
+    files.put("large.txt", compressibleBytes(1_000_000));
+    files.put("exactly-one-block.txt", compressibleBytes(64 * 1024));
+
+    byte[] first = writeInBlocks(files);
+    byte[] second = writeInBlocks(files);
+    assertArrayEquals(first, second);
+    assertThat(first.length, lessThan(1_000_000 / 2));
+
+    Map<String, byte[]> read = new LinkedHashMap<>();
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(first))) {
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        read.put(entry.getName(), ByteStreams.toByteArray(in));
+      }
+    }
+    assertEquals(files.keySet(), read.keySet());
+    for (Map.Entry<String, byte[]> file : files.entrySet()) {
+      assertArrayEquals(file.getKey(), file.getValue(), read.get(file.getKey()));
+    }
+  }
+
+  @Test
+  public void finishesWhenTheExecutorIsBusy() throws IOException {
+    ListeningExecutorService busyExecutorService =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    CountDownLatch done = new CountDownLatch(1);
+    try {
+      // Stands in for the caller running on the same pool and waiting for the zip to be written.
+      busyExecutorService.submit(
+          () -> {
+            done.await();
+            return null;
+          });
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (ParallelZipWriter writer =
+          new ParallelZipWriter(out, busyExecutorService, 2, 64 * 1024, new DefaultClock())) {
+        writer.addEntry(new CustomZipEntry("small.txt"), "hello".getBytes(UTF_8));
+        writer.addEntry(new CustomZipEntry("large.txt"), compressibleBytes(200_000));
+        writer.addEntry(new CustomZipEntry("other.txt"), "goodbye".getBytes(UTF_8));
+      }
+      assertArrayEquals(
+          writeInBlocks(
+              ImmutableMap.of(
+                  "small.txt",
+                  "hello".getBytes(UTF_8),
+                  "large.txt",
+                  compressibleBytes(200_000),
+                  "other.txt",
+                  "goodbye".getBytes(UTF_8))),
+          out.toByteArray());
+    } finally {
+      done.countDown();
+      busyExecutorService.shutdownNow();
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void duplicateEntriesAreRejected() throws IOException {
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(
+            new ByteArrayOutputStream(), executorService, 2, 0, new DefaultClock())) {
+      writer.addEntry(new CustomZipEntry("a"), new byte[] {1});
+      writer.addEntry(new CustomZipEntry("a"), new byte[] {2});
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failuresAreReportedWhenTheEntryIsWritten() throws IOException {
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(
+            new ByteArrayOutputStream(), executorService, 2, 0, new DefaultClock())) {
+      CustomZipEntry stored = new CustomZipEntry("stored");
+      stored.setCompressionLevel(Deflater.NO_COMPRESSION);
+      stored.setSize(1);
+      stored.setCompressedSize(1);
+      // The wrong CRC is only noticed once the entry has been processed.
+      stored.setCrc(0);
+      writer.addEntry(stored, new byte[] {42});
+    }
+  }
+
+  private byte[] writeInBlocks(Map<String, byte[]> files) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ParallelZipWriter writer =
+        new ParallelZipWriter(
+            out, executorService, 2, /* blockSize */ 64 * 1024, new DefaultClock())) {
+      for (Map.Entry<String, byte[]> file : files.entrySet()) {
+        writer.addEntry(new CustomZipEntry(file.getKey()), file.getValue());
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static CustomZipEntry newEntry(int i) {
+    CustomZipEntry entry = new CustomZipEntry(Paths.get("dir" + (i % 5), "file" + i), i % 10 == 9);
+    byte[] contents = contents(i);
+    switch (i % 3) {
+      case 0:
+        entry.setCompressionLevel(Deflater.NO_COMPRESSION);
+        entry.setSize(contents.length);
+        entry.setCompressedSize(contents.length);
+        entry.setCrc(Hashing.crc32().hashBytes(contents).padToLong());
+        break;
+      case 1:
+        entry.setCompressionLevel(Deflater.BEST_COMPRESSION);
+        break;
+      default:
+        break;
+    }
+    return entry;
+  }
+
+  private static byte[] contents(int i) {
+    return i % 10 == 9 ? new byte[0] : compressibleBytes(i * 997);
+  }
+
+  private static byte[] compressibleBytes(int length) {
+    Random random = new Random(length);
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) ('a' + random.nextInt(4));
+    }
+    return bytes;
+  }
+}
@@ -17,11 +17,15 @@
 package com.facebook.buck.worker;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
 import com.facebook.buck.util.Threads;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import com.facebook.buck.worker.WorkerProcessPool.BorrowedWorkerProcess;
@@ -29,10 +33,15 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
@@ -370,6 +379,158 @@ public class WorkerProcessPoolTest {
     worker.close();
   }
 
+  @Test
+  public void recyclesWorkersAfterTooManyJobs() throws Exception {
+    List<WorkerProcess> createdWorkers = new ArrayList<>();
+    WorkerProcessPool pool =
+        createPool(
+            WorkerProcessPoolPolicy.builder().setMaxJobsPerWorker(2).build(), createdWorkers::add);
+
+    for (int i = 0; i < 3; i++) {
+      try (BorrowedWorkerProcess worker = pool.borrowWorkerProcess()) {
+        assertThat(worker.submitAndWaitForJob("job").getExitCode(), is(0));
+      }
+    }
+
+    assertThat(createdWorkers.size(), is(2));
+    assertThat(createdWorkers.get(0).isAlive(), is(false));
+    assertThat(createdWorkers.get(1).isAlive(), is(true));
+    assertThat(getCounterValue(pool, "worker_recycles"), is(1L));
+    assertThat(getCounterValue(pool, "worker_starts"), is(2L));
+    assertThat(getCounterValue(pool, "job_latency_ms"), is(3L));
+    pool.close();
+  }
+
+  @Test
+  public void warmsUpIdleWorkersAheadOfDemand() throws Exception {
+    List<WorkerProcess> createdWorkers = new ArrayList<>();
+    WorkerProcessPool pool =
+        createPool(
+            WorkerProcessPoolPolicy.builder().setWarmWorkers(2).build(), createdWorkers::add);
+
+    pool.warmUpIdleWorkers();
+    assertThat(createdWorkers.size(), is(2));
+
+    WorkerProcess process;
+    try (BorrowedWorkerProcess worker = pool.borrowWorkerProcess()) {
+      process = worker.get();
+    }
+    // The borrowed worker was one of the warm ones, and borrowing it started another one to keep
+    // two idle workers ready.
+    assertThat(createdWorkers.subList(0, 2), hasItem(process));
+    assertThat(createdWorkers.size(), is(3));
+    pool.close();
+  }
+
+  @Test
+  public void closesWorkersThatWereIdleForTooLong() throws Exception {
+    List<WorkerProcess> createdWorkers = new ArrayList<>();
+    WorkerProcessPool pool =
+        createPool(
+            WorkerProcessPoolPolicy.builder().setIdleTimeoutMillis(1).build(),
+            createdWorkers::add);
+
+    acquireWorkersThenRelease(pool, 1);
+    Thread.sleep(10);
+    pool.closeIdleWorkers();
+    assertThat(createdWorkers.get(0).isAlive(), is(false));
+
+    acquireWorkersThenRelease(pool, 1);
+    assertThat(createdWorkers.size(), is(2));
+    pool.close();
+  }
+
+  @Test
+  public void warmWorkersAreStillHandedOutFirstAfterIdleWorkersWereClosed() throws Exception {
+    List<WorkerProcess> createdWorkers = new ArrayList<>();
+    WorkerProcessPool pool =
+        createPool(
+            WorkerProcessPoolPolicy.builder().setIdleTimeoutMillis(200).build(),
+            createdWorkers::add);
+
+    acquireWorkersThenRelease(pool, 2);
+    Thread.sleep(300);
+    WorkerProcess warmWorker;
+    try (BorrowedWorkerProcess worker = pool.borrowWorkerProcess()) {
+      warmWorker = worker.get();
+    }
+    pool.closeIdleWorkers();
+    assertThat(createdWorkers.stream().filter(WorkerProcess::isAlive).count(), is(1L));
+
+    try (BorrowedWorkerProcess worker = pool.borrowWorkerProcess()) {
+      assertThat(worker.get(), is(warmWorker));
+    }
+    assertThat(createdWorkers.size(), is(2));
+    pool.close();
+  }
+
+  @Test
+  public void closesIdleWorkersInTheBackground() throws Exception {
+    List<WorkerProcess> createdWorkers = new ArrayList<>();
+    WorkerProcessPool pool =
+        new WorkerProcessPool(
+            1,
+            Hashing.sha1().hashLong(0),
+            WorkerProcessPoolPolicy.builder().setIdleTimeoutMillis(1).build(),
+            ImmutableMap.of(),
+            () -> {
+              FakeWorkerProcess worker =
+                  new FakeWorkerProcess(
+                      ImmutableMap.of(
+                          "job", WorkerJobResult.of(0, Optional.empty(), Optional.empty())));
+              worker.ensureLaunchAndHandshake();
+              createdWorkers.add(worker);
+              return worker;
+            });
+
+    acquireWorkersThenRelease(pool, 1);
+    for (int i = 0; i < 500 && createdWorkers.get(0).isAlive(); i++) {
+      Thread.sleep(10);
+    }
+    assertThat(createdWorkers.get(0).isAlive(), is(false));
+    pool.close();
+  }
+
+  @Test
+  public void handsOutCountersOncePerBuild() {
+    WorkerProcessPool pool = createPool(1);
+
+    assertThat(pool.getCountersToRegister("build-1").isPresent(), is(true));
+    assertThat(pool.getCountersToRegister("build-1").isPresent(), is(false));
+    assertThat(pool.getCountersToRegister("build-2").isPresent(), is(true));
+  }
+
+  private static long getCounterValue(WorkerProcessPool pool, String name) {
+    for (Counter counter : pool.getCountersToRegister(UUID.randomUUID().toString()).get()) {
+      if (counter.getName().equals(name)) {
+        return counter instanceof SamplingCounter
+            ? ((SamplingCounter) counter).getCount()
+            : ((IntegerCounter) counter).get();
+      }
+    }
+    throw new AssertionError("No counter named " + name);
+  }
+
+  private static WorkerProcessPool createPool(
+      WorkerProcessPoolPolicy policy, Consumer<WorkerProcess> onWorkerCreated) {
+    return new WorkerProcessPool(
+        3,
+        Hashing.sha1().hashLong(0),
+        policy,
+        ImmutableMap.of(),
+        MoreExecutors.newDirectExecutorService(),
+        /* idleCheckExecutor */ Optional.empty(),
+        () -> {
+          FakeWorkerProcess worker =
+              new FakeWorkerProcess(
+                  ImmutableMap.of(
+                      "job", WorkerJobResult.of(0, Optional.empty(), Optional.empty())));
+          worker.ensureLaunchAndHandshake();
+          onWorkerCreated.accept(worker);
+          return worker;
+        });
+  }
+
   private static WorkerProcessPool createPool(
       int maxWorkers, ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
     return new WorkerProcessPool(